@@ -0,0 +1,120 @@
+package com.adan.bluetoothtest;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * 分帧器的公共部分。
+ * <p>
+ * 没有残留数据时直接在输入块上定位帧，帧以输入块的视图交付，不做任何复制；
+ * 只有跨读取边界的不完整帧才整块（bulk put）拷贝进内部缓冲，下次读取追加后继续分帧。
+ * 子类只需给出帧的总长度、头部长度和尾部长度。
+ */
+public abstract class AbstractFrameDecoder implements FrameDecoder {
+    public static final int DEFAULT_MAX_FRAME_LENGTH = 64 * 1024;
+
+    private final int maxFrameLength;
+    private ByteBuffer pending = ByteBuffer.allocate(256);
+
+    protected AbstractFrameDecoder(int maxFrameLength) {
+        if (maxFrameLength <= 0) {
+            throw new IllegalArgumentException("maxFrameLength must be positive");
+        }
+        this.maxFrameLength = maxFrameLength;
+    }
+
+    /**
+     * 从 buf.position() 开始的帧的编码总长度（头部 + 负载 + 尾部），数据不足时返回 -1。
+     * 不得修改 buf 的 position 与 limit。
+     */
+    protected abstract int frameLength(ByteBuffer buf) throws IOException;
+
+    protected abstract int headerLength();
+
+    protected abstract int trailerLength();
+
+    /**
+     * 一帧被交付（或丢弃）后调用，子类可在此清理扫描状态。
+     */
+    protected void onFrameConsumed() {
+    }
+
+    @Override
+    public void decode(ByteBuffer in, Listener listener) throws IOException {
+        // 先用输入块的开头补全残留的帧，每次最多追加到帧长度上限
+        while (pending.position() > 0 && in.hasRemaining()) {
+            int room = maxFrameLength - pending.position();
+            if (room == 0) {
+                checkPendingLength(maxFrameLength + 1);
+            }
+            int limit = in.limit();
+            in.limit(in.position() + Math.min(room, in.remaining()));
+            append(in);
+            in.limit(limit);
+            pending.flip();
+            try {
+                drainFrames(pending, listener);
+            } finally {
+                pending.compact();
+            }
+        }
+        if (pending.position() == 0) {
+            drainFrames(in, listener);
+            if (in.hasRemaining()) {
+                append(in);
+            }
+        }
+    }
+
+    private void drainFrames(ByteBuffer source, Listener listener) throws IOException {
+        while (source.hasRemaining()) {
+            int total = frameLength(source);
+            if (total < 0) {
+                checkPendingLength(source.remaining());
+                return;
+            }
+            if (total > maxFrameLength) {
+                throw new IOException("帧长度 " + total + " 超过上限 " + maxFrameLength);
+            }
+            int start = source.position();
+            int limit = source.limit();
+            source.position(start + headerLength());
+            source.limit(start + total - trailerLength());
+            try {
+                listener.onFrame(source);
+            } finally {
+                source.limit(limit);
+                source.position(start + total);
+                onFrameConsumed();
+            }
+        }
+    }
+
+    private void append(ByteBuffer in) throws IOException {
+        checkPendingLength(pending.position() + in.remaining());
+        if (pending.remaining() < in.remaining()) {
+            int capacity = pending.capacity();
+            while (capacity - pending.position() < in.remaining()) {
+                capacity *= 2;
+            }
+            ByteBuffer grown = ByteBuffer.allocate(Math.min(capacity, maxFrameLength + 1));
+            pending.flip();
+            grown.put(pending);
+            pending = grown;
+        }
+        pending.put(in);
+    }
+
+    private void checkPendingLength(int length) throws IOException {
+        if (length > maxFrameLength) {
+            reset();
+            throw new IOException("未完成的帧长度 " + length + " 超过上限 " + maxFrameLength);
+        }
+    }
+
+    @Override
+    public void reset() {
+        pending.clear();
+        onFrameConsumed();
+    }
+}
@@ -0,0 +1,248 @@
+package com.adan.bluetoothtest;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * {@link BinaryMessageWriter} 编码的消息的只读视图（flyweight）。
+ * <p>
+ * {@link #wrap} 不拷贝数据，各字段直接从帧所在的缓冲区按写入顺序读出；一个实例可以反复包装不同的帧，
+ * 读取数值字段不分配对象。字符串可以原地比较（{@link #stringEquals}）或解码到调用方复用的
+ * StringBuilder，只有调用 {@link #getString()} 时才创建 String。
+ * <p>
+ * 包装的帧只在其缓冲区有效期间可读，例如 {@link ConnectionManager.Listener#onBinaryMessage} 回调期间。
+ * 字段超出帧末尾、varint 超过 10 字节或字符串不是合法的 UTF-8 时抛出 {@link MalformedMessageException}，
+ * 读取方据此只丢弃这一条消息；处理消息时的其他异常照常抛出。
+ */
+public final class BinaryMessageReader {
+
+    /**
+     * 消息的字段与类型约定不符。只由 BinaryMessageReader 抛出，与回调中的其他错误区分开。
+     */
+    public static final class MalformedMessageException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        MalformedMessageException(String message) {
+            super(message);
+        }
+    }
+
+    private ByteBuffer buffer;
+    private int start;
+    private int type;
+
+    /**
+     * 包装一帧的负载（不含长度字段，即 LengthPrefixedFrameDecoder 交付的内容），从 position 读到 limit。
+     * 读取期间会移动 frame 的 position，frame 被设为大端序。
+     */
+    public BinaryMessageReader wrap(ByteBuffer frame) {
+        this.buffer = frame;
+        frame.order(ByteOrder.BIG_ENDIAN);
+        start = frame.position();
+        type = (int) getVarint();
+        return this;
+    }
+
+    public int type() {
+        return type;
+    }
+
+    /**
+     * 包括类型在内的负载长度。
+     */
+    public int length() {
+        return buffer.limit() - start;
+    }
+
+    /**
+     * 尚未读取的字节数。
+     */
+    public int remaining() {
+        return buffer.remaining();
+    }
+
+    public long getVarint() {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            require(1);
+            byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new MalformedMessageException("varint too long");
+    }
+
+    public long getSignedVarint() {
+        long raw = getVarint();
+        return (raw >>> 1) ^ -(raw & 1);
+    }
+
+    public boolean getBoolean() {
+        require(1);
+        return buffer.get() != 0;
+    }
+
+    public byte getByte() {
+        require(1);
+        return buffer.get();
+    }
+
+    public short getShort() {
+        require(2);
+        return buffer.getShort();
+    }
+
+    public int getInt() {
+        require(4);
+        return buffer.getInt();
+    }
+
+    public long getLong() {
+        require(8);
+        return buffer.getLong();
+    }
+
+    public float getFloat() {
+        require(4);
+        return buffer.getFloat();
+    }
+
+    public double getDouble() {
+        require(8);
+        return buffer.getDouble();
+    }
+
+    /**
+     * 读取下一个字符串字段的字节长度并跳过它。
+     */
+    public int skipString() {
+        int length = stringLength();
+        buffer.position(buffer.position() + length);
+        return length;
+    }
+
+    /**
+     * 原地比较下一个字符串字段与 expected，不解码、不分配。无论是否相等都会读过该字段。
+     */
+    public boolean stringEquals(CharSequence expected) {
+        int length = stringLength();
+        int position = buffer.position();
+        buffer.position(position + length);
+        if (BinaryMessageWriter.utf8Length(expected) != length) {
+            return false;
+        }
+        // 长度一致时逐字节比较 expected 的 UTF-8 编码，编码规则与 BinaryMessageWriter.putString 相同
+        int p = position;
+        for (int i = 0; i < expected.length(); i++) {
+            char c = expected.charAt(i);
+            if (c < 0x80) {
+                if (buffer.get(p++) != (byte) c) {
+                    return false;
+                }
+            } else if (c < 0x800) {
+                if (buffer.get(p++) != (byte) (0xC0 | (c >> 6))
+                        || buffer.get(p++) != (byte) (0x80 | (c & 0x3F))) {
+                    return false;
+                }
+            } else if (Character.isHighSurrogate(c) && i + 1 < expected.length()
+                    && Character.isLowSurrogate(expected.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, expected.charAt(++i));
+                if (buffer.get(p++) != (byte) (0xF0 | (cp >> 18))
+                        || buffer.get(p++) != (byte) (0x80 | ((cp >> 12) & 0x3F))
+                        || buffer.get(p++) != (byte) (0x80 | ((cp >> 6) & 0x3F))
+                        || buffer.get(p++) != (byte) (0x80 | (cp & 0x3F))) {
+                    return false;
+                }
+            } else if (Character.isSurrogate(c)) {
+                if (buffer.get(p++) != (byte) '?') {
+                    return false;
+                }
+            } else {
+                if (buffer.get(p++) != (byte) (0xE0 | (c >> 12))
+                        || buffer.get(p++) != (byte) (0x80 | ((c >> 6) & 0x3F))
+                        || buffer.get(p++) != (byte) (0x80 | (c & 0x3F))) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 把下一个字符串字段解码后追加到 out。out 容量足够时不分配。
+     * 非法的 UTF-8（超长编码、代理区、超出 U+10FFFF、缺少或多余的后续字节）抛出 MalformedMessageException，
+     * 此时 out 中可能已追加了部分字符。
+     *
+     * @return 字段的字节长度
+     */
+    public int getString(StringBuilder out) {
+        int length = stringLength();
+        int end = buffer.position() + length;
+        while (buffer.position() < end) {
+            int b = buffer.get() & 0xFF;
+            if (b < 0x80) {
+                out.append((char) b);
+            } else if (b < 0xC2) {
+                // 单独的后续字节，或 C0/C1 开头的超长编码
+                throw invalidUtf8();
+            } else if (b < 0xE0) {
+                out.append((char) (((b & 0x1F) << 6) | continuation(end)));
+            } else if (b < 0xF0) {
+                int c = ((b & 0x0F) << 12) | (continuation(end) << 6) | continuation(end);
+                if (c < 0x800 || Character.isSurrogate((char) c)) {
+                    throw invalidUtf8();
+                }
+                out.append((char) c);
+            } else if (b < 0xF5) {
+                int cp = ((b & 0x07) << 18) | (continuation(end) << 12) | (continuation(end) << 6) | continuation(end);
+                if (cp < Character.MIN_SUPPLEMENTARY_CODE_POINT || cp > Character.MAX_CODE_POINT) {
+                    throw invalidUtf8();
+                }
+                out.appendCodePoint(cp);
+            } else {
+                throw invalidUtf8();
+            }
+        }
+        return length;
+    }
+
+    /**
+     * 解码下一个字符串字段为新的 String，会分配对象，热路径上用 {@link #getString(StringBuilder)}。
+     */
+    public String getString() {
+        require(1);
+        StringBuilder out = new StringBuilder(buffer.get(buffer.position()) & 0xFF);
+        getString(out);
+        return out.toString();
+    }
+
+    private int stringLength() {
+        require(1);
+        int length = buffer.get() & 0xFF;
+        require(length);
+        return length;
+    }
+
+    private void require(int bytes) {
+        if (buffer.remaining() < bytes) {
+            throw new MalformedMessageException("field past end of frame");
+        }
+    }
+
+    private int continuation(int end) {
+        if (buffer.position() >= end) {
+            throw new MalformedMessageException("truncated UTF-8 sequence");
+        }
+        int b = buffer.get();
+        if ((b & 0xC0) != 0x80) {
+            throw invalidUtf8();
+        }
+        return b & 0x3F;
+    }
+
+    private static MalformedMessageException invalidUtf8() {
+        return new MalformedMessageException("invalid UTF-8");
+    }
+}
@@ -0,0 +1,173 @@
+package com.adan.bluetoothtest;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * 紧凑的二进制消息编码，直接写入调用方复用的 ByteBuffer，编码过程不分配对象。
+ * <p>
+ * 每条消息为一帧，与 {@link LengthPrefixedFrameDecoder} 的默认参数一致，大端序：
+ * <pre>
+ * 负载长度 u16 | 类型 varint | 字段 ...
+ * </pre>
+ * 字段没有标签，按类型约定的顺序依次写入，读取方用 {@link BinaryMessageReader} 按同样的顺序读出：
+ * <ul>
+ * <li>varint：无符号 LEB128，每字节 7 位，小数值只占 1 字节；有符号数先做 zigzag 变换；</li>
+ * <li>定长数值：byte / short / int / long / float / double，大端序；</li>
+ * <li>短字符串：长度 u8 | UTF-8，最多 {@link #MAX_STRING_BYTES} 字节。</li>
+ * </ul>
+ * 缓冲区放不下时抛出 BufferOverflowException，position 停在出错的位置，调用方可以重置后重写。
+ * <pre>
+ * writer.begin(buffer, TYPE_TELEMETRY).putVarint(seq).putFloat(temperature).putString(status).end();
+ * </pre>
+ */
+public final class BinaryMessageWriter {
+    public static final int LENGTH_FIELD_SIZE = 2;
+    public static final int MAX_PAYLOAD_BYTES = 0xFFFF;
+    public static final int MAX_STRING_BYTES = 255;
+
+    private ByteBuffer buffer;
+    private int start;
+
+    /**
+     * 在 buffer 的当前位置开始一条消息。buffer 被设为大端序。
+     */
+    public BinaryMessageWriter begin(ByteBuffer buffer, int type) {
+        if (type < 0) {
+            throw new IllegalArgumentException("type must not be negative");
+        }
+        this.buffer = buffer;
+        buffer.order(ByteOrder.BIG_ENDIAN);
+        start = buffer.position();
+        buffer.putShort((short) 0);
+        return putVarint(type);
+    }
+
+    /**
+     * 无符号 varint，负数按 64 位无符号处理，占 10 字节。
+     */
+    public BinaryMessageWriter putVarint(long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+        return this;
+    }
+
+    /**
+     * 有符号 varint（zigzag），绝对值小的负数同样只占 1 字节。
+     */
+    public BinaryMessageWriter putSignedVarint(long value) {
+        return putVarint((value << 1) ^ (value >> 63));
+    }
+
+    public BinaryMessageWriter putBoolean(boolean value) {
+        buffer.put((byte) (value ? 1 : 0));
+        return this;
+    }
+
+    public BinaryMessageWriter putByte(int value) {
+        buffer.put((byte) value);
+        return this;
+    }
+
+    public BinaryMessageWriter putShort(int value) {
+        buffer.putShort((short) value);
+        return this;
+    }
+
+    public BinaryMessageWriter putInt(int value) {
+        buffer.putInt(value);
+        return this;
+    }
+
+    public BinaryMessageWriter putLong(long value) {
+        buffer.putLong(value);
+        return this;
+    }
+
+    public BinaryMessageWriter putFloat(float value) {
+        buffer.putFloat(value);
+        return this;
+    }
+
+    public BinaryMessageWriter putDouble(double value) {
+        buffer.putDouble(value);
+        return this;
+    }
+
+    /**
+     * 短字符串，逐字符编码为 UTF-8，不经过中间的 byte[]。
+     *
+     * @throws IllegalArgumentException UTF-8 编码超过 MAX_STRING_BYTES 字节
+     */
+    public BinaryMessageWriter putString(CharSequence value) {
+        int length = utf8Length(value);
+        if (length > MAX_STRING_BYTES) {
+            throw new IllegalArgumentException("string too long: " + length + " bytes");
+        }
+        buffer.put((byte) length);
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                buffer.put((byte) c);
+            } else if (c < 0x800) {
+                buffer.put((byte) (0xC0 | (c >> 6)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, value.charAt(++i));
+                buffer.put((byte) (0xF0 | (cp >> 18)));
+                buffer.put((byte) (0x80 | ((cp >> 12) & 0x3F)));
+                buffer.put((byte) (0x80 | ((cp >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (cp & 0x3F)));
+            } else if (Character.isSurrogate(c)) {
+                // 不成对的代理项按 String.getBytes 的做法替换为 '?'
+                buffer.put((byte) '?');
+            } else {
+                buffer.put((byte) (0xE0 | (c >> 12)));
+                buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+        return this;
+    }
+
+    static int utf8Length(CharSequence value) {
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                length++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * 写入长度字段，结束这条消息。
+     *
+     * @return 整帧的字节数，包括长度字段
+     */
+    public int end() {
+        int payload = buffer.position() - start - LENGTH_FIELD_SIZE;
+        if (payload > MAX_PAYLOAD_BYTES) {
+            throw new IllegalStateException("message too long: " + payload + " bytes");
+        }
+        buffer.putShort(start, (short) payload);
+        ByteBuffer done = buffer;
+        buffer = null;
+        return done.position() - start;
+    }
+}
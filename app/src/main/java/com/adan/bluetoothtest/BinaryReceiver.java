@@ -0,0 +1,70 @@
+package com.adan.bluetoothtest;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * 二进制消息模式下的分帧阶段，对应文本模式的 {@link FramingReceiver}：
+ * 在读取线程上按 {@link BinaryMessageWriter} 的 u16 长度字段分帧，用同一个 {@link BinaryMessageReader}
+ * 就地包装每一帧交给 {@link MessageListener}，不解码为 String，处理完立即归还接收缓冲。
+ */
+public final class BinaryReceiver implements ReceiveLoop.Listener, FrameDecoder.Listener {
+
+    public interface MessageListener {
+        /**
+         * reader 与其包装的帧只在回调期间有效，需要保留的字段应在返回前读出。
+         */
+        void onMessage(BinaryMessageReader reader);
+    }
+
+    private final FrameDecoder frameDecoder = new LengthPrefixedFrameDecoder(BinaryMessageWriter.LENGTH_FIELD_SIZE,
+            BinaryMessageWriter.LENGTH_FIELD_SIZE + BinaryMessageWriter.MAX_PAYLOAD_BYTES);
+    private final BinaryMessageReader reader = new BinaryMessageReader();
+    private final MessageListener listener;
+    private long framingErrors;
+    private long malformedMessages;
+
+    public BinaryReceiver(MessageListener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public void onReceive(ReceiveBuffer buffer) {
+        try {
+            frameDecoder.decode(buffer.asByteBuffer(), this);
+        } catch (IOException e) {
+            framingErrors++;
+            frameDecoder.reset();
+        } finally {
+            buffer.release();
+        }
+    }
+
+    @Override
+    public void onFrame(ByteBuffer frame) {
+        if (!frame.hasRemaining()) {
+            // 空帧没有类型，视为心跳
+            return;
+        }
+        try {
+            listener.onMessage(reader.wrap(frame));
+        } catch (BinaryMessageReader.MalformedMessageException e) {
+            // 字段与类型约定不符：只丢弃这一条，帧边界不受影响。回调自己的异常不在此列，照常抛出
+            malformedMessages++;
+        }
+    }
+
+    /**
+     * 因格式错误或超长而丢弃的次数。只应在读取线程上读取。
+     */
+    public long getFramingErrors() {
+        return framingErrors;
+    }
+
+    /**
+     * 分帧正确但字段与类型约定不符（越界、varint 过长、非法 UTF-8）的消息数。只应在读取线程上读取。
+     */
+    public long getMalformedMessages() {
+        return malformedMessages;
+    }
+}
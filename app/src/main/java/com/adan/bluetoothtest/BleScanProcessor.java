@@ -0,0 +1,167 @@
+package com.adan.bluetoothtest;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * BLE 扫描结果的处理，不依赖 Android 类型，可以用合成的批次测试。
+ * <p>
+ * 设置了 setReportDelay 时，控制器把一段时间内的结果攒成一批送达，同一设备会出现多次。
+ * 这里按 {@link Filter} 再过滤一遍（部分芯片在批量模式下不完全执行硬件过滤），
+ * 丢弃地址非法的结果，同一批次内每个地址只保留最后一条（名称取最后一个非空值），
+ * 然后按首次出现顺序交给 {@link ScanSource.Sink}。
+ */
+public final class BleScanProcessor {
+
+    /**
+     * 一条扫描结果，由 BleScanSource 从 ScanResult 转换而来。
+     */
+    public static final class Result {
+        final String address;
+        final String name;
+        final int rssi;
+        final long timestampMillis;
+        final List<UUID> serviceUuids;
+
+        public Result(String address, String name, int rssi, long timestampMillis, List<UUID> serviceUuids) {
+            this.address = address;
+            this.name = name;
+            this.rssi = rssi;
+            this.timestampMillis = timestampMillis;
+            this.serviceUuids = serviceUuids != null ? serviceUuids : Collections.<UUID>emptyList();
+        }
+    }
+
+    /**
+     * 按名称、地址或服务 UUID 中的一项过滤。同时用于构造硬件 ScanFilter。
+     */
+    public static final class Filter {
+        final String name;
+        final String address;
+        final UUID serviceUuid;
+
+        private Filter(String name, String address, UUID serviceUuid) {
+            this.name = name;
+            this.address = address != null ? address.toUpperCase(Locale.ROOT) : null;
+            this.serviceUuid = serviceUuid;
+        }
+
+        public static Filter name(String name) {
+            return new Filter(name, null, null);
+        }
+
+        public static Filter address(String address) {
+            return new Filter(null, address, null);
+        }
+
+        public static Filter serviceUuid(UUID uuid) {
+            return new Filter(null, null, uuid);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getAddress() {
+            return address;
+        }
+
+        public UUID getServiceUuid() {
+            return serviceUuid;
+        }
+
+        boolean matches(Result result) {
+            return (name == null || name.equals(result.name))
+                    && (address == null || address.equalsIgnoreCase(result.address))
+                    && (serviceUuid == null || result.serviceUuids.contains(serviceUuid));
+        }
+    }
+
+    private final List<Filter> filters;
+    private final ScanSource.Sink sink;
+    private final LinkedHashMap<Long, Result> merged = new LinkedHashMap<>();
+    private long batches;
+    private long resultsReceived;
+    private long resultsFiltered;
+    private long sightingsDelivered;
+
+    /**
+     * @param filters 为空时不过滤，任一过滤条件匹配即接受
+     */
+    public BleScanProcessor(Collection<Filter> filters, ScanSource.Sink sink) {
+        this.filters = new ArrayList<>(filters);
+        this.sink = sink;
+    }
+
+    public List<Filter> getFilters() {
+        return Collections.unmodifiableList(filters);
+    }
+
+    /**
+     * 处理一批结果。只在一个线程上调用（ScanCallback 的回调线程）。
+     */
+    public void onBatch(List<Result> batch) {
+        batches++;
+        resultsReceived += batch.size();
+        merged.clear();
+        for (Result result : batch) {
+            if (!accepts(result)) {
+                resultsFiltered++;
+                continue;
+            }
+            long address;
+            try {
+                address = MacAddress.pack(result.address);
+            } catch (IllegalArgumentException e) {
+                resultsFiltered++;
+                continue;
+            }
+            Result previous = merged.get(address);
+            if (previous != null && result.name == null && previous.name != null) {
+                result = new Result(result.address, previous.name, result.rssi, result.timestampMillis,
+                        result.serviceUuids);
+            }
+            merged.put(address, result);
+        }
+        for (Map.Entry<Long, Result> entry : merged.entrySet()) {
+            Result result = entry.getValue();
+            sightingsDelivered++;
+            sink.onSighting(entry.getKey(), result.name, result.rssi, result.timestampMillis);
+        }
+        merged.clear();
+    }
+
+    private boolean accepts(Result result) {
+        if (filters.isEmpty()) {
+            return true;
+        }
+        for (Filter filter : filters) {
+            if (filter.matches(result)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public long getBatches() {
+        return batches;
+    }
+
+    public long getResultsReceived() {
+        return resultsReceived;
+    }
+
+    public long getResultsFiltered() {
+        return resultsFiltered;
+    }
+
+    public long getSightingsDelivered() {
+        return sightingsDelivered;
+    }
+}
@@ -0,0 +1,145 @@
+package com.adan.bluetoothtest;
+
+import android.annotation.SuppressLint;
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.le.BluetoothLeScanner;
+import android.bluetooth.le.ScanCallback;
+import android.bluetooth.le.ScanFilter;
+import android.bluetooth.le.ScanRecord;
+import android.bluetooth.le.ScanResult;
+import android.bluetooth.le.ScanSettings;
+import android.os.ParcelUuid;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * 通过 BluetoothLeScanner 扫描 BLE 设备。
+ * <p>
+ * 过滤条件交给控制器（ScanFilter），setReportDelay 让结果攒成一批送达，
+ * 不像经典 inquiry 那样每个结果一次主线程广播。控制器不支持批量时退化为逐个回调。
+ * 结果转换成 {@link BleScanProcessor.Result} 后由 {@link BleScanProcessor} 处理。
+ */
+public class BleScanSource implements ScanSource {
+    private static final String TAG = "BleScanSource";
+
+    private final BluetoothAdapter adapter;
+    private final BleScanProcessor processor;
+    private final long reportDelayMillis;
+    private BluetoothLeScanner scanner;
+    private boolean scanning;
+
+    private final ScanCallback callback = new ScanCallback() {
+        @Override
+        public void onScanResult(int callbackType, ScanResult result) {
+            processor.onBatch(Collections.singletonList(convert(result)));
+        }
+
+        @Override
+        public void onBatchScanResults(List<ScanResult> results) {
+            ArrayList<BleScanProcessor.Result> batch = new ArrayList<>(results.size());
+            for (ScanResult result : results) {
+                batch.add(convert(result));
+            }
+            processor.onBatch(batch);
+        }
+
+        @Override
+        public void onScanFailed(int errorCode) {
+            Log.e(TAG, "BLE 扫描失败: " + errorCode);
+            scanning = false;
+        }
+    };
+
+    /**
+     * @param reportDelayMillis 批量上报的间隔，0 表示逐个上报
+     */
+    public BleScanSource(BluetoothAdapter adapter, BleScanProcessor processor, long reportDelayMillis) {
+        this.adapter = adapter;
+        this.processor = processor;
+        this.reportDelayMillis = reportDelayMillis;
+    }
+
+    @SuppressLint("MissingPermission")
+    @Override
+    public boolean start() {
+        if (adapter == null) {
+            return false;
+        }
+        scanner = adapter.getBluetoothLeScanner();
+        if (scanner == null) {
+            // 蓝牙关闭时为 null
+            return false;
+        }
+        long delay = adapter.isOffloadedScanBatchingSupported() ? reportDelayMillis : 0;
+        ScanSettings settings = new ScanSettings.Builder()
+                .setScanMode(ScanSettings.SCAN_MODE_LOW_LATENCY)
+                .setReportDelay(delay)
+                .build();
+        scanner.startScan(buildFilters(), settings, callback);
+        scanning = true;
+        return true;
+    }
+
+    @SuppressLint("MissingPermission")
+    @Override
+    public void stop() {
+        if (scanner != null && scanning) {
+            // 先取出控制器中尚未上报的结果
+            scanner.flushPendingScanResults(callback);
+            scanner.stopScan(callback);
+        }
+        scanning = false;
+    }
+
+    @Override
+    public boolean isSelfTerminating() {
+        return false;
+    }
+
+    private List<ScanFilter> buildFilters() {
+        ArrayList<ScanFilter> filters = new ArrayList<>();
+        for (BleScanProcessor.Filter filter : processor.getFilters()) {
+            ScanFilter.Builder builder = new ScanFilter.Builder();
+            if (filter.getName() != null) {
+                builder.setDeviceName(filter.getName());
+            }
+            if (filter.getAddress() != null) {
+                builder.setDeviceAddress(filter.getAddress());
+            }
+            if (filter.getServiceUuid() != null) {
+                builder.setServiceUuid(new ParcelUuid(filter.getServiceUuid()));
+            }
+            filters.add(builder.build());
+        }
+        return filters;
+    }
+
+    @SuppressLint("MissingPermission")
+    private static BleScanProcessor.Result convert(ScanResult result) {
+        BluetoothDevice device = result.getDevice();
+        ScanRecord record = result.getScanRecord();
+        String name = null;
+        List<UUID> uuids = null;
+        if (record != null) {
+            // 广播包中的名称，不需要 getName() 的 binder 调用
+            name = record.getDeviceName();
+            List<ParcelUuid> parcelUuids = record.getServiceUuids();
+            if (parcelUuids != null) {
+                uuids = new ArrayList<>(parcelUuids.size());
+                for (ParcelUuid uuid : parcelUuids) {
+                    uuids.add(uuid.getUuid());
+                }
+            }
+        }
+        // 时间戳基于开机时间，换算成墙上时间
+        long ageMillis = (SystemClock.elapsedRealtimeNanos() - result.getTimestampNanos()) / 1_000_000;
+        return new BleScanProcessor.Result(device.getAddress(), name, result.getRssi(),
+                System.currentTimeMillis() - Math.max(0, ageMillis), uuids);
+    }
+}
@@ -0,0 +1,162 @@
+package com.adan.bluetoothtest;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 逐条扫描 {@link CaptureSink} 写出的段文件。
+ * <p>
+ * 通过只读内存映射访问，{@link #next()} 只解析记录头，{@link #payload()} 返回指向映射区的只读视图，
+ * 不拷贝数据，几百 MB 的记录也不需要整个读入内存。格式不符时抛出 IOException；
+ * 写入中断留下的不完整尾部被当作段结束。
+ * <pre>
+ * try (CaptureReader reader = CaptureReader.open(file)) {
+ *     while (reader.next()) {
+ *         ... reader.direction(), reader.address(), reader.timestampMicros(), reader.payload()
+ *     }
+ * }
+ * </pre>
+ */
+public final class CaptureReader implements Closeable {
+
+    public interface Visitor {
+        void onRecord(int direction, long address, long timestampMicros, ByteBuffer payload);
+    }
+
+    private final RandomAccessFile file;
+    private final MappedByteBuffer buffer;
+    private final long segmentStartMillis;
+    private int direction;
+    private long address;
+    private long timestampMicros;
+    private int payloadPosition;
+    private int payloadLength;
+    private int nextPosition;
+
+    private CaptureReader(RandomAccessFile file, MappedByteBuffer buffer) throws IOException {
+        this.file = file;
+        this.buffer = buffer;
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.remaining() < CaptureSink.HEADER_SIZE || buffer.getInt() != CaptureSink.MAGIC) {
+            throw new IOException("不是捕获文件");
+        }
+        int version = buffer.getShort() & 0xFFFF;
+        if (version != CaptureSink.VERSION) {
+            throw new IOException("不支持的捕获文件版本 " + version);
+        }
+        buffer.getShort();
+        segmentStartMillis = buffer.getLong();
+        nextPosition = buffer.position();
+    }
+
+    public static CaptureReader open(File segment) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(segment, "r");
+        try {
+            FileChannel channel = file.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new CaptureReader(file, buffer);
+        } catch (IOException | RuntimeException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * 目录中的段文件，按开始时间排序。
+     */
+    public static List<File> segments(File directory) {
+        File[] files = directory.listFiles((dir, name) ->
+                name.startsWith(CaptureSink.PREFIX) && name.endsWith(CaptureSink.SUFFIX));
+        if (files == null) {
+            return Collections.emptyList();
+        }
+        Arrays.sort(files, (a, b) -> a.getName().compareTo(b.getName()));
+        return new ArrayList<>(Arrays.asList(files));
+    }
+
+    /**
+     * 按时间顺序扫描目录中所有段的所有记录，返回记录数。
+     */
+    public static long scan(File directory, Visitor visitor) throws IOException {
+        long count = 0;
+        for (File segment : segments(directory)) {
+            try (CaptureReader reader = open(segment)) {
+                while (reader.next()) {
+                    visitor.onRecord(reader.direction, reader.address, reader.timestampMicros, reader.payload());
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    public long getSegmentStartMillis() {
+        return segmentStartMillis;
+    }
+
+    /**
+     * 前进到下一条记录，没有更多记录时返回 false。
+     */
+    public boolean next() {
+        buffer.position(nextPosition);
+        if (buffer.remaining() < CaptureSink.RECORD_HEADER_SIZE) {
+            return false;
+        }
+        int dir = buffer.get() & 0xFF;
+        if (dir == CaptureSink.DIRECTION_END) {
+            return false;
+        }
+        long high = buffer.getShort() & 0xFFFFL;
+        long low = buffer.getInt() & 0xFFFFFFFFL;
+        int length = buffer.getInt();
+        long timestamp = buffer.getLong();
+        if (length < 0 || length > buffer.remaining()) {
+            // 不完整的尾部
+            return false;
+        }
+        direction = dir;
+        address = (high << 32) | low;
+        timestampMicros = timestamp;
+        payloadPosition = buffer.position();
+        payloadLength = length;
+        nextPosition = payloadPosition + length;
+        return true;
+    }
+
+    public int direction() {
+        return direction;
+    }
+
+    public long address() {
+        return address;
+    }
+
+    public long timestampMicros() {
+        return timestampMicros;
+    }
+
+    /**
+     * 当前记录数据的只读视图，下一次 next() 之后失效。
+     */
+    public ByteBuffer payload() {
+        ByteBuffer view = buffer.duplicate();
+        view.position(payloadPosition);
+        view.limit(payloadPosition + payloadLength);
+        return view.slice().asReadOnlyBuffer();
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+}
@@ -0,0 +1,344 @@
+package com.adan.bluetoothtest;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 把收到（可选也包括发出）的字节连续记录到磁盘，用于长时间传感器会话的完整日志。
+ * <p>
+ * 读取线程只做一次拷贝并放入有界队列（{@link #onReceived} 不阻塞，队列满时丢弃并计入
+ * "capture.dropped_bytes"），由单独的写入线程写入内存映射的段文件，读循环的延迟不受磁盘影响。
+ * 段文件写满 segmentBytes 或超过 rotateMillis 后换新文件，旧文件截断到实际长度；
+ * 设置了 maxSegments 时删除最早的段。用 {@link CaptureReader} 逐条扫描，不需要整个读入内存。
+ * <p>
+ * 段文件为紧凑的二进制格式，小端序：
+ * <pre>
+ * 文件头 16 字节：magic "BTCP" | version u16 | 保留 u16 | 段开始时刻 epoch ms i64
+ * 每条记录：方向 u8（1 收到，2 发出）| 地址 u48 | 长度 u32 | 时刻 epoch µs i64 | 数据
+ * </pre>
+ * 方向为 0 表示段结束（映射区未写入的部分为零）。单条数据超过段容量时拆成多条记录。
+ */
+public final class CaptureSink {
+    static final int MAGIC = 0x50435442; // 小端序下为 "BTCP"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 16;
+    static final int RECORD_HEADER_SIZE = 19;
+    static final int DIRECTION_END = 0;
+    public static final int DIRECTION_IN = 1;
+    public static final int DIRECTION_OUT = 2;
+    static final String PREFIX = "capture-";
+    static final String SUFFIX = ".bin";
+
+    public static final class Options {
+        long segmentBytes = 16L * 1024 * 1024;
+        long rotateMillis = TimeUnit.HOURS.toMillis(1);
+        int maxSegments;
+        int queueCapacity = 1024;
+        boolean captureSent;
+
+        /**
+         * 单个段文件的大小上限，映射时按此大小预分配。
+         */
+        public Options segmentBytes(long bytes) {
+            if (bytes < HEADER_SIZE + RECORD_HEADER_SIZE + 1 || bytes > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("segmentBytes out of range: " + bytes);
+            }
+            this.segmentBytes = bytes;
+            return this;
+        }
+
+        /**
+         * 一个段最多记录多久，0 表示只按大小切换。
+         */
+        public Options rotateMillis(long millis) {
+            this.rotateMillis = millis;
+            return this;
+        }
+
+        /**
+         * 最多保留的段数，超过时删除最早的；0 表示不限。
+         */
+        public Options maxSegments(int count) {
+            this.maxSegments = count;
+            return this;
+        }
+
+        /**
+         * 读取线程与写入线程之间的队列长度（按次数计）。
+         */
+        public Options queueCapacity(int capacity) {
+            this.queueCapacity = capacity;
+            return this;
+        }
+
+        /**
+         * 是否同时记录发出的数据。
+         */
+        public Options captureSent(boolean enabled) {
+            this.captureSent = enabled;
+            return this;
+        }
+    }
+
+    private static final class Record {
+        final int direction;
+        final long address;
+        final long timestampMicros;
+        final byte[] data;
+
+        Record(int direction, long address, long timestampMicros, byte[] data) {
+            this.direction = direction;
+            this.address = address;
+            this.timestampMicros = timestampMicros;
+            this.data = data;
+        }
+    }
+
+    // 写入线程用来结束的标记
+    private static final Record STOP = new Record(DIRECTION_END, 0, 0, new byte[0]);
+
+    private final File directory;
+    private final Options options;
+    private final ArrayBlockingQueue<Record> queue;
+    private final Thread thread;
+    private volatile boolean closed;
+    // 微秒时间戳：构造时的墙上时间加上单调时钟的增量，不受调整系统时间影响
+    private final long baseEpochMicros = System.currentTimeMillis() * 1000;
+    private final long baseNanos = System.nanoTime();
+
+    private final MetricsRegistry.Counter bytesCaptured;
+    private final MetricsRegistry.Counter records;
+    private final MetricsRegistry.Counter droppedBytes;
+    private final MetricsRegistry.Counter segments;
+    private final MetricsRegistry.Counter writeErrors;
+
+    // 以下只由写入线程访问
+    private RandomAccessFile file;
+    private FileChannel channel;
+    private MappedByteBuffer mapped;
+    private File currentFile;
+    private long segmentStartMillis;
+    private int sequence;
+
+    public CaptureSink(File directory, Options options, MetricsRegistry metrics) {
+        this.directory = directory;
+        this.options = options;
+        this.queue = new ArrayBlockingQueue<>(options.queueCapacity);
+        this.bytesCaptured = metrics.counter("capture.bytes");
+        this.records = metrics.counter("capture.records");
+        this.droppedBytes = metrics.counter("capture.dropped_bytes");
+        this.segments = metrics.counter("capture.segments");
+        this.writeErrors = metrics.counter("capture.write_errors");
+        this.thread = new Thread(this::runLoop, "CaptureWriter");
+        thread.setDaemon(true);
+    }
+
+    public void start() throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("无法创建目录 " + directory);
+        }
+        thread.start();
+    }
+
+    /**
+     * 读取线程收到数据后调用。只拷贝一次，不阻塞。
+     */
+    public void onReceived(long address, byte[] data, int offset, int length) {
+        offer(DIRECTION_IN, address, data, offset, length);
+    }
+
+    /**
+     * 数据进入发送队列时调用，未开启 captureSent 时忽略。
+     */
+    public void onSent(long address, byte[] data, int offset, int length) {
+        if (options.captureSent) {
+            offer(DIRECTION_OUT, address, data, offset, length);
+        }
+    }
+
+    private void offer(int direction, long address, byte[] data, int offset, int length) {
+        if (closed || length <= 0) {
+            return;
+        }
+        byte[] copy = new byte[length];
+        System.arraycopy(data, offset, copy, 0, length);
+        if (!queue.offer(new Record(direction, address, nowMicros(), copy))) {
+            droppedBytes.add(length);
+        }
+    }
+
+    private long nowMicros() {
+        return baseEpochMicros + (System.nanoTime() - baseNanos) / 1000;
+    }
+
+    /**
+     * 写完队列中已有的数据后关闭当前段，等待写入线程退出。
+     */
+    public void close() throws InterruptedException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        queue.put(STOP);
+        thread.join();
+    }
+
+    /**
+     * 当前正在写入的段，尚未开始时为 null。
+     */
+    File getCurrentFile() {
+        return currentFile;
+    }
+
+    private void runLoop() {
+        try {
+            while (true) {
+                long waitMillis = options.rotateMillis > 0 && mapped != null
+                        ? Math.max(1, segmentStartMillis + options.rotateMillis - System.currentTimeMillis())
+                        : Long.MAX_VALUE;
+                Record record = queue.poll(waitMillis, TimeUnit.MILLISECONDS);
+                if (record == STOP) {
+                    break;
+                }
+                try {
+                    if (mapped != null && options.rotateMillis > 0
+                            && System.currentTimeMillis() - segmentStartMillis >= options.rotateMillis) {
+                        finishSegment();
+                    }
+                    if (record != null) {
+                        write(record);
+                    }
+                } catch (IOException e) {
+                    // 当前段不可用，丢弃这条并在下一条时换新段
+                    writeErrors.increment();
+                    if (record != null) {
+                        droppedBytes.add(record.data.length);
+                    }
+                    closeSegmentQuietly();
+                }
+            }
+        } catch (InterruptedException e) {
+            // 被中断时按关闭处理
+        }
+        try {
+            finishSegment();
+        } catch (IOException e) {
+            writeErrors.increment();
+            closeSegmentQuietly();
+        }
+    }
+
+    private void write(Record record) throws IOException {
+        int offset = 0;
+        do {
+            if (mapped == null) {
+                openSegment();
+            }
+            int room = mapped.remaining() - RECORD_HEADER_SIZE;
+            if (room <= 0) {
+                finishSegment();
+                continue;
+            }
+            int length = Math.min(room, record.data.length - offset);
+            if (length < record.data.length - offset && mapped.position() > HEADER_SIZE) {
+                // 放不下时先换一个空段，只有空段也放不下才拆分
+                finishSegment();
+                continue;
+            }
+            mapped.put((byte) record.direction);
+            putAddress(record.address);
+            mapped.putInt(length);
+            mapped.putLong(record.timestampMicros);
+            mapped.put(record.data, offset, length);
+            offset += length;
+            records.increment();
+        } while (offset < record.data.length);
+        bytesCaptured.add(record.data.length);
+    }
+
+    private void putAddress(long address) {
+        mapped.putShort((short) (address >>> 32));
+        mapped.putInt((int) address);
+    }
+
+    private void openSegment() throws IOException {
+        segmentStartMillis = System.currentTimeMillis();
+        currentFile = new File(directory, String.format(Locale.ROOT, "%s%d-%04d%s",
+                PREFIX, segmentStartMillis, sequence++ % 10_000, SUFFIX));
+        file = new RandomAccessFile(currentFile, "rw");
+        channel = file.getChannel();
+        mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, options.segmentBytes);
+        mapped.order(ByteOrder.LITTLE_ENDIAN);
+        mapped.putInt(MAGIC);
+        mapped.putShort((short) VERSION);
+        mapped.putShort((short) 0);
+        mapped.putLong(segmentStartMillis);
+        segments.increment();
+        pruneOldSegments();
+    }
+
+    /**
+     * 刷到磁盘，截断到实际写入的长度并关闭。
+     */
+    private void finishSegment() throws IOException {
+        if (mapped == null) {
+            return;
+        }
+        int length = mapped.position();
+        mapped.force();
+        mapped = null;
+        try {
+            channel.truncate(length);
+        } finally {
+            channel.close();
+            file.close();
+            channel = null;
+            file = null;
+        }
+    }
+
+    private void closeSegmentQuietly() {
+        mapped = null;
+        try {
+            if (channel != null) {
+                channel.close();
+            }
+            if (file != null) {
+                file.close();
+            }
+        } catch (IOException ignored) {
+            // 已经在报告写入错误
+        }
+        channel = null;
+        file = null;
+    }
+
+    private void pruneOldSegments() {
+        if (options.maxSegments <= 0) {
+            return;
+        }
+        List<File> all = CaptureReader.segments(directory);
+        for (int i = 0; i < all.size() - options.maxSegments; i++) {
+            if (!all.get(i).equals(currentFile)) {
+                // 删除失败时留到下次
+                all.get(i).delete();
+            }
+        }
+    }
+
+    /**
+     * 目录中现有的段文件，按时间排序。
+     */
+    public List<File> listSegments() {
+        return new ArrayList<>(CaptureReader.segments(directory));
+    }
+}
@@ -0,0 +1,40 @@
+package com.adan.bluetoothtest;
+
+import android.annotation.SuppressLint;
+import android.bluetooth.BluetoothAdapter;
+
+/**
+ * 经典蓝牙 inquiry。结果以 ACTION_FOUND 广播逐个送达，由注册广播的一方转交给 Sink。
+ */
+public class ClassicScanSource implements ScanSource {
+    private final BluetoothAdapter adapter;
+
+    public ClassicScanSource(BluetoothAdapter adapter) {
+        this.adapter = adapter;
+    }
+
+    @SuppressLint("MissingPermission")
+    @Override
+    public boolean start() {
+        if (adapter == null) {
+            return false;
+        }
+        if (adapter.isDiscovering()) {
+            adapter.cancelDiscovery();
+        }
+        return adapter.startDiscovery();
+    }
+
+    @SuppressLint("MissingPermission")
+    @Override
+    public void stop() {
+        if (adapter != null) {
+            adapter.cancelDiscovery();
+        }
+    }
+
+    @Override
+    public boolean isSelfTerminating() {
+        return true;
+    }
+}
@@ -0,0 +1,487 @@
+package com.adan.bluetoothtest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.SocketTimeoutException;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 建立连接的线程池，取代每次连接新建一个 ConnectThread。
+ * <p>
+ * 连接尝试（open + 阻塞的 connect()）在最多 maxThreads 个命名线程上执行，
+ * 超出的排队，队列满时 {@link #submit} 返回 null，线程数因此有上限。
+ * 每次尝试有截止时间（从提交时算起，包括排队时间），到期后关闭连接、以 SocketTimeoutException 失败；
+ * {@link Attempt#cancel} 取消排队中的尝试或关闭正在进行的连接，被取消的尝试不会继续占用线程。
+ * <p>
+ * 每次被接受的尝试恰好回调一次 {@link Callback}。连上之后的读写不在这里：
+ * 每条链路各有一个读取线程和一个发送线程（见 DeviceLink），随链路关闭结束。
+ */
+public final class ConnectExecutor {
+
+    /**
+     * 线程数、队列和截止时间。
+     */
+    public static final class Options {
+        int maxThreads = 3;
+        int queueCapacity = ConnectionManager.DEFAULT_MAX_LINKS;
+        long deadlineMillis = 20_000;
+        long keepAliveMillis = 30_000;
+
+        /**
+         * 同时进行的连接数。蓝牙同一时刻实际只能做一次寻呼，过多并发只会互相拖慢。
+         */
+        public Options maxThreads(int threads) {
+            this.maxThreads = threads;
+            return this;
+        }
+
+        public Options queueCapacity(int capacity) {
+            this.queueCapacity = capacity;
+            return this;
+        }
+
+        /**
+         * 一次尝试从提交到连上的最长时间，0 表示不限。
+         */
+        public Options deadlineMillis(long millis) {
+            this.deadlineMillis = millis;
+            return this;
+        }
+
+        /**
+         * 空闲线程保留多久后退出。
+         */
+        public Options keepAliveMillis(long millis) {
+            this.keepAliveMillis = millis;
+            return this;
+        }
+    }
+
+    public interface Callback {
+        /**
+         * 已连上，在连接线程上调用。
+         */
+        void onConnected(Connection connection);
+
+        /**
+         * 连接失败、超时（SocketTimeoutException）或被取消（{@link Attempt#isCancelled()}）。
+         * 通常在连接线程上调用；取消排队中的尝试时在调用 cancel() 的线程上调用。
+         */
+        void onFailed(IOException cause);
+    }
+
+    /**
+     * 线程池在某一时刻的状态。
+     */
+    public static final class Stats {
+        public final int activeThreads;
+        public final int poolThreads;
+        public final int largestPoolThreads;
+        public final int queued;
+        public final int inFlight;
+
+        Stats(int activeThreads, int poolThreads, int largestPoolThreads, int queued, int inFlight) {
+            this.activeThreads = activeThreads;
+            this.poolThreads = poolThreads;
+            this.largestPoolThreads = largestPoolThreads;
+            this.queued = queued;
+            this.inFlight = inFlight;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "threads=%d/%d (max %d) queued=%d inFlight=%d",
+                    activeThreads, poolThreads, largestPoolThreads, queued, inFlight);
+        }
+    }
+
+    // asTransport 的尝试登记用的 key 前缀，与链路连接的地址 key 分开
+    private static final String POOLED_KEY_PREFIX = "pooled:";
+
+    private static final int QUEUED = 0;
+    private static final int RUNNING = 1;
+    private static final int DONE = 2;
+
+    /**
+     * 一次连接尝试。
+     */
+    public final class Attempt {
+        private final String key;
+        private final String address;
+        private final Transport transport;
+        private final Callback callback;
+        private final long submittedAtNanos = System.nanoTime();
+        private FutureTask<Void> task;
+        private ScheduledFuture<?> watchdog;
+        // 以下由 this 的锁保护
+        private int state = QUEUED;
+        private Connection connection;
+        private boolean cancelled;
+        private boolean timedOut;
+
+        Attempt(String key, String address, Transport transport, Callback callback) {
+            this.key = key;
+            this.address = address;
+            this.transport = transport;
+            this.callback = callback;
+        }
+
+        public String getAddress() {
+            return address;
+        }
+
+        public synchronized boolean isCancelled() {
+            return cancelled;
+        }
+
+        public synchronized boolean isDone() {
+            return state == DONE;
+        }
+
+        /**
+         * 取消：排队中的直接移出队列并回调失败；正在连接的关闭连接，connect() 随之失败。已结束时无效。
+         */
+        public void cancel() {
+            stop(false);
+        }
+
+        private void stop(boolean timeout) {
+            Connection toClose;
+            boolean wasQueued;
+            synchronized (this) {
+                if (state == DONE || cancelled || timedOut) {
+                    return;
+                }
+                if (timeout) {
+                    timedOut = true;
+                } else {
+                    cancelled = true;
+                }
+                wasQueued = state == QUEUED;
+                if (wasQueued) {
+                    state = DONE;
+                }
+                toClose = connection;
+            }
+            if (wasQueued) {
+                pool.remove(task);
+                complete(null, stopCause());
+            } else if (toClose != null) {
+                closeQuietly(toClose);
+            }
+        }
+
+        void run() {
+            synchronized (this) {
+                if (state != QUEUED) {
+                    return;
+                }
+                state = RUNNING;
+            }
+            Connection opened = null;
+            IOException error = null;
+            try {
+                opened = transport.open(address);
+                boolean stopped;
+                synchronized (this) {
+                    connection = opened;
+                    stopped = cancelled || timedOut;
+                }
+                if (!stopped) {
+                    opened.connect();
+                }
+            } catch (IOException e) {
+                error = e;
+            } catch (RuntimeException e) {
+                error = new IOException(e);
+            }
+            boolean connected;
+            synchronized (this) {
+                state = DONE;
+                connection = null;
+                connected = error == null && !cancelled && !timedOut;
+                if (!connected && (cancelled || timedOut)) {
+                    error = stopCause();
+                }
+            }
+            if (connected) {
+                complete(opened, null);
+            } else {
+                if (opened != null) {
+                    closeQuietly(opened);
+                }
+                complete(null, error);
+            }
+        }
+
+        // 调用方持有锁，或状态已是 DONE
+        private IOException stopCause() {
+            if (timedOut) {
+                return new SocketTimeoutException("连接超时 (" + options.deadlineMillis + " ms)");
+            }
+            return new IOException("连接已取消");
+        }
+
+        private void complete(Connection connected, IOException cause) {
+            if (watchdog != null) {
+                watchdog.cancel(false);
+            }
+            attempts.remove(key, this);
+            inFlight.decrementAndGet();
+            waitTime.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - submittedAtNanos));
+            if (connected != null) {
+                callback.onConnected(connected);
+                return;
+            }
+            if (cancelled) {
+                cancelledCount.increment();
+            } else if (timedOut) {
+                timedOutCount.increment();
+            }
+            callback.onFailed(cause);
+        }
+    }
+
+    private final Options options;
+    private final ThreadPoolExecutor pool;
+    private final ScheduledThreadPoolExecutor watchdogs;
+    private final ConcurrentHashMap<String, Attempt> attempts = new ConcurrentHashMap<>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final MetricsRegistry.Counter submitted;
+    private final MetricsRegistry.Counter rejected;
+    private final MetricsRegistry.Counter cancelledCount;
+    private final MetricsRegistry.Counter timedOutCount;
+    private final MetricsRegistry.Histogram waitTime;
+
+    public ConnectExecutor(Options options, MetricsRegistry metrics) {
+        this.options = options;
+        AtomicInteger threadIndex = new AtomicInteger();
+        this.pool = new ThreadPoolExecutor(options.maxThreads, options.maxThreads,
+                options.keepAliveMillis, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(options.queueCapacity), r -> {
+            Thread thread = new Thread(r, "Connect-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        pool.allowCoreThreadTimeOut(true);
+        this.watchdogs = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread thread = new Thread(r, "ConnectWatchdog");
+            thread.setDaemon(true);
+            return thread;
+        });
+        watchdogs.setRemoveOnCancelPolicy(true);
+        this.submitted = metrics.counter("connect.submitted");
+        this.rejected = metrics.counter("connect.rejected");
+        this.cancelledCount = metrics.counter("connect.cancelled");
+        this.timedOutCount = metrics.counter("connect.timed_out");
+        this.waitTime = metrics.histogram("connect.attempt_ms");
+    }
+
+    /**
+     * 提交对 address 的一次连接尝试。该地址已有未结束的尝试时先取消它。
+     *
+     * @return 尝试的句柄；队列已满或已关闭时返回 null，不会回调
+     */
+    public Attempt submit(String address, Transport transport, Callback callback) {
+        return submit(address, address, transport, callback);
+    }
+
+    /**
+     * 同一个 key 只保留最新的尝试，新的提交取消旧的。
+     */
+    private Attempt submit(String key, String address, Transport transport, Callback callback) {
+        Attempt attempt = new Attempt(key, address, transport, callback);
+        attempt.task = new FutureTask<>(attempt::run, null);
+        Attempt previous = attempts.put(key, attempt);
+        if (previous != null) {
+            previous.cancel();
+        }
+        inFlight.incrementAndGet();
+        try {
+            // 先安排截止时间，尝试结束时一定能取消它
+            if (options.deadlineMillis > 0) {
+                attempt.watchdog = watchdogs.schedule(() -> attempt.stop(true),
+                        options.deadlineMillis, TimeUnit.MILLISECONDS);
+            }
+            pool.execute(attempt.task);
+        } catch (RejectedExecutionException e) {
+            if (attempt.watchdog != null) {
+                attempt.watchdog.cancel(false);
+            }
+            attempts.remove(key, attempt);
+            inFlight.decrementAndGet();
+            rejected.increment();
+            return null;
+        }
+        submitted.increment();
+        return attempt;
+    }
+
+    /**
+     * 取消对 address 的尝试，返回是否有未结束的尝试。
+     */
+    public boolean cancel(String address) {
+        Attempt attempt = attempts.get(address);
+        if (attempt == null) {
+            return false;
+        }
+        attempt.cancel();
+        return true;
+    }
+
+    public Attempt get(String address) {
+        return attempts.get(address);
+    }
+
+    /**
+     * 把 transport 包装成经本线程池连接的 Transport：返回的 Connection 在 connect() 时提交一次尝试并等待结果，
+     * 同样受线程数、队列容量和截止时间约束。给自己管理连接与重试的功能使用，例如文件传输的断线续传。
+     * 这些尝试与 {@link #submit} 按地址登记的链路连接分开登记，互不取消，{@link #get} 和 {@link #cancel} 也看不到它们。
+     */
+    public Transport asTransport(Transport transport) {
+        return address -> new PooledConnection(address, transport);
+    }
+
+    /**
+     * {@link #asTransport} 返回的连接：connect() 之前没有底层连接，之后读写都交给尝试连上的 Connection。
+     */
+    private final class PooledConnection implements Connection, Callback {
+        private final String address;
+        private final Transport transport;
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile Attempt attempt;
+        private volatile Connection delegate;
+        private volatile IOException failure;
+        private volatile boolean closed;
+
+        PooledConnection(String address, Transport transport) {
+            this.address = address;
+            this.transport = transport;
+        }
+
+        @Override
+        public String getRemoteAddress() {
+            return address;
+        }
+
+        @Override
+        public void connect() throws IOException {
+            if (closed) {
+                throw new IOException("连接已关闭");
+            }
+            attempt = submit(POOLED_KEY_PREFIX + address, address, transport, this);
+            if (attempt == null) {
+                throw new IOException("连接队列已满");
+            }
+            if (closed) {
+                // close() 可能没看到这次尝试
+                attempt.cancel();
+            }
+            try {
+                done.await();
+            } catch (InterruptedException e) {
+                attempt.cancel();
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("连接被中断");
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            if (closed) {
+                closeQuietly(delegate);
+                throw new IOException("连接已关闭");
+            }
+        }
+
+        @Override
+        public void onConnected(Connection connection) {
+            delegate = connection;
+            done.countDown();
+        }
+
+        @Override
+        public void onFailed(IOException cause) {
+            failure = cause;
+            done.countDown();
+        }
+
+        @Override
+        public boolean isConnected() {
+            Connection c = delegate;
+            return c != null && c.isConnected();
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return connected().getInputStream();
+        }
+
+        @Override
+        public OutputStream getOutputStream() throws IOException {
+            return connected().getOutputStream();
+        }
+
+        private Connection connected() throws IOException {
+            Connection c = delegate;
+            if (c == null) {
+                throw new IOException("尚未连接");
+            }
+            return c;
+        }
+
+        @Override
+        public void close() throws IOException {
+            closed = true;
+            Attempt a = attempt;
+            if (a != null) {
+                a.cancel();
+            }
+            Connection c = delegate;
+            if (c != null) {
+                c.close();
+            }
+        }
+    }
+
+    public Stats getStats() {
+        return new Stats(pool.getActiveCount(), pool.getPoolSize(), pool.getLargestPoolSize(),
+                pool.getQueue().size(), inFlight.get());
+    }
+
+    /**
+     * 取消全部尝试并停止线程，之后的 submit 返回 null。
+     */
+    public void shutdown() {
+        pool.shutdown();
+        for (Attempt attempt : attempts.values()) {
+            attempt.cancel();
+        }
+        watchdogs.shutdownNow();
+    }
+
+    /**
+     * 等待线程全部退出，用于测试。
+     */
+    public boolean awaitTermination(long timeoutMillis) throws InterruptedException {
+        return pool.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private static void closeQuietly(Connection connection) {
+        try {
+            connection.close();
+        } catch (IOException ignored) {
+            // 关闭失败不影响结果
+        }
+    }
+}
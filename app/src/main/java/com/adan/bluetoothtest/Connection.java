@@ -0,0 +1,35 @@
+package com.adan.bluetoothtest;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * 一条双向连接，由 {@link Transport#open} 创建。RFCOMM 套接字与测试用的内存管道都实现此接口，
+ * 连接、收发流水线因此不依赖 BluetoothSocket。
+ */
+public interface Connection extends Closeable {
+
+    /**
+     * 对端地址，"AA:BB:CC:DD:EE:FF" 形式。
+     */
+    String getRemoteAddress();
+
+    /**
+     * 阻塞直到连接建立或失败。在另一线程调用 {@link #close()} 可以取消。
+     */
+    void connect() throws IOException;
+
+    boolean isConnected();
+
+    InputStream getInputStream() throws IOException;
+
+    OutputStream getOutputStream() throws IOException;
+
+    /**
+     * 关闭连接，阻塞在读写上的线程随之抛出 IOException。可重复调用。
+     */
+    @Override
+    void close() throws IOException;
+}
@@ -0,0 +1,285 @@
+package com.adan.bluetoothtest;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 以设备地址为键管理多条并发链路。
+ * <p>
+ * 原来 MainActivity 只有一对 connectThread / connectedThread，连接新设备前必须断开旧的。
+ * 现在每个设备一条 {@link DeviceLink}，各有自己的读写线程和状态，总数受 maxLinks 限制。
+ * 建立连接分两步：{@link #reserve} 占位（状态为连接中，计入上限），
+ * 套接字连上后 {@link #attach} 启动收发；连接失败时 {@link #release} 释放占位。
+ * <p>
+ * 占位与状态转换都不加锁：上限用原子计数保证，每条链路的状态由 {@link LinkStateMachine} 维护，
+ * 状态变化以不可变快照通知 {@link Listener}。
+ */
+public final class ConnectionManager {
+    public static final int DEFAULT_MAX_LINKS = 7;
+
+    public interface Listener {
+        /**
+         * 链路状态改变，在完成转换的线程上调用。不同线程的通知可能交错，以 snapshot.version 较大者为准。
+         */
+        void onStateChanged(DeviceLink link, LinkStateMachine.Snapshot snapshot);
+
+        void onMessage(DeviceLink link, String text);
+
+        /**
+         * 二进制消息模式（{@link Config#binaryMessages}）下收到的一条消息，在链路的读取线程上调用。
+         * reader 只在回调期间有效。
+         */
+        default void onBinaryMessage(DeviceLink link, BinaryMessageReader reader) {
+        }
+
+        /**
+         * 链路因读写错误中断（不包括主动断开），随后会收到 LOST 状态。
+         */
+        void onLinkLost(DeviceLink link, IOException cause);
+    }
+
+    /**
+     * 每条链路共用的收发参数。
+     */
+    public static final class Config {
+        final int maxLinks;
+        final ReceiveBufferPool bufferPool;
+        final FrameDecoder.Factory frameDecoderFactory;
+        final ConnectionWriter.Options writerOptions;
+        final MetricsRegistry metrics;
+        CaptureSink captureSink;
+        boolean binaryMessages;
+        StreamCompression.Options compression = new StreamCompression.Options();
+
+        public Config(int maxLinks, ReceiveBufferPool bufferPool, FrameDecoder.Factory frameDecoderFactory,
+                      ConnectionWriter.Options writerOptions) {
+            this(maxLinks, bufferPool, frameDecoderFactory, writerOptions, new MetricsRegistry());
+        }
+
+        public Config(int maxLinks, ReceiveBufferPool bufferPool, FrameDecoder.Factory frameDecoderFactory,
+                      ConnectionWriter.Options writerOptions, MetricsRegistry metrics) {
+            if (maxLinks <= 0) {
+                throw new IllegalArgumentException("maxLinks must be positive");
+            }
+            this.maxLinks = maxLinks;
+            this.bufferPool = bufferPool;
+            this.frameDecoderFactory = frameDecoderFactory;
+            this.writerOptions = writerOptions;
+            this.metrics = metrics;
+        }
+
+        /**
+         * 把所有链路收发的字节记录到 sink，null 表示不记录。
+         */
+        public Config captureSink(CaptureSink sink) {
+            this.captureSink = sink;
+            return this;
+        }
+
+        /**
+         * 按 {@link BinaryMessageWriter} 的格式收发消息：收到的帧以 {@link Listener#onBinaryMessage} 交付，
+         * 不再经过 frameDecoderFactory 和文本解码。默认 false，即原来的文本消息。
+         */
+        public Config binaryMessages(boolean enabled) {
+            this.binaryMessages = enabled;
+            return this;
+        }
+
+        /**
+         * 链路压缩参数，默认不压缩。
+         */
+        public Config compression(StreamCompression.Options options) {
+            this.compression = options;
+            return this;
+        }
+    }
+
+    private final Config config;
+    private final Listener listener;
+    private final ConcurrentHashMap<Long, DeviceLink> links = new ConcurrentHashMap<>();
+    // 已占位的链路数，先加后查，保证不超过上限
+    private final AtomicInteger linkCount = new AtomicInteger();
+    private final MetricsRegistry.Histogram connectTime;
+    private final MetricsRegistry.Counter linksLost;
+
+    public ConnectionManager(Config config, Listener listener) {
+        this.config = config;
+        this.listener = listener;
+        this.connectTime = config.metrics.histogram("connect.time_ms");
+        this.linksLost = config.metrics.counter("link.lost");
+    }
+
+    /**
+     * 为设备占位一条链路。
+     *
+     * @return 新链路；该设备已有链路或已达上限时返回 null
+     */
+    public DeviceLink reserve(long address, String name) {
+        if (links.containsKey(address)) {
+            return null;
+        }
+        if (linkCount.incrementAndGet() > config.maxLinks) {
+            linkCount.decrementAndGet();
+            return null;
+        }
+        // 放入表中之前进入 CONNECTING，其他线程看到的链路不会处于 NONE
+        DeviceLink link = new DeviceLink(this, address, name);
+        LinkStateMachine.Snapshot connecting = link.beginConnecting();
+        if (links.putIfAbsent(address, link) != null) {
+            linkCount.decrementAndGet();
+            return null;
+        }
+        onTransition(link, connecting);
+        return link;
+    }
+
+    /**
+     * 连接建立后启动链路的收发线程。链路已被断开时关闭连接并抛出 IOException。
+     */
+    public void attach(DeviceLink link, Connection connection) throws IOException {
+        attach(link, connection, Collections.emptyList());
+    }
+
+    /**
+     * 同 {@link #attach(DeviceLink, Connection)}，并先发送 resumed 中的消息（重连时上一条链路未发出的）。
+     */
+    public void attach(DeviceLink link, Connection connection, Collection<byte[]> resumed) throws IOException {
+        try {
+            link.start(connection, config, resumed);
+        } catch (IOException e) {
+            release(link);
+            try {
+                connection.close();
+            } catch (IOException ignored) {
+                // 已经在报告启动失败
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * 套接字连接失败：按原因计数后释放占位。
+     */
+    public void connectFailed(DeviceLink link, IOException cause) {
+        config.metrics.counter("connect.failure." + failureCause(cause)).increment();
+        release(link);
+    }
+
+    /**
+     * 把连接异常归类为少量固定的原因，用作指标名称的后缀。
+     */
+    static String failureCause(IOException e) {
+        if (e instanceof SocketTimeoutException) {
+            return "timeout";
+        }
+        String message = e.getMessage() != null ? e.getMessage().toLowerCase(Locale.ROOT) : "";
+        if (message.contains("permission")) {
+            return "permission";
+        }
+        if (message.contains("socket closed") || message.contains("abort") || message.contains("interrupted")) {
+            return "cancelled";
+        }
+        // RFCOMM 找不到对端时的消息是 "read failed, socket might closed or timeout"，先于超时判断
+        if (message.contains("read failed") || message.contains("refused") || message.contains("host is down")) {
+            return "unreachable";
+        }
+        if (message.contains("timeout") || message.contains("timed out")) {
+            return "timeout";
+        }
+        return "other";
+    }
+
+    public MetricsRegistry getMetrics() {
+        return config.metrics;
+    }
+
+    /**
+     * 连接失败时释放占位。
+     */
+    public void release(DeviceLink link) {
+        link.close();
+    }
+
+    public DeviceLink get(long address) {
+        return links.get(address);
+    }
+
+    /**
+     * 主动断开设备，返回是否存在该链路。
+     */
+    public boolean disconnect(long address) {
+        DeviceLink link = links.get(address);
+        if (link == null) {
+            return false;
+        }
+        link.close();
+        return true;
+    }
+
+    public void disconnectAll() {
+        for (DeviceLink link : new ArrayList<>(links.values())) {
+            link.close();
+        }
+    }
+
+    public int size() {
+        return links.size();
+    }
+
+    public int getMaxLinks() {
+        return config.maxLinks;
+    }
+
+    /**
+     * 各链路仍在运行的读写线程总数，正常情况下为已连接链路数的两倍。
+     */
+    public int liveThreadCount() {
+        int count = 0;
+        for (DeviceLink link : links.values()) {
+            count += link.liveThreadCount();
+        }
+        return count;
+    }
+
+    public Collection<DeviceLink> links() {
+        return Collections.unmodifiableCollection(links.values());
+    }
+
+    void dispatchMessage(DeviceLink link, String text) {
+        listener.onMessage(link, text);
+    }
+
+    void dispatchBinaryMessage(DeviceLink link, BinaryMessageReader reader) {
+        listener.onBinaryMessage(link, reader);
+    }
+
+    /**
+     * 链路完成了一次状态转换，由完成转换的线程调用，每个快照只调用一次。
+     */
+    void onTransition(DeviceLink link, LinkStateMachine.Snapshot snapshot) {
+        switch (snapshot.state) {
+            case CONNECTED:
+                connectTime.record((System.nanoTime() - link.getReservedAtNanos()) / 1_000_000);
+                break;
+            case LOST:
+            case CLOSED:
+                if (links.remove(link.getAddress(), link)) {
+                    linkCount.decrementAndGet();
+                }
+                if (snapshot.state == LinkStateMachine.State.LOST) {
+                    linksLost.increment();
+                    listener.onLinkLost(link, snapshot.cause);
+                }
+                break;
+            default:
+                break;
+        }
+        listener.onStateChanged(link, snapshot);
+    }
+}
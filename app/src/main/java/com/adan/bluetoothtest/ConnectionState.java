@@ -0,0 +1,12 @@
+package com.adan.bluetoothtest;
+
+/**
+ * 连接状态常量。
+ * 从 MainActivity 中抽出，设备模型等纯 Java 类也可以直接引用。
+ */
+public interface ConnectionState {
+    int STATE_NONE = 0;
+    int STATE_LISTEN = 1;
+    int STATE_CONNECTING = 2;
+    int STATE_CONNECTED = 3;
+}
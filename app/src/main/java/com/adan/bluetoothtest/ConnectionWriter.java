@@ -0,0 +1,324 @@
+package com.adan.bluetoothtest;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 连接的专用发送线程。
+ * <p>
+ * 调用方（包括 UI 线程）只把数据放入有界队列，不再直接阻塞在 RFCOMM 套接字上。
+ * 发送线程把排队的小消息合并进一个复用的缓冲区，一次写出：
+ * <ul>
+ * <li>{@link FlushPolicy#IMMEDIATE}：取到消息就写，只合并此刻已经在排队的消息，延迟最低；</li>
+ * <li>{@link FlushPolicy#BATCHED}：等待至多 lingerMillis 或攒满一个批次再写，吞吐最高。</li>
+ * </ul>
+ * 队列满时按 {@link OverflowPolicy} 阻塞调用方（可设超时）或直接拒绝。
+ * 写失败后线程退出，未发送的消息（包括写失败那一批）可以通过 {@link #drainPending} 取回。
+ * 失败的一批可能已有部分字节到达对端，重发时对端可能收到重复的消息。
+ */
+public final class ConnectionWriter {
+
+    public enum FlushPolicy {
+        IMMEDIATE,
+        BATCHED
+    }
+
+    public enum OverflowPolicy {
+        BLOCK,
+        REJECT
+    }
+
+    public interface FailureListener {
+        void onWriteFailed(IOException e);
+    }
+
+    /**
+     * 发送参数。
+     */
+    public static final class Options {
+        int queueCapacity = 256;
+        int maxBatchBytes = 4096;
+        FlushPolicy flushPolicy = FlushPolicy.IMMEDIATE;
+        long lingerMillis = 5;
+        OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
+        long blockTimeoutMillis = 2000;
+
+        public Options queueCapacity(int messages) {
+            this.queueCapacity = messages;
+            return this;
+        }
+
+        public Options maxBatchBytes(int bytes) {
+            this.maxBatchBytes = bytes;
+            return this;
+        }
+
+        public Options flushPolicy(FlushPolicy policy) {
+            this.flushPolicy = policy;
+            return this;
+        }
+
+        /**
+         * BATCHED 模式下等待后续消息的最长时间。
+         */
+        public Options lingerMillis(long millis) {
+            this.lingerMillis = millis;
+            return this;
+        }
+
+        public Options overflowPolicy(OverflowPolicy policy) {
+            this.overflowPolicy = policy;
+            return this;
+        }
+
+        /**
+         * BLOCK 模式下调用方最多等待的时间，超时按拒绝处理。
+         */
+        public Options blockTimeoutMillis(long millis) {
+            this.blockTimeoutMillis = millis;
+            return this;
+        }
+    }
+
+    /**
+     * 发送统计的快照。
+     */
+    public static final class Stats {
+        public final int queueDepth;
+        public final long queuedBytes;
+        public final long messagesWritten;
+        public final long bytesWritten;
+        public final long socketWrites;
+        public final long rejected;
+        public final double bytesPerSecond;
+
+        Stats(int queueDepth, long queuedBytes, long messagesWritten, long bytesWritten,
+              long socketWrites, long rejected, double bytesPerSecond) {
+            this.queueDepth = queueDepth;
+            this.queuedBytes = queuedBytes;
+            this.messagesWritten = messagesWritten;
+            this.bytesWritten = bytesWritten;
+            this.socketWrites = socketWrites;
+            this.rejected = rejected;
+            this.bytesPerSecond = bytesPerSecond;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "queue=%d (%d B) msgs=%d bytes=%d writes=%d rejected=%d rate=%.0f B/s",
+                    queueDepth, queuedBytes, messagesWritten, bytesWritten, socketWrites, rejected, bytesPerSecond);
+        }
+    }
+
+    private static final long RATE_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final OutputStream out;
+    private final Options options;
+    private final FailureListener failureListener;
+    private final ArrayBlockingQueue<byte[]> queue;
+    private final byte[] batch;
+    // 已从队列取出、尚未确认写出的消息，写失败时由 drainPending 排在队列剩余消息之前交回
+    private final byte[][] inFlight;
+    private int inFlightCount;
+    private final Thread thread;
+    private volatile boolean closed;
+
+    private final AtomicLong queuedBytes = new AtomicLong();
+    private final AtomicLong messagesWritten = new AtomicLong();
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private final AtomicLong socketWrites = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    // 速率窗口只由发送线程更新
+    private long windowStartNanos = System.nanoTime();
+    private long windowBytes;
+    private volatile double bytesPerSecond;
+    private volatile long lastRateUpdateNanos = windowStartNanos;
+
+    public ConnectionWriter(OutputStream out, Options options, String name, FailureListener failureListener) {
+        this.out = out;
+        this.options = options;
+        this.failureListener = failureListener;
+        this.queue = new ArrayBlockingQueue<>(options.queueCapacity);
+        this.batch = new byte[options.maxBatchBytes];
+        this.inFlight = new byte[Math.max(1, Math.min(options.maxBatchBytes, options.queueCapacity))][];
+        this.thread = new Thread(this::runLoop, "ConnectionWriter-" + name);
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    /**
+     * 放入发送队列。队列满时按 OverflowPolicy 阻塞或拒绝。
+     *
+     * @return 是否已入队；已关闭或被拒绝时返回 false
+     */
+    public boolean send(byte[] bytes) {
+        if (closed) {
+            return false;
+        }
+        boolean accepted;
+        if (options.overflowPolicy == OverflowPolicy.REJECT) {
+            accepted = queue.offer(bytes);
+        } else {
+            try {
+                accepted = queue.offer(bytes, options.blockTimeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                accepted = false;
+            }
+        }
+        if (accepted) {
+            queuedBytes.addAndGet(bytes.length);
+        } else {
+            rejected.incrementAndGet();
+        }
+        return accepted;
+    }
+
+    private void runLoop() {
+        try {
+            while (!closed) {
+                byte[] first = queue.take();
+                writeBatch(first);
+            }
+        } catch (InterruptedException e) {
+            // close() 打断了等待；没有关闭却被打断时同样当作写失败，否则链路不知道发送线程已经退出
+            if (!closed) {
+                failureListener.onWriteFailed(new InterruptedIOException("发送线程被中断"));
+            }
+        } catch (IOException e) {
+            // 包括 SocketTimeoutException 等 InterruptedIOException：只有 close() 引起的才忽略
+            if (!closed) {
+                failureListener.onWriteFailed(e);
+            }
+        }
+    }
+
+    private void writeBatch(byte[] first) throws IOException, InterruptedException {
+        int length = 0;
+        int messages = 0;
+        byte[] next = first;
+        long deadline = options.flushPolicy == FlushPolicy.BATCHED
+                ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(options.lingerMillis) : 0;
+        while (next != null) {
+            if (length + next.length > batch.length) {
+                if (length > 0) {
+                    writeOut(batch, 0, length, messages);
+                    length = 0;
+                    messages = 0;
+                }
+                if (next.length > batch.length) {
+                    // 大消息不经过合并缓冲，直接写出
+                    inFlight[inFlightCount++] = next;
+                    writeOut(next, 0, next.length, 1);
+                    next = pollNext(deadline);
+                    continue;
+                }
+            }
+            System.arraycopy(next, 0, batch, length, next.length);
+            inFlight[inFlightCount++] = next;
+            length += next.length;
+            messages++;
+            if (length == batch.length || inFlightCount == inFlight.length) {
+                break;
+            }
+            next = pollNext(deadline);
+        }
+        if (length > 0) {
+            writeOut(batch, 0, length, messages);
+        }
+    }
+
+    private byte[] pollNext(long deadline) throws InterruptedException {
+        if (options.flushPolicy == FlushPolicy.IMMEDIATE) {
+            return queue.poll();
+        }
+        long remaining = deadline - System.nanoTime();
+        return remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+    }
+
+    private void writeOut(byte[] data, int offset, int length, int messages) throws IOException {
+        out.write(data, offset, length);
+        out.flush();
+        // 写出成功，这些消息不再需要交回
+        for (int i = 0; i < inFlightCount; i++) {
+            inFlight[i] = null;
+        }
+        inFlightCount = 0;
+        queuedBytes.addAndGet(-length);
+        socketWrites.incrementAndGet();
+        messagesWritten.addAndGet(messages);
+        bytesWritten.addAndGet(length);
+        updateRate(length);
+    }
+
+    private void updateRate(int length) {
+        long now = System.nanoTime();
+        windowBytes += length;
+        long elapsed = now - windowStartNanos;
+        if (elapsed >= RATE_WINDOW_NANOS) {
+            bytesPerSecond = windowBytes * 1e9 / elapsed;
+            windowStartNanos = now;
+            windowBytes = 0;
+            lastRateUpdateNanos = now;
+        }
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    public Stats getStats() {
+        // 超过两个窗口没有写出，视为空闲
+        double rate = System.nanoTime() - lastRateUpdateNanos > 2 * RATE_WINDOW_NANOS ? 0 : bytesPerSecond;
+        return new Stats(queue.size(), queuedBytes.get(), messagesWritten.get(), bytesWritten.get(),
+                socketWrites.get(), rejected.get(), rate);
+    }
+
+    /**
+     * 取出尚未发送的消息，按入队顺序追加到 target：先是写失败时已取出的一批，再是队列中剩余的。
+     * 只应在发送线程结束后调用。
+     */
+    public int drainPending(Collection<byte[]> target) {
+        int count = inFlightCount;
+        for (int i = 0; i < inFlightCount; i++) {
+            target.add(inFlight[i]);
+            inFlight[i] = null;
+        }
+        inFlightCount = 0;
+        count += queue.drainTo(target);
+        queuedBytes.set(0);
+        return count;
+    }
+
+    /**
+     * 停止发送线程，不关闭底层输出流。队列中未发送的消息保留。
+     */
+    public void close() {
+        closed = true;
+        thread.interrupt();
+    }
+
+    /**
+     * 等待发送线程退出，测试和重连时使用。
+     */
+    public boolean awaitTermination(long timeoutMillis) throws InterruptedException {
+        if (Thread.currentThread() == thread) {
+            // 在发送线程自己的失败回调中调用，回调返回后线程即退出，此时已不再取队列
+            return true;
+        }
+        thread.join(timeoutMillis);
+        return !thread.isAlive();
+    }
+
+    boolean isThreadAlive() {
+        return thread.isAlive();
+    }
+}
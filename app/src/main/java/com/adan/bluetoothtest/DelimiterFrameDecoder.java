@@ -0,0 +1,49 @@
+package com.adan.bluetoothtest;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 以分隔字节（默认 '\n'）结束的帧，交付的帧不含分隔符。
+ * 记录已扫描的长度，不完整帧在后续读取中不会被重复扫描。
+ */
+public class DelimiterFrameDecoder extends AbstractFrameDecoder {
+    private final byte delimiter;
+    private int scanned;
+
+    public DelimiterFrameDecoder() {
+        this((byte) '\n', DEFAULT_MAX_FRAME_LENGTH);
+    }
+
+    public DelimiterFrameDecoder(byte delimiter, int maxFrameLength) {
+        super(maxFrameLength);
+        this.delimiter = delimiter;
+    }
+
+    @Override
+    protected int frameLength(ByteBuffer buf) {
+        int start = buf.position();
+        int limit = buf.limit();
+        for (int i = start + scanned; i < limit; i++) {
+            if (buf.get(i) == delimiter) {
+                return i - start + 1;
+            }
+        }
+        scanned = limit - start;
+        return -1;
+    }
+
+    @Override
+    protected int headerLength() {
+        return 0;
+    }
+
+    @Override
+    protected int trailerLength() {
+        return 1;
+    }
+
+    @Override
+    protected void onFrameConsumed() {
+        scanned = 0;
+    }
+}
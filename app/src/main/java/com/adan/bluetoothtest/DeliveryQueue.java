@@ -0,0 +1,215 @@
+package com.adan.bluetoothtest;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 读取线程与界面之间有界的交接队列。
+ * <p>
+ * 原来每收到一条消息就 post 一个 MESSAGE_READ，数据速率高时主线程消息队列无限增长直至 ANR。
+ * 现在读取线程只把消息放进容量为 capacity 的队列，第一次放入时请求一次刷新；
+ * 刷新在主线程上把最多 maxBatch 条消息一次交给 {@link Sink}，剩余的在下一次刷新中交付。
+ * 队列满时按 {@link OverflowPolicy} 处理，被丢弃的消息计入 "ui.dropped"。
+ * <p>
+ * offer 可以从任意线程调用；flush 由调度器在主线程上执行。
+ */
+public final class DeliveryQueue<T> {
+
+    public enum OverflowPolicy {
+        /** 读取线程等待界面取走消息，最多 blockTimeoutMillis，超时后丢弃新消息 */
+        BLOCK,
+        /** 丢弃最早的一条，保留最近 capacity 条 */
+        DROP_OLDEST,
+        /** 新消息覆盖队尾，界面按刷新节奏抽样看到最新的值 */
+        SAMPLE_LATEST
+    }
+
+    public static final class Options {
+        int capacity = 256;
+        int maxBatch = 64;
+        OverflowPolicy overflowPolicy = OverflowPolicy.DROP_OLDEST;
+        long blockTimeoutMillis = 1000;
+
+        public Options capacity(int capacity) {
+            if (capacity <= 0) {
+                throw new IllegalArgumentException("capacity must be positive");
+            }
+            this.capacity = capacity;
+            return this;
+        }
+
+        /**
+         * 一次刷新最多交付的消息数，避免一帧内处理过多。
+         */
+        public Options maxBatch(int maxBatch) {
+            if (maxBatch <= 0) {
+                throw new IllegalArgumentException("maxBatch must be positive");
+            }
+            this.maxBatch = maxBatch;
+            return this;
+        }
+
+        public Options overflowPolicy(OverflowPolicy policy) {
+            this.overflowPolicy = policy;
+            return this;
+        }
+
+        public Options blockTimeoutMillis(long millis) {
+            this.blockTimeoutMillis = millis;
+            return this;
+        }
+    }
+
+    public interface Sink<T> {
+        /**
+         * 一批消息，按到达顺序排列。列表只在回调期间有效。
+         */
+        void onBatch(List<T> batch);
+    }
+
+    private final Options options;
+    private final DiscoveryBatcher.FlushScheduler scheduler;
+    private final Sink<T> sink;
+    private final Object lock = new Object();
+    private final ArrayDeque<T> pending;
+    private final ArrayList<T> batch;
+    private boolean flushRequested;
+    private boolean closed;
+
+    private final MetricsRegistry.Counter delivered;
+    private final MetricsRegistry.Counter dropped;
+    private final MetricsRegistry.Histogram batchSize;
+    private final MetricsRegistry.Histogram blockedTime;
+
+    private final Runnable flushTask = this::flush;
+
+    public DeliveryQueue(Options options, DiscoveryBatcher.FlushScheduler scheduler, Sink<T> sink,
+                         MetricsRegistry metrics) {
+        this.options = options;
+        this.scheduler = scheduler;
+        this.sink = sink;
+        this.pending = new ArrayDeque<>(options.capacity);
+        this.batch = new ArrayList<>(Math.min(options.maxBatch, options.capacity));
+        this.delivered = metrics.counter("ui.delivered");
+        this.dropped = metrics.counter("ui.dropped");
+        this.batchSize = metrics.histogram("ui.batch_size");
+        this.blockedTime = metrics.histogram("ui.blocked_ms");
+    }
+
+    /**
+     * 放入一条消息。
+     *
+     * @return 是否进入了队列；被丢弃（包括关闭后）时返回 false。DROP_OLDEST / SAMPLE_LATEST 下新消息总会进入
+     */
+    public boolean offer(T item) {
+        boolean requestFlush = false;
+        boolean accepted = true;
+        synchronized (lock) {
+            if (closed) {
+                dropped.increment();
+                return false;
+            }
+            if (pending.size() >= options.capacity) {
+                switch (options.overflowPolicy) {
+                    case BLOCK:
+                        accepted = awaitSpace();
+                        break;
+                    case DROP_OLDEST:
+                        pending.pollFirst();
+                        dropped.increment();
+                        break;
+                    case SAMPLE_LATEST:
+                        pending.pollLast();
+                        dropped.increment();
+                        break;
+                }
+            }
+            if (accepted) {
+                pending.addLast(item);
+                if (!flushRequested) {
+                    flushRequested = true;
+                    requestFlush = true;
+                }
+            }
+        }
+        if (requestFlush) {
+            scheduler.requestFlush(flushTask);
+        }
+        return accepted;
+    }
+
+    // 持有 lock；等待期间刷新已经安排好，不需要再请求
+    private boolean awaitSpace() {
+        long startNanos = System.nanoTime();
+        long deadline = startNanos + TimeUnit.MILLISECONDS.toNanos(options.blockTimeoutMillis);
+        try {
+            while (pending.size() >= options.capacity && !closed) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    break;
+                }
+                TimeUnit.NANOSECONDS.timedWait(lock, remaining);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            blockedTime.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+        }
+        if (pending.size() >= options.capacity || closed) {
+            dropped.increment();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 在主线程上交付一批消息；还有剩余时再请求一次刷新。
+     */
+    public void flush() {
+        boolean more;
+        synchronized (lock) {
+            flushRequested = false;
+            if (pending.isEmpty()) {
+                return;
+            }
+            for (int i = 0; i < options.maxBatch && !pending.isEmpty(); i++) {
+                batch.add(pending.pollFirst());
+            }
+            more = !pending.isEmpty();
+            if (more) {
+                flushRequested = true;
+            }
+            lock.notifyAll();
+        }
+        delivered.add(batch.size());
+        batchSize.record(batch.size());
+        try {
+            sink.onBatch(batch);
+        } finally {
+            batch.clear();
+            if (more) {
+                scheduler.requestFlush(flushTask);
+            }
+        }
+    }
+
+    public int size() {
+        synchronized (lock) {
+            return pending.size();
+        }
+    }
+
+    /**
+     * 丢弃队列中的消息并唤醒等待的读取线程，之后的 offer 都被丢弃。
+     */
+    public void close() {
+        synchronized (lock) {
+            closed = true;
+            dropped.add(pending.size());
+            pending.clear();
+            lock.notifyAll();
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package com.adan.bluetoothtest;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * 设备注册表的持久化缓存。
+ * <p>
+ * 启动时先用缓存渲染列表，不必等 getBondedDevices() 和逐个 getName() 的 binder 调用，
+ * 上次扫描发现的设备也不会丢失。实时数据到达后由 DeviceRegistry 合并（实时数据优先）。
+ * <p>
+ * 文件为紧凑的二进制格式，小端序：
+ * <pre>
+ * 文件头 16 字节：magic "BTDC" | version u16 | 保留 u16 | count u32 | 记录区 CRC32
+ * 每条记录：address i64 | lastSeen i64 | 连接成功 i32 | 连接失败 i32 | rssi i16 | flags u8 | 名称长度 u8 | 名称 UTF-8
+ * </pre>
+ * 读取时通过只读内存映射解析，版本不符、校验失败或格式错误时视为没有缓存。
+ * 写入先写临时文件再改名，中途失败不会破坏已有缓存。
+ */
+public final class DeviceCache {
+    static final int MAGIC = 0x43445442; // 小端序下为 "BTDC"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 16;
+    static final int RECORD_FIXED_SIZE = 28;
+    static final int MAX_NAME_BYTES = 255;
+    private static final int FLAG_PAIRED = 1;
+
+    /**
+     * 一条缓存的设备记录。
+     */
+    public static final class Entry {
+        public final long address;
+        public final String name;
+        public final long lastSeenMillis;
+        public final short rssi;
+        public final boolean paired;
+        public final int connectSuccesses;
+        public final int connectFailures;
+
+        public Entry(long address, String name, long lastSeenMillis, short rssi, boolean paired,
+                     int connectSuccesses, int connectFailures) {
+            this.address = address;
+            this.name = name;
+            this.lastSeenMillis = lastSeenMillis;
+            this.rssi = rssi;
+            this.paired = paired;
+            this.connectSuccesses = connectSuccesses;
+            this.connectFailures = connectFailures;
+        }
+    }
+
+    private final File file;
+
+    public DeviceCache(File file) {
+        this.file = file;
+    }
+
+    /**
+     * 读取缓存。文件不存在或无法使用时返回空列表，不抛出异常。
+     */
+    public List<Entry> load() {
+        if (!file.isFile() || file.length() < HEADER_SIZE) {
+            return Collections.emptyList();
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return parse(mapped);
+        } catch (IOException | RuntimeException e) {
+            return Collections.emptyList();
+        }
+    }
+
+    static List<Entry> parse(ByteBuffer buffer) {
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC || (buffer.getShort() & 0xFFFF) != VERSION) {
+            return Collections.emptyList();
+        }
+        buffer.getShort();
+        int count = buffer.getInt();
+        int expectedCrc = buffer.getInt();
+        CRC32 crc = new CRC32();
+        crc.update(buffer.duplicate());
+        if ((int) crc.getValue() != expectedCrc || count < 0 || count > buffer.remaining() / RECORD_FIXED_SIZE) {
+            return Collections.emptyList();
+        }
+        ArrayList<Entry> entries = new ArrayList<>(count);
+        byte[] nameBytes = new byte[MAX_NAME_BYTES];
+        try {
+            for (int i = 0; i < count; i++) {
+                long address = buffer.getLong();
+                long lastSeen = buffer.getLong();
+                int successes = buffer.getInt();
+                int failures = buffer.getInt();
+                short rssi = buffer.getShort();
+                int flags = buffer.get() & 0xFF;
+                int nameLength = buffer.get() & 0xFF;
+                buffer.get(nameBytes, 0, nameLength);
+                String name = nameLength > 0 ? new String(nameBytes, 0, nameLength, StandardCharsets.UTF_8) : null;
+                entries.add(new Entry(address, name, lastSeen, rssi, (flags & FLAG_PAIRED) != 0, successes, failures));
+            }
+        } catch (BufferUnderflowException e) {
+            return Collections.emptyList();
+        }
+        return entries;
+    }
+
+    /**
+     * 写入缓存，替换原文件。应在后台线程调用。
+     */
+    public void save(Collection<Entry> entries) throws IOException {
+        ByteBuffer buffer = encode(entries);
+        File tmp = new File(file.getPath() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("无法替换设备缓存文件 " + file);
+        }
+    }
+
+    static ByteBuffer encode(Collection<Entry> entries) {
+        ArrayList<byte[]> names = new ArrayList<>(entries.size());
+        int size = HEADER_SIZE;
+        for (Entry entry : entries) {
+            byte[] name = truncateUtf8(entry.name);
+            names.add(name);
+            size += RECORD_FIXED_SIZE + name.length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.position(HEADER_SIZE);
+        int i = 0;
+        for (Entry entry : entries) {
+            byte[] name = names.get(i++);
+            buffer.putLong(entry.address)
+                    .putLong(entry.lastSeenMillis)
+                    .putInt(entry.connectSuccesses)
+                    .putInt(entry.connectFailures)
+                    .putShort(entry.rssi)
+                    .put((byte) (entry.paired ? FLAG_PAIRED : 0))
+                    .put((byte) name.length)
+                    .put(name);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), HEADER_SIZE, size - HEADER_SIZE);
+        buffer.clear();
+        buffer.putInt(MAGIC)
+                .putShort((short) VERSION)
+                .putShort((short) 0)
+                .putInt(entries.size())
+                .putInt((int) crc.getValue());
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * 名称的 UTF-8 编码，超过 255 字节时在字符边界处截断。
+     */
+    static byte[] truncateUtf8(String name) {
+        if (name == null) {
+            return new byte[0];
+        }
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length <= MAX_NAME_BYTES) {
+            return bytes;
+        }
+        int end = MAX_NAME_BYTES;
+        // 回退到一个字符的起始字节（不是 10xxxxxx 续字节）
+        while (end > 0 && (bytes[end] & 0xC0) == 0x80) {
+            end--;
+        }
+        byte[] truncated = new byte[end];
+        System.arraycopy(bytes, 0, truncated, 0, end);
+        return truncated;
+    }
+}
@@ -0,0 +1,341 @@
+package com.adan.bluetoothtest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * 与单个设备的一条链路：自己的连接、读取线程、发送线程和状态。
+ * 由 ConnectionManager 创建和管理，多个链路之间互不影响。
+ * <p>
+ * 状态由 {@link LinkStateMachine} 以 CAS 转换维护，不加锁；读取线程、发送线程和界面线程
+ * 同时断开链路时，只有完成结束转换的线程负责清理并通知 ConnectionManager。
+ */
+public final class DeviceLink {
+
+    /**
+     * 链路收到的一条消息，经 Handler 交给界面。
+     */
+    public static final class Message {
+        public final DeviceLink link;
+        public final String text;
+        // 读取线程解码出这条消息的时刻，用于统计交付到界面的延迟
+        public final long receivedAtNanos;
+
+        Message(DeviceLink link, String text) {
+            this.link = link;
+            this.text = text;
+            this.receivedAtNanos = System.nanoTime();
+        }
+    }
+
+    /**
+     * 一次状态变化，经 Handler 交给界面。
+     */
+    public static final class StateChange {
+        public final DeviceLink link;
+        public final LinkStateMachine.Snapshot snapshot;
+
+        StateChange(DeviceLink link, LinkStateMachine.Snapshot snapshot) {
+            this.link = link;
+            this.snapshot = snapshot;
+        }
+    }
+
+    private final long address;
+    private final String name;
+    private final ConnectionManager manager;
+    private final long reservedAtNanos = System.nanoTime();
+    private final LinkStateMachine machine;
+
+    // 在进入 CONNECTED 之前写入，CAS 之后对其他线程可见
+    private volatile Connection connection;
+    private volatile ReceiveLoop receiveLoop;
+    private volatile ConnectionWriter writer;
+    private volatile Thread readerThread;
+    private volatile MetricsRegistry.Counter bytesOut;
+    private volatile CaptureSink capture;
+    private volatile MetricsRegistry.Counter messagesOut;
+    // 单条链路的压缩开关，null 时按 Config 的默认值
+    private volatile Boolean compressionEnabled;
+    // 由设备连入（监听模式）而不是本机发起
+    private volatile boolean incoming;
+
+    DeviceLink(ConnectionManager manager, long address, String name) {
+        this.manager = manager;
+        this.address = address;
+        this.name = name;
+        this.machine = new LinkStateMachine(address);
+    }
+
+    public long getAddress() {
+        return address;
+    }
+
+    public String getAddressString() {
+        return MacAddress.format(address);
+    }
+
+    /**
+     * 用于提示的设备名，名称未知时为地址。
+     */
+    public String getName() {
+        return name != null && !name.isEmpty() ? name : getAddressString();
+    }
+
+    /**
+     * 占位（开始连接）的时刻。
+     */
+    long getReservedAtNanos() {
+        return reservedAtNanos;
+    }
+
+    /**
+     * 本链路指标名称的前缀，例如 "link.AA:BB:CC:DD:EE:FF."，后接 bytes_in / messages_in / bytes_out / messages_out。
+     */
+    public String getMetricsPrefix() {
+        return "link." + getAddressString() + ".";
+    }
+
+    /**
+     * 当前状态的不可变快照。
+     */
+    public LinkStateMachine.Snapshot getSnapshot() {
+        return machine.get();
+    }
+
+    /**
+     * 当前状态对应的 {@link ConnectionState} 常量。
+     */
+    public int getState() {
+        return machine.get().toConnectionState();
+    }
+
+    public boolean isConnected() {
+        return machine.getState() == LinkStateMachine.State.CONNECTED;
+    }
+
+    /**
+     * 是否由设备连入（见 {@link ListenServer}）。这类链路断开后由设备重新连入，本机不应回拨。
+     */
+    public boolean isIncoming() {
+        return incoming;
+    }
+
+    void markIncoming() {
+        incoming = true;
+    }
+
+    /**
+     * 占位后进入 CONNECTING。
+     */
+    LinkStateMachine.Snapshot beginConnecting() {
+        return machine.transition(LinkStateMachine.State.NONE, LinkStateMachine.State.CONNECTING);
+    }
+
+    /**
+     * 连接建立后启动读取与发送线程。resumed 中的消息（上一条链路断开时未发出的）排在发送队列最前面。
+     */
+    void start(Connection connection, ConnectionManager.Config config, Collection<byte[]> resumed)
+            throws IOException {
+        if (machine.getState() != LinkStateMachine.State.CONNECTING) {
+            connection.close();
+            throw new IOException("链路已关闭");
+        }
+        this.connection = connection;
+        StreamCompression.Options compression = config.compression;
+        Boolean override = compressionEnabled;
+        boolean enabled = override != null ? override : compression.enabled;
+        if (enabled || incoming) {
+            // 接受方总要读取并应答对端的提议，本端关闭压缩时应答 REJECT；
+            // 协商期间断开会关闭原连接，协商随之失败
+            StreamCompression.Role role = incoming ? StreamCompression.Role.ACCEPTOR : StreamCompression.Role.DIALER;
+            connection = StreamCompression.negotiate(connection, role, enabled, compression, config.metrics,
+                    getMetricsPrefix());
+            this.connection = connection;
+        }
+        InputStream in = connection.getInputStream();
+        OutputStream out = connection.getOutputStream();
+        receiveLoop = new ReceiveLoop(config.bufferPool);
+        writer = new ConnectionWriter(out, config.writerOptions, getAddressString(), this::onFailure);
+        String prefix = getMetricsPrefix();
+        MetricsRegistry.Counter bytesIn = config.metrics.counter(prefix + "bytes_in");
+        MetricsRegistry.Counter messagesIn = config.metrics.counter(prefix + "messages_in");
+        bytesOut = config.metrics.counter(prefix + "bytes_out");
+        messagesOut = config.metrics.counter(prefix + "messages_out");
+        CaptureSink capture = config.captureSink;
+        this.capture = capture;
+        ReceiveLoop.Listener receiver;
+        if (config.binaryMessages) {
+            receiver = new BinaryReceiver(reader -> {
+                messagesIn.increment();
+                manager.dispatchBinaryMessage(this, reader);
+            });
+        } else {
+            receiver = new FramingReceiver(config.frameDecoderFactory.create(), new IncrementalTextDecoder(),
+                    text -> {
+                        messagesIn.increment();
+                        manager.dispatchMessage(this, text);
+                    });
+        }
+        readerThread = new Thread(() -> {
+            try {
+                receiveLoop.run(in, buffer -> {
+                    bytesIn.add(buffer.length());
+                    if (capture != null) {
+                        capture.onReceived(address, buffer.data, 0, buffer.length());
+                    }
+                    receiver.onReceive(buffer);
+                });
+            } catch (IOException e) {
+                onFailure(e);
+            }
+        }, "ConnectedThread-" + getAddressString());
+        for (byte[] bytes : resumed) {
+            if (writer.send(bytes)) {
+                bytesOut.add(bytes.length);
+                messagesOut.increment();
+            }
+        }
+        LinkStateMachine.Snapshot connected = machine.transition(LinkStateMachine.State.CONNECTING,
+                LinkStateMachine.State.CONNECTED);
+        if (connected == null) {
+            // 启动期间被断开，关闭一方可能还没看到这里的对象，自己再关一次
+            writer.close();
+            connection.close();
+            throw new IOException("链路已关闭");
+        }
+        manager.onTransition(this, connected);
+        writer.start();
+        readerThread.start();
+    }
+
+    /**
+     * 放入发送队列，未连接或队列已满时返回 false。发出的字节数与消息数按入队计数。
+     */
+    public boolean send(byte[] bytes) {
+        ConnectionWriter w = writer;
+        if (!isConnected() || w == null || !w.send(bytes)) {
+            return false;
+        }
+        bytesOut.add(bytes.length);
+        messagesOut.increment();
+        CaptureSink c = capture;
+        if (c != null) {
+            c.onSent(address, bytes, 0, bytes.length);
+        }
+        return true;
+    }
+
+    /**
+     * 发送 frame 中 position 到 limit 之间已编码好的消息，例如 {@link BinaryMessageWriter} 写出的帧。
+     * 内容被拷贝进发送队列，返回后 frame 可以立即复用；position 移到 limit。
+     */
+    public boolean send(ByteBuffer frame) {
+        byte[] bytes = new byte[frame.remaining()];
+        frame.get(bytes);
+        return send(bytes);
+    }
+
+    /**
+     * 链路断开后取出尚未确认发出的消息，供重连后继续发送：断开时正在写出的那一批排在最前，之后是队列中剩余的。
+     */
+    public List<byte[]> drainPending() {
+        ArrayList<byte[]> pending = new ArrayList<>();
+        if (!machine.get().isTerminal()) {
+            return pending;
+        }
+        ConnectionWriter w = writer;
+        if (w == null) {
+            return pending;
+        }
+        try {
+            w.awaitTermination(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        w.drainPending(pending);
+        return pending;
+    }
+
+    /**
+     * 为这条链路单独开启或关闭压缩，覆盖 Config 的默认值。在 attach 之前调用，对已建立的连接不起作用。
+     */
+    public void setCompressionEnabled(boolean enabled) {
+        compressionEnabled = enabled;
+    }
+
+    /**
+     * 压缩比与压缩耗时，链路未协商压缩时为 null。
+     */
+    public StreamCompression.Stats getCompressionStats() {
+        Connection c = connection;
+        return c instanceof StreamCompression.CompressedConnection
+                ? ((StreamCompression.CompressedConnection) c).getStats() : null;
+    }
+
+    public ConnectionWriter.Stats getWriterStats() {
+        ConnectionWriter w = writer;
+        return w != null ? w.getStats() : null;
+    }
+
+    private void onFailure(IOException e) {
+        terminate(LinkStateMachine.State.LOST, e);
+    }
+
+    /**
+     * 主动断开或放弃连接，不会报告为连接丢失。
+     */
+    public void close() {
+        terminate(LinkStateMachine.State.CLOSED, null);
+    }
+
+    private void terminate(LinkStateMachine.State terminal, IOException cause) {
+        LinkStateMachine.Snapshot snapshot = machine.terminate(terminal, cause);
+        if (snapshot == null) {
+            return;
+        }
+        // 先停止收发，监听者在通知里可以取出未发送的消息
+        ReceiveLoop loop = receiveLoop;
+        if (loop != null) {
+            loop.stop();
+        }
+        ConnectionWriter w = writer;
+        if (w != null) {
+            w.close();
+        }
+        Connection c = connection;
+        if (c != null) {
+            try {
+                c.close();
+            } catch (IOException ignored) {
+                // 关闭失败不影响链路状态
+            }
+        }
+        manager.onTransition(this, snapshot);
+    }
+
+    Thread getReaderThread() {
+        return readerThread;
+    }
+
+    /**
+     * 仍在运行的读写线程数。每条链路固定一个读取线程和一个发送线程，链路关闭后两者都会退出。
+     */
+    int liveThreadCount() {
+        Thread reader = readerThread;
+        ConnectionWriter w = writer;
+        int count = 0;
+        if (reader != null && reader.isAlive()) {
+            count++;
+        }
+        if (w != null && w.isThreadAlive()) {
+            count++;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,133 @@
+package com.adan.bluetoothtest;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.RecyclerView;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * 设备列表的 RecyclerView 适配器。
+ * <p>
+ * 与 AsyncListDiffer 的做法相同：{@link #submitList(List)} 把新快照交给后台线程，
+ * 由 DeviceListDiff 计算差分后回到主线程分发 notifyItemRangeXxx。
+ * 如果差分期间又提交了新快照，旧的结果直接丢弃。主线程上只剩快照生成和单行绑定。
+ */
+public class DeviceListAdapter extends RecyclerView.Adapter<DeviceListAdapter.ViewHolder> {
+
+    public interface OnDeviceClickListener {
+        void onDeviceClick(DeviceRow row);
+    }
+
+    private static final Executor DIFF_EXECUTOR = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "DeviceListDiff");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final OnDeviceClickListener clickListener;
+    private List<DeviceRow> rows = Collections.emptyList();
+    private int maxScheduledGeneration;
+
+    private final DeviceListDiff.Callback updateCallback = new DeviceListDiff.Callback() {
+        @Override
+        public void onInserted(int position, int count) {
+            notifyItemRangeInserted(position, count);
+        }
+
+        @Override
+        public void onRemoved(int position, int count) {
+            notifyItemRangeRemoved(position, count);
+        }
+
+        @Override
+        public void onChanged(int position, int count) {
+            notifyItemRangeChanged(position, count);
+        }
+    };
+
+    public DeviceListAdapter(OnDeviceClickListener clickListener) {
+        this.clickListener = clickListener;
+    }
+
+    /**
+     * 提交新的列表快照，必须在主线程调用。快照应当是不可变的（见 DeviceRegistry#snapshot()）。
+     */
+    public void submitList(List<DeviceRow> newRows) {
+        final int generation = ++maxScheduledGeneration;
+        final List<DeviceRow> oldRows = rows;
+        if (newRows == oldRows) {
+            return;
+        }
+        if (oldRows.isEmpty()) {
+            rows = newRows;
+            notifyItemRangeInserted(0, newRows.size());
+            return;
+        }
+        DIFF_EXECUTOR.execute(() -> {
+            final DeviceListDiff.Result result = DeviceListDiff.calculate(oldRows, newRows);
+            mainHandler.post(() -> {
+                if (generation == maxScheduledGeneration) {
+                    rows = newRows;
+                    result.dispatchTo(updateCallback);
+                }
+            });
+        });
+    }
+
+    public List<DeviceRow> getCurrentList() {
+        return rows;
+    }
+
+    @Override
+    public int getItemCount() {
+        return rows.size();
+    }
+
+    @Override
+    public int getItemViewType(int position) {
+        return rows.get(position).getType();
+    }
+
+    @NonNull
+    @Override
+    public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        View view = LayoutInflater.from(parent.getContext()).inflate(android.R.layout.simple_list_item_1, parent, false);
+        return new ViewHolder(view);
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
+        DeviceRow row = rows.get(position);
+        holder.text.setText(row.getText());
+        if (row.isDevice()) {
+            holder.itemView.setOnClickListener(v -> {
+                int current = holder.getBindingAdapterPosition();
+                if (current != RecyclerView.NO_POSITION) {
+                    clickListener.onDeviceClick(rows.get(current));
+                }
+            });
+        } else {
+            holder.itemView.setOnClickListener(null);
+        }
+    }
+
+    static class ViewHolder extends RecyclerView.ViewHolder {
+        final TextView text;
+
+        ViewHolder(View itemView) {
+            super(itemView);
+            text = itemView.findViewById(android.R.id.text1);
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package com.adan.bluetoothtest;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * 设备列表的增量差分。
+ * <p>
+ * 行以 {@link DeviceRow#getKey()} 唯一标识。保留下来的行中取新位置的最长递增子序列作为“不动”的行，
+ * 其余旧行视为删除、其余新行视为插入，不动但内容变化的行发出 changed。复杂度 O(n log n)，
+ * 不依赖 Android，可以在后台线程计算、在单元测试中直接验证。
+ * <p>
+ * 单个设备的状态变化只会产生一条 onChanged(position, 1)。
+ */
+public final class DeviceListDiff {
+
+    /**
+     * 差分结果的接收方，语义与 RecyclerView 的 notifyItemRangeXxx 一致。
+     */
+    public interface Callback {
+        void onInserted(int position, int count);
+
+        void onRemoved(int position, int count);
+
+        void onChanged(int position, int count);
+    }
+
+    private static final int OP_REMOVE = 0;
+    private static final int OP_INSERT = 1;
+    private static final int OP_CHANGE = 2;
+
+    private DeviceListDiff() {
+    }
+
+    public static Result calculate(List<DeviceRow> oldList, List<DeviceRow> newList) {
+        int oldSize = oldList.size();
+        int newSize = newList.size();
+        HashMap<Long, Integer> newIndexByKey = new HashMap<>(newSize * 2);
+        for (int j = 0; j < newSize; j++) {
+            newIndexByKey.put(newList.get(j).getKey(), j);
+        }
+
+        // 旧行在新列表中的位置（不存在为 -1）及其反向索引
+        int[] newIndexOfOld = new int[oldSize];
+        int[] oldIndexOfNew = new int[newSize];
+        Arrays.fill(oldIndexOfNew, -1);
+        for (int i = 0; i < oldSize; i++) {
+            Integer j = newIndexByKey.get(oldList.get(i).getKey());
+            newIndexOfOld[i] = j == null ? -1 : j;
+            if (j != null) {
+                oldIndexOfNew[j] = i;
+            }
+        }
+
+        boolean[] stableOld = new boolean[oldSize];
+        boolean[] stableNew = new boolean[newSize];
+        markLongestIncreasing(newIndexOfOld, stableOld, stableNew);
+
+        Result result = new Result();
+        // 删除从后往前，保证前面的位置不受影响
+        int i = oldSize - 1;
+        while (i >= 0) {
+            if (stableOld[i]) {
+                i--;
+                continue;
+            }
+            int end = i;
+            while (i >= 0 && !stableOld[i]) {
+                i--;
+            }
+            result.add(OP_REMOVE, i + 1, end - i);
+        }
+        // 插入从前往后，插入点之前的行此时已与新列表一致
+        int j = 0;
+        while (j < newSize) {
+            if (stableNew[j]) {
+                j++;
+                continue;
+            }
+            int start = j;
+            while (j < newSize && !stableNew[j]) {
+                j++;
+            }
+            result.add(OP_INSERT, start, j - start);
+        }
+        j = 0;
+        while (j < newSize) {
+            if (!isChanged(oldList, newList, stableNew, oldIndexOfNew, j)) {
+                j++;
+                continue;
+            }
+            int start = j;
+            while (j < newSize && isChanged(oldList, newList, stableNew, oldIndexOfNew, j)) {
+                j++;
+            }
+            result.add(OP_CHANGE, start, j - start);
+        }
+        return result;
+    }
+
+    private static boolean isChanged(List<DeviceRow> oldList, List<DeviceRow> newList,
+                                     boolean[] stableNew, int[] oldIndexOfNew, int newIndex) {
+        return stableNew[newIndex] && !oldList.get(oldIndexOfNew[newIndex]).equals(newList.get(newIndex));
+    }
+
+    /**
+     * 在 seq（忽略 -1）上求最长严格递增子序列，标记其中的旧/新下标。
+     */
+    private static void markLongestIncreasing(int[] seq, boolean[] stableOld, boolean[] stableNew) {
+        int n = seq.length;
+        int[] tailValue = new int[n];
+        int[] tailIndex = new int[n];
+        int[] previous = new int[n];
+        int length = 0;
+        for (int i = 0; i < n; i++) {
+            int value = seq[i];
+            if (value < 0) {
+                continue;
+            }
+            int pos = Arrays.binarySearch(tailValue, 0, length, value);
+            if (pos < 0) {
+                pos = -pos - 1;
+            }
+            tailValue[pos] = value;
+            tailIndex[pos] = i;
+            previous[i] = pos > 0 ? tailIndex[pos - 1] : -1;
+            if (pos == length) {
+                length++;
+            }
+        }
+        int i = length > 0 ? tailIndex[length - 1] : -1;
+        while (i >= 0) {
+            stableOld[i] = true;
+            stableNew[seq[i]] = true;
+            i = previous[i];
+        }
+    }
+
+    /**
+     * 一次差分的结果，可以多次分发。
+     */
+    public static final class Result {
+        private int[] ops = new int[12];
+        private int size;
+
+        private void add(int op, int position, int count) {
+            if (size + 3 > ops.length) {
+                ops = Arrays.copyOf(ops, ops.length * 2);
+            }
+            ops[size++] = op;
+            ops[size++] = position;
+            ops[size++] = count;
+        }
+
+        public int operationCount() {
+            return size / 3;
+        }
+
+        public boolean isEmpty() {
+            return size == 0;
+        }
+
+        public void dispatchTo(Callback callback) {
+            for (int k = 0; k < size; k += 3) {
+                switch (ops[k]) {
+                    case OP_REMOVE:
+                        callback.onRemoved(ops[k + 1], ops[k + 2]);
+                        break;
+                    case OP_INSERT:
+                        callback.onInserted(ops[k + 1], ops[k + 2]);
+                        break;
+                    case OP_CHANGE:
+                        callback.onChanged(ops[k + 1], ops[k + 2]);
+                        break;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.adan.bluetoothtest;
+
+/**
+ * 设备注册表中的一条设备记录。
+ * 地址以 48 位 long 保存，其余字段由 DeviceRegistry 在主线程上维护。
+ */
+public final class DeviceRecord {
+
+    /**
+     * 设备在列表中所属的分区。
+     */
+    public enum Section {
+        PAIRED,
+        NEW
+    }
+
+    public static final String UNKNOWN_NAME = "未知设备";
+
+    final long address;
+    String name;
+    int bondState;
+    int connectionState = ConnectionState.STATE_NONE;
+    Section section;
+    int pairedGeneration;
+    // 以下字段不显示在列表中，随 DeviceCache 持久化
+    long lastSeenMillis;
+    short rssi = DeviceSighting.RSSI_UNKNOWN;
+    int connectSuccesses;
+    int connectFailures;
+    // 缓存的列表行，字段变化时由 DeviceRegistry 置空
+    DeviceRow row;
+
+    DeviceRecord(long address, Section section) {
+        this.address = address;
+        this.section = section;
+    }
+
+    public long getAddress() {
+        return address;
+    }
+
+    public String getAddressString() {
+        return MacAddress.format(address);
+    }
+
+    /**
+     * 原始名称，可能为 null。
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * 用于显示的名称，名称为空时回退为“未知设备”。
+     */
+    public String getDisplayName() {
+        return name == null || name.isEmpty() ? UNKNOWN_NAME : name;
+    }
+
+    public int getBondState() {
+        return bondState;
+    }
+
+    public int getConnectionState() {
+        return connectionState;
+    }
+
+    public boolean isConnected() {
+        return connectionState == ConnectionState.STATE_CONNECTED;
+    }
+
+    public Section getSection() {
+        return section;
+    }
+
+    /**
+     * 最后一次被扫描到或连接成功的时间，未知时为 0。
+     */
+    public long getLastSeenMillis() {
+        return lastSeenMillis;
+    }
+
+    public short getRssi() {
+        return rssi;
+    }
+
+    public int getConnectSuccesses() {
+        return connectSuccesses;
+    }
+
+    public int getConnectFailures() {
+        return connectFailures;
+    }
+}
@@ -0,0 +1,325 @@
+package com.adan.bluetoothtest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * 以 MAC 地址为键的设备注册表。
+ * <p>
+ * 取代原先在 ArrayList&lt;String&gt; 上用 endsWith(address) 线性查找去重的做法：
+ * 查找、插入、状态修改均为 O(1)。列表界面只是它的一个投影：
+ * {@link #snapshot()} 生成不可变的行列表，交给 DeviceListDiff 在后台差分。
+ * 每条记录缓存自己的 DeviceRow，只有发生变化的记录才会重新生成行文本。
+ * <p>
+ * 行布局与原列表保持一致：
+ * <pre>
+ * --- 已配对设备 ---
+ * 已配对设备... 或 “无已配对设备”
+ * --- 新设备 ---            （发现过设备或刷新过之后才显示）
+ * 新设备... 或 “未发现新设备”
+ * </pre>
+ * 非线程安全，只应在主线程上访问。
+ */
+public final class DeviceRegistry {
+    public static final String HEADER_PAIRED = "--- 已配对设备 ---";
+    public static final String HEADER_NEW = "--- 新设备 ---";
+    public static final String EMPTY_PAIRED = "无已配对设备";
+    public static final String EMPTY_NEW = "未发现新设备";
+    // 与 BluetoothDevice.BOND_BONDED 相同，注册表不依赖 Android 框架
+    static final int BOND_BONDED = 12;
+
+    private final HashMap<Long, DeviceRecord> records = new HashMap<>();
+    private final ArrayList<DeviceRecord> paired = new ArrayList<>();
+    private final ArrayList<DeviceRecord> newDevices = new ArrayList<>();
+    private boolean newSectionVisible;
+    private int pairedGeneration;
+    private List<DeviceRecord> previousPaired;
+
+    public DeviceRecord get(long address) {
+        return records.get(address);
+    }
+
+    public DeviceRecord get(String address) {
+        return records.get(MacAddress.pack(address));
+    }
+
+    /**
+     * 真实设备数量（不含分区标题与占位行）。
+     */
+    public int deviceCount() {
+        return paired.size() + newDevices.size();
+    }
+
+    /**
+     * 记录一次扫描发现。已存在的设备只更新名称。
+     *
+     * @return 投影是否发生变化
+     */
+    public boolean putDiscovered(long address, String name) {
+        boolean sectionAppeared = !newSectionVisible;
+        newSectionVisible = true;
+        DeviceRecord record = records.get(address);
+        if (record != null) {
+            if (equalsNullable(record.name, name) || name == null) {
+                return sectionAppeared;
+            }
+            record.name = name;
+            record.row = null;
+            return true;
+        }
+        record = new DeviceRecord(address, DeviceRecord.Section.NEW);
+        record.name = name;
+        records.put(address, record);
+        newDevices.add(record);
+        return true;
+    }
+
+    /**
+     * 开始重建已配对分区。之后对每个已配对设备调用 {@link #putPaired}，最后调用 {@link #endPairedUpdate()}。
+     * 仍然配对的设备会复用原有记录，保留其连接状态。
+     */
+    public void beginPairedUpdate() {
+        pairedGeneration++;
+        previousPaired = new ArrayList<>(paired);
+        paired.clear();
+    }
+
+    public DeviceRecord putPaired(long address, String name, int bondState) {
+        DeviceRecord record = records.get(address);
+        if (record == null) {
+            record = new DeviceRecord(address, DeviceRecord.Section.PAIRED);
+            records.put(address, record);
+        } else if (record.section == DeviceRecord.Section.NEW) {
+            // 新设备完成配对，移入已配对分区（仅在配对状态变化时发生）
+            newDevices.remove(record);
+            record.section = DeviceRecord.Section.PAIRED;
+            record.row = null;
+        }
+        if (name != null && !name.equals(record.name)) {
+            record.name = name;
+            record.row = null;
+        }
+        record.bondState = bondState;
+        record.pairedGeneration = pairedGeneration;
+        paired.add(record);
+        return record;
+    }
+
+    /**
+     * 结束已配对分区的重建，移除不再配对的设备。
+     */
+    public void endPairedUpdate() {
+        if (previousPaired == null) {
+            return;
+        }
+        for (DeviceRecord record : previousPaired) {
+            if (record.section == DeviceRecord.Section.PAIRED && record.pairedGeneration != pairedGeneration) {
+                records.remove(record.address);
+            }
+        }
+        previousPaired = null;
+    }
+
+    /**
+     * 清空已配对分区，例如蓝牙未开启或缺少权限时。
+     */
+    public void clearPaired() {
+        beginPairedUpdate();
+        endPairedUpdate();
+    }
+
+    public void showNewSection() {
+        newSectionVisible = true;
+    }
+
+    /**
+     * 更新设备名称，设备不存在或名称未变时返回 false。
+     */
+    public boolean updateName(long address, String name) {
+        DeviceRecord record = records.get(address);
+        if (record == null || name == null || name.equals(record.name)) {
+            return false;
+        }
+        record.name = name;
+        record.row = null;
+        return true;
+    }
+
+    /**
+     * 更新设备连接状态，设备不存在或状态未变时返回 false。
+     */
+    public boolean setConnectionState(long address, int state) {
+        DeviceRecord record = records.get(address);
+        if (record == null || record.connectionState == state) {
+            return false;
+        }
+        record.connectionState = state;
+        record.row = null;
+        return true;
+    }
+
+    /**
+     * 将所有设备重置为未连接。
+     */
+    public void clearConnectionStates() {
+        for (DeviceRecord record : records.values()) {
+            if (record.connectionState != ConnectionState.STATE_NONE) {
+                record.connectionState = ConnectionState.STATE_NONE;
+                record.row = null;
+            }
+        }
+    }
+
+    /**
+     * 记录扫描到的信号强度和时间，不影响列表显示。
+     */
+    public void recordSighting(long address, int rssi, long timestampMillis) {
+        DeviceRecord record = records.get(address);
+        if (record != null) {
+            record.lastSeenMillis = Math.max(record.lastSeenMillis, timestampMillis);
+            if (rssi != DeviceSighting.RSSI_UNKNOWN) {
+                record.rssi = (short) rssi;
+            }
+        }
+    }
+
+    /**
+     * 记录一次连接结果，成功时同时更新最后出现时间。
+     */
+    public void recordConnectResult(long address, boolean success, long timestampMillis) {
+        DeviceRecord record = records.get(address);
+        if (record == null) {
+            return;
+        }
+        if (success) {
+            record.connectSuccesses++;
+            record.lastSeenMillis = Math.max(record.lastSeenMillis, timestampMillis);
+        } else {
+            record.connectFailures++;
+        }
+    }
+
+    // ---- 持久化 ----
+
+    /**
+     * 从缓存恢复设备。已经存在的设备（实时数据）保持不变，只补充缓存中才有的设备。
+     * 恢复的已配对设备在下一次已配对分区重建时与实际配对列表核对。
+     *
+     * @return 列表是否发生变化
+     */
+    public boolean restore(List<DeviceCache.Entry> entries) {
+        boolean changed = false;
+        for (int i = 0, n = entries.size(); i < n; i++) {
+            DeviceCache.Entry entry = entries.get(i);
+            if (records.containsKey(entry.address)) {
+                continue;
+            }
+            DeviceRecord record = new DeviceRecord(entry.address,
+                    entry.paired ? DeviceRecord.Section.PAIRED : DeviceRecord.Section.NEW);
+            record.name = entry.name;
+            record.lastSeenMillis = entry.lastSeenMillis;
+            record.rssi = entry.rssi;
+            record.connectSuccesses = entry.connectSuccesses;
+            record.connectFailures = entry.connectFailures;
+            records.put(entry.address, record);
+            if (entry.paired) {
+                record.bondState = BOND_BONDED;
+                record.pairedGeneration = pairedGeneration;
+                paired.add(record);
+            } else {
+                newSectionVisible = true;
+                newDevices.add(record);
+            }
+            changed = true;
+        }
+        return changed;
+    }
+
+    /**
+     * 生成缓存内容：已配对设备在前，新设备在后。
+     */
+    public List<DeviceCache.Entry> toCacheEntries() {
+        ArrayList<DeviceCache.Entry> entries = new ArrayList<>(deviceCount());
+        for (int i = 0, n = paired.size(); i < n; i++) {
+            entries.add(toCacheEntry(paired.get(i), true));
+        }
+        for (int i = 0, n = newDevices.size(); i < n; i++) {
+            entries.add(toCacheEntry(newDevices.get(i), false));
+        }
+        return entries;
+    }
+
+    private static DeviceCache.Entry toCacheEntry(DeviceRecord record, boolean paired) {
+        return new DeviceCache.Entry(record.address, record.name, record.lastSeenMillis, record.rssi, paired,
+                record.connectSuccesses, record.connectFailures);
+    }
+
+    public List<DeviceRecord> pairedDevices() {
+        return paired;
+    }
+
+    public List<DeviceRecord> newDevices() {
+        return newDevices;
+    }
+
+    // ---- 列表投影 ----
+
+    /**
+     * 生成当前列表的不可变快照。只复制行引用，未变化的记录复用缓存的 DeviceRow。
+     */
+    public List<DeviceRow> snapshot() {
+        ArrayList<DeviceRow> rows = new ArrayList<>(deviceCount() + 4);
+        rows.add(DeviceRow.HEADER_PAIRED);
+        if (paired.isEmpty()) {
+            rows.add(DeviceRow.EMPTY_PAIRED);
+        } else {
+            for (int i = 0, n = paired.size(); i < n; i++) {
+                rows.add(rowOf(paired.get(i)));
+            }
+        }
+        if (newSectionVisible) {
+            rows.add(DeviceRow.HEADER_NEW);
+            if (newDevices.isEmpty()) {
+                rows.add(DeviceRow.EMPTY_NEW);
+            } else {
+                for (int i = 0, n = newDevices.size(); i < n; i++) {
+                    rows.add(rowOf(newDevices.get(i)));
+                }
+            }
+        }
+        return Collections.unmodifiableList(rows);
+    }
+
+    private static DeviceRow rowOf(DeviceRecord record) {
+        DeviceRow row = record.row;
+        if (row == null) {
+            row = new DeviceRow(DeviceRow.TYPE_DEVICE, record.address, format(record));
+            record.row = row;
+        }
+        return row;
+    }
+
+    static String format(DeviceRecord record) {
+        return record.getDisplayName() + statusSuffix(record) + "\n" + record.getAddressString();
+    }
+
+    /**
+     * 已配对设备总是显示连接状态；新设备只在连接中或已连接时显示。
+     */
+    private static String statusSuffix(DeviceRecord record) {
+        switch (record.connectionState) {
+            case ConnectionState.STATE_CONNECTED:
+                return " (已连接)";
+            case ConnectionState.STATE_CONNECTING:
+                return " (连接中)";
+            default:
+                return record.section == DeviceRecord.Section.PAIRED ? " (未连接)" : "";
+        }
+    }
+
+    private static boolean equalsNullable(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
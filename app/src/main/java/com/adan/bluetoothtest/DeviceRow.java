@@ -0,0 +1,69 @@
+package com.adan.bluetoothtest;
+
+/**
+ * 设备列表中的一行，不可变。
+ * 由 DeviceRegistry 生成快照，交给 DeviceListDiff 在后台线程比较，因此必须是值对象。
+ */
+public final class DeviceRow {
+    public static final int TYPE_HEADER = 0;
+    public static final int TYPE_PLACEHOLDER = 1;
+    public static final int TYPE_DEVICE = 2;
+
+    // 非设备行使用负数键，与 48 位 MAC 地址不会冲突
+    static final long KEY_HEADER_PAIRED = -1;
+    static final long KEY_EMPTY_PAIRED = -2;
+    static final long KEY_HEADER_NEW = -3;
+    static final long KEY_EMPTY_NEW = -4;
+
+    static final DeviceRow HEADER_PAIRED = new DeviceRow(TYPE_HEADER, KEY_HEADER_PAIRED, DeviceRegistry.HEADER_PAIRED);
+    static final DeviceRow EMPTY_PAIRED = new DeviceRow(TYPE_PLACEHOLDER, KEY_EMPTY_PAIRED, DeviceRegistry.EMPTY_PAIRED);
+    static final DeviceRow HEADER_NEW = new DeviceRow(TYPE_HEADER, KEY_HEADER_NEW, DeviceRegistry.HEADER_NEW);
+    static final DeviceRow EMPTY_NEW = new DeviceRow(TYPE_PLACEHOLDER, KEY_EMPTY_NEW, DeviceRegistry.EMPTY_NEW);
+
+    private final int type;
+    private final long key;
+    private final String text;
+
+    DeviceRow(int type, long key, String text) {
+        this.type = type;
+        this.key = key;
+        this.text = text;
+    }
+
+    public int getType() {
+        return type;
+    }
+
+    /**
+     * 行的稳定标识：设备行为打包后的 MAC 地址，其余行为负数常量。
+     */
+    public long getKey() {
+        return key;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public boolean isDevice() {
+        return type == TYPE_DEVICE;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof DeviceRow)) return false;
+        DeviceRow other = (DeviceRow) o;
+        return type == other.type && key == other.key && text.equals(other.text);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Long.hashCode(key) + text.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+}
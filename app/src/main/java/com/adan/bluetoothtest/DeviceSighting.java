@@ -0,0 +1,48 @@
+package com.adan.bluetoothtest;
+
+/**
+ * 一次扫描发现事件。在 DiscoveryBatcher 中按地址合并，同一批次内同一设备只保留一条。
+ */
+public final class DeviceSighting {
+    public static final int RSSI_UNKNOWN = Short.MIN_VALUE;
+
+    final long address;
+    String name;
+    int rssi;
+    long timestampMillis;
+    int count;
+
+    DeviceSighting(long address, String name, int rssi, long timestampMillis) {
+        this.address = address;
+        this.name = name;
+        this.rssi = rssi;
+        this.timestampMillis = timestampMillis;
+        this.count = 1;
+    }
+
+    public long getAddress() {
+        return address;
+    }
+
+    /**
+     * 批次内最后一次非空的名称，可能为 null。
+     */
+    public String getName() {
+        return name;
+    }
+
+    public int getRssi() {
+        return rssi;
+    }
+
+    public long getTimestampMillis() {
+        return timestampMillis;
+    }
+
+    /**
+     * 该批次内合并的发现次数。
+     */
+    public int getCount() {
+        return count;
+    }
+}
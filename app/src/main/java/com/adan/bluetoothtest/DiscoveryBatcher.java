@@ -0,0 +1,119 @@
+package com.adan.bluetoothtest;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 扫描发现事件的合并与限频刷新。
+ * <p>
+ * 每个 ACTION_FOUND 只进入缓冲区，第一次进入时请求一次刷新；
+ * 刷新由 {@link FlushScheduler} 决定时机（下一帧或固定间隔），一次把整批结果交给 {@link Sink}。
+ * 同一批次内对同一地址的重复发现会被合并，只保留最新的名称和信号强度。
+ * 因此 100 次连续发现最多只触发每帧一次列表刷新。
+ * <p>
+ * offer 可以从任意线程调用；flush 由调度器在主线程上执行。
+ */
+public final class DiscoveryBatcher {
+
+    public interface Sink {
+        /**
+         * 一批合并后的发现结果，按首次出现顺序排列。集合只在回调期间有效。
+         */
+        void onBatch(Collection<DeviceSighting> sightings);
+    }
+
+    public interface FlushScheduler {
+        /**
+         * 安排在合适的时机（下一帧或间隔到期）调用 flush。每个批次只会调用一次。
+         */
+        void requestFlush(Runnable flush);
+    }
+
+    private final FlushScheduler scheduler;
+    private final Sink sink;
+    private final Object lock = new Object();
+    private LinkedHashMap<Long, DeviceSighting> pending = new LinkedHashMap<>();
+    private LinkedHashMap<Long, DeviceSighting> flushing = new LinkedHashMap<>();
+    private boolean flushRequested;
+
+    private final AtomicLong eventsReceived = new AtomicLong();
+    private final AtomicLong sightingsMerged = new AtomicLong();
+    private final AtomicLong flushesPerformed = new AtomicLong();
+
+    private final Runnable flushTask = this::flush;
+
+    public DiscoveryBatcher(FlushScheduler scheduler, Sink sink) {
+        this.scheduler = scheduler;
+        this.sink = sink;
+    }
+
+    public void offer(long address, String name, int rssi, long timestampMillis) {
+        eventsReceived.incrementAndGet();
+        boolean requestFlush = false;
+        synchronized (lock) {
+            DeviceSighting sighting = pending.get(address);
+            if (sighting == null) {
+                pending.put(address, new DeviceSighting(address, name, rssi, timestampMillis));
+            } else {
+                sightingsMerged.incrementAndGet();
+                if (name != null) {
+                    sighting.name = name;
+                }
+                if (rssi != DeviceSighting.RSSI_UNKNOWN) {
+                    sighting.rssi = rssi;
+                }
+                sighting.timestampMillis = timestampMillis;
+                sighting.count++;
+            }
+            if (!flushRequested) {
+                flushRequested = true;
+                requestFlush = true;
+            }
+        }
+        if (requestFlush) {
+            scheduler.requestFlush(flushTask);
+        }
+    }
+
+    /**
+     * 立即把缓冲区交给 Sink，例如扫描结束时。缓冲区为空时什么也不做。
+     */
+    public void flush() {
+        LinkedHashMap<Long, DeviceSighting> batch;
+        synchronized (lock) {
+            flushRequested = false;
+            if (pending.isEmpty()) {
+                return;
+            }
+            // 双缓冲交换，回调期间新的发现写入另一张表
+            batch = pending;
+            pending = flushing;
+            flushing = batch;
+        }
+        flushesPerformed.incrementAndGet();
+        try {
+            sink.onBatch(batch.values());
+        } finally {
+            batch.clear();
+        }
+    }
+
+    public long getEventsReceived() {
+        return eventsReceived.get();
+    }
+
+    public long getSightingsMerged() {
+        return sightingsMerged.get();
+    }
+
+    public long getFlushesPerformed() {
+        return flushesPerformed.get();
+    }
+
+    public void resetCounters() {
+        eventsReceived.set(0);
+        sightingsMerged.set(0);
+        flushesPerformed.set(0);
+    }
+}
@@ -0,0 +1,125 @@
+package com.adan.bluetoothtest;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 分块文件传输的帧格式，{@link FileTransferSender} 与 {@link FileTransferReceiver} 共用。
+ * <p>
+ * 传输模式独占一条连接，不经过 DeviceLink 的文本收发。每帧为“长度 u32 | 类型 u8 | 内容”，
+ * 小端序，长度为内容的字节数：
+ * <pre>
+ * OFFER  发送方 → 接收方：传输 ID i64 | 文件长度 i64 | 块大小 u32 | 名称长度 u16 | 名称 UTF-8
+ * ACCEPT 接收方 → 发送方：传输 ID i64 | 续传偏移 i64（已校验并写入的字节数）
+ * DATA   发送方 → 接收方：偏移 i64 | CRC32 u32 | 数据
+ * ACK    接收方 → 发送方：偏移 i64，此前的数据都已校验并写入（累计确认）
+ * NAK    接收方 → 发送方：偏移 i64，从这里开始的块校验失败，发送方回退到此处重发
+ * REJECT 接收方 → 发送方：原因 UTF-8
+ * </pre>
+ * 接收方只按顺序接受数据，偏移不等于已写入长度的块直接丢弃（回退 N 帧）。
+ * 同一文件的传输 ID 不变，断线重连后再次发送 OFFER，接收方从未完成文件的长度继续。
+ */
+final class FileTransfer {
+    static final int TYPE_OFFER = 1;
+    static final int TYPE_ACCEPT = 2;
+    static final int TYPE_DATA = 3;
+    static final int TYPE_ACK = 4;
+    static final int TYPE_NAK = 5;
+    static final int TYPE_REJECT = 6;
+
+    static final int FRAME_HEADER_SIZE = 5;
+    static final int DATA_HEADER_SIZE = FRAME_HEADER_SIZE + 12;
+    // 除 DATA 以外的帧都不超过这个长度
+    static final int MAX_CONTROL_FRAME = 1024;
+    static final int MAX_NAME_BYTES = 255;
+    static final int MAX_CHUNK_BYTES = 1024 * 1024;
+
+    private FileTransfer() {
+    }
+
+    /**
+     * 传输 ID，由路径、长度和修改时间得出：文件不变时重新发送得到同一个 ID，接收方据此续传。
+     */
+    static long transferId(File file) {
+        long h = 1125899906842597L;
+        String path = file.getAbsolutePath();
+        for (int i = 0; i < path.length(); i++) {
+            h = 31 * h + path.charAt(i);
+        }
+        h ^= file.length() * 0x9E3779B97F4A7C15L;
+        h = 31 * h + file.lastModified();
+        return h;
+    }
+
+    static ByteBuffer allocate(int capacity) {
+        return ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * 读取一帧到 frame 的底层数组，返回帧类型；之后 frame 的 position 到 limit 为帧内容。
+     *
+     * @throws IOException 连接断开或帧超过 frame 的容量
+     */
+    static int readFrame(InputStream in, ByteBuffer frame) throws IOException {
+        byte[] array = frame.array();
+        readFully(in, array, 0, FRAME_HEADER_SIZE);
+        int length = frame.getInt(0);
+        int type = array[4] & 0xFF;
+        if (length < 0 || length > frame.capacity() - FRAME_HEADER_SIZE) {
+            throw new IOException("帧过长: " + length);
+        }
+        readFully(in, array, FRAME_HEADER_SIZE, length);
+        frame.limit(FRAME_HEADER_SIZE + length);
+        frame.position(FRAME_HEADER_SIZE);
+        return type;
+    }
+
+    private static void readFully(InputStream in, byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            int n = in.read(b, off, len);
+            if (n < 0) {
+                throw new EOFException("连接已断开");
+            }
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * 开始在 frame 中构造一帧，之后用 put 写入内容，再调用 {@link #writeFrame}。
+     */
+    static ByteBuffer beginFrame(ByteBuffer frame, int type) {
+        frame.clear();
+        frame.putInt(0);
+        frame.put((byte) type);
+        return frame;
+    }
+
+    static void writeFrame(OutputStream out, ByteBuffer frame) throws IOException {
+        frame.putInt(0, frame.position() - FRAME_HEADER_SIZE);
+        out.write(frame.array(), 0, frame.position());
+        out.flush();
+    }
+
+    static void writeOffset(OutputStream out, ByteBuffer frame, int type, long offset) throws IOException {
+        writeFrame(out, beginFrame(frame, type).putLong(offset));
+    }
+
+    static void writeReject(OutputStream out, ByteBuffer frame, String reason) throws IOException {
+        byte[] bytes = reason.getBytes(StandardCharsets.UTF_8);
+        int length = Math.min(bytes.length, frame.capacity() - FRAME_HEADER_SIZE);
+        writeFrame(out, beginFrame(frame, TYPE_REJECT).put(bytes, 0, length));
+    }
+
+    static String remainingString(ByteBuffer frame, int length) {
+        String text = new String(frame.array(), frame.position(), length, StandardCharsets.UTF_8);
+        frame.position(frame.position() + length);
+        return text;
+    }
+}
@@ -0,0 +1,166 @@
+package com.adan.bluetoothtest;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * 文件传输模式的接收方，与 {@link FileTransferSender} 配对。
+ * <p>
+ * 数据先写入目标目录下的 "名称.传输ID.part"，每块校验 CRC32 后按顺序写入并累计确认，
+ * 校验失败时发送一次 NAK 让发送方回退重发。连接断开时保留 .part 文件，
+ * 同一传输再次连接时从它的长度续传；全部收到后刷到磁盘并改名为目标文件。
+ */
+public final class FileTransferReceiver {
+
+    public static final class Options {
+        int maxChunkBytes = 64 * 1024;
+
+        /**
+         * 接受的最大块大小，发送方的 chunkBytes 超过它时拒绝传输。
+         */
+        public Options maxChunkBytes(int bytes) {
+            if (bytes <= 0 || bytes > FileTransfer.MAX_CHUNK_BYTES) {
+                throw new IllegalArgumentException("maxChunkBytes out of range: " + bytes);
+            }
+            this.maxChunkBytes = bytes;
+            return this;
+        }
+    }
+
+    public interface Listener {
+        /**
+         * 已校验并写入的字节数，在接收线程上回调。
+         */
+        void onProgress(String name, long receivedBytes, long totalBytes);
+    }
+
+    public static final class Result {
+        public final File file;
+        public final long transferId;
+        public final long totalBytes;
+        /** 本次连接开始时 .part 文件已有的字节数 */
+        public final long resumedFrom;
+        public final int crcErrors;
+
+        Result(File file, long transferId, long totalBytes, long resumedFrom, int crcErrors) {
+            this.file = file;
+            this.transferId = transferId;
+            this.totalBytes = totalBytes;
+            this.resumedFrom = resumedFrom;
+            this.crcErrors = crcErrors;
+        }
+    }
+
+    private final File directory;
+    private final Options options;
+    private final MetricsRegistry.Counter bytesReceived;
+    private final MetricsRegistry.Counter crcErrors;
+
+    public FileTransferReceiver(File directory, Options options, MetricsRegistry metrics) {
+        this.directory = directory;
+        this.options = options;
+        this.bytesReceived = metrics.counter("transfer.received_bytes");
+        this.crcErrors = metrics.counter("transfer.crc_errors");
+    }
+
+    /**
+     * 在连接上接收一个文件，阻塞直到收完。连接断开时抛出 IOException，已收到的部分留待续传。
+     */
+    public Result receive(Connection connection, Listener listener) throws IOException {
+        InputStream in = connection.getInputStream();
+        OutputStream out = connection.getOutputStream();
+        ByteBuffer frame = FileTransfer.allocate(FileTransfer.DATA_HEADER_SIZE + options.maxChunkBytes);
+        ByteBuffer reply = FileTransfer.allocate(FileTransfer.MAX_CONTROL_FRAME);
+
+        int type = FileTransfer.readFrame(in, frame);
+        if (type != FileTransfer.TYPE_OFFER) {
+            throw new IOException("期望 OFFER，收到帧类型 " + type);
+        }
+        long id = frame.getLong();
+        long length = frame.getLong();
+        int chunkBytes = frame.getInt();
+        int nameLength = frame.getShort() & 0xFFFF;
+        if (nameLength > frame.remaining()) {
+            throw new IOException("OFFER 格式错误");
+        }
+        String name = safeName(FileTransfer.remainingString(frame, nameLength));
+        if (name == null || length < 0 || chunkBytes <= 0 || chunkBytes > options.maxChunkBytes) {
+            String reason = name == null ? "文件名无效" : "块大小 " + chunkBytes + " 超过上限 " + options.maxChunkBytes;
+            FileTransfer.writeReject(out, reply, reason);
+            throw new IOException("拒绝传输: " + reason);
+        }
+
+        File target = new File(directory, name);
+        File part = new File(directory, name + "." + Long.toHexString(id) + ".part");
+        long resumedFrom;
+        int errors = 0;
+        try (RandomAccessFile file = new RandomAccessFile(part, "rw")) {
+            FileChannel channel = file.getChannel();
+            long committed = Math.min(channel.size(), length);
+            channel.truncate(committed);
+            resumedFrom = committed;
+            FileTransfer.writeFrame(out, FileTransfer.beginFrame(reply, FileTransfer.TYPE_ACCEPT)
+                    .putLong(id).putLong(committed));
+
+            CRC32 crc = new CRC32();
+            boolean nakPending = false;
+            while (committed < length) {
+                type = FileTransfer.readFrame(in, frame);
+                if (type != FileTransfer.TYPE_DATA) {
+                    throw new IOException("期望 DATA，收到帧类型 " + type);
+                }
+                long offset = frame.getLong();
+                int expected = frame.getInt();
+                int n = frame.remaining();
+                if (offset != committed || n == 0) {
+                    // 回退重发之前已经在路上的块
+                    continue;
+                }
+                crc.reset();
+                crc.update(frame.array(), frame.position(), n);
+                if ((int) crc.getValue() != expected) {
+                    errors++;
+                    crcErrors.increment();
+                    if (!nakPending) {
+                        FileTransfer.writeOffset(out, reply, FileTransfer.TYPE_NAK, committed);
+                        nakPending = true;
+                    }
+                    continue;
+                }
+                while (frame.hasRemaining()) {
+                    channel.write(frame, committed + n - frame.remaining());
+                }
+                committed += n;
+                nakPending = false;
+                bytesReceived.add(n);
+                FileTransfer.writeOffset(out, reply, FileTransfer.TYPE_ACK, committed);
+                if (listener != null) {
+                    listener.onProgress(name, committed, length);
+                }
+            }
+            channel.force(false);
+        }
+        if (target.exists() && !target.delete()) {
+            throw new IOException("无法替换 " + target);
+        }
+        if (!part.renameTo(target)) {
+            throw new IOException("无法改名为 " + target);
+        }
+        return new Result(target, id, length, resumedFrom, errors);
+    }
+
+    // 只取最后一段，不允许写到目录之外
+    private static String safeName(String name) {
+        String base = new File(name).getName();
+        if (base.isEmpty() || base.equals(".") || base.equals("..") || base.indexOf('\\') >= 0) {
+            return null;
+        }
+        return base;
+    }
+}
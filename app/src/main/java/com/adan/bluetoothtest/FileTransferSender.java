@@ -0,0 +1,448 @@
+package com.adan.bluetoothtest;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * 文件传输模式的发送方：把文件按块从磁盘直接发出，不整个读入内存。
+ * <p>
+ * 最多 windowChunks 块未确认时继续发送，不必每块等一个往返，链路保持满载；
+ * 接收方按 CRC32 校验失败时回退到失败的块重发，重发的数据再次从磁盘读取。
+ * 连接断开后 {@link #sendWithResume} 按 {@link ReconnectPolicy} 重新连接，
+ * 从接收方最后确认的偏移继续。帧格式见 {@link FileTransfer}。
+ */
+public final class FileTransferSender {
+
+    public static final class Options {
+        int chunkBytes = 4096;
+        int windowChunks = 8;
+        long ackTimeoutMillis = 10_000;
+
+        /**
+         * 每个 DATA 帧的数据长度，不能超过接收方的 maxChunkBytes。
+         */
+        public Options chunkBytes(int bytes) {
+            if (bytes <= 0 || bytes > FileTransfer.MAX_CHUNK_BYTES) {
+                throw new IllegalArgumentException("chunkBytes out of range: " + bytes);
+            }
+            this.chunkBytes = bytes;
+            return this;
+        }
+
+        /**
+         * 最多允许多少块已发出但未确认。
+         */
+        public Options windowChunks(int chunks) {
+            if (chunks <= 0) {
+                throw new IllegalArgumentException("windowChunks must be positive");
+            }
+            this.windowChunks = chunks;
+            return this;
+        }
+
+        /**
+         * 这么久没有新的确认即认为链路中断。
+         */
+        public Options ackTimeoutMillis(long millis) {
+            this.ackTimeoutMillis = millis;
+            return this;
+        }
+    }
+
+    public interface Listener {
+        /**
+         * 接收方确认的进度，在确认读取线程上回调。
+         */
+        void onProgress(long ackedBytes, long totalBytes);
+
+        /**
+         * {@link #sendWithResume} 每次连接前调用，在发送线程上，例如暂停扫描。
+         */
+        default void onConnecting(String address, int attempt) {
+        }
+
+        /**
+         * 与 {@link #onConnecting} 成对，连接成功或失败后调用。
+         */
+        default void onConnectFinished(String address, boolean connected) {
+        }
+    }
+
+    public static final class Result {
+        public final long transferId;
+        public final long totalBytes;
+        /** 第一次连接时接收方已有的字节数 */
+        public final long resumedFrom;
+        /** 实际发出的数据字节数，包括重发 */
+        public final long sentBytes;
+        public final long retransmittedBytes;
+        public final int attempts;
+        public final long elapsedNanos;
+
+        Result(long transferId, long totalBytes, long resumedFrom, long sentBytes, long retransmittedBytes,
+               int attempts, long elapsedNanos) {
+            this.transferId = transferId;
+            this.totalBytes = totalBytes;
+            this.resumedFrom = resumedFrom;
+            this.sentBytes = sentBytes;
+            this.retransmittedBytes = retransmittedBytes;
+            this.attempts = attempts;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        /**
+         * 有效吞吐：本次送达的文件字节数除以总耗时（包括重连等待）。
+         */
+        public double throughputBytesPerSecond() {
+            return elapsedNanos > 0 ? (totalBytes - resumedFrom) * 1e9 / elapsedNanos : 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT,
+                    "transfer %016x: %d bytes, resumed from %d, sent %d, retransmitted %d, attempts %d, %.1f KB/s",
+                    transferId, totalBytes, resumedFrom, sentBytes, retransmittedBytes, attempts,
+                    throughputBytesPerSecond() / 1024);
+        }
+    }
+
+    // 多次连接累计的统计
+    private static final class Totals {
+        long resumedFrom = -1;
+        long sentBytes;
+        long retransmittedBytes;
+    }
+
+    private final Options options;
+    private final MetricsRegistry.Counter bytesSent;
+    private final MetricsRegistry.Counter retransmitted;
+    private final MetricsRegistry.Counter resumes;
+    private final MetricsRegistry.Histogram transferTime;
+    private volatile Connection current;
+    private volatile boolean cancelled;
+
+    public FileTransferSender(Options options, MetricsRegistry metrics) {
+        this.options = options;
+        this.bytesSent = metrics.counter("transfer.sent_bytes");
+        this.retransmitted = metrics.counter("transfer.retransmitted_bytes");
+        this.resumes = metrics.counter("transfer.resumes");
+        this.transferTime = metrics.histogram("transfer.time_ms");
+    }
+
+    /**
+     * 在已建立的连接上发送文件，阻塞直到接收方确认全部数据。失败时关闭连接，可以用同一文件再次调用以续传。
+     */
+    public Result send(Connection connection, File file, Listener listener) throws IOException {
+        long startNanos = System.nanoTime();
+        Totals totals = new Totals();
+        long id = FileTransfer.transferId(file);
+        long length = transfer(connection, file, id, listener, totals);
+        return finish(id, length, totals, 1, startNanos);
+    }
+
+    /**
+     * 连接 address 并发送文件；连接断开或确认超时后按 policy 等待、重连，从最后确认的偏移继续。
+     * 重试用尽、接收方拒绝或被 {@link #cancel()} 时抛出最后一次的异常。
+     */
+    public Result sendWithResume(Transport transport, String address, File file, ReconnectPolicy policy,
+                                 Listener listener) throws IOException {
+        long startNanos = System.nanoTime();
+        Totals totals = new Totals();
+        long id = FileTransfer.transferId(file);
+        for (int attempt = 1; ; attempt++) {
+            Connection connection = transport.open(address);
+            current = connection;
+            try {
+                if (cancelled) {
+                    throw new InterruptedIOException("传输已取消");
+                }
+                connect(connection, address, attempt, listener);
+                long length = transfer(connection, file, id, listener, totals);
+                return finish(id, length, totals, attempt, startNanos);
+            } catch (RejectedException e) {
+                throw e;
+            } catch (IOException e) {
+                if (cancelled || !policy.allowsAttempt(attempt)) {
+                    throw e;
+                }
+                resumes.increment();
+                sleep(policy.delayMillis(attempt, ThreadLocalRandom.current().nextDouble()));
+            } finally {
+                current = null;
+                connection.close();
+            }
+        }
+    }
+
+    /**
+     * 取消正在进行的发送：关闭当前连接，不再重连。可以从任意线程调用。
+     */
+    public void cancel() {
+        cancelled = true;
+        Connection connection = current;
+        if (connection != null) {
+            try {
+                connection.close();
+            } catch (IOException ignored) {
+                // 正在关闭
+            }
+        }
+    }
+
+    private Result finish(long id, long length, Totals totals, int attempts, long startNanos) {
+        long elapsed = System.nanoTime() - startNanos;
+        transferTime.record(TimeUnit.NANOSECONDS.toMillis(elapsed));
+        return new Result(id, length, Math.max(0, totals.resumedFrom), totals.sentBytes, totals.retransmittedBytes,
+                attempts, elapsed);
+    }
+
+    private static void sleep(long millis) throws InterruptedIOException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("重连等待被中断");
+        }
+    }
+
+    private static void connect(Connection connection, String address, int attempt, Listener listener)
+            throws IOException {
+        if (listener == null) {
+            connection.connect();
+            return;
+        }
+        listener.onConnecting(address, attempt);
+        boolean connected = false;
+        try {
+            connection.connect();
+            connected = true;
+        } finally {
+            listener.onConnectFinished(address, connected);
+        }
+    }
+
+    private long transfer(Connection connection, File file, long id, Listener listener, Totals totals)
+            throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            FileChannel channel = raf.getChannel();
+            long length = channel.size();
+            byte[] name = file.getName().getBytes(StandardCharsets.UTF_8);
+            if (name.length > FileTransfer.MAX_NAME_BYTES) {
+                throw new IOException("文件名过长: " + file.getName());
+            }
+            InputStream in = connection.getInputStream();
+            OutputStream out = connection.getOutputStream();
+            AckReader acks = new AckReader(in, id, length, listener);
+            Thread thread = new Thread(acks, "FileTransferAcks-" + connection.getRemoteAddress());
+            thread.setDaemon(true);
+            thread.start();
+
+            ByteBuffer control = FileTransfer.allocate(FileTransfer.MAX_CONTROL_FRAME);
+            FileTransfer.writeFrame(out, FileTransfer.beginFrame(control, FileTransfer.TYPE_OFFER)
+                    .putLong(id).putLong(length).putInt(options.chunkBytes)
+                    .putShort((short) name.length).put(name));
+
+            long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(options.ackTimeoutMillis);
+            long windowBytes = (long) options.windowChunks * options.chunkBytes;
+            long next = acks.awaitAccepted(timeoutNanos);
+            if (totals.resumedFrom < 0) {
+                totals.resumedFrom = next;
+            }
+            ByteBuffer frame = FileTransfer.allocate(FileTransfer.DATA_HEADER_SIZE + options.chunkBytes);
+            CRC32 crc = new CRC32();
+            while (true) {
+                long resumeAt = acks.awaitWindow(next, windowBytes, timeoutNanos);
+                if (resumeAt < 0) {
+                    return length;
+                }
+                if (resumeAt < next) {
+                    totals.retransmittedBytes += next - resumeAt;
+                    retransmitted.add(next - resumeAt);
+                }
+                next = resumeAt;
+                int n = (int) Math.min(options.chunkBytes, length - next);
+                readChunk(channel, frame, next, n);
+                crc.reset();
+                crc.update(frame.array(), FileTransfer.DATA_HEADER_SIZE, n);
+                FileTransfer.beginFrame(frame, FileTransfer.TYPE_DATA).putLong(next).putInt((int) crc.getValue());
+                frame.position(FileTransfer.DATA_HEADER_SIZE + n);
+                FileTransfer.writeFrame(out, frame);
+                next += n;
+                totals.sentBytes += n;
+                bytesSent.add(n);
+            }
+        } catch (IOException e) {
+            // 让确认读取线程退出；调用方可以重新连接续传
+            connection.close();
+            throw e;
+        }
+    }
+
+    // 从磁盘读到 DATA 帧的数据区，不经过额外的缓冲
+    private static void readChunk(FileChannel channel, ByteBuffer frame, long position, int length)
+            throws IOException {
+        ByteBuffer target = ByteBuffer.wrap(frame.array(), FileTransfer.DATA_HEADER_SIZE, length);
+        while (target.hasRemaining()) {
+            if (channel.read(target, position + target.position() - FileTransfer.DATA_HEADER_SIZE) < 0) {
+                throw new IOException("文件在发送过程中被截短");
+            }
+        }
+    }
+
+    /**
+     * 接收方拒绝了传输，重连也没有用。
+     */
+    static final class RejectedException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        RejectedException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * 在单独的线程上读取接收方的 ACCEPT / ACK / NAK，发送线程据此推进窗口。
+     */
+    private static final class AckReader implements Runnable {
+        private final InputStream in;
+        private final long id;
+        private final long length;
+        private final Listener listener;
+        private boolean accepted;
+        private long acked;
+        private long rewind = -1;
+        private long lastProgressNanos = System.nanoTime();
+        private IOException failure;
+
+        AckReader(InputStream in, long id, long length, Listener listener) {
+            this.in = in;
+            this.id = id;
+            this.length = length;
+            this.listener = listener;
+        }
+
+        @Override
+        public void run() {
+            ByteBuffer frame = FileTransfer.allocate(FileTransfer.MAX_CONTROL_FRAME);
+            try {
+                while (true) {
+                    int type = FileTransfer.readFrame(in, frame);
+                    long progress = -1;
+                    synchronized (this) {
+                        switch (type) {
+                            case FileTransfer.TYPE_ACCEPT:
+                                if (frame.getLong() != id) {
+                                    throw new IOException("传输 ID 不符");
+                                }
+                                acked = frame.getLong();
+                                if (acked < 0 || acked > length) {
+                                    throw new IOException("续传偏移无效: " + acked);
+                                }
+                                accepted = true;
+                                lastProgressNanos = System.nanoTime();
+                                progress = acked;
+                                break;
+                            case FileTransfer.TYPE_ACK:
+                                long offset = frame.getLong();
+                                if (offset > acked) {
+                                    acked = offset;
+                                    lastProgressNanos = System.nanoTime();
+                                    progress = acked;
+                                }
+                                break;
+                            case FileTransfer.TYPE_NAK:
+                                rewind = frame.getLong();
+                                break;
+                            case FileTransfer.TYPE_REJECT:
+                                throw new RejectedException("接收方拒绝: "
+                                        + FileTransfer.remainingString(frame, frame.remaining()));
+                            default:
+                                throw new IOException("未知帧类型 " + type);
+                        }
+                        notifyAll();
+                    }
+                    if (progress >= 0 && listener != null) {
+                        listener.onProgress(progress, length);
+                    }
+                    if (progress >= length) {
+                        // 全部确认，不再读取
+                        return;
+                    }
+                }
+            } catch (IOException e) {
+                synchronized (this) {
+                    if (failure == null) {
+                        failure = e;
+                    }
+                    notifyAll();
+                }
+            }
+        }
+
+        /**
+         * @return 接收方已有的字节数，从这里开始发送
+         */
+        synchronized long awaitAccepted(long timeoutNanos) throws IOException {
+            long deadline = System.nanoTime() + timeoutNanos;
+            while (!accepted) {
+                checkFailure();
+                await(deadline - System.nanoTime(), "等待接收方响应超时");
+            }
+            return acked;
+        }
+
+        /**
+         * 等到窗口中有空位。
+         *
+         * @return 下一块的偏移（收到 NAK 时回退），全部确认后返回 -1
+         */
+        synchronized long awaitWindow(long next, long windowBytes, long timeoutNanos) throws IOException {
+            while (true) {
+                if (acked >= length) {
+                    return -1;
+                }
+                checkFailure();
+                if (rewind >= 0) {
+                    next = rewind;
+                    rewind = -1;
+                }
+                if (next < length && next - acked < windowBytes) {
+                    return next;
+                }
+                await(lastProgressNanos + timeoutNanos - System.nanoTime(), "等待确认超时");
+            }
+        }
+
+        private void checkFailure() throws IOException {
+            if (failure instanceof RejectedException) {
+                throw new RejectedException(failure.getMessage());
+            }
+            if (failure != null) {
+                throw new IOException(failure.getMessage(), failure);
+            }
+        }
+
+        private void await(long nanos, String timeoutMessage) throws IOException {
+            if (nanos <= 0) {
+                throw new IOException(timeoutMessage);
+            }
+            try {
+                TimeUnit.NANOSECONDS.timedWait(this, nanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("发送被中断");
+            }
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.adan.bluetoothtest;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 固定长度的帧。
+ */
+public class FixedLengthFrameDecoder extends AbstractFrameDecoder {
+    private final int frameLength;
+
+    public FixedLengthFrameDecoder(int frameLength) {
+        super(frameLength);
+        this.frameLength = frameLength;
+    }
+
+    @Override
+    protected int frameLength(ByteBuffer buf) {
+        return buf.remaining() >= frameLength ? frameLength : -1;
+    }
+
+    @Override
+    protected int headerLength() {
+        return 0;
+    }
+
+    @Override
+    protected int trailerLength() {
+        return 0;
+    }
+}
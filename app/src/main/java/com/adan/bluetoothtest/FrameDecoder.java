@@ -0,0 +1,44 @@
+package com.adan.bluetoothtest;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * 接收数据的分帧器，位于 ConnectedThread 的读取循环与主线程 Handler 之间。
+ * <p>
+ * 每次读取得到的数据块交给 {@link #decode}，分帧器只在得到完整帧时回调 {@link Listener}，
+ * 一次读取中的多帧会在同一次调用里依次交付。实现有状态，每条连接使用独立的实例。
+ */
+public interface FrameDecoder {
+
+    interface Listener {
+        /**
+         * 一个完整帧的负载，position 到 limit 之间为帧数据。
+         * 该 ByteBuffer 只在回调期间有效，实现方不得保存它。
+         */
+        void onFrame(ByteBuffer frame) throws IOException;
+    }
+
+    interface Factory {
+        FrameDecoder create();
+    }
+
+    /**
+     * 消费 in 中全部剩余数据，交付其中所有完整帧，不完整的尾部留待下次调用。
+     *
+     * @throws IOException 帧超过长度上限或格式错误
+     */
+    void decode(ByteBuffer in, Listener listener) throws IOException;
+
+    /**
+     * 丢弃未完成的帧。
+     */
+    void reset();
+
+    /**
+     * 是否为流式数据（不保留消息边界）。流式数据的文本解码需要跨帧保留不完整的多字节字符。
+     */
+    default boolean isStreaming() {
+        return false;
+    }
+}
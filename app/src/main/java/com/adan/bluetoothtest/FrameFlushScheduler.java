@@ -0,0 +1,32 @@
+package com.adan.bluetoothtest;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+
+/**
+ * DiscoveryBatcher 在 Android 上的刷新调度：
+ * 间隔为 0 时在下一帧（Choreographer）刷新，否则按固定间隔在主线程刷新。
+ */
+public class FrameFlushScheduler implements DiscoveryBatcher.FlushScheduler {
+    private final Handler mainHandler;
+    private final long intervalMillis;
+
+    public FrameFlushScheduler(Handler mainHandler, long intervalMillis) {
+        this.mainHandler = mainHandler;
+        this.intervalMillis = intervalMillis;
+    }
+
+    @Override
+    public void requestFlush(Runnable flush) {
+        if (Looper.myLooper() != mainHandler.getLooper()) {
+            mainHandler.post(() -> requestFlush(flush));
+            return;
+        }
+        if (intervalMillis <= 0) {
+            Choreographer.getInstance().postFrameCallback(frameTimeNanos -> flush.run());
+        } else {
+            mainHandler.postDelayed(flush, intervalMillis);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.adan.bluetoothtest;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * 读取循环与界面之间的分帧阶段：在读取线程上完成分帧和文本解码，
+ * 只把完整的文本消息交给 {@link MessageListener}，处理完立即归还接收缓冲。
+ */
+public final class FramingReceiver implements ReceiveLoop.Listener, FrameDecoder.Listener {
+
+    public interface MessageListener {
+        void onMessage(String text);
+    }
+
+    private final FrameDecoder frameDecoder;
+    private final IncrementalTextDecoder textDecoder;
+    private final MessageListener listener;
+    private long framingErrors;
+
+    public FramingReceiver(FrameDecoder frameDecoder, IncrementalTextDecoder textDecoder, MessageListener listener) {
+        this.frameDecoder = frameDecoder;
+        this.textDecoder = textDecoder;
+        this.listener = listener;
+    }
+
+    @Override
+    public void onReceive(ReceiveBuffer buffer) {
+        try {
+            frameDecoder.decode(buffer.asByteBuffer(), this);
+        } catch (IOException e) {
+            // 帧格式错误或超长：丢弃未完成的帧，从下一块数据重新同步
+            framingErrors++;
+            frameDecoder.reset();
+        } finally {
+            buffer.release();
+        }
+    }
+
+    @Override
+    public void onFrame(ByteBuffer frame) {
+        String text = frameDecoder.isStreaming() ? textDecoder.decodeChunk(frame) : textDecoder.decodeFrame(frame);
+        if (!text.isEmpty()) {
+            listener.onMessage(text);
+        }
+    }
+
+    /**
+     * 因格式错误或超长而丢弃的次数。只应在读取线程上读取。
+     */
+    public long getFramingErrors() {
+        return framingErrors;
+    }
+}
@@ -0,0 +1,397 @@
+package com.adan.bluetoothtest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 依次错开启动多种连接方式，取最先成功的一个。
+ * <p>
+ * 有些模块的安全 RFCOMM 连接要过好几秒才失败，而非安全连接或固定信道本来可以很快连上。
+ * 这里按顺序启动各方式：前一个在 staggerMillis 内既没成功也没失败时启动下一个，失败则立即启动下一个；
+ * 每次尝试最多 attemptTimeoutMillis，超时即关闭。最先连上的一个胜出，其余全部关闭。
+ * <p>
+ * 每个设备最近一次胜出的方式会被记住，下次连接时最先尝试它；它失败后不再优先。
+ * 对外仍是一个普通的 {@link Transport}，ConnectExecutor 的 open / connect / close 流程不变。
+ * 各方式的尝试在自己的有界线程池上进行（线程名 Hedge-n），超出 maxThreads 的尝试排队。
+ */
+public final class HedgedTransport implements Transport {
+
+    /**
+     * 错开与超时参数。
+     */
+    public static final class Options {
+        long staggerMillis = 1500;
+        long attemptTimeoutMillis = 8000;
+        int maxThreads = 6;
+        long keepAliveMillis = 30_000;
+
+        /**
+         * 前一个尝试未结束时，等待多久启动下一个。为 0 时全部同时启动。
+         */
+        public Options staggerMillis(long millis) {
+            this.staggerMillis = millis;
+            return this;
+        }
+
+        /**
+         * 单次尝试的最长时间，超时后关闭该连接。
+         */
+        public Options attemptTimeoutMillis(long millis) {
+            this.attemptTimeoutMillis = millis;
+            return this;
+        }
+
+        /**
+         * 同时进行的尝试上限，一般取同时连接数乘以方式数。
+         */
+        public Options maxThreads(int threads) {
+            if (threads < 1) {
+                throw new IllegalArgumentException("maxThreads 至少为 1");
+            }
+            this.maxThreads = threads;
+            return this;
+        }
+
+        /**
+         * 空闲线程保留多久后退出。
+         */
+        public Options keepAliveMillis(long millis) {
+            this.keepAliveMillis = millis;
+            return this;
+        }
+    }
+
+    private final LinkedHashMap<String, Transport> variants;
+    private final Options options;
+    private final ConcurrentHashMap<String, String> preferred = new ConcurrentHashMap<>();
+    private final ThreadPoolExecutor pool;
+
+    /**
+     * @param variants 方式名称到 Transport 的映射，按默认尝试顺序排列
+     */
+    public HedgedTransport(Map<String, Transport> variants, Options options) {
+        if (variants.isEmpty()) {
+            throw new IllegalArgumentException("至少需要一种连接方式");
+        }
+        this.variants = new LinkedHashMap<>(variants);
+        this.options = options;
+        AtomicInteger threadIndex = new AtomicInteger();
+        this.pool = new ThreadPoolExecutor(options.maxThreads, options.maxThreads,
+                options.keepAliveMillis, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread thread = new Thread(r, "Hedge-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        pool.allowCoreThreadTimeOut(true);
+    }
+
+    @Override
+    public Connection open(String address) {
+        return new HedgedConnection(address, attemptOrder(address));
+    }
+
+    /**
+     * 该设备上次胜出的方式，没有记录时返回 null。
+     */
+    public String getPreferred(String address) {
+        return preferred.get(address);
+    }
+
+    public void forget(String address) {
+        preferred.remove(address);
+    }
+
+    /**
+     * 各设备记住的方式，只读视图。
+     */
+    public Map<String, String> preferredVariants() {
+        return Collections.unmodifiableMap(preferred);
+    }
+
+    /**
+     * 不再接受新的尝试，进行中的尝试照常结束。之后 open 得到的连接 connect 时直接失败。
+     */
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    /**
+     * 尝试线程池当前的线程数，供测试检查。
+     */
+    int attemptThreads() {
+        return pool.getPoolSize();
+    }
+
+    List<String> attemptOrder(String address) {
+        ArrayList<String> order = new ArrayList<>(variants.keySet());
+        String first = preferred.get(address);
+        if (first != null && order.remove(first)) {
+            order.add(0, first);
+        }
+        return order;
+    }
+
+    private void won(String address, String variant) {
+        preferred.put(address, variant);
+    }
+
+    private void lost(String address, String variant) {
+        preferred.remove(address, variant);
+    }
+
+    /**
+     * 一次尝试：在尝试线程池上 open 并 connect 一种方式。
+     */
+    private final class Attempt implements Runnable {
+        final String variant;
+        final HedgedConnection owner;
+        final long deadlineNanos;
+        Connection connection;   // 由 owner 的锁保护
+        boolean abandoned;       // 超时或已有胜者，由 owner 的锁保护
+        boolean timedOut;
+
+        Attempt(HedgedConnection owner, String variant) {
+            this.owner = owner;
+            this.variant = variant;
+            this.deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(options.attemptTimeoutMillis);
+        }
+
+        @Override
+        public void run() {
+            Connection opened;
+            try {
+                opened = variants.get(variant).open(owner.address);
+            } catch (IOException | RuntimeException e) {
+                owner.failed(this, e instanceof IOException ? (IOException) e : new IOException(e));
+                return;
+            }
+            if (!owner.opened(this, opened)) {
+                closeQuietly(opened);
+                return;
+            }
+            try {
+                opened.connect();
+            } catch (IOException e) {
+                closeQuietly(opened);
+                owner.failed(this, e);
+                return;
+            }
+            if (!owner.succeeded(this, opened)) {
+                closeQuietly(opened);
+            }
+        }
+    }
+
+    private final class HedgedConnection implements Connection {
+        final String address;
+        private final List<String> order;
+        private final ArrayList<Attempt> running = new ArrayList<>();
+        private int nextIndex;
+        private long lastStartNanos;
+        private Connection winner;
+        private IOException failure;
+        private boolean closed;
+
+        HedgedConnection(String address, List<String> order) {
+            this.address = address;
+            this.order = order;
+        }
+
+        @Override
+        public String getRemoteAddress() {
+            return address;
+        }
+
+        @Override
+        public void connect() throws IOException {
+            long staggerNanos = TimeUnit.MILLISECONDS.toNanos(options.staggerMillis);
+            List<Connection> expired = new ArrayList<>();
+            while (true) {
+                synchronized (this) {
+                    if (closed) {
+                        throw new IOException("socket closed");
+                    }
+                    if (winner != null) {
+                        return;
+                    }
+                    long now = System.nanoTime();
+                    boolean active = false;
+                    for (Attempt attempt : running) {
+                        active |= !attempt.timedOut;
+                    }
+                    if (nextIndex < order.size() && (!active || now - lastStartNanos >= staggerNanos)) {
+                        Attempt attempt = new Attempt(this, order.get(nextIndex++));
+                        running.add(attempt);
+                        lastStartNanos = now;
+                        try {
+                            pool.execute(attempt);
+                        } catch (RejectedExecutionException e) {
+                            failed(attempt, new IOException("连接线程池已关闭"));
+                        }
+                        continue;
+                    }
+                    if (!active) {
+                        // 超时的尝试不再等待，即使它的 connect() 不响应 close()
+                        throw failure != null ? failure : new IOException("没有可用的连接方式");
+                    }
+                    long waitNanos = nextIndex < order.size() ? lastStartNanos + staggerNanos - now : Long.MAX_VALUE;
+                    boolean expiredNow = false;
+                    for (Attempt attempt : running) {
+                        if (!attempt.timedOut && now - attempt.deadlineNanos >= 0) {
+                            // 超时：关闭连接，尝试线程随之失败
+                            attempt.timedOut = true;
+                            attempt.abandoned = true;
+                            expiredNow = true;
+                            recordFailure(attempt, new SocketTimeoutException(attempt.variant + " 连接超时 ("
+                                    + options.attemptTimeoutMillis + " ms)"));
+                            if (attempt.connection != null) {
+                                expired.add(attempt.connection);
+                            }
+                        } else if (!attempt.timedOut) {
+                            waitNanos = Math.min(waitNanos, attempt.deadlineNanos - now);
+                        }
+                    }
+                    if (!expiredNow) {
+                        try {
+                            if (waitNanos == Long.MAX_VALUE) {
+                                wait();
+                            } else {
+                                TimeUnit.NANOSECONDS.timedWait(this, Math.max(waitNanos, 1));
+                            }
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            close();
+                            throw new IOException("connect interrupted");
+                        }
+                    }
+                }
+                for (Connection connection : expired) {
+                    closeQuietly(connection);
+                }
+                expired.clear();
+            }
+        }
+
+        synchronized boolean opened(Attempt attempt, Connection connection) {
+            if (closed || winner != null || attempt.abandoned) {
+                running.remove(attempt);
+                notifyAll();
+                return false;
+            }
+            attempt.connection = connection;
+            return true;
+        }
+
+        boolean succeeded(Attempt attempt, Connection connection) {
+            List<Connection> losers;
+            synchronized (this) {
+                running.remove(attempt);
+                notifyAll();
+                if (closed || winner != null || attempt.abandoned) {
+                    return false;
+                }
+                winner = connection;
+                won(address, attempt.variant);
+                losers = new ArrayList<>(running.size());
+                for (Attempt other : running) {
+                    other.abandoned = true;
+                    if (other.connection != null) {
+                        losers.add(other.connection);
+                    }
+                }
+            }
+            for (Connection loser : losers) {
+                closeQuietly(loser);
+            }
+            return true;
+        }
+
+        synchronized void failed(Attempt attempt, IOException cause) {
+            running.remove(attempt);
+            if (!attempt.timedOut) {
+                recordFailure(attempt, cause);
+            }
+            notifyAll();
+        }
+
+        private void recordFailure(Attempt attempt, IOException error) {
+            lost(address, attempt.variant);
+            if (failure == null) {
+                failure = error;
+            } else {
+                failure.addSuppressed(error);
+            }
+        }
+
+        private synchronized Connection connected() throws IOException {
+            if (winner == null) {
+                throw new IOException(closed ? "socket closed" : "not connected");
+            }
+            return winner;
+        }
+
+        @Override
+        public boolean isConnected() {
+            Connection connection;
+            synchronized (this) {
+                connection = winner;
+            }
+            return connection != null && connection.isConnected();
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return connected().getInputStream();
+        }
+
+        @Override
+        public OutputStream getOutputStream() throws IOException {
+            return connected().getOutputStream();
+        }
+
+        @Override
+        public void close() throws IOException {
+            List<Connection> toClose = new ArrayList<>();
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                if (winner != null) {
+                    toClose.add(winner);
+                }
+                for (Attempt attempt : running) {
+                    attempt.abandoned = true;
+                    if (attempt.connection != null) {
+                        toClose.add(attempt.connection);
+                    }
+                }
+                notifyAll();
+            }
+            for (Connection connection : toClose) {
+                closeQuietly(connection);
+            }
+        }
+    }
+
+    private static void closeQuietly(Connection connection) {
+        try {
+            connection.close();
+        } catch (IOException ignored) {
+            // 关闭失败不影响结果
+        }
+    }
+}
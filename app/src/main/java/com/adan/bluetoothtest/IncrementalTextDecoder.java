@@ -0,0 +1,113 @@
+package com.adan.bluetoothtest;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 基于 CharsetDecoder 的增量文本解码。
+ * <p>
+ * 流式模式下，被读取边界截断的多字节字符（例如 UTF-8 编码的中文占 3 字节）
+ * 会保留在内部，与下一块数据拼接后再解码，不会被解成乱码。
+ * 解码器和输出 CharBuffer 在连接内复用。非线程安全。
+ */
+public final class IncrementalTextDecoder {
+    // 足以容纳任意编码的一个不完整字符
+    private static final int CARRY_CAPACITY = 16;
+
+    private final CharsetDecoder decoder;
+    private final ByteBuffer carry = ByteBuffer.allocate(CARRY_CAPACITY);
+    private CharBuffer out = CharBuffer.allocate(1024);
+
+    public IncrementalTextDecoder() {
+        this(StandardCharsets.UTF_8);
+    }
+
+    public IncrementalTextDecoder(Charset charset) {
+        decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    /**
+     * 解码一个完整帧，不保留任何跨帧状态。
+     */
+    public String decodeFrame(ByteBuffer frame) {
+        decoder.reset();
+        carry.clear();
+        ensureOutput(frame.remaining());
+        decoder.decode(frame, out, true);
+        decoder.flush(out);
+        decoder.reset();
+        return drain();
+    }
+
+    /**
+     * 解码流中的一块数据，末尾不完整的字符留到下一次调用。
+     */
+    public String decodeChunk(ByteBuffer chunk) {
+        ensureOutput(chunk.remaining() + CARRY_CAPACITY);
+        if (carry.position() > 0) {
+            completeCarry(chunk);
+        }
+        CoderResult result = decoder.decode(chunk, out, false);
+        if (result.isOverflow()) {
+            // ensureOutput 已按最大字符数预留空间，不应发生
+            throw new IllegalStateException("输出缓冲不足");
+        }
+        if (chunk.hasRemaining()) {
+            carry.put(chunk);
+        }
+        return drain();
+    }
+
+    /**
+     * 用 chunk 开头的字节补全上次残留的不完整字符，每次只追加一个字节，最多几个字节。
+     */
+    private void completeCarry(ByteBuffer chunk) {
+        while (carry.position() > 0 && chunk.hasRemaining()) {
+            if (!carry.hasRemaining()) {
+                // 残留过长，说明不是合法字符，按替换字符输出
+                carry.flip();
+                decoder.decode(carry, out, true);
+                carry.clear();
+                decoder.reset();
+                return;
+            }
+            carry.put(chunk.get());
+            carry.flip();
+            decoder.decode(carry, out, false);
+            carry.compact();
+        }
+    }
+
+    /**
+     * 连接结束时输出残留字节（按替换字符），并重置状态。
+     */
+    public String finish() {
+        ensureOutput(CARRY_CAPACITY);
+        carry.flip();
+        decoder.decode(carry, out, true);
+        decoder.flush(out);
+        carry.clear();
+        decoder.reset();
+        return drain();
+    }
+
+    private void ensureOutput(int bytes) {
+        int needed = (int) Math.ceil(bytes * (double) decoder.maxCharsPerByte()) + 4;
+        if (out.capacity() < needed) {
+            out = CharBuffer.allocate(Math.max(needed, out.capacity() * 2));
+        }
+        out.clear();
+    }
+
+    private String drain() {
+        out.flip();
+        return out.toString();
+    }
+}
@@ -0,0 +1,58 @@
+package com.adan.bluetoothtest;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * 以大端无符号长度字段开头的帧，长度字段为 1、2 或 4 字节，只计负载长度。交付的帧不含长度字段。
+ */
+public class LengthPrefixedFrameDecoder extends AbstractFrameDecoder {
+    private final int lengthFieldSize;
+
+    public LengthPrefixedFrameDecoder() {
+        this(2, DEFAULT_MAX_FRAME_LENGTH);
+    }
+
+    public LengthPrefixedFrameDecoder(int lengthFieldSize, int maxFrameLength) {
+        super(maxFrameLength);
+        if (lengthFieldSize != 1 && lengthFieldSize != 2 && lengthFieldSize != 4) {
+            throw new IllegalArgumentException("lengthFieldSize must be 1, 2 or 4");
+        }
+        this.lengthFieldSize = lengthFieldSize;
+    }
+
+    @Override
+    protected int frameLength(ByteBuffer buf) throws IOException {
+        if (buf.remaining() < lengthFieldSize) {
+            return -1;
+        }
+        int pos = buf.position();
+        long payload;
+        switch (lengthFieldSize) {
+            case 1:
+                payload = buf.get(pos) & 0xFF;
+                break;
+            case 2:
+                payload = buf.getShort(pos) & 0xFFFF;
+                break;
+            default:
+                payload = buf.getInt(pos) & 0xFFFFFFFFL;
+                break;
+        }
+        if (payload > Integer.MAX_VALUE - lengthFieldSize) {
+            throw new IOException("非法的帧长度 " + payload);
+        }
+        int total = lengthFieldSize + (int) payload;
+        return buf.remaining() >= total ? total : -1;
+    }
+
+    @Override
+    protected int headerLength() {
+        return lengthFieldSize;
+    }
+
+    @Override
+    protected int trailerLength() {
+        return 0;
+    }
+}
@@ -0,0 +1,145 @@
+package com.adan.bluetoothtest;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 一条链路的状态机：NONE → CONNECTING → CONNECTED → LOST，任何未结束的状态都可以被主动关闭（CLOSED）。
+ * <p>
+ * 当前状态是一个不可变的 {@link Snapshot}，放在 AtomicReference 中，每次转换用 compareAndSet 完成，
+ * 不持有任何锁。多个线程竞争同一转换（例如读取线程报告断开的同时界面线程主动断开）时只有一个成功，
+ * 只有成功的线程拿到新快照并负责清理和通知，因此“连接丢失”和“已关闭”不会都报告。
+ * <p>
+ * 快照带有递增的版本号；不同线程发出的通知可能交错到达界面，界面以版本号或 {@link #get()} 的最新值为准。
+ */
+public final class LinkStateMachine {
+
+    public enum State {
+        NONE,
+        CONNECTING,
+        CONNECTED,
+        /** 连接意外断开 */
+        LOST,
+        /** 主动断开或连接失败 */
+        CLOSED;
+
+        public boolean isTerminal() {
+            return this == LOST || this == CLOSED;
+        }
+    }
+
+    /**
+     * 某一时刻的状态，不可变，可以直接交给界面线程。
+     */
+    public static final class Snapshot {
+        public final long address;
+        public final State state;
+        public final int version;
+        public final long sinceNanos;
+        /** 进入 LOST 或 CLOSED 的原因，主动断开时为 null */
+        public final IOException cause;
+
+        Snapshot(long address, State state, int version, long sinceNanos, IOException cause) {
+            this.address = address;
+            this.state = state;
+            this.version = version;
+            this.sinceNanos = sinceNanos;
+            this.cause = cause;
+        }
+
+        Snapshot next(State state, IOException cause) {
+            return new Snapshot(address, state, version + 1, System.nanoTime(), cause);
+        }
+
+        public boolean isTerminal() {
+            return state.isTerminal();
+        }
+
+        /**
+         * 对应的 {@link ConnectionState} 常量，供设备列表使用。
+         */
+        public int toConnectionState() {
+            switch (state) {
+                case CONNECTING:
+                    return ConnectionState.STATE_CONNECTING;
+                case CONNECTED:
+                    return ConnectionState.STATE_CONNECTED;
+                default:
+                    return ConnectionState.STATE_NONE;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return MacAddress.format(address) + " " + state + " v" + version;
+        }
+    }
+
+    private final AtomicReference<Snapshot> current;
+
+    public LinkStateMachine(long address) {
+        this.current = new AtomicReference<>(new Snapshot(address, State.NONE, 0, System.nanoTime(), null));
+    }
+
+    public Snapshot get() {
+        return current.get();
+    }
+
+    public State getState() {
+        return current.get().state;
+    }
+
+    /**
+     * 从 from 转换到 to。
+     *
+     * @return 转换后的快照；当前状态不是 from（已被其他线程改变）时返回 null
+     * @throws IllegalArgumentException from → to 不是合法的转换
+     */
+    public Snapshot transition(State from, State to) {
+        if (!isAllowed(from, to)) {
+            throw new IllegalArgumentException("非法的状态转换 " + from + " -> " + to);
+        }
+        while (true) {
+            Snapshot previous = current.get();
+            if (previous.state != from) {
+                return null;
+            }
+            Snapshot next = previous.next(to, null);
+            if (current.compareAndSet(previous, next)) {
+                return next;
+            }
+        }
+    }
+
+    /**
+     * 从任何未结束的状态进入 LOST 或 CLOSED。
+     *
+     * @return 结束状态的快照；已经结束（被其他线程抢先）时返回 null
+     */
+    public Snapshot terminate(State terminal, IOException cause) {
+        if (!terminal.isTerminal()) {
+            throw new IllegalArgumentException(terminal + " 不是结束状态");
+        }
+        while (true) {
+            Snapshot previous = current.get();
+            if (previous.isTerminal()) {
+                return null;
+            }
+            Snapshot next = previous.next(terminal, cause);
+            if (current.compareAndSet(previous, next)) {
+                return next;
+            }
+        }
+    }
+
+    static boolean isAllowed(State from, State to) {
+        if (from.isTerminal()) {
+            return false;
+        }
+        if (to.isTerminal()) {
+            return true;
+        }
+        return (from == State.NONE && to == State.CONNECTING)
+                || (from == State.CONNECTING && to == State.CONNECTED);
+    }
+}
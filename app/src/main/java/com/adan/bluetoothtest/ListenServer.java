@@ -0,0 +1,382 @@
+package com.adan.bluetoothtest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 监听模式：本机作为采集端，等待设备连入。
+ * <p>
+ * 每个 {@link ServerTransport}（例如安全与非安全两条 RFCOMM 服务记录）各有一个接受线程，
+ * 在该线程上打开端点并循环 accept()，{@link #start} 与 {@link #stop} 都不阻塞调用方，可以在主线程调用；接受到的连接在接受线程上向 {@link ConnectionManager} 占位，
+ * 再交给单独的线程启动链路（压缩协商可能要等待对端），接受线程随即回到 accept()。
+ * 之后的收发与主动连接的链路完全相同，各有自己的读写线程，接受新连接不影响已有链路。
+ * <p>
+ * 同时连入的设备数受 maxClients 限制，同时也受 ConnectionManager 的总链路数限制；
+ * 超出时立即关闭新连接并回调 {@link Listener#onRejected}。端点失败（例如蓝牙被关闭）后
+ * 按 retryDelayMillis 重新监听，直到 {@link #stop}。
+ */
+public final class ListenServer {
+
+    public static final class Options {
+        int maxClients = ConnectionManager.DEFAULT_MAX_LINKS;
+        long retryDelayMillis = 1000;
+
+        /**
+         * 同时连入的设备数上限。
+         */
+        public Options maxClients(int clients) {
+            if (clients <= 0) {
+                throw new IllegalArgumentException("maxClients must be positive");
+            }
+            this.maxClients = clients;
+            return this;
+        }
+
+        /**
+         * 端点失败后多久重新监听。
+         */
+        public Options retryDelayMillis(long millis) {
+            this.retryDelayMillis = millis;
+            return this;
+        }
+    }
+
+    public interface Listener {
+        /**
+         * 连入的设备已启动链路，在启动链路的线程上调用，状态变化照常经 ConnectionManager.Listener 通知。
+         */
+        void onAccepted(DeviceLink link);
+
+        /**
+         * 连入的设备被拒绝，连接已关闭。在接受线程或启动链路的线程上调用。
+         */
+        void onRejected(String address, String reason);
+
+        /**
+         * 监听或 accept() 失败，retryDelayMillis 后重新监听。在接受线程上调用。
+         */
+        void onListenFailed(ServerTransport transport, IOException cause);
+    }
+
+    /**
+     * 一个连入设备自接受以来的收发量。链路断开后不再出现在 {@link #getClientStats()} 中。
+     */
+    public static final class ClientStats {
+        public final String address;
+        public final boolean connected;
+        public final long connectedMillis;
+        public final long bytesIn;
+        public final long bytesOut;
+        public final long messagesIn;
+        public final long messagesOut;
+
+        ClientStats(String address, boolean connected, long connectedMillis, long bytesIn, long bytesOut,
+                    long messagesIn, long messagesOut) {
+            this.address = address;
+            this.connected = connected;
+            this.connectedMillis = connectedMillis;
+            this.bytesIn = bytesIn;
+            this.bytesOut = bytesOut;
+            this.messagesIn = messagesIn;
+            this.messagesOut = messagesOut;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%s %s %ds in=%dB/%d out=%dB/%d", address,
+                    connected ? "connected" : "starting", connectedMillis / 1000, bytesIn, messagesIn,
+                    bytesOut, messagesOut);
+        }
+    }
+
+    /**
+     * 一个已接受的设备。链路计数器按地址累计，记下接受时的值，统计只算本次连入以来的部分。
+     */
+    private static final class Client {
+        final DeviceLink link;
+        final long acceptedAtNanos = System.nanoTime();
+        final MetricsRegistry.Counter bytesIn;
+        final MetricsRegistry.Counter bytesOut;
+        final MetricsRegistry.Counter messagesIn;
+        final MetricsRegistry.Counter messagesOut;
+        final long bytesInBase;
+        final long bytesOutBase;
+        final long messagesInBase;
+        final long messagesOutBase;
+
+        Client(DeviceLink link, MetricsRegistry metrics) {
+            this.link = link;
+            String prefix = link.getMetricsPrefix();
+            bytesIn = metrics.counter(prefix + "bytes_in");
+            bytesOut = metrics.counter(prefix + "bytes_out");
+            messagesIn = metrics.counter(prefix + "messages_in");
+            messagesOut = metrics.counter(prefix + "messages_out");
+            bytesInBase = bytesIn.sum();
+            bytesOutBase = bytesOut.sum();
+            messagesInBase = messagesIn.sum();
+            messagesOutBase = messagesOut.sum();
+        }
+
+        ClientStats stats() {
+            return new ClientStats(link.getAddressString(), link.isConnected(),
+                    (System.nanoTime() - acceptedAtNanos) / 1_000_000, bytesIn.sum() - bytesInBase,
+                    bytesOut.sum() - bytesOutBase, messagesIn.sum() - messagesInBase,
+                    messagesOut.sum() - messagesOutBase);
+        }
+    }
+
+    private final Options options;
+    private final ConnectionManager manager;
+    private final Listener listener;
+    private final ConcurrentHashMap<Long, Client> clients = new ConcurrentHashMap<>();
+    private final List<AcceptLoop> loops = new ArrayList<>();
+    // 已停止但可能还没退出的接受线程，只供 awaitTermination 使用
+    private final List<AcceptLoop> stopped = new CopyOnWriteArrayList<>();
+    private final MetricsRegistry.Counter accepted;
+    private final MetricsRegistry.Counter rejected;
+    private final MetricsRegistry.Counter failures;
+
+    public ListenServer(Options options, ConnectionManager manager, Listener listener) {
+        this.options = options;
+        this.manager = manager;
+        this.listener = listener;
+        MetricsRegistry metrics = manager.getMetrics();
+        this.accepted = metrics.counter("listen.accepted");
+        this.rejected = metrics.counter("listen.rejected");
+        this.failures = metrics.counter("listen.failures");
+    }
+
+    /**
+     * 为每个 transport 启动一个接受线程，立即返回。端点在接受线程上打开，
+     * 打开失败时在该线程上回调 {@link Listener#onListenFailed} 并按 retryDelayMillis 重试。
+     * 已在监听时先停止之前的端点。
+     */
+    public synchronized void start(ServerTransport... transports) {
+        stop();
+        for (int i = 0; i < transports.length; i++) {
+            AcceptLoop loop = new AcceptLoop(transports[i]);
+            loop.thread = new Thread(loop, "ListenServer-" + i);
+            loops.add(loop);
+            loop.thread.start();
+        }
+    }
+
+    /**
+     * 关闭端点并通知接受线程退出，不等待线程结束。已接受的链路不受影响，照常由 ConnectionManager 断开。
+     */
+    public synchronized void stop() {
+        synchronized (clients) {
+            // 正在占位的接受线程要么已经完成，要么之后看到 closed 而拒绝，stop() 返回后不会再有新链路
+            for (AcceptLoop loop : loops) {
+                loop.closed = true;
+            }
+        }
+        for (AcceptLoop loop : loops) {
+            loop.close();
+        }
+        stopped.removeIf(loop -> !loop.thread.isAlive());
+        stopped.addAll(loops);
+        loops.clear();
+    }
+
+    /**
+     * 等待已停止的接受线程全部退出，用于测试。
+     */
+    public boolean awaitTermination(long timeoutMillis) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        for (AcceptLoop loop : stopped) {
+            loop.thread.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+            if (loop.thread.isAlive()) {
+                return false;
+            }
+        }
+        stopped.removeIf(loop -> !loop.thread.isAlive());
+        return true;
+    }
+
+    public synchronized boolean isListening() {
+        return !loops.isEmpty();
+    }
+
+    /**
+     * 监听中为 {@link ConnectionState#STATE_LISTEN}，否则为 STATE_NONE。
+     */
+    public int getState() {
+        return isListening() ? ConnectionState.STATE_LISTEN : ConnectionState.STATE_NONE;
+    }
+
+    /**
+     * 当前连入（包括正在启动链路）的设备数。
+     */
+    public int clientCount() {
+        pruneClosed();
+        return clients.size();
+    }
+
+    /**
+     * 各连入设备的收发统计。
+     */
+    public List<ClientStats> getClientStats() {
+        pruneClosed();
+        List<ClientStats> stats = new ArrayList<>();
+        for (Client client : clients.values()) {
+            stats.add(client.stats());
+        }
+        return stats;
+    }
+
+    private void pruneClosed() {
+        clients.values().removeIf(client -> client.link.getSnapshot().isTerminal());
+    }
+
+    /**
+     * 在接受线程上为连入的设备占位，被拒绝时返回 null 并已关闭连接。
+     */
+    private Client admit(AcceptLoop loop, Connection connection) {
+        String remote = connection.getRemoteAddress();
+        String reason;
+        Client client = null;
+        // 安全与非安全两个接受线程可能同时到达，占位与计数一起完成
+        synchronized (clients) {
+            pruneClosed();
+            long address;
+            try {
+                address = MacAddress.pack(remote);
+            } catch (IllegalArgumentException e) {
+                address = -1;
+            }
+            if (loop.closed) {
+                reason = "监听已停止";
+            } else if (address < 0) {
+                reason = "非法的地址";
+            } else if (clients.size() >= options.maxClients) {
+                reason = "已达到最大客户端数 " + options.maxClients;
+            } else {
+                DeviceLink link = manager.reserve(address, null);
+                if (link != null) {
+                    link.markIncoming();
+                    client = new Client(link, manager.getMetrics());
+                    clients.put(address, client);
+                    reason = null;
+                } else if (manager.get(address) != null) {
+                    reason = "该设备已有链路";
+                } else {
+                    reason = "已达到最大连接数 " + manager.getMaxLinks();
+                }
+            }
+        }
+        if (client == null) {
+            reject(connection, remote, reason);
+        }
+        return client;
+    }
+
+    private void reject(Connection connection, String remote, String reason) {
+        rejected.increment();
+        try {
+            connection.close();
+        } catch (IOException ignored) {
+            // 已在拒绝该连接
+        }
+        listener.onRejected(remote, reason);
+    }
+
+    /**
+     * 在单独的线程上启动链路，接受线程不等待。
+     */
+    private void attach(Client client, Connection connection) {
+        DeviceLink link = client.link;
+        Thread thread = new Thread(() -> {
+            try {
+                manager.attach(link, connection);
+                accepted.increment();
+                listener.onAccepted(link);
+            } catch (IOException e) {
+                clients.remove(link.getAddress(), client);
+                reject(connection, link.getAddressString(), "链路启动失败: " + e.getMessage());
+            }
+        }, "ListenAttach-" + link.getAddressString());
+        thread.start();
+    }
+
+    private final class AcceptLoop implements Runnable {
+        private final ServerTransport transport;
+        private Thread thread;
+        private volatile boolean closed;
+        private volatile ServerTransport.Endpoint endpoint;
+
+        AcceptLoop(ServerTransport transport) {
+            this.transport = transport;
+        }
+
+        @Override
+        public void run() {
+            while (!closed) {
+                try {
+                    ServerTransport.Endpoint listening = endpoint;
+                    if (listening == null) {
+                        listening = transport.listen();
+                        endpoint = listening;
+                        if (closed) {
+                            // close() 没看到这个端点
+                            listening.close();
+                            return;
+                        }
+                    }
+                    while (!closed) {
+                        Connection connection = listening.accept();
+                        Client client = admit(this, connection);
+                        if (client != null) {
+                            attach(client, connection);
+                        }
+                    }
+                } catch (IOException e) {
+                    if (closed) {
+                        return;
+                    }
+                    failures.increment();
+                    listener.onListenFailed(transport, e);
+                    closeEndpoint();
+                    if (!pause()) {
+                        return;
+                    }
+                }
+            }
+        }
+
+        /**
+         * 等待 retryDelayMillis，被 stop() 中断时返回 false。
+         */
+        private boolean pause() {
+            try {
+                Thread.sleep(options.retryDelayMillis);
+                return true;
+            } catch (InterruptedException interrupted) {
+                return false;
+            }
+        }
+
+        void close() {
+            closed = true;
+            closeEndpoint();
+            thread.interrupt();
+        }
+
+        private void closeEndpoint() {
+            ServerTransport.Endpoint listening = endpoint;
+            endpoint = null;
+            if (listening != null) {
+                try {
+                    listening.close();
+                } catch (IOException ignored) {
+                    // 正在停止或重新监听
+                }
+            }
+        }
+    }
+}
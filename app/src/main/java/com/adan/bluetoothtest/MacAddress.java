@@ -0,0 +1,63 @@
+package com.adan.bluetoothtest;
+
+/**
+ * 蓝牙 MAC 地址与 48 位 long 之间的转换。
+ * 以 long 作为设备索引的键，避免在热路径上反复比较字符串。
+ */
+public final class MacAddress {
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    private MacAddress() {
+    }
+
+    /**
+     * 将 "AA:BB:CC:DD:EE:FF" 形式的地址打包成 long，格式非法时抛出 IllegalArgumentException。
+     */
+    public static long pack(String address) {
+        if (address == null || address.length() != 17) {
+            throw new IllegalArgumentException("非法的 MAC 地址: " + address);
+        }
+        long value = 0;
+        for (int i = 0; i < 17; i++) {
+            char c = address.charAt(i);
+            if (i % 3 == 2) {
+                if (c != ':') {
+                    throw new IllegalArgumentException("非法的 MAC 地址: " + address);
+                }
+                continue;
+            }
+            int digit = Character.digit(c, 16);
+            if (digit < 0) {
+                throw new IllegalArgumentException("非法的 MAC 地址: " + address);
+            }
+            value = (value << 4) | digit;
+        }
+        return value;
+    }
+
+    /**
+     * 将 long 还原成大写、冒号分隔的地址字符串。
+     */
+    public static String format(long address) {
+        char[] out = new char[17];
+        for (int i = 5; i >= 0; i--) {
+            int b = (int) (address >>> (i * 8)) & 0xFF;
+            int pos = (5 - i) * 3;
+            out[pos] = HEX[b >>> 4];
+            out[pos + 1] = HEX[b & 0x0F];
+            if (i > 0) {
+                out[pos + 2] = ':';
+            }
+        }
+        return new String(out);
+    }
+
+    public static boolean isValid(String address) {
+        try {
+            pack(address);
+            return true;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+}
@@ -6,12 +6,12 @@ import androidx.annotation.NonNull;
 import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.content.ContextCompat;
+import androidx.recyclerview.widget.LinearLayoutManager;
 
 import android.Manifest;
 import android.annotation.SuppressLint;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
-import android.bluetooth.BluetoothSocket;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
@@ -22,56 +22,155 @@ import android.os.Bundle;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
+import android.os.SystemClock;
 import android.util.Log;
 import android.view.LayoutInflater;
-import android.widget.ArrayAdapter;
+import android.view.View;
 import android.widget.Toast;
 
 import com.adan.bluetoothtest.databinding.ActivityMainBinding;
 
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.lang.reflect.Method;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Locale;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.Deflater;
 
 public class MainActivity extends AppCompatActivity {
     private ActivityMainBinding binding;
     private BluetoothAdapter bluetoothAdapter;
-    private final ArrayList<String> discoveredDevicesList = new ArrayList<>();
-    private ArrayAdapter<String> listAdapter;
-
-    private ConnectThread connectThread;
-    private ConnectedThread connectedThread;
+    private final DeviceRegistry deviceRegistry = new DeviceRegistry();
+    private DeviceListAdapter listAdapter;
+
+    // 每个设备一条链路；连接在 ConnectExecutor 的有界线程池上进行，连上后每条链路各有读写线程
+    private ConnectionManager connectionManager;
+    private HedgedTransport transport;
+    // 安全连接迟迟不失败时 1.5 秒后启动下一种方式，单次尝试最多 8 秒；3 个连接各 3 种方式，最多 9 个尝试线程
+    private final HedgedTransport.Options connectOptions = new HedgedTransport.Options()
+            .staggerMillis(1500)
+            .attemptTimeoutMillis(8000)
+            .maxThreads(9);
+    // 最多 3 个连接同时进行，其余排队；从提交起 20 秒仍未连上即放弃
+    private final ConnectExecutor.Options connectExecutorOptions = new ConnectExecutor.Options()
+            .maxThreads(3)
+            .queueCapacity(MAX_CONNECTIONS)
+            .deadlineMillis(20_000);
+    private ConnectExecutor connectExecutor;
+    // 链路意外断开后自动重连，断线期间的待发送消息在恢复后继续发送
+    private final ReconnectPolicy reconnectPolicy = new ReconnectPolicy()
+            .initialDelayMillis(1000)
+            .maxDelayMillis(60_000)
+            .maxAttempts(10)
+            .reconnectOnAclConnected(true);
+    private Reconnector reconnector;
     private long scanStartTime;
-    private String connectedDeviceAddress = null;
+    // 扫描策略：5 秒内没有新设备即提前结束，有设备正在连接时暂停
+    private final ScanScheduler.Options scanOptions = new ScanScheduler.Options()
+            .idleTimeoutMillis(5000);
+    private ScanScheduler scanScheduler;
+    // 扫描来源：默认经典 inquiry；启动 Intent 带 EXTRA_BLE_SCAN=true 时改用 BLE 批量扫描
+    public static final String EXTRA_BLE_SCAN = "ble_scan";
+    private static final long BLE_REPORT_DELAY_MS = 1000;
+    // BLE 扫描的过滤条件，为空时不过滤；例如 BleScanProcessor.Filter.serviceUuid(...)
+    private final List<BleScanProcessor.Filter> bleFilters = new ArrayList<>();
+    private ScanSource scanSource;
+    // 本次扫描发现的设备，用于统计每次扫描的设备数与首个设备出现的时间
+    private final Set<Long> scanSightings = new HashSet<>();
+    // 原始字节捕获：启动 Intent 带 EXTRA_CAPTURE=true 时把收到的字节写入 files/captures
+    public static final String EXTRA_CAPTURE = "capture";
+    private final CaptureSink.Options captureOptions = new CaptureSink.Options()
+            .maxSegments(64);
+    private CaptureSink captureSink;
+    // 文件传输：启动 Intent 带 EXTRA_SEND_FILE=<文件路径> 时，未连接设备的菜单里提供“发送文件”
+    public static final String EXTRA_SEND_FILE = "send_file";
+    private final FileTransferSender.Options transferOptions = new FileTransferSender.Options();
+    // 同一时间只发送一个文件，只在主线程访问
+    private FileTransferSender fileSender;
+    // 链路压缩：默认关闭，在设备菜单里按设备开启；两端都支持时才真正压缩
+    private final StreamCompression.Options compressionOptions = new StreamCompression.Options()
+            .level(Deflater.BEST_SPEED)
+            .maxFlushDelayMillis(0);
+    // 开启了压缩的设备地址，只在主线程访问
+    private final Set<Long> compressedDevices = new HashSet<>();
+    // 二进制消息：启动 Intent 带 EXTRA_BINARY_MESSAGES=true 时按 BinaryMessageWriter 的格式分帧，
+    // 收到的消息在读取线程上就地读取，只把摘要交给界面
+    public static final String EXTRA_BINARY_MESSAGES = "binary_messages";
+    // 监听模式：启动 Intent 带 EXTRA_LISTEN=true 时同时在安全与非安全 SPP 服务记录上等待设备连入
+    public static final String EXTRA_LISTEN = "listen";
+    private static final String SERVICE_NAME = "BluetoothTest";
+    private final ListenServer.Options listenOptions = new ListenServer.Options()
+            .maxClients(MAX_CONNECTIONS);
+    private ListenServer listenServer;
+    // 设备缓存，启动时先用它渲染列表
+    private DeviceCache deviceCache;
+    // 缓存读写、已配对设备查询等不应占用主线程的工作
+    private final ExecutorService ioExecutor = Executors.newSingleThreadExecutor(r -> new Thread(r, "MainActivityIO"));
 
     private static final String TAG = "MainActivityBluetooth";
     private static final UUID MY_UUID = UUID.fromString("00001101-0000-1000-8000-00805F9B34FB");
+    // 同时保持的最大连接数
+    private static final int MAX_CONNECTIONS = ConnectionManager.DEFAULT_MAX_LINKS;
+    // 扫描结果刷新到列表的间隔，0 表示每帧最多刷新一次
+    private static final long DISCOVERY_FLUSH_INTERVAL_MS = 0;
 
     private Handler handler;
+    private DiscoveryBatcher discoveryBatcher;
+    // 接收缓冲池，读取线程借出，分帧解码完成后归还
+    private final ReceiveBufferPool receiveBufferPool = new ReceiveBufferPool();
+    // 接收数据的分帧方式，每条连接创建独立实例。
+    // 默认按读取块交付；设备以换行结束消息时可改为 DelimiterFrameDecoder::new，
+    // 带长度头时用 LengthPrefixedFrameDecoder::new，固定长度时用 () -> new FixedLengthFrameDecoder(n)
+    private FrameDecoder.Factory frameDecoderFactory = RawFrameDecoder::new;
+    // 发送队列参数：交互式发送用 IMMEDIATE，大量数据可改为 BATCHED 以合并写入
+    private final ConnectionWriter.Options writerOptions = new ConnectionWriter.Options()
+            .flushPolicy(ConnectionWriter.FlushPolicy.IMMEDIATE)
+            .overflowPolicy(ConnectionWriter.OverflowPolicy.REJECT);
+
+    // 连接、收发、扫描与主线程的指标，长按扫描按钮显示调试面板
+    private final MetricsRegistry metrics = new MetricsRegistry();
+    // 经 handler 发送的消息与 post 的 Runnable 在主线程上的排队时间
+    private final MetricsRegistry.Histogram handlerLag = metrics.histogram("handler.lag_ms");
+    private final MetricsRegistry.Histogram uiDeliveryLatency = metrics.histogram("ui.delivery_us");
+    // 收到的消息经有界队列按帧批量交给界面；数据过快时丢弃最早的，被丢弃的计入 ui.dropped
+    private final DeliveryQueue.Options deliveryOptions = new DeliveryQueue.Options()
+            .capacity(512)
+            .maxBatch(64)
+            .overflowPolicy(DeliveryQueue.OverflowPolicy.DROP_OLDEST);
+    private DeliveryQueue<DeviceLink.Message> deliveryQueue;
+    // 接收区只保留最近的若干行；新行直接追加到 TextView，显示的行数到两倍时才整体重设一次
+    private static final int MAX_RECEIVED_LINES = 200;
+    private final ArrayDeque<String> receivedLines = new ArrayDeque<>();
+    private int receivedLinesShown;
+    private static final long METRICS_REFRESH_MS = 1000;
+    private MetricsRegistry.Snapshot lastMetricsSnapshot;
+
+    // 设备名称缓存，避免每次刷新都对每个设备调用 getName()；调用前需已具备连接权限
+    @SuppressLint("MissingPermission")
+    private final NameCache nameCache = new NameCache(
+            address -> bluetoothAdapter.getRemoteDevice(MacAddress.format(address)).getName(), metrics);
 
     public interface MessageConstants {
-        int MESSAGE_READ = 0;
-        int MESSAGE_WRITE = 1;
         int MESSAGE_TOAST = 2;
         int MESSAGE_STATE_CHANGE = 3;
     }
 
-    public interface ConnectionState {
-        int STATE_NONE = 0;
-        int STATE_LISTEN = 1;
-        int STATE_CONNECTING = 2;
-        int STATE_CONNECTED = 3;
-    }
-
     private final ActivityResultLauncher<Intent> enableBluetoothLauncher =
             registerForActivityResult(new ActivityResultContracts.StartActivityForResult(), result -> {
                 if (result.getResultCode() == RESULT_OK) {
                     Toast.makeText(this, "蓝牙已启用", Toast.LENGTH_SHORT).show();
                     listPairedDevices();
+                    startListening();
                 } else {
                     Toast.makeText(this, "蓝牙未启用", Toast.LENGTH_SHORT).show();
                 }
@@ -102,32 +201,40 @@ public class MainActivity extends AppCompatActivity {
         setContentView(binding.getRoot());
 
         handler = new Handler(Looper.getMainLooper()) {
+            @Override
+            public void dispatchMessage(@NonNull Message msg) {
+                // 消息应当被处理的时刻到实际处理之间的排队时间；post 的 Runnable 也经过这里
+                handlerLag.record(SystemClock.uptimeMillis() - msg.getWhen());
+                super.dispatchMessage(msg);
+            }
+
             @Override
             public void handleMessage(@NonNull Message msg) {
                 switch (msg.what) {
                     case MessageConstants.MESSAGE_STATE_CHANGE:
-                        String deviceNameForToast = (String) msg.obj;
-                        switch (msg.arg1) {
-                            case ConnectionState.STATE_CONNECTED:
-                                Toast.makeText(MainActivity.this, "已连接到 " + deviceNameForToast, Toast.LENGTH_SHORT).show();
-                                refreshDeviceListWithStatus();
+                        DeviceLink.StateChange change = (DeviceLink.StateChange) msg.obj;
+                        DeviceLink link = change.link;
+                        switch (change.snapshot.state) {
+                            case CONNECTED:
+                                deviceRegistry.recordConnectResult(link.getAddress(), true, System.currentTimeMillis());
+                                Toast.makeText(MainActivity.this, "已连接到 " + link.getName(), Toast.LENGTH_SHORT).show();
+                                break;
+                            case CONNECTING:
+                                Toast.makeText(MainActivity.this, "正在连接 " + link.getName() + "...", Toast.LENGTH_SHORT).show();
                                 break;
-                            case ConnectionState.STATE_CONNECTING:
-                                Toast.makeText(MainActivity.this, "正在连接 " + deviceNameForToast + "...", Toast.LENGTH_SHORT).show();
-                                connectedDeviceAddress = null;
-                                refreshDeviceListWithStatus();
+                            case LOST:
+                            case CLOSED:
+                                Toast.makeText(MainActivity.this, link.getName() + " 连接已断开", Toast.LENGTH_SHORT).show();
                                 break;
-                            case ConnectionState.STATE_NONE:
-                                Toast.makeText(MainActivity.this, deviceNameForToast != null ? deviceNameForToast : "未连接", Toast.LENGTH_SHORT).show();
-                                connectedDeviceAddress = null;
-                                refreshDeviceListWithStatus();
+                            default:
                                 break;
                         }
-                        break;
-                    case MessageConstants.MESSAGE_READ:
-                        byte[] readBuf = (byte[]) msg.obj;
-                        String readMessage = new String(readBuf, 0, msg.arg1);
-                        Toast.makeText(MainActivity.this, "已接收: " + readMessage, Toast.LENGTH_SHORT).show();
+                        // 通知来自不同线程，可能交错到达；只更新该设备这一行，取该地址当前链路的最新状态
+                        DeviceLink current = connectionManager.get(link.getAddress());
+                        int state = current != null ? current.getState() : ConnectionState.STATE_NONE;
+                        if (deviceRegistry.setConnectionState(link.getAddress(), state)) {
+                            submitDeviceList();
+                        }
                         break;
                     case MessageConstants.MESSAGE_TOAST:
                         Toast.makeText(MainActivity.this, msg.getData().getString("toast"), Toast.LENGTH_SHORT).show();
@@ -136,73 +243,42 @@ public class MainActivity extends AppCompatActivity {
             }
         };
 
-        listAdapter = new ArrayAdapter<>(this, android.R.layout.simple_list_item_1, discoveredDevicesList);
-        binding.lvDevices.setAdapter(listAdapter);
-
-        binding.lvDevices.setOnItemClickListener((parent, view, position, id) -> {
-            if (bluetoothAdapter == null || !bluetoothAdapter.isEnabled()) {
-                Toast.makeText(MainActivity.this, "请先启用蓝牙", Toast.LENGTH_SHORT).show();
-                return;
+        captureSink = startCapture();
+        connectionManager = new ConnectionManager(new ConnectionManager.Config(MAX_CONNECTIONS, receiveBufferPool,
+                frameDecoderFactory, writerOptions, metrics).captureSink(captureSink).compression(compressionOptions)
+                .binaryMessages(getIntent().getBooleanExtra(EXTRA_BINARY_MESSAGES, false)), connectionListener);
+        reconnector = new Reconnector(reconnectPolicy, reconnectListener, metrics);
+        connectExecutor = new ConnectExecutor(connectExecutorOptions, metrics);
+        scanScheduler = new ScanScheduler(new ScanScheduler.Timer() {
+            @Override
+            public long uptimeMillis() {
+                return SystemClock.uptimeMillis();
             }
 
-            String fullDeviceInfo = (String) parent.getItemAtPosition(position);
-            if (fullDeviceInfo.startsWith("---") || fullDeviceInfo.equals("无已配对设备") || fullDeviceInfo.equals("未发现新设备")) {
-                return;
+            @Override
+            public void schedule(Runnable task, long delayMillis) {
+                handler.postDelayed(task, delayMillis);
             }
 
-            String deviceAddress = fullDeviceInfo.substring(fullDeviceInfo.lastIndexOf("\n") + 1);
-            BluetoothDevice device = bluetoothAdapter.getRemoteDevice(deviceAddress);
-
-            String displayNameFromList = fullDeviceInfo.substring(0, fullDeviceInfo.indexOf("\n"));
-            displayNameFromList = displayNameFromList.replace(" (已连接)", "").replace(" (未连接)", "").replace(" (已配对)", "").replace(" (扫描)", "");
-
-            if (checkPermission(getBluetoothScanPermission())) {
-                if (bluetoothAdapter.isDiscovering()) {
-                    bluetoothAdapter.cancelDiscovery();
-                    Log.d(TAG, "Discovery cancelled before user interaction.");
-                }
+            @Override
+            public void cancel(Runnable task) {
+                handler.removeCallbacks(task);
             }
+        }, this::onScanStopped, metrics);
+        discoveryBatcher = new DiscoveryBatcher(new FrameFlushScheduler(handler, DISCOVERY_FLUSH_INTERVAL_MS), this::onDiscoveryBatch);
+        deliveryQueue = new DeliveryQueue<>(deliveryOptions, new FrameFlushScheduler(handler, 0),
+                this::onReceivedBatch, metrics);
 
-            boolean isCurrentlyConnectedToThisDevice = (connectedDeviceAddress != null && connectedDeviceAddress.equals(deviceAddress));
-            boolean isBonded = false;
-            if (checkPermission(getBluetoothConnectPermission())) {
-                isBonded = device.getBondState() == BluetoothDevice.BOND_BONDED;
-            }
+        listAdapter = new DeviceListAdapter(this::onDeviceRowClick);
+        binding.lvDevices.setLayoutManager(new LinearLayoutManager(this));
+        binding.lvDevices.setAdapter(listAdapter);
 
-            AlertDialog.Builder builder = new AlertDialog.Builder(this);
-            builder.setTitle(displayNameFromList);
+        deviceCache = new DeviceCache(new File(getFilesDir(), "device_cache.bin"));
+        loadDeviceCache();
 
-            ArrayList<String> dialogOptions = new ArrayList<>();
-            if (isCurrentlyConnectedToThisDevice) {
-                dialogOptions.add("断开连接");
-            } else {
-                dialogOptions.add("连接");
-            }
-            if (isBonded) {
-                dialogOptions.add("取消配对");
-            }
-            dialogOptions.add("取消");
-
-            builder.setItems(dialogOptions.toArray(new String[0]), (dialog, which) -> {
-                String selectedOption = dialogOptions.get(which);
-                switch (selectedOption) {
-                    case "连接":
-                        connectToDevice(device);
-                        break;
-                    case "断开连接":
-                        if (connectedThread != null) {
-                            connectedThread.cancel();
-                        }
-                        break;
-                    case "取消配对":
-                        unpairDevice(device);
-                        break;
-                    case "取消":
-                        dialog.dismiss();
-                        break;
-                }
-            });
-            builder.show();
+        binding.btnScan.setOnLongClickListener(v -> {
+            toggleMetricsPanel();
+            return true;
         });
 
         binding.btnScan.setOnClickListener(v -> {
@@ -217,6 +293,7 @@ public class MainActivity extends AppCompatActivity {
 
         IntentFilter filter = new IntentFilter();
         filter.addAction(BluetoothDevice.ACTION_FOUND);
+        filter.addAction(BluetoothDevice.ACTION_NAME_CHANGED);
         filter.addAction(BluetoothAdapter.ACTION_DISCOVERY_STARTED);
         filter.addAction(BluetoothAdapter.ACTION_DISCOVERY_FINISHED);
         registerReceiver(discoveryReceiver, filter);
@@ -224,42 +301,104 @@ public class MainActivity extends AppCompatActivity {
         IntentFilter bondFilter = new IntentFilter(BluetoothDevice.ACTION_BOND_STATE_CHANGED);
         registerReceiver(bondStateReceiver, bondFilter);
 
+        registerReceiver(aclReceiver, new IntentFilter(BluetoothDevice.ACTION_ACL_CONNECTED));
+
+        submitDeviceList();
         if (checkAndRequestPermissions()) {
             initializeBluetooth();
         }
     }
 
-    /**
-     * 优化 refreshDeviceListWithStatus 方法：
-     * 确保在刷新时，分别独立更新“已配对设备”和“新设备”部分，而不是清空整个列表。
-     * 避免重复清空 discoveredDevicesList，改为分别更新两个部分的设备列表。
-     * <p>
-     * 分离刷新逻辑：
-     * 分别定义 updatePairedDevices 和 updateNewDevices 方法，分别处理已配对设备和新设备的列表更新。
-     * 在 refreshDeviceListWithStatus 中调用这两个方法，确保每次刷新都能保留所有设备。
-     */
-    private void refreshDeviceListWithStatus() {
-        // 备份新设备部分
-        ArrayList<String> newDevices = new ArrayList<>();
-        boolean newDevicesSectionStarted = false;
-        for (String item : discoveredDevicesList) {
-            if (item.equals("--- 新设备 ---")) {
-                newDevicesSectionStarted = true;
-                newDevices.add(item);
-                continue;
-            }
-            if (newDevicesSectionStarted && !item.startsWith("---")) {
-                newDevices.add(item);
+    private void onDeviceRowClick(DeviceRow row) {
+        if (bluetoothAdapter == null || !bluetoothAdapter.isEnabled()) {
+            Toast.makeText(MainActivity.this, "请先启用蓝牙", Toast.LENGTH_SHORT).show();
+            return;
+        }
+
+        DeviceRecord record = deviceRegistry.get(row.getKey());
+        if (record == null) {
+            return;
+        }
+
+        String deviceAddress = record.getAddressString();
+        BluetoothDevice device = bluetoothAdapter.getRemoteDevice(deviceAddress);
+
+        String displayNameFromList = record.getDisplayName();
+
+        if (scanScheduler.isActive()) {
+            scanScheduler.stop();
+            Log.d(TAG, "Discovery cancelled before user interaction.");
+        }
+
+        // 已连接或正在连接时提供“断开连接”
+        boolean isCurrentlyConnectedToThisDevice = connectionManager.get(record.getAddress()) != null;
+        boolean isBonded = false;
+        if (checkPermission(getBluetoothConnectPermission())) {
+            isBonded = device.getBondState() == BluetoothDevice.BOND_BONDED;
+        }
+
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle(displayNameFromList);
+
+        ArrayList<String> dialogOptions = new ArrayList<>();
+        if (isCurrentlyConnectedToThisDevice) {
+            dialogOptions.add("断开连接");
+        } else {
+            dialogOptions.add("连接");
+            if (getIntent().getStringExtra(EXTRA_SEND_FILE) != null) {
+                dialogOptions.add("发送文件");
             }
+            dialogOptions.add(compressedDevices.contains(record.getAddress()) ? "关闭压缩" : "开启压缩");
         }
+        if (isBonded) {
+            dialogOptions.add("取消配对");
+        }
+        dialogOptions.add("取消");
 
-        // 更新已配对设备部分
-        updatePairedDevices();
+        builder.setItems(dialogOptions.toArray(new String[0]), (dialog, which) -> {
+            String selectedOption = dialogOptions.get(which);
+            switch (selectedOption) {
+                case "连接":
+                    connectToDevice(device);
+                    break;
+                case "断开连接":
+                    disconnectDevice(record.getAddress());
+                    break;
+                case "开启压缩":
+                    compressedDevices.add(record.getAddress());
+                    break;
+                case "关闭压缩":
+                    compressedDevices.remove(record.getAddress());
+                    break;
+                case "发送文件":
+                    sendFile(deviceAddress, new File(getIntent().getStringExtra(EXTRA_SEND_FILE)));
+                    break;
+                case "取消配对":
+                    unpairDevice(device);
+                    break;
+                case "取消":
+                    dialog.dismiss();
+                    break;
+            }
+        });
+        builder.show();
+    }
 
-        // 恢复新设备部分并更新状态
-        updateNewDevices(newDevices);
+    /**
+     * 刷新设备列表：重建已配对分区、刷新新设备名称并同步连接状态。
+     * 设备数据保存在 DeviceRegistry 中，列表只是其投影，无需再备份、拼接字符串列表。
+     */
+    private void refreshDeviceListWithStatus() {
+        updatePairedDevices();
+        updateNewDevices();
+        submitDeviceList();
+    }
 
-        listAdapter.notifyDataSetChanged();
+    /**
+     * 将注册表的当前快照提交给列表，差分在后台线程完成。
+     */
+    private void submitDeviceList() {
+        listAdapter.submitList(deviceRegistry.snapshot());
     }
 
     // 更新已配对设备部分
@@ -267,93 +406,71 @@ public class MainActivity extends AppCompatActivity {
     private void updatePairedDevices() {
         if (bluetoothAdapter == null || !bluetoothAdapter.isEnabled()) {
             Log.w(TAG, "updatePairedDevices: Bluetooth not enabled or adapter null");
-            discoveredDevicesList.clear();
-            discoveredDevicesList.add("--- 已配对设备 ---");
-            discoveredDevicesList.add("无已配对设备");
+            deviceRegistry.clearPaired();
             return;
         }
 
         if (!checkPermission(getBluetoothConnectPermission())) {
             Toast.makeText(this, "缺少蓝牙连接权限以列出已配对设备。", Toast.LENGTH_SHORT).show();
             Log.w(TAG, "updatePairedDevices: BLUETOOTH_CONNECT permission missing.");
-            discoveredDevicesList.clear();
-            discoveredDevicesList.add("--- 已配对设备 ---");
-            discoveredDevicesList.add("无已配对设备");
+            deviceRegistry.clearPaired();
             return;
         }
 
-        // 保留“新设备”部分
-        ArrayList<String> newDevicesSection = new ArrayList<>();
-        boolean newDevicesSectionStarted = false;
-        for (String item : discoveredDevicesList) {
-            if (item.equals("--- 新设备 ---")) {
-                newDevicesSectionStarted = true;
-                newDevicesSection.add(item);
-                continue;
-            }
-            if (newDevicesSectionStarted) {
-                newDevicesSection.add(item);
-            }
-        }
-
-        // 清空列表并重新添加已配对设备
-        discoveredDevicesList.clear();
-        discoveredDevicesList.add("--- 已配对设备 ---");
+        applyPairedDevices(queryBondedDevices());
+    }
 
+    /**
+     * 查询已配对设备及名称。名称经 NameCache 获取，未命中时的 getName() 是 binder 调用，可以在后台线程执行。
+     */
+    @SuppressLint("MissingPermission")
+    private Map<Long, String> queryBondedDevices() {
+        LinkedHashMap<Long, String> bonded = new LinkedHashMap<>();
         Set<BluetoothDevice> pairedDevices = bluetoothAdapter.getBondedDevices();
-        if (pairedDevices != null && !pairedDevices.isEmpty()) {
+        if (pairedDevices != null) {
             for (BluetoothDevice device : pairedDevices) {
-                String deviceName = device.getName();
-                String deviceHardwareAddress = device.getAddress();
-                String status = (connectedDeviceAddress != null && connectedDeviceAddress.equals(deviceHardwareAddress)) ? " (已连接)" : " (未连接)";
-                String deviceInfo = (deviceName == null || deviceName.isEmpty() ? "未知设备" : deviceName) + status + "\n" + deviceHardwareAddress;
-                discoveredDevicesList.add(deviceInfo);
+                long address = MacAddress.pack(device.getAddress());
+                bonded.put(address, nameCache.get(address));
             }
-        } else {
-            discoveredDevicesList.add("无已配对设备");
-            Log.d(TAG, "没有已配对的设备");
         }
+        return bonded;
+    }
 
-        // 恢复“新设备”部分
-        if (!newDevicesSection.isEmpty()) {
-            discoveredDevicesList.addAll(newDevicesSection);
+    private void applyPairedDevices(Map<Long, String> bonded) {
+        if (bonded.isEmpty()) {
+            Log.d(TAG, "没有已配对的设备");
+        }
+        deviceRegistry.beginPairedUpdate();
+        for (Map.Entry<Long, String> device : bonded.entrySet()) {
+            deviceRegistry.putPaired(device.getKey(), device.getValue(), BluetoothDevice.BOND_BONDED);
         }
+        deviceRegistry.endPairedUpdate();
+        syncConnectionStates();
     }
 
     /**
-     * 删除了 status 变量的拼接，仅保留 name + "\n" + address。
+     * 刷新新设备分区的名称，仅显示名称和地址。
      */
-    private void updateNewDevices(ArrayList<String> newDevices) {
-        ArrayList<String> updatedNewDevices = new ArrayList<>();
-        updatedNewDevices.add("--- 新设备 ---");
-
-        for (String item : newDevices) {
-            if (item.equals("--- 新设备 ---") || item.equals("未发现新设备")) {
-                continue;
-            }
-            String address = item.substring(item.lastIndexOf("\n") + 1);
-            BluetoothDevice dev = bluetoothAdapter.getRemoteDevice(address);
-            String name = "未知设备";
-            if (checkPermission(getBluetoothConnectPermission())) {
-                name = dev.getName() == null || dev.getName().isEmpty() ? "未知设备" : dev.getName();
-            }
-            // 优化：移除状态字符串，仅显示名称和地址
-            updatedNewDevices.add(name + "\n" + address);
+    @SuppressLint("MissingPermission")
+    private void updateNewDevices() {
+        deviceRegistry.showNewSection();
+        if (bluetoothAdapter == null || !checkPermission(getBluetoothConnectPermission())) {
+            return;
         }
-
-        if (updatedNewDevices.size() == 1) { // 只有标题，没有设备
-            updatedNewDevices.add("未发现新设备");
+        for (DeviceRecord record : deviceRegistry.newDevices()) {
+            deviceRegistry.updateName(record.getAddress(), nameCache.get(record.getAddress()));
         }
+    }  //end updateNewDevices
 
-        // 移除旧的“新设备”部分（如果存在），并添加更新后的部分
-        int newDevicesHeaderIndex = discoveredDevicesList.indexOf("--- 新设备 ---");
-        if (newDevicesHeaderIndex != -1) {
-            while (discoveredDevicesList.size() > newDevicesHeaderIndex) {
-                discoveredDevicesList.remove(newDevicesHeaderIndex);
-            }
+    /**
+     * 根据当前所有链路同步注册表中的连接状态。
+     */
+    private void syncConnectionStates() {
+        deviceRegistry.clearConnectionStates();
+        for (DeviceLink link : connectionManager.links()) {
+            deviceRegistry.setConnectionState(link.getAddress(), link.getState());
         }
-        discoveredDevicesList.addAll(updatedNewDevices);
-    }  //end updateNewDevices
+    }
 
     private boolean checkAndRequestPermissions() {
         ArrayList<String> permissionsToRequest = new ArrayList<>();
@@ -390,6 +507,7 @@ public class MainActivity extends AppCompatActivity {
         } else {
             Log.d(TAG, "蓝牙已启用。正在列出已配对设备并开始扫描...");
             listPairedDevices();
+            startListening();
             startDiscovery();
         }
     }
@@ -408,13 +526,59 @@ public class MainActivity extends AppCompatActivity {
             enableBluetoothLauncher.launch(enableBtIntent);
         } else {
             listPairedDevices();
+            startListening();
         }
     }
 
+    /**
+     * 列表先按缓存显示，已配对设备在后台查询后再合并到注册表。
+     */
     @SuppressLint("MissingPermission")
     private void listPairedDevices() {
-        updatePairedDevices();
-        listAdapter.notifyDataSetChanged();
+        if (bluetoothAdapter == null || !bluetoothAdapter.isEnabled() || !checkPermission(getBluetoothConnectPermission())) {
+            updatePairedDevices();
+            submitDeviceList();
+            return;
+        }
+        ioExecutor.execute(() -> {
+            Map<Long, String> bonded = queryBondedDevices();
+            handler.post(() -> {
+                applyPairedDevices(bonded);
+                submitDeviceList();
+            });
+        });
+    }
+
+    /**
+     * 在后台读取设备缓存，读完后在主线程合并并显示。
+     */
+    private void loadDeviceCache() {
+        ioExecutor.execute(() -> {
+            List<DeviceCache.Entry> entries = deviceCache.load();
+            Log.d(TAG, "设备缓存读取 " + entries.size() + " 条");
+            if (!entries.isEmpty()) {
+                handler.post(() -> {
+                    if (deviceRegistry.restore(entries)) {
+                        syncConnectionStates();
+                        submitDeviceList();
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * 在主线程生成缓存内容，后台写入文件。
+     */
+    private void saveDeviceCache() {
+        List<DeviceCache.Entry> entries = deviceRegistry.toCacheEntries();
+        ioExecutor.execute(() -> {
+            try {
+                deviceCache.save(entries);
+            } catch (IOException e) {
+                Log.w(TAG, "设备缓存写入失败", e);
+            }
+        });
     }
 
     @SuppressLint("MissingPermission")
@@ -434,18 +598,61 @@ public class MainActivity extends AppCompatActivity {
         binding.btnScan.setEnabled(false);
         Log.d(TAG, "扫描按钮已禁用");
 
-        if (bluetoothAdapter.isDiscovering()) {
-            bluetoothAdapter.cancelDiscovery();
-            Log.d(TAG, "已取消正在进行的扫描");
+        // 由 ScanScheduler 启动（并替换正在进行的）扫描，按 scanOptions 提前结束或暂停
+        scanSightings.clear();
+        scanScheduler.start(scanSource(), scanOptions);
+        Log.d(TAG, "开始扫描新设备...");
+    }
+
+    private ScanSource scanSource() {
+        if (scanSource == null) {
+            if (getIntent().getBooleanExtra(EXTRA_BLE_SCAN, false)) {
+                scanSource = new BleScanSource(bluetoothAdapter,
+                        new BleScanProcessor(bleFilters, this::onDeviceSighted), BLE_REPORT_DELAY_MS);
+            } else {
+                // 经典 inquiry 的结果经 discoveryReceiver 的 ACTION_FOUND 送达 onDeviceSighted
+                scanSource = new ClassicScanSource(bluetoothAdapter);
+            }
         }
+        return scanSource;
+    }
 
-        boolean discoveryStarted = bluetoothAdapter.startDiscovery();
-        if (discoveryStarted) {
-            Log.d(TAG, "开始扫描新设备...");
-        } else {
-            Log.e(TAG, "BluetoothAdapter.startDiscovery() 返回 false。");
-            Toast.makeText(this, "启动发现失败。", Toast.LENGTH_SHORT).show();
-            binding.btnScan.setEnabled(true);
+    /**
+     * 经典与 BLE 扫描共用的结果入口，在主线程调用。
+     */
+    private void onDeviceSighted(long address, String name, int rssi, long timestampMillis) {
+        if (name != null && !name.isEmpty()) {
+            nameCache.put(address, name);
+        }
+        scanScheduler.onDeviceFound(address, name);
+        if (scanSightings.add(address) && scanSightings.size() == 1) {
+            metrics.histogram("discovery.first_device_ms").record(System.currentTimeMillis() - scanStartTime);
+        }
+        // 只进入缓冲区，由 DiscoveryBatcher 合并后按帧刷新列表
+        discoveryBatcher.offer(address, name, rssi, timestampMillis);
+    }
+
+    /**
+     * 一次扫描会话结束：正常结束或空闲结束时询问是否重新扫描。
+     */
+    private void onScanStopped(ScanScheduler.StopReason reason, int devicesFound, long durationMillis) {
+        Log.d(TAG, "扫描结束: " + reason + "，新发现 " + devicesFound + " 个设备，耗时 " + durationMillis + " ms");
+        binding.btnScan.setEnabled(true);
+        switch (reason) {
+            case FAILED:
+                Toast.makeText(this, "启动发现失败。", Toast.LENGTH_SHORT).show();
+                break;
+            case TARGET_FOUND:
+                Toast.makeText(this, "已找到目标设备，停止扫描", Toast.LENGTH_SHORT).show();
+                break;
+            case COMPLETED:
+            case IDLE:
+                int minutes = (int) (durationMillis / 60000);
+                int seconds = (int) ((durationMillis % 60000) / 1000);
+                showRescanDialog(countDevices(), minutes, seconds);
+                break;
+            default:
+                break;
         }
     }
 
@@ -465,71 +672,56 @@ public class MainActivity extends AppCompatActivity {
             if (BluetoothDevice.ACTION_FOUND.equals(action)) {
                 BluetoothDevice device = intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
                 if (device != null) {
-                    String deviceName = "未知设备";
-                    String deviceHardwareAddress = device.getAddress();
-
+                    long address = MacAddress.pack(device.getAddress());
+                    String deviceName = null;
                     if (checkPermission(getBluetoothConnectPermission())) {
-                        String fetchedName = device.getName();
-                        if (fetchedName != null && !fetchedName.isEmpty()) {
-                            deviceName = fetchedName;
-                        }
-                    }
-
-                    // 优化：新设备不显示状态字符串
-                    String deviceInfo = deviceName + "\n" + deviceHardwareAddress;
-
-                    boolean alreadyExists = false;
-                    int existingIndex = -1;
-                    for (int i = 0; i < discoveredDevicesList.size(); i++) {
-                        if (discoveredDevicesList.get(i).endsWith(deviceHardwareAddress)) {
-                            alreadyExists = true;
-                            existingIndex = i;
-                            break;
+                        // 广播通常已带名称，直接写入缓存，不再调用 getName()
+                        String extraName = intent.getStringExtra(BluetoothDevice.EXTRA_NAME);
+                        if (extraName != null && !extraName.isEmpty()) {
+                            nameCache.put(address, extraName);
                         }
+                        deviceName = nameCache.get(address);
                     }
-
-                    if (alreadyExists) {
-                        if (!discoveredDevicesList.get(existingIndex).equals(deviceInfo)) {
-                            discoveredDevicesList.set(existingIndex, deviceInfo);
-                            listAdapter.notifyDataSetChanged();
-                            Log.d(TAG, "更新设备信息: " + deviceInfo);
-                        }
-                    } else {
-                        int newDevicesHeaderIndex = discoveredDevicesList.indexOf("--- 新设备 ---");
-                        if (newDevicesHeaderIndex == -1) {
-                            discoveredDevicesList.add("--- 新设备 ---");
-                            newDevicesHeaderIndex = discoveredDevicesList.size() - 1;
-                        }
-                        if (newDevicesHeaderIndex + 1 < discoveredDevicesList.size() &&
-                                discoveredDevicesList.get(newDevicesHeaderIndex + 1).equals("未发现新设备")) {
-                            discoveredDevicesList.remove(newDevicesHeaderIndex + 1);
-                        }
-                        discoveredDevicesList.add(deviceInfo);
-                        listAdapter.notifyDataSetChanged();
-                        Log.d(TAG, "发现新设备: " + deviceInfo);
+                    int rssi = intent.getShortExtra(BluetoothDevice.EXTRA_RSSI, (short) DeviceSighting.RSSI_UNKNOWN);
+                    onDeviceSighted(address, deviceName, rssi, System.currentTimeMillis());
+                }
+            } else if (BluetoothDevice.ACTION_NAME_CHANGED.equals(action)) {
+                BluetoothDevice device = intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
+                if (device != null) {
+                    long address = MacAddress.pack(device.getAddress());
+                    nameCache.put(address, intent.getStringExtra(BluetoothDevice.EXTRA_NAME));
+                    if (checkPermission(getBluetoothConnectPermission())
+                            && deviceRegistry.updateName(address, nameCache.get(address))) {
+                        submitDeviceList();
                     }
                 }
             } else if (BluetoothAdapter.ACTION_DISCOVERY_STARTED.equals(action)) {
                 Log.d(TAG, "Discovery started.");
+                scanScheduler.onDiscoveryStarted();
+                discoveryBatcher.resetCounters();
+                scanSightings.clear();
                 binding.btnScan.setEnabled(false);
                 Log.d(TAG, "扫描按钮在 ACTION_DISCOVERY_STARTED 中被禁用");
             } else if (BluetoothAdapter.ACTION_DISCOVERY_FINISHED.equals(action)) {
                 Log.d(TAG, "Discovery finished.");
-                binding.btnScan.setEnabled(true);
-                Log.d(TAG, "扫描按钮在 ACTION_DISCOVERY_FINISHED 中被启用");
-
-                int deviceCount = countDevices();
-                long scanDuration = System.currentTimeMillis() - scanStartTime;
-                int minutes = (int) (scanDuration / 60000);
-                int seconds = (int) ((scanDuration % 60000) / 1000);
-                showRescanDialog(deviceCount, minutes, seconds);
+
+                discoveryBatcher.flush();
+                Log.d(TAG, "发现事件 " + discoveryBatcher.getEventsReceived() + " 次，合并 "
+                        + discoveryBatcher.getSightingsMerged() + " 次，列表刷新 " + discoveryBatcher.getFlushesPerformed() + " 次");
+
+                metrics.histogram("discovery.devices_per_scan").record(scanSightings.size());
+                metrics.histogram("discovery.duration_ms").record(System.currentTimeMillis() - scanStartTime);
+
+                // 会话是否结束（以及是否询问重新扫描）由 ScanScheduler 决定，见 onScanStopped
+                scanScheduler.onDiscoveryFinished();
+                binding.btnScan.setEnabled(!scanScheduler.isActive());
             }
         }
     };  // end discoveryReceiver
     /**
      * 添加 null 检查：
      * 使用 deviceIdentifier 变量存储最终显示的设备标识。
-     *默认使用 device.getAddress() 作为回退值。 如果有权限且 device.getName() 不为 null 且不为空，则使用设备名称。
+     *默认使用 device.getAddress() 作为回退值。 如果有权限且缓存的设备名称不为 null 且不为空，则使用设备名称。
      * 确保消息清晰：
      * 无论设备名称是否可用，Toast 消息都会显示有意义的设备标识（名称或地址），避免出现“设备null”的情况。
      */
@@ -545,15 +737,14 @@ public class MainActivity extends AppCompatActivity {
                 final int previousBondState = intent.getIntExtra(BluetoothDevice.EXTRA_PREVIOUS_BOND_STATE, BluetoothDevice.ERROR);
 
                 Log.d(TAG, "设备 " + device.getAddress() + " 绑定状态改变: " + previousBondState + " -> " + bondState);
+                long address = MacAddress.pack(device.getAddress());
+                nameCache.invalidate(address);
 
                 if (bondState == BluetoothDevice.BOND_BONDED || bondState == BluetoothDevice.BOND_NONE) {
                     // 修复：优先获取设备名称，若为 null 则使用设备地址
                     String deviceIdentifier = device.getAddress(); // 默认使用地址
                     if (checkPermission(getBluetoothConnectPermission())) {
-                        String deviceName = device.getName();
-                        if (deviceName != null && !deviceName.isEmpty()) {
-                            deviceIdentifier = deviceName;
-                        }
+                        deviceIdentifier = nameCache.displayName(address);
                     }
                     Toast.makeText(context, "设备 " + deviceIdentifier +
                             (bondState == BluetoothDevice.BOND_BONDED ? " 已配对" : " 已取消配对"), Toast.LENGTH_SHORT).show();
@@ -563,14 +754,60 @@ public class MainActivity extends AppCompatActivity {
         }
     }; //end BroadcastReceiver bondStateReceiver
 
-    private int countDevices() {
-        int count = 0;
-        for (String item : discoveredDevicesList) {
-            if (!item.startsWith("---") && !item.equals("无已配对设备") && !item.equals("未发现新设备")) {
-                count++;
+    /**
+     * 一批合并后的扫描结果，整批只提交一次列表快照。
+     */
+    private void onDiscoveryBatch(Collection<DeviceSighting> sightings) {
+        boolean changed = false;
+        for (DeviceSighting sighting : sightings) {
+            changed |= deviceRegistry.putDiscovered(sighting.getAddress(), sighting.getName());
+            deviceRegistry.recordSighting(sighting.getAddress(), sighting.getRssi(), sighting.getTimestampMillis());
+        }
+        if (changed) {
+            submitDeviceList();
+            Log.d(TAG, "发现或更新设备 " + sightings.size() + " 个");
+        }
+    }
+
+    /**
+     * 一批收到的消息，每帧最多一次：只把新行追加到接收区并滚动到底部。
+     * 显示的行数超过 MAX_RECEIVED_LINES 的两倍时，用最近的 MAX_RECEIVED_LINES 行重设一次，
+     * 整体重排的开销分摊到许多次追加上。
+     */
+    private void onReceivedBatch(List<DeviceLink.Message> batch) {
+        long now = System.nanoTime();
+        StringBuilder appended = new StringBuilder();
+        for (DeviceLink.Message received : batch) {
+            uiDeliveryLatency.record((now - received.receivedAtNanos) / 1000);
+            String line = received.link.getName() + ": " + received.text;
+            receivedLines.addLast(line);
+            if (receivedLines.size() > MAX_RECEIVED_LINES) {
+                receivedLines.pollFirst();
+            }
+            if (receivedLinesShown > 0 || appended.length() > 0) {
+                appended.append('\n');
+            }
+            appended.append(line);
+        }
+        receivedLinesShown += batch.size();
+        if (receivedLinesShown > 2 * MAX_RECEIVED_LINES) {
+            StringBuilder sb = new StringBuilder();
+            for (String line : receivedLines) {
+                if (sb.length() > 0) {
+                    sb.append('\n');
+                }
+                sb.append(line);
             }
+            binding.tvReceived.setText(sb);
+            receivedLinesShown = receivedLines.size();
+        } else {
+            binding.tvReceived.append(appended);
         }
-        return count;
+        binding.svReceived.post(() -> binding.svReceived.fullScroll(View.FOCUS_DOWN));
+    }
+
+    private int countDevices() {
+        return deviceRegistry.deviceCount();
     }
 
     @SuppressLint("DefaultLocale")
@@ -609,95 +846,257 @@ public class MainActivity extends AppCompatActivity {
             Log.e(TAG, "unpairDevice: BLUETOOTH_CONNECT permission missing.");
             return;
         }
+        String displayName = nameCache.displayName(MacAddress.pack(device.getAddress()));
         try {
             Method method = device.getClass().getMethod("removeBond", (Class[]) null);
             boolean success = (boolean) method.invoke(device, (Object[]) null);
             if (success) {
-                Toast.makeText(this, "正在取消配对: " + (device.getName() != null ? device.getName() : device.getAddress()), Toast.LENGTH_SHORT).show();
+                Toast.makeText(this, "正在取消配对: " + displayName, Toast.LENGTH_SHORT).show();
             } else {
                 Log.e(TAG, "removeBond() 调用返回 false for " + device.getAddress());
-                Toast.makeText(this, "取消配对 " + (device.getName() != null ? device.getName() : device.getAddress()) + " 失败", Toast.LENGTH_LONG).show();
+                Toast.makeText(this, "取消配对 " + displayName + " 失败", Toast.LENGTH_LONG).show();
                 refreshDeviceListWithStatus();
             }
         } catch (Exception e) {
-            Log.e(TAG, "取消配对失败 " + (device.getName() != null ? device.getName() : device.getAddress()), e);
-            Toast.makeText(this, "取消配对 " + (device.getName() != null ? device.getName() : device.getAddress()) + " 失败: " + e.getMessage(), Toast.LENGTH_LONG).show();
+            Log.e(TAG, "取消配对失败 " + displayName, e);
+            Toast.makeText(this, "取消配对 " + displayName + " 失败: " + e.getMessage(), Toast.LENGTH_LONG).show();
             refreshDeviceListWithStatus();
         }
     }
 
+    /**
+     * 只在主线程调用。占位和状态转换由 ConnectionManager / LinkStateMachine 保证原子性，不需要加锁。
+     */
     @SuppressLint("MissingPermission")
-    public synchronized void connectToDevice(BluetoothDevice device) {
+    public boolean connectToDevice(BluetoothDevice device) {
         if (!checkPermission(getBluetoothConnectPermission())) {
             Toast.makeText(this, "缺少蓝牙连接权限，无法连接。", Toast.LENGTH_SHORT).show();
             Log.e(TAG, "connectToDevice: BLUETOOTH_CONNECT permission missing.");
-            return;
+            return false;
         }
 
-        String deviceNameForToast = device.getAddress();
-        String fetchedName = device.getName();
-        if (fetchedName != null && !fetchedName.isEmpty()) {
-            deviceNameForToast = fetchedName;
+        long address = MacAddress.pack(device.getAddress());
+        String fetchedName = nameCache.get(address);
+        Log.d(TAG, "connect to: " + fetchedName + " (" + device.getAddress() + ")");
+
+        // 不再断开已有连接，每个设备各占一条链路
+        DeviceLink link = connectionManager.reserve(address, fetchedName);
+        if (link == null) {
+            if (connectionManager.get(address) != null) {
+                Toast.makeText(this, "该设备已连接或正在连接", Toast.LENGTH_SHORT).show();
+            } else {
+                Toast.makeText(this, "已达到最大连接数 " + connectionManager.getMaxLinks(), Toast.LENGTH_SHORT).show();
+            }
+            return false;
         }
-        Log.d(TAG, "connect to: " + deviceNameForToast + " (" + device.getAddress() + ")");
+        link.setCompressionEnabled(compressedDevices.contains(address));
+        // 发现与 RFCOMM 争用射频，连接期间暂停扫描，尝试结束时恢复
+        scanScheduler.pauseForConnect();
+        Log.i(TAG, "BEGIN connect, Device: " + device.getAddress() + "; " + connectExecutor.getStats());
+        if (connectExecutor.submit(device.getAddress(), transport(), new ConnectCallback(link)) == null) {
+            Log.w(TAG, "连接队列已满: " + connectExecutor.getStats());
+            scanScheduler.resumeAfterConnect();
+            // connectionFailed 已报告给 Reconnector
+            connectionFailed(link, new IOException("连接队列已满"));
+        }
+        return true;
+    }
+
+    /**
+     * 断开设备：取消尚未完成的连接，关闭已建立的链路。
+     */
+    private void disconnectDevice(long address) {
+        reconnector.cancel(address);
+        connectExecutor.cancel(MacAddress.format(address));
+        connectionManager.disconnect(address);
+    }
 
-        if (connectThread != null) {
-            connectThread.cancel();
-            connectThread = null;
+    /**
+     * 向指定设备发送数据，只放入该链路的发送队列，不阻塞调用线程。
+     */
+    public boolean write(long address, byte[] bytes) {
+        DeviceLink link = connectionManager.get(address);
+        if ((link == null || !link.isConnected()) && reconnector.enqueue(address, bytes)) {
+            Log.d(TAG, "设备重连中，消息暂存 " + bytes.length + " 字节");
+            return true;
         }
-        if (connectedThread != null) {
-            connectedThread.cancel();
-            connectedThread = null;
+        if (link == null) {
+            Log.e(TAG, "发送数据时发生错误: 设备未连接 " + MacAddress.format(address));
+            return false;
         }
-        connectThread = new ConnectThread(device);
-        connectThread.start();
-        updateConnectionState(ConnectionState.STATE_CONNECTING, deviceNameForToast);
+        boolean queued = link.send(bytes);
+        if (!queued) {
+            Log.w(TAG, "发送队列已满或链路未就绪，丢弃 " + bytes.length + " 字节; " + link.getWriterStats());
+        }
+        return queued;
     }
 
     @SuppressLint("MissingPermission")
-    private synchronized void manageConnectedSocket(BluetoothSocket socket, BluetoothDevice device) {
-        String deviceNameForState = device.getAddress();
-        String fetchedName = device.getName();
-        if (fetchedName != null && !fetchedName.isEmpty()) {
-            deviceNameForState = fetchedName;
+    private void manageConnectedSocket(Connection connection, DeviceLink link) {
+        Log.d(TAG, "manageConnectedSocket 已为 " + link.getName() + " 启动");
+        long address = link.getAddress();
+        // 重连成功时，上一条链路未发出的消息排在最前面；链路启动成功后才结束这次断线
+        List<byte[]> resumed = reconnector.takePending(address);
+        try {
+            connectionManager.attach(link, connection, resumed);
+        } catch (IOException e) {
+            Log.e(TAG, "链路启动失败: " + link.getName(), e);
+            reconnector.restorePending(address, resumed);
+            connectionFailed(link, e);
+            return;
+        }
+        // 启动期间写入、暂存在重连队列里的消息
+        for (byte[] bytes : reconnector.onConnected(address)) {
+            link.send(bytes);
         }
-        Log.d(TAG, "manageConnectedSocket 已为 " + deviceNameForState + " 启动");
+    }
+
+    private void updateConnectionState(DeviceLink link, LinkStateMachine.Snapshot snapshot) {
+        handler.obtainMessage(MessageConstants.MESSAGE_STATE_CHANGE, new DeviceLink.StateChange(link, snapshot))
+                .sendToTarget();
+    }
 
-        if (connectThread != null) {
-            connectThread.cancel();
-            connectThread = null;
+    private final ConnectionManager.Listener connectionListener = new ConnectionManager.Listener() {
+        @Override
+        public void onStateChanged(DeviceLink link, LinkStateMachine.Snapshot snapshot) {
+            updateConnectionState(link, snapshot);
         }
-        if (connectedThread != null) {
-            connectedThread.cancel();
-            connectedThread = null;
+
+        @Override
+        public void onMessage(DeviceLink link, String text) {
+            // 分帧和解码已在读取线程完成，这里只交出完整的文本消息，不再逐条 post
+            deliveryQueue.offer(new DeviceLink.Message(link, text));
         }
 
-        connectedDeviceAddress = device.getAddress();
-        connectedThread = new ConnectedThread(socket);
-        connectedThread.start();
+        @Override
+        public void onBinaryMessage(DeviceLink link, BinaryMessageReader reader) {
+            // reader 在返回后失效，界面只需要类型和长度
+            deliveryQueue.offer(new DeviceLink.Message(link, "[类型 " + reader.type() + "，" + reader.length() + " 字节]\n"));
+        }
 
-        updateConnectionState(ConnectionState.STATE_CONNECTED, deviceNameForState);
-    }
+        @Override
+        public void onLinkLost(DeviceLink link, IOException cause) {
+            Log.d(TAG, "输入流已断开或读取错误: " + link.getName(), cause);
+            if (link.isIncoming()) {
+                // 连入的设备自己会重新连入，本机不回拨，未发出的消息丢弃
+                Log.d(TAG, "连入的设备断开，丢弃 " + link.drainPending().size() + " 条未发送消息");
+            } else {
+                reconnector.onLinkLost(link.getAddress(), link.drainPending());
+            }
+            connectionLost();
+        }
+    };
 
-    private synchronized void updateConnectionState(int state, String deviceName) {
-        if (state == ConnectionState.STATE_NONE || state == ConnectionState.STATE_LISTEN) {
-            connectedDeviceAddress = null;
+    private final Reconnector.Listener reconnectListener = new Reconnector.Listener() {
+        @Override
+        public void reconnect(long address, int attempt) {
+            handler.post(() -> reconnectDevice(address, attempt));
+        }
+
+        @Override
+        public void onGaveUp(long address, int attempts) {
+            Log.w(TAG, "放弃重连 " + MacAddress.format(address) + "，已尝试 " + attempts + " 次");
+            handler.post(() -> Toast.makeText(MainActivity.this,
+                    "无法重新连接 " + nameCache.displayName(address), Toast.LENGTH_LONG).show());
+        }
+    };
+
+    /**
+     * 自动重连的一次尝试。该设备已有链路（例如用户手动重新连接）时不再重复发起。
+     * 没有发起连接的每条路径都要报告失败，否则 Reconnector 一直等这次尝试的结果，不再安排下一次。
+     */
+    private void reconnectDevice(long address, int attempt) {
+        if (connectionManager.get(address) != null) {
+            // 已有的链路连上时会结束这次断线；它失败或已失效时按退避再试
+            reconnector.onConnectFailed(address);
+            return;
+        }
+        if (bluetoothAdapter == null || !bluetoothAdapter.isEnabled()
+                || !checkPermission(getBluetoothConnectPermission())) {
+            reconnector.onConnectFailed(address);
+            return;
         }
-        Message msg = handler.obtainMessage(MessageConstants.MESSAGE_STATE_CHANGE, state, -1, deviceName);
-        if (state == ConnectionState.STATE_NONE && deviceName == null) {
-            msg.obj = "连接已断开";
+        Log.d(TAG, "第 " + attempt + " 次重连 " + MacAddress.format(address));
+        if (!connectToDevice(bluetoothAdapter.getRemoteDevice(MacAddress.format(address)))) {
+            reconnector.onConnectFailed(address);
         }
-        msg.sendToTarget();
     }
 
-    private void connectionFailed() {
+    /**
+     * 设备重新出现（ACL 链路建立）时，正在等待退避的重连立即进行。
+     */
+    private final BroadcastReceiver aclReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (BluetoothDevice.ACTION_ACL_CONNECTED.equals(intent.getAction())) {
+                BluetoothDevice device = intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
+                if (device != null) {
+                    reconnector.onAclConnected(MacAddress.pack(device.getAddress()));
+                }
+            }
+        }
+    };
+
+    private void connectionFailed(DeviceLink link, IOException cause) {
         Log.e(TAG, "连接失败");
-        Message msg = handler.obtainMessage(MessageConstants.MESSAGE_TOAST);
-        Bundle bundle = new Bundle();
-        bundle.putString("toast", "无法连接设备");
-        msg.setData(bundle);
-        handler.sendMessage(msg);
-        updateConnectionState(ConnectionState.STATE_NONE, null);
+        // 自动重连的失败不逐次提示，由 Reconnector 安排下一次
+        if (!reconnector.isReconnecting(link.getAddress())) {
+            Message msg = handler.obtainMessage(MessageConstants.MESSAGE_TOAST);
+            Bundle bundle = new Bundle();
+            bundle.putString("toast", "无法连接设备");
+            msg.setData(bundle);
+            handler.sendMessage(msg);
+        }
+        connectionManager.connectFailed(link, cause);
+        reconnector.onConnectFailed(link.getAddress());
+        handler.post(() -> deviceRegistry.recordConnectResult(link.getAddress(), false, System.currentTimeMillis()));
+    }
+
+    /**
+     * 显示或隐藏指标调试面板，显示期间每秒刷新。
+     */
+    private void toggleMetricsPanel() {
+        boolean show = binding.tvMetrics.getVisibility() != View.VISIBLE;
+        binding.tvMetrics.setVisibility(show ? View.VISIBLE : View.GONE);
+        handler.removeCallbacks(metricsRefresher);
+        if (show) {
+            lastMetricsSnapshot = null;
+            metricsRefresher.run();
+        }
+    }
+
+    private final Runnable metricsRefresher = new Runnable() {
+        @Override
+        public void run() {
+            MetricsRegistry.Snapshot snapshot = metrics.snapshot();
+            StringBuilder compression = new StringBuilder();
+            for (DeviceLink link : connectionManager.links()) {
+                StreamCompression.Stats stats = link.getCompressionStats();
+                if (stats != null) {
+                    compression.append("\n压缩 ").append(link.getName()).append(' ').append(stats);
+                }
+            }
+            binding.tvMetrics.setText("连接数 " + connectionManager.size() + "/" + connectionManager.getMaxLinks()
+                    + "，链路线程 " + connectionManager.liveThreadCount()
+                    + "\n连接池 " + connectExecutor.getStats()
+                    + compression
+                    + listenStatus()
+                    + "\n" + snapshot.format(lastMetricsSnapshot));
+            lastMetricsSnapshot = snapshot;
+            handler.postDelayed(this, METRICS_REFRESH_MS);
+        }
+    };
+
+    private String listenStatus() {
+        if (listenServer == null || listenServer.getState() != ConnectionState.STATE_LISTEN) {
+            return "";
+        }
+        StringBuilder status = new StringBuilder("\n监听中，连入 ").append(listenServer.clientCount())
+                .append('/').append(listenOptions.maxClients);
+        for (ListenServer.ClientStats client : listenServer.getClientStats()) {
+            status.append("\n连入 ").append(client);
+        }
+        return status.toString();
     }
 
     private void connectionLost() {
@@ -707,160 +1106,193 @@ public class MainActivity extends AppCompatActivity {
         bundle.putString("toast", "设备连接已丢失");
         msg.setData(bundle);
         handler.sendMessage(msg);
-        updateConnectionState(ConnectionState.STATE_NONE, null);
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        saveDeviceCache();
     }
 
     @SuppressLint("MissingPermission")
     @Override
     protected void onDestroy() {
         super.onDestroy();
+        handler.removeCallbacks(metricsRefresher);
         unregisterReceiver(discoveryReceiver);
         unregisterReceiver(bondStateReceiver);
+        unregisterReceiver(aclReceiver);
+        reconnector.shutdown();
+        deliveryQueue.close();
+        scanScheduler.stop();
         if (bluetoothAdapter != null && checkPermission(getBluetoothScanPermission())) {
             if (bluetoothAdapter.isDiscovering()) {
                 bluetoothAdapter.cancelDiscovery();
             }
         }
-        if (connectThread != null) connectThread.cancel();
-        if (connectedThread != null) connectedThread.cancel();
-    }
-
-    @SuppressLint("MissingPermission")
-    private class ConnectThread extends Thread {
-        private final BluetoothSocket mmSocket;
-        private final BluetoothDevice mmDevice;
-
-        public ConnectThread(BluetoothDevice device) {
-            mmDevice = device;
-            BluetoothSocket tmp = null;
-            try {
-                if (!checkPermission(getBluetoothConnectPermission())) {
-                    throw new IOException("BLUETOOTH_CONNECT permission missing for socket creation");
+        connectExecutor.shutdown();
+        if (transport != null) {
+            transport.shutdown();
+        }
+        if (listenServer != null) {
+            // 先停止接受，之后不会再有新链路
+            listenServer.stop();
+        }
+        connectionManager.disconnectAll();
+        if (fileSender != null) {
+            fileSender.cancel();
+        }
+        if (captureSink != null) {
+            // 写完剩余数据并截断段文件，不占用主线程
+            CaptureSink sink = captureSink;
+            ioExecutor.execute(() -> {
+                try {
+                    sink.close();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
                 }
-                tmp = device.createRfcommSocketToServiceRecord(MY_UUID);
-            } catch (IOException e) {
-                Log.e(TAG, "ConnectThread: 套接字创建失败", e);
-                final String errorMsg = e.getMessage();
-                handler.post(() -> {
-                    if (errorMsg != null && errorMsg.contains("permission missing")) {
-                        Toast.makeText(MainActivity.this, "连接失败: 缺少蓝牙连接权限", Toast.LENGTH_LONG).show();
-                    }
-                    connectionFailed();
-                });
-            }
-            mmSocket = tmp;
+            });
         }
+        // 已提交的缓存写入会执行完
+        ioExecutor.shutdown();
+    }
 
-        public void run() {
-            if (mmSocket == null) {
-                Log.e(TAG, "ConnectThread: mmSocket 为空，无法连接。");
-                return;
+    /**
+     * 文件传输模式：单独建立一条连接，按块发送文件；断线后按重连策略重新连接并从对端已确认的位置继续。
+     * 对端需要运行 FileTransferReceiver。每次连接与普通连接一样经过 connectExecutor，期间暂停扫描；
+     * 传输在 ioExecutor 上进行。
+     */
+    private void sendFile(String address, File file) {
+        if (fileSender != null) {
+            Toast.makeText(this, "已有文件正在发送", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        if (!file.isFile()) {
+            Toast.makeText(this, "文件不存在: " + file, Toast.LENGTH_SHORT).show();
+            return;
+        }
+        FileTransferSender sender = new FileTransferSender(transferOptions, metrics);
+        fileSender = sender;
+        Transport connectTransport = connectExecutor.asTransport(transport());
+        FileTransferSender.Listener listener = new FileTransferSender.Listener() {
+            @Override
+            public void onProgress(long ackedBytes, long totalBytes) {
             }
-            Log.i(TAG, "BEGIN mConnectThread, Device: " + mmDevice.getAddress());
-            setName("ConnectThread-" + mmDevice.getAddress());
 
-            if (checkPermission(getBluetoothScanPermission())) {
-                if (bluetoothAdapter.isDiscovering()) {
-                    bluetoothAdapter.cancelDiscovery();
-                }
+            @Override
+            public void onConnecting(String address, int attempt) {
+                handler.post(scanScheduler::pauseForConnect);
             }
 
+            @Override
+            public void onConnectFinished(String address, boolean connected) {
+                handler.post(scanScheduler::resumeAfterConnect);
+            }
+        };
+        ioExecutor.execute(() -> {
+            String message;
             try {
-                mmSocket.connect();
+                FileTransferSender.Result result = sender.sendWithResume(connectTransport, address, file,
+                        reconnectPolicy, listener);
+                Log.i(TAG, "文件发送完成: " + result);
+                message = String.format(Locale.ROOT, "已发送 %s，%.1f KB/s", file.getName(),
+                        result.throughputBytesPerSecond() / 1024);
             } catch (IOException e) {
-                Log.e(TAG, "ConnectThread: 连接失败", e);
-                try {
-                    mmSocket.close();
-                } catch (IOException e2) {
-                    Log.e(TAG, "ConnectThread: 关闭套接字失败", e2);
-                }
-                connectionFailed();
-                return;
+                Log.e(TAG, "文件发送失败: " + file, e);
+                message = "文件发送失败: " + e.getMessage();
             }
+            String text = message;
+            handler.post(() -> {
+                fileSender = null;
+                Toast.makeText(MainActivity.this, text, Toast.LENGTH_SHORT).show();
+            });
+        });
+    }
 
-            synchronized (MainActivity.this) {
-                connectThread = null;
-            }
-            manageConnectedSocket(mmSocket, mmDevice);
+    private CaptureSink startCapture() {
+        if (!getIntent().getBooleanExtra(EXTRA_CAPTURE, false)) {
+            return null;
+        }
+        CaptureSink sink = new CaptureSink(new File(getFilesDir(), "captures"), captureOptions, metrics);
+        try {
+            sink.start();
+        } catch (IOException e) {
+            Log.w(TAG, "无法开始捕获: " + e.getMessage());
+            return null;
         }
+        return sink;
+    }
 
-        public void cancel() {
-            try {
-                if (mmSocket != null) mmSocket.close();
-            } catch (IOException e) {
-                Log.e(TAG, "ConnectThread: 关闭套接字失败", e);
-            }
+    /**
+     * 蓝牙可用后进入监听模式，只启动一次；蓝牙关闭后接受线程按 retryDelayMillis 重新监听。
+     */
+    private void startListening() {
+        if (listenServer != null || !getIntent().getBooleanExtra(EXTRA_LISTEN, false)) {
+            return;
+        }
+        if (!checkPermission(getBluetoothConnectPermission())) {
+            Log.w(TAG, "缺少蓝牙连接权限，无法进入监听模式");
+            return;
         }
+        listenServer = new ListenServer(listenOptions, connectionManager, listenListener);
+        listenServer.start(new RfcommServerTransport(bluetoothAdapter, SERVICE_NAME, MY_UUID, true),
+                new RfcommServerTransport(bluetoothAdapter, SERVICE_NAME, MY_UUID, false));
+        Log.i(TAG, "监听模式已开启，最多连入 " + listenOptions.maxClients + " 台设备");
     }
 
-    private class ConnectedThread extends Thread {
-        private final BluetoothSocket mmSocket;
-        private final InputStream mmInStream;
-        private final OutputStream mmOutStream;
+    private final ListenServer.Listener listenListener = new ListenServer.Listener() {
+        @Override
+        public void onAccepted(DeviceLink link) {
+            Log.i(TAG, "设备已连入: " + link.getName());
+        }
 
-        public ConnectedThread(BluetoothSocket socket) {
-            Log.d(TAG, "创建 ConnectedThread");
-            mmSocket = socket;
-            InputStream tmpIn = null;
-            OutputStream tmpOut = null;
+        @Override
+        public void onRejected(String address, String reason) {
+            Log.w(TAG, "拒绝连入 " + address + ": " + reason);
+        }
 
-            try {
-                tmpIn = socket.getInputStream();
-                tmpOut = socket.getOutputStream();
-            } catch (IOException e) {
-                Log.e(TAG, "临时套接字未创建", e);
-            }
+        @Override
+        public void onListenFailed(ServerTransport transport, IOException cause) {
+            Log.w(TAG, "监听失败，稍后重试: " + cause.getMessage());
+        }
+    };
 
-            mmInStream = tmpIn;
-            mmOutStream = tmpOut;
-            String remoteDeviceAddress = "UnknownDevice";
-            try {
-                if (socket.getRemoteDevice() != null) {
-                    remoteDeviceAddress = socket.getRemoteDevice().getAddress();
-                }
-            } catch (Exception e) {
-                Log.w(TAG, "Error getting remote device address in ConnectedThread constructor", e);
+    /**
+     * 安全、非安全和固定信道三种方式错开竞速，每个设备记住上次成功的方式。
+     */
+    private Transport transport() {
+        if (transport == null) {
+            LinkedHashMap<String, Transport> variants = new LinkedHashMap<>();
+            for (RfcommTransport.Variant variant : RfcommTransport.Variant.values()) {
+                variants.put(variant.name().toLowerCase(Locale.ROOT),
+                        new RfcommTransport(bluetoothAdapter, MY_UUID, variant, RfcommTransport.DEFAULT_CHANNEL));
             }
-            setName("ConnectedThread-" + remoteDeviceAddress);
+            transport = new HedgedTransport(variants, connectOptions);
         }
+        return transport;
+    }
 
-        public void run() {
-            Log.i(TAG, "BEGIN mConnectedThread");
-            byte[] mmBuffer = new byte[1024];
-            int numBytes;
+    /**
+     * 一次连接尝试的结果，在连接线程上回调；取消排队中的尝试时在调用 cancel() 的线程上回调。
+     */
+    private class ConnectCallback implements ConnectExecutor.Callback {
+        private final DeviceLink mmLink;
 
-            while (mmSocket.isConnected()) {
-                try {
-                    if (mmInStream == null) throw new IOException("InputStream is null");
-                    numBytes = mmInStream.read(mmBuffer);
-                    Message readMsg = handler.obtainMessage(MessageConstants.MESSAGE_READ, numBytes, -1, mmBuffer.clone());
-                    readMsg.sendToTarget();
-                } catch (IOException e) {
-                    Log.d(TAG, "输入流已断开或读取错误", e);
-                    connectionLost();
-                    break;
-                }
-            }
-            Log.i(TAG, "END mConnectedThread, socket disconnected.");
+        ConnectCallback(DeviceLink link) {
+            mmLink = link;
         }
 
-        public void write(byte[] bytes) {
-            try {
-                if (mmOutStream == null) throw new IOException("OutputStream is null");
-                mmOutStream.write(bytes);
-                Log.d(TAG, "数据已发送: " + new String(bytes));
-            } catch (IOException e) {
-                Log.e(TAG, "发送数据时发生错误", e);
-                connectionLost();
-            }
+        @Override
+        public void onConnected(Connection connection) {
+            manageConnectedSocket(connection, mmLink);
+            handler.post(scanScheduler::resumeAfterConnect);
         }
 
-        public void cancel() {
-            try {
-                if (mmSocket != null) mmSocket.close();
-            } catch (IOException e) {
-                Log.e(TAG, "无法关闭连接套接字", e);
-            }
+        @Override
+        public void onFailed(IOException cause) {
+            Log.e(TAG, "连接失败: " + mmLink.getName(), cause);
+            connectionFailed(mmLink, cause);
+            handler.post(scanScheduler::resumeAfterConnect);
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,209 @@
+package com.adan.bluetoothtest;
+
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 计数器与直方图的注册表。
+ * <p>
+ * 记录路径无锁：计数器基于 LongAdder，直方图按 2 的幂分桶、每桶一个原子计数。
+ * 热路径上应事先取得 Counter / Histogram 并保存在字段中，而不是每次按名称查找。
+ * 名称只在注册时用到，约定以单位结尾，例如 "connect.time_ms"、"link.xx.bytes_in"。
+ * <p>
+ * {@link #snapshot()} 生成某一时刻的只读快照；两次快照相减得到每秒速率。
+ */
+public final class MetricsRegistry {
+
+    /**
+     * 单调递增的计数器。
+     */
+    public static final class Counter {
+        private final LongAdder adder = new LongAdder();
+
+        public void increment() {
+            adder.increment();
+        }
+
+        public void add(long delta) {
+            adder.add(delta);
+        }
+
+        public long sum() {
+            return adder.sum();
+        }
+    }
+
+    /**
+     * 非负整数值的分布。第 i 个桶统计 [2^(i-1), 2^i) 范围内的值，第 0 个桶只统计 0，
+     * 分位数取所在桶的上界，相对误差不超过 2 倍，足以发现量级上的回退。
+     */
+    public static final class Histogram {
+        static final int BUCKETS = 64;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        public void record(long value) {
+            if (value < 0) {
+                value = 0;
+            }
+            buckets.incrementAndGet(bucketOf(value));
+            count.increment();
+            sum.add(value);
+            long current;
+            while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+                // 另一个线程更新了最大值，重试
+            }
+        }
+
+        static int bucketOf(long value) {
+            return 64 - Long.numberOfLeadingZeros(value);
+        }
+
+        static long upperBound(int bucket) {
+            return bucket == 0 ? 0 : bucket >= 63 ? Long.MAX_VALUE : (1L << bucket) - 1;
+        }
+
+        public HistogramSnapshot snapshot() {
+            long[] counts = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = buckets.get(i);
+            }
+            return new HistogramSnapshot(counts, count.sum(), sum.sum(), max.get());
+        }
+    }
+
+    /**
+     * 直方图在某一时刻的只读副本。并发记录时 count 与各桶之和可能略有出入。
+     */
+    public static final class HistogramSnapshot {
+        private final long[] buckets;
+        public final long count;
+        public final long sum;
+        public final long max;
+
+        HistogramSnapshot(long[] buckets, long count, long sum, long max) {
+            this.buckets = buckets;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        public double mean() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+
+        /**
+         * 分位数（0 到 1），返回所在桶的上界，不超过最大值。
+         */
+        public long percentile(double quantile) {
+            long total = 0;
+            for (long c : buckets) {
+                total += c;
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(quantile * total);
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= Math.max(1, rank)) {
+                    return Math.min(Histogram.upperBound(i), max);
+                }
+            }
+            return max;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "n=%d mean=%.1f p50=%d p99=%d max=%d",
+                    count, mean(), percentile(0.5), percentile(0.99), max);
+        }
+    }
+
+    /**
+     * 所有指标在某一时刻的快照，按名称排序。
+     */
+    public static final class Snapshot {
+        public final long timestampNanos;
+        public final Map<String, Long> counters;
+        public final Map<String, HistogramSnapshot> histograms;
+
+        Snapshot(long timestampNanos, Map<String, Long> counters, Map<String, HistogramSnapshot> histograms) {
+            this.timestampNanos = timestampNanos;
+            this.counters = counters;
+            this.histograms = histograms;
+        }
+
+        public long counter(String name) {
+            Long value = counters.get(name);
+            return value != null ? value : 0;
+        }
+
+        /**
+         * 计数器自 previous 以来的每秒增量。previous 为 null 或时间未前进时返回 0。
+         */
+        public double ratePerSecond(String name, Snapshot previous) {
+            if (previous == null || timestampNanos <= previous.timestampNanos) {
+                return 0;
+            }
+            return (counter(name) - previous.counter(name)) * 1e9 / (timestampNanos - previous.timestampNanos);
+        }
+
+        /**
+         * 调试面板用的多行文本；给出 previous 时计数器附带每秒速率。
+         */
+        public String format(Snapshot previous) {
+            StringBuilder sb = new StringBuilder();
+            for (Map.Entry<String, Long> entry : counters.entrySet()) {
+                sb.append(entry.getKey()).append(" = ").append(entry.getValue());
+                if (previous != null) {
+                    sb.append(String.format(Locale.ROOT, " (%.1f/s)", ratePerSecond(entry.getKey(), previous)));
+                }
+                sb.append('\n');
+            }
+            for (Map.Entry<String, HistogramSnapshot> entry : histograms.entrySet()) {
+                sb.append(entry.getKey()).append(": ").append(entry.getValue()).append('\n');
+            }
+            return sb.toString();
+        }
+    }
+
+    private final ConcurrentHashMap<String, Counter> counters = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Histogram> histograms = new ConcurrentHashMap<>();
+
+    /**
+     * 取得（必要时创建）指定名称的计数器。
+     */
+    public Counter counter(String name) {
+        Counter counter = counters.get(name);
+        return counter != null ? counter : counters.computeIfAbsent(name, k -> new Counter());
+    }
+
+    public Histogram histogram(String name) {
+        Histogram histogram = histograms.get(name);
+        return histogram != null ? histogram : histograms.computeIfAbsent(name, k -> new Histogram());
+    }
+
+    public Snapshot snapshot() {
+        TreeMap<String, Long> counterValues = new TreeMap<>();
+        for (Map.Entry<String, Counter> entry : counters.entrySet()) {
+            counterValues.put(entry.getKey(), entry.getValue().sum());
+        }
+        TreeMap<String, HistogramSnapshot> histogramValues = new TreeMap<>();
+        for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+            histogramValues.put(entry.getKey(), entry.getValue().snapshot());
+        }
+        return new Snapshot(System.nanoTime(), Collections.unmodifiableMap(counterValues),
+                Collections.unmodifiableMap(histogramValues));
+    }
+}
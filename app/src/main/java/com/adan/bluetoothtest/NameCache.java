@@ -0,0 +1,133 @@
+package com.adan.bluetoothtest;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 按地址缓存的设备名称。
+ * <p>
+ * BluetoothDevice.getName() 每次都是一次跨进程的 binder 调用，刷新列表、取消配对、连接
+ * 和广播处理中反复调用代价不小。名称只在 ACTION_NAME_CHANGED 或绑定状态变化时才可能改变，
+ * 因此由调用方在这些事件中 {@link #put} 或 {@link #invalidate}，其余时间直接读缓存。
+ * <p>
+ * 容量有限，超出时按最近最少使用淘汰。没有名称的设备同样缓存，避免对它们反复查询。
+ * 主线程和后台 IO 线程都会访问，读写缓存时持有锁；Resolver 在锁外调用，一次慢查询不会挡住
+ * 其他线程的命中。两个线程同时未命中同一地址时各自查询一次。
+ */
+public final class NameCache {
+    public static final int DEFAULT_MAX_ENTRIES = 512;
+
+    /**
+     * 缓存未命中时实际查询名称，通常是一次 getName() 调用。可以返回 null。
+     */
+    public interface Resolver {
+        String resolve(long address);
+    }
+
+    // 区分"已缓存、没有名称"和"未缓存"
+    private static final String NO_NAME = new String("");
+
+    private final Resolver resolver;
+    private final LinkedHashMap<Long, String> entries;
+    // put / invalidate 的次数，查询期间有变化时查询结果可能已过时，不写入缓存
+    private long modifications;
+    private final MetricsRegistry.Counter hits;
+    private final MetricsRegistry.Counter misses;
+    private final MetricsRegistry.Counter evictions;
+
+    public NameCache(Resolver resolver, MetricsRegistry metrics) {
+        this(DEFAULT_MAX_ENTRIES, resolver, metrics);
+    }
+
+    public NameCache(final int maxEntries, Resolver resolver, MetricsRegistry metrics) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("maxEntries 必须为正数: " + maxEntries);
+        }
+        this.resolver = resolver;
+        this.hits = metrics.counter("name_cache.hits");
+        this.misses = metrics.counter("name_cache.misses");
+        this.evictions = metrics.counter("name_cache.evictions");
+        this.entries = new LinkedHashMap<Long, String>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, String> eldest) {
+                if (size() > maxEntries) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * 返回设备名称，未缓存时通过 Resolver 查询并缓存结果。没有名称时返回 null。
+     */
+    public String get(long address) {
+        long seen;
+        synchronized (this) {
+            String name = entries.get(address);
+            if (name != null) {
+                hits.increment();
+                return name == NO_NAME ? null : name;
+            }
+            seen = modifications;
+        }
+        misses.increment();
+        // binder 调用可能很慢，不持锁
+        String resolved = resolver.resolve(address);
+        String name = resolved != null && !resolved.isEmpty() ? resolved : NO_NAME;
+        synchronized (this) {
+            if (modifications == seen) {
+                entries.put(address, name);
+            }
+        }
+        return name == NO_NAME ? null : name;
+    }
+
+    /**
+     * 返回名称，没有名称时返回地址字符串，用于提示信息。
+     */
+    public String displayName(long address) {
+        String name = get(address);
+        return name != null ? name : MacAddress.format(address);
+    }
+
+    /**
+     * 记录从广播附加数据等途径得到的名称，不经过 Resolver。name 为 null 或空时只移除旧值，
+     * 下次读取时重新查询。
+     */
+    public synchronized void put(long address, String name) {
+        modifications++;
+        if (name == null || name.isEmpty()) {
+            entries.remove(address);
+        } else {
+            entries.put(address, name);
+        }
+    }
+
+    public synchronized void invalidate(long address) {
+        modifications++;
+        entries.remove(address);
+    }
+
+    public synchronized void invalidateAll() {
+        modifications++;
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+}
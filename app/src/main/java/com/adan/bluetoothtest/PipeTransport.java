@@ -0,0 +1,502 @@
+package com.adan.bluetoothtest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 内存中的回环传输，用于在普通 JVM 上测试和基准测试连接、收发流水线。
+ * <p>
+ * 先用 {@link #listen} 为地址注册一个模拟设备，{@link #open} 得到的连接在 connect() 时
+ * 与之配对，模拟设备在 {@link Acceptor#onAccept} 中拿到对端连接。未注册的地址连接失败，
+ * 相当于设备不在范围内。
+ * <p>
+ * 反方向（本机监听、设备连入）用 {@link #listen()} 得到端点，再用 {@link #dial} 模拟设备连入。
+ * <p>
+ * 每个方向是一条独立的管道，可以设置：
+ * <ul>
+ * <li>带宽：数据按 bytesPerSecond 依次“上线”，0 表示不限；</li>
+ * <li>延迟：数据上线后再经过 latencyMillis 才能被对端读到，建立连接耗时一个往返；</li>
+ * <li>缓冲：未被读走的数据超过 bufferBytes 时写入阻塞，与套接字发送缓冲区满时一样。</li>
+ * </ul>
+ */
+public final class PipeTransport implements Transport, ServerTransport {
+
+    /**
+     * 模拟设备接受连接的回调，在调用 connect() 的线程上执行，不应长时间阻塞。
+     */
+    public interface Acceptor {
+        void onAccept(Connection connection);
+    }
+
+    /**
+     * 管道参数，两个方向相同。
+     */
+    public static final class Options {
+        long bytesPerSecond;
+        long latencyMillis;
+        int bufferBytes = 64 * 1024;
+        String localAddress = "00:00:00:00:00:00";
+
+        public Options bytesPerSecond(long bytesPerSecond) {
+            this.bytesPerSecond = bytesPerSecond;
+            return this;
+        }
+
+        public Options latencyMillis(long millis) {
+            this.latencyMillis = millis;
+            return this;
+        }
+
+        public Options bufferBytes(int bytes) {
+            this.bufferBytes = bytes;
+            return this;
+        }
+
+        /**
+         * 本机地址，即模拟设备看到的对端地址。
+         */
+        public Options localAddress(String address) {
+            this.localAddress = address;
+            return this;
+        }
+    }
+
+    private final Options options;
+    private final ConcurrentHashMap<String, Acceptor> acceptors = new ConcurrentHashMap<>();
+    private volatile PipeEndpoint endpoint;
+
+    public PipeTransport() {
+        this(new Options());
+    }
+
+    public PipeTransport(Options options) {
+        this.options = options;
+    }
+
+    /**
+     * 在 address 上注册模拟设备，替换之前的注册。
+     */
+    public void listen(String address, Acceptor acceptor) {
+        acceptors.put(address, acceptor);
+    }
+
+    public void unlisten(String address) {
+        acceptors.remove(address);
+    }
+
+    @Override
+    public Connection open(String address) {
+        return new ClientConnection(address);
+    }
+
+    /**
+     * 本机开始监听，替换之前的端点。同一时间只有一个端点，相当于一条服务记录。
+     */
+    @Override
+    public Endpoint listen() {
+        PipeEndpoint listening = new PipeEndpoint();
+        endpoint = listening;
+        return listening;
+    }
+
+    /**
+     * 模拟地址为 clientAddress 的设备连入本机，返回设备一端；本机一端由端点的 accept() 取得。
+     * 没有端点在监听时失败，与设备连不上服务记录时一样。
+     */
+    public Connection dial(String clientAddress) throws IOException {
+        PipeEndpoint listening = endpoint;
+        if (listening == null) {
+            throw new IOException("read failed, socket might closed or timeout");
+        }
+        Connection[] pair = pair(clientAddress);
+        if (!listening.offer(pair[0])) {
+            pair[1].close();
+            throw new IOException("read failed, socket might closed or timeout");
+        }
+        return pair[1];
+    }
+
+    /**
+     * 直接创建一对已连接的端点，[0] 为本机一端，[1] 为 remoteAddress 一端。
+     */
+    public Connection[] pair(String remoteAddress) {
+        Pipe up = new Pipe(options);
+        Pipe down = new Pipe(options);
+        return new Connection[]{
+                new PipeConnection(remoteAddress, down, up),
+                new PipeConnection(options.localAddress, up, down)
+        };
+    }
+
+    /**
+     * 单向管道。数据块按写入顺序排队，每块带有可被读取的时间。
+     */
+    static final class Pipe {
+        private static final class Chunk {
+            final byte[] data;
+            final long readyAtNanos;
+            int position;
+
+            Chunk(byte[] data, long readyAtNanos) {
+                this.data = data;
+                this.readyAtNanos = readyAtNanos;
+            }
+        }
+
+        private final long bytesPerSecond;
+        private final long latencyNanos;
+        private final int capacity;
+        private final ArrayDeque<Chunk> chunks = new ArrayDeque<>();
+        private int buffered;
+        // 链路空闲的时刻，用来按带宽排队
+        private long linkFreeAtNanos;
+        private boolean writerClosed;
+        private boolean readerClosed;
+
+        Pipe(Options options) {
+            this.bytesPerSecond = options.bytesPerSecond;
+            this.latencyNanos = TimeUnit.MILLISECONDS.toNanos(options.latencyMillis);
+            this.capacity = options.bufferBytes;
+        }
+
+        synchronized void write(byte[] b, int off, int len) throws IOException {
+            boolean interrupted = false;
+            try {
+                while (len > 0) {
+                    int n = Math.min(len, capacity);
+                    while (buffered + n > capacity && !writerClosed && !readerClosed) {
+                        interrupted |= waitUninterruptibly(0);
+                    }
+                    if (writerClosed || readerClosed) {
+                        throw new IOException("socket closed");
+                    }
+                    long now = System.nanoTime();
+                    long start = Math.max(now, linkFreeAtNanos);
+                    long transmit = bytesPerSecond > 0 ? n * 1_000_000_000L / bytesPerSecond : 0;
+                    linkFreeAtNanos = start + transmit;
+                    chunks.addLast(new Chunk(Arrays.copyOfRange(b, off, off + n), linkFreeAtNanos + latencyNanos));
+                    buffered += n;
+                    notifyAll();
+                    off += n;
+                    len -= n;
+                }
+            } finally {
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        synchronized int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            boolean interrupted = false;
+            try {
+                while (true) {
+                    if (readerClosed) {
+                        throw new IOException("socket closed");
+                    }
+                    Chunk head = chunks.peekFirst();
+                    if (head == null) {
+                        if (writerClosed) {
+                            return -1;
+                        }
+                        interrupted |= waitUninterruptibly(0);
+                        continue;
+                    }
+                    long wait = head.readyAtNanos - System.nanoTime();
+                    if (wait > 0) {
+                        interrupted |= waitUninterruptibly(wait);
+                        continue;
+                    }
+                    return drainReady(b, off, len);
+                }
+            } finally {
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        private int drainReady(byte[] b, int off, int len) {
+            long now = System.nanoTime();
+            int copied = 0;
+            Chunk chunk;
+            while (copied < len && (chunk = chunks.peekFirst()) != null && chunk.readyAtNanos <= now) {
+                int n = Math.min(len - copied, chunk.data.length - chunk.position);
+                System.arraycopy(chunk.data, chunk.position, b, off + copied, n);
+                chunk.position += n;
+                copied += n;
+                if (chunk.position == chunk.data.length) {
+                    chunks.removeFirst();
+                }
+            }
+            buffered -= copied;
+            notifyAll();
+            return copied;
+        }
+
+        synchronized int available() {
+            long now = System.nanoTime();
+            int ready = 0;
+            for (Chunk chunk : chunks) {
+                if (chunk.readyAtNanos > now) {
+                    break;
+                }
+                ready += chunk.data.length - chunk.position;
+            }
+            return ready;
+        }
+
+        /**
+         * 写端关闭：对端读完已发出的数据后读到流结束。
+         */
+        synchronized void closeWriter() {
+            writerClosed = true;
+            notifyAll();
+        }
+
+        /**
+         * 读端关闭：本端阻塞的读取立即抛出 IOException，对端的写入也随之失败。
+         */
+        synchronized void closeReader() {
+            readerClosed = true;
+            chunks.clear();
+            buffered = 0;
+            notifyAll();
+        }
+
+        /**
+         * 与阻塞的套接字一样不响应中断，由 close() 唤醒。被中断时返回 true，
+         * 由调用方在等待循环结束后恢复中断标记；在循环里恢复会让下一次 wait() 立即抛出，线程空转。
+         */
+        private boolean waitUninterruptibly(long nanos) {
+            try {
+                if (nanos > 0) {
+                    TimeUnit.NANOSECONDS.timedWait(this, nanos);
+                } else {
+                    wait();
+                }
+                return false;
+            } catch (InterruptedException e) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 已连接的一端。
+     */
+    private static class PipeConnection implements Connection {
+        private final String remoteAddress;
+        private volatile Pipe in;
+        private volatile Pipe out;
+        volatile boolean closed;
+
+        private final InputStream inputStream = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                byte[] one = new byte[1];
+                int n = read(one, 0, 1);
+                return n < 0 ? -1 : one[0] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return pipeIn().read(b, off, len);
+            }
+
+            @Override
+            public int available() throws IOException {
+                return pipeIn().available();
+            }
+        };
+
+        private final OutputStream outputStream = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                pipeOut().write(b, off, len);
+            }
+        };
+
+        PipeConnection(String remoteAddress, Pipe in, Pipe out) {
+            this.remoteAddress = remoteAddress;
+            this.in = in;
+            this.out = out;
+        }
+
+        void bind(Pipe in, Pipe out) {
+            this.in = in;
+            this.out = out;
+        }
+
+        private Pipe pipeIn() throws IOException {
+            Pipe pipe = in;
+            if (pipe == null) {
+                throw new IOException(closed ? "socket closed" : "not connected");
+            }
+            return pipe;
+        }
+
+        private Pipe pipeOut() throws IOException {
+            Pipe pipe = out;
+            if (pipe == null) {
+                throw new IOException(closed ? "socket closed" : "not connected");
+            }
+            return pipe;
+        }
+
+        @Override
+        public String getRemoteAddress() {
+            return remoteAddress;
+        }
+
+        @Override
+        public void connect() throws IOException {
+            if (closed) {
+                throw new IOException("socket closed");
+            }
+        }
+
+        @Override
+        public boolean isConnected() {
+            return in != null && !closed;
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return inputStream;
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return outputStream;
+        }
+
+        @Override
+        public synchronized void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            notifyAll();
+            Pipe pipe = in;
+            if (pipe != null) {
+                pipe.closeReader();
+            }
+            pipe = out;
+            if (pipe != null) {
+                pipe.closeWriter();
+            }
+        }
+    }
+
+    /**
+     * listen() 返回的端点，连入的连接在队列中等待 accept()。
+     */
+    private final class PipeEndpoint implements Endpoint {
+        private final ArrayDeque<Connection> pending = new ArrayDeque<>();
+        private boolean closed;
+
+        synchronized boolean offer(Connection connection) {
+            if (closed) {
+                return false;
+            }
+            pending.add(connection);
+            notifyAll();
+            return true;
+        }
+
+        @Override
+        public synchronized Connection accept() throws IOException {
+            while (!closed && pending.isEmpty()) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("accept interrupted");
+                }
+            }
+            if (closed) {
+                throw new IOException("socket closed");
+            }
+            return pending.poll();
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            notifyAll();
+            // 尚未被 accept 的连接随端点一起关闭，设备一端读到流结束
+            for (Connection connection : pending) {
+                connection.close();
+            }
+            pending.clear();
+            if (endpoint == this) {
+                endpoint = null;
+            }
+        }
+    }
+
+    /**
+     * open() 返回的一端，connect() 时才与模拟设备配对。
+     */
+    private final class ClientConnection extends PipeConnection {
+
+        ClientConnection(String remoteAddress) {
+            super(remoteAddress, null, null);
+        }
+
+        @Override
+        public void connect() throws IOException {
+            // 建立连接耗时一个往返，期间可被 close() 取消
+            long handshakeNanos = 2 * TimeUnit.MILLISECONDS.toNanos(options.latencyMillis);
+            long deadline = System.nanoTime() + handshakeNanos;
+            synchronized (this) {
+                long wait;
+                while (!closed && (wait = deadline - System.nanoTime()) > 0) {
+                    try {
+                        TimeUnit.NANOSECONDS.timedWait(this, wait);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("connect interrupted");
+                    }
+                }
+                if (closed) {
+                    throw new IOException("socket closed");
+                }
+                if (isConnected()) {
+                    throw new IOException("already connected");
+                }
+            }
+            Acceptor acceptor = acceptors.get(getRemoteAddress());
+            if (acceptor == null) {
+                throw new IOException("read failed, socket might closed or timeout");
+            }
+            Pipe up = new Pipe(options);
+            Pipe down = new Pipe(options);
+            PipeConnection remote = new PipeConnection(options.localAddress, up, down);
+            synchronized (this) {
+                if (closed) {
+                    throw new IOException("socket closed");
+                }
+                bind(down, up);
+            }
+            acceptor.onAccept(remote);
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.adan.bluetoothtest;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * 不分帧，每次读取的数据块原样交付，保持原来按读取显示的行为。
+ * 属于流式数据，文本解码时会跨块保留被截断的多字节字符。
+ */
+public class RawFrameDecoder implements FrameDecoder {
+
+    @Override
+    public void decode(ByteBuffer in, Listener listener) throws IOException {
+        if (in.hasRemaining()) {
+            listener.onFrame(in);
+            in.position(in.limit());
+        }
+    }
+
+    @Override
+    public void reset() {
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return true;
+    }
+}
@@ -0,0 +1,49 @@
+package com.adan.bluetoothtest;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 接收缓冲区，从 ReceiveBufferPool 借出，由最终消费者调用 {@link #release()} 归还。
+ * 归还之后不得再访问 {@link #data}。
+ */
+public final class ReceiveBuffer {
+    public final byte[] data;
+    int length;
+    private final ReceiveBufferPool pool;
+    private ByteBuffer view;
+
+    ReceiveBuffer(ReceiveBufferPool pool, int capacity) {
+        this.pool = pool;
+        this.data = new byte[capacity];
+    }
+
+    /**
+     * 有效数据长度，数据位于 data[0, length)。
+     */
+    public int length() {
+        return length;
+    }
+
+    public int capacity() {
+        return data.length;
+    }
+
+    /**
+     * 有效数据的 ByteBuffer 视图，position 为 0、limit 为 length。视图随缓冲复用，不会每次新建。
+     */
+    public ByteBuffer asByteBuffer() {
+        if (view == null) {
+            view = ByteBuffer.wrap(data);
+        }
+        view.clear();
+        view.limit(length);
+        return view;
+    }
+
+    public void release() {
+        length = 0;
+        if (pool != null) {
+            pool.release(this);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.adan.bluetoothtest;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 按容量分级的接收缓冲池。
+ * <p>
+ * 读取线程借出、消费者归还，两端可以在不同线程。
+ * 每一级用 ArrayBlockingQueue 保存空闲缓冲：入队出队都不分配节点对象，
+ * 稳态下收发一条数据不产生任何垃圾。池空时才新建缓冲，并计入 {@link #getAllocations()}。
+ */
+public final class ReceiveBufferPool {
+    public static final int[] DEFAULT_SIZE_CLASSES = {256, 1024, 4096};
+    public static final int DEFAULT_BUFFERS_PER_CLASS = 16;
+
+    private final int[] sizeClasses;
+    private final ArrayBlockingQueue<ReceiveBuffer>[] freeLists;
+    private final AtomicLong allocations = new AtomicLong();
+
+    public ReceiveBufferPool() {
+        this(DEFAULT_SIZE_CLASSES, DEFAULT_BUFFERS_PER_CLASS);
+    }
+
+    /**
+     * @param sizeClasses      升序排列的缓冲容量
+     * @param buffersPerClass  每一级最多缓存的空闲缓冲数量
+     */
+    public ReceiveBufferPool(int[] sizeClasses, int buffersPerClass) {
+        if (sizeClasses.length == 0) {
+            throw new IllegalArgumentException("至少需要一级缓冲容量");
+        }
+        this.sizeClasses = sizeClasses.clone();
+        // 泛型数组只能经通配符数组转换，数组不会逃出本类
+        @SuppressWarnings("unchecked")
+        ArrayBlockingQueue<ReceiveBuffer>[] lists =
+                (ArrayBlockingQueue<ReceiveBuffer>[]) new ArrayBlockingQueue<?>[sizeClasses.length];
+        this.freeLists = lists;
+        for (int i = 0; i < sizeClasses.length; i++) {
+            if (i > 0 && sizeClasses[i] <= sizeClasses[i - 1]) {
+                throw new IllegalArgumentException("缓冲容量必须升序排列");
+            }
+            freeLists[i] = new ArrayBlockingQueue<>(buffersPerClass);
+        }
+    }
+
+    /**
+     * 借出一个容量不小于 minCapacity 的缓冲；超过最大一级时返回最大一级。
+     */
+    public ReceiveBuffer acquire(int minCapacity) {
+        int level = levelFor(minCapacity);
+        ReceiveBuffer buffer = freeLists[level].poll();
+        if (buffer == null) {
+            allocations.incrementAndGet();
+            buffer = new ReceiveBuffer(this, sizeClasses[level]);
+        }
+        return buffer;
+    }
+
+    void release(ReceiveBuffer buffer) {
+        int level = levelFor(buffer.capacity());
+        if (sizeClasses[level] == buffer.capacity()) {
+            // 空闲队列已满时直接丢弃，交给 GC
+            freeLists[level].offer(buffer);
+        }
+    }
+
+    private int levelFor(int capacity) {
+        for (int i = 0; i < sizeClasses.length; i++) {
+            if (capacity <= sizeClasses[i]) {
+                return i;
+            }
+        }
+        return sizeClasses.length - 1;
+    }
+
+    public int maxCapacity() {
+        return sizeClasses[sizeClasses.length - 1];
+    }
+
+    /**
+     * 因池空而新建缓冲的次数，稳态下应当不再增长。
+     */
+    public long getAllocations() {
+        return allocations.get();
+    }
+}
@@ -0,0 +1,76 @@
+package com.adan.bluetoothtest;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * ConnectedThread 的读取循环。
+ * <p>
+ * 每次读取前根据 InputStream.available() 选择缓冲容量：有积压数据时借出足以一次读完的大缓冲，
+ * 没有时使用默认容量（与原来的 1024 字节一致）阻塞等待。读到的数据以 ReceiveBuffer 交给 Listener，
+ * 由消费者处理完后 release 回池，不再对每次读取 clone 数组。
+ */
+public final class ReceiveLoop {
+    public static final int DEFAULT_READ_SIZE = 1024;
+
+    public interface Listener {
+        /**
+         * 收到一块数据。实现方负责（立即或稍后）调用 buffer.release()。
+         */
+        void onReceive(ReceiveBuffer buffer);
+    }
+
+    private final ReceiveBufferPool pool;
+    private final int defaultReadSize;
+    private volatile boolean running = true;
+
+    public ReceiveLoop(ReceiveBufferPool pool) {
+        this(pool, DEFAULT_READ_SIZE);
+    }
+
+    public ReceiveLoop(ReceiveBufferPool pool, int defaultReadSize) {
+        this.pool = pool;
+        this.defaultReadSize = defaultReadSize;
+    }
+
+    /**
+     * 读取直到流结束、出错或 {@link #stop()}。流结束时抛出 IOException，与读取错误一样按连接丢失处理。
+     */
+    public void run(InputStream in, Listener listener) throws IOException {
+        if (in == null) {
+            throw new IOException("InputStream is null");
+        }
+        while (running) {
+            ReceiveBuffer buffer = readOnce(in);
+            if (buffer == null) {
+                throw new IOException("InputStream reached end of stream");
+            }
+            listener.onReceive(buffer);
+        }
+    }
+
+    /**
+     * 读取一次，流结束时返回 null。
+     */
+    ReceiveBuffer readOnce(InputStream in) throws IOException {
+        int available = in.available();
+        ReceiveBuffer buffer = pool.acquire(available > 0 ? available : defaultReadSize);
+        int numBytes;
+        try {
+            numBytes = in.read(buffer.data, 0, buffer.data.length);
+        } catch (IOException e) {
+            buffer.release();
+            throw e;
+        }
+        if (numBytes < 0) {
+            buffer.release();
+            return null;
+        }
+        buffer.length = numBytes;
+        return buffer;
+    }
+
+    public void stop() {
+        running = false;
+    }
+}
@@ -0,0 +1,93 @@
+package com.adan.bluetoothtest;
+
+/**
+ * 链路意外断开后的自动重连策略：指数退避加随机抖动，限制最多尝试次数。
+ * <p>
+ * 第 n 次尝试（从 1 开始）前等待 min(initialDelay * multiplier^(n-1), maxDelay)，
+ * 再在 ±jitter 比例内随机浮动，避免多个设备在同一时刻一起重连。
+ */
+public final class ReconnectPolicy {
+    long initialDelayMillis = 1000;
+    long maxDelayMillis = 60_000;
+    double multiplier = 2;
+    double jitter = 0.2;
+    int maxAttempts = 10;
+    boolean reconnectOnAclConnected = true;
+    int maxPendingMessages = 256;
+
+    public ReconnectPolicy initialDelayMillis(long millis) {
+        this.initialDelayMillis = millis;
+        return this;
+    }
+
+    public ReconnectPolicy maxDelayMillis(long millis) {
+        this.maxDelayMillis = millis;
+        return this;
+    }
+
+    public ReconnectPolicy multiplier(double multiplier) {
+        if (multiplier < 1) {
+            throw new IllegalArgumentException("multiplier 不能小于 1: " + multiplier);
+        }
+        this.multiplier = multiplier;
+        return this;
+    }
+
+    /**
+     * 抖动比例，0 到 1。0.2 表示在计算出的等待时间上下浮动 20%。
+     */
+    public ReconnectPolicy jitter(double jitter) {
+        if (jitter < 0 || jitter > 1) {
+            throw new IllegalArgumentException("jitter 应在 0 到 1 之间: " + jitter);
+        }
+        this.jitter = jitter;
+        return this;
+    }
+
+    /**
+     * 一次断线最多尝试几次，用尽后放弃。0 表示不限次数。
+     */
+    public ReconnectPolicy maxAttempts(int attempts) {
+        this.maxAttempts = attempts;
+        return this;
+    }
+
+    /**
+     * 收到该设备的 ACTION_ACL_CONNECTED 时跳过剩余等待，立即尝试。
+     */
+    public ReconnectPolicy reconnectOnAclConnected(boolean enabled) {
+        this.reconnectOnAclConnected = enabled;
+        return this;
+    }
+
+    /**
+     * 断线期间最多保留多少条待发送的消息，超出的被丢弃。
+     */
+    public ReconnectPolicy maxPendingMessages(int messages) {
+        this.maxPendingMessages = messages;
+        return this;
+    }
+
+    public boolean isReconnectOnAclConnected() {
+        return reconnectOnAclConnected;
+    }
+
+    /**
+     * 是否还允许第 attempt 次尝试。
+     */
+    public boolean allowsAttempt(int attempt) {
+        return maxAttempts <= 0 || attempt <= maxAttempts;
+    }
+
+    /**
+     * 第 attempt 次尝试前的等待时间。
+     *
+     * @param random [0, 1) 之间的随机数
+     */
+    public long delayMillis(int attempt, double random) {
+        double base = initialDelayMillis * Math.pow(multiplier, Math.max(0, attempt - 1));
+        base = Math.min(base, maxDelayMillis);
+        double factor = 1 - jitter + 2 * jitter * random;
+        return Math.max(0, Math.round(base * factor));
+    }
+}
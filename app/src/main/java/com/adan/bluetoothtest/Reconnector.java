@@ -0,0 +1,235 @@
+package com.adan.bluetoothtest;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 按 {@link ReconnectPolicy} 自动重连意外断开的设备。
+ * <p>
+ * 链路丢失时调用 {@link #onLinkLost}，交入发送队列中尚未发出的消息，开始一次断线（incident）；
+ * 到时间后通过 {@link Listener#reconnect} 请求连接，结果用 {@link #onConnected} 或
+ * {@link #onConnectFailed} 告知；每次 reconnect 都必须以其中之一结束，否则这次断线一直停在进行中。
+ * 连接建立后先用 {@link #takePending} 取出保留的消息，放在新链路发送队列的最前面，链路启动成功再调用
+ * onConnected（返回取出之后新写入的消息），启动失败则用 {@link #restorePending} 放回再报告失败。
+ * 断线期间新写入的消息通过 {@link #enqueue} 保留。
+ * <p>
+ * 每次断线的持续时间记入 "reconnect.downtime_ms"。用户主动断开时应调用 {@link #cancel}。
+ */
+public final class Reconnector {
+
+    public interface Listener {
+        /**
+         * 请求对设备发起第 attempt 次连接，在重连线程上调用，不应阻塞。
+         */
+        void reconnect(long address, int attempt);
+
+        /**
+         * 尝试次数用尽，放弃重连，保留的消息被丢弃。
+         */
+        void onGaveUp(long address, int attempts);
+    }
+
+    private static final class Session {
+        final long lostAtNanos = System.nanoTime();
+        final ArrayDeque<byte[]> pending = new ArrayDeque<>();
+        int attempt;
+        boolean inFlight;
+        ScheduledFuture<?> scheduled;  // 等待中的下一次尝试，开始执行时置空
+    }
+
+    private final ReconnectPolicy policy;
+    private final Listener listener;
+    private final ScheduledExecutorService scheduler;
+    private final HashMap<Long, Session> sessions = new HashMap<>();
+    private final MetricsRegistry.Histogram downtime;
+    private final MetricsRegistry.Counter incidents;
+    private final MetricsRegistry.Counter attempts;
+    private final MetricsRegistry.Counter gaveUp;
+    private final MetricsRegistry.Counter droppedMessages;
+
+    public Reconnector(ReconnectPolicy policy, Listener listener, MetricsRegistry metrics) {
+        this.policy = policy;
+        this.listener = listener;
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread thread = new Thread(r, "Reconnector");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.setRemoveOnCancelPolicy(true);
+        this.scheduler = executor;
+        this.downtime = metrics.histogram("reconnect.downtime_ms");
+        this.incidents = metrics.counter("reconnect.incidents");
+        this.attempts = metrics.counter("reconnect.attempts");
+        this.gaveUp = metrics.counter("reconnect.gave_up");
+        this.droppedMessages = metrics.counter("reconnect.dropped_messages");
+    }
+
+    /**
+     * 链路意外断开，开始重连。pending 为旧链路未发出的消息，按顺序保留。
+     */
+    public void onLinkLost(long address, Collection<byte[]> pending) {
+        synchronized (this) {
+            Session session = sessions.get(address);
+            if (session == null) {
+                session = new Session();
+                sessions.put(address, session);
+                incidents.increment();
+            }
+            for (byte[] bytes : pending) {
+                offer(session, bytes);
+            }
+            scheduleNext(address, session);
+        }
+    }
+
+    /**
+     * 断线期间写入的消息，没有进行中的重连或已满时返回 false。
+     */
+    public synchronized boolean enqueue(long address, byte[] bytes) {
+        Session session = sessions.get(address);
+        return session != null && offer(session, bytes);
+    }
+
+    /**
+     * 重连的连接已建立、正要启动链路：取出目前保留的消息，断线仍在进行，之后写入的消息照常保留。
+     * 不在重连中时返回空列表。
+     */
+    public synchronized List<byte[]> takePending(long address) {
+        Session session = sessions.get(address);
+        if (session == null) {
+            return new ArrayList<>();
+        }
+        List<byte[]> pending = new ArrayList<>(session.pending);
+        session.pending.clear();
+        return pending;
+    }
+
+    /**
+     * 链路启动失败，把 {@link #takePending} 取出的消息按原顺序放回最前面。不在重连中时丢弃。
+     */
+    public synchronized void restorePending(long address, List<byte[]> unsent) {
+        Session session = sessions.get(address);
+        if (session == null) {
+            droppedMessages.add(unsent.size());
+            return;
+        }
+        for (int i = unsent.size() - 1; i >= 0; i--) {
+            session.pending.addFirst(unsent.get(i));
+        }
+    }
+
+    /**
+     * 设备已重新连上，结束这次断线并返回保留的消息；不在重连中时返回空列表。
+     */
+    public synchronized List<byte[]> onConnected(long address) {
+        Session session = sessions.remove(address);
+        if (session == null) {
+            return new ArrayList<>();
+        }
+        if (session.scheduled != null) {
+            session.scheduled.cancel(false);
+        }
+        downtime.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - session.lostAtNanos));
+        return new ArrayList<>(session.pending);
+    }
+
+    /**
+     * 一次重连尝试失败，按策略安排下一次或放弃。
+     */
+    public void onConnectFailed(long address) {
+        synchronized (this) {
+            Session session = sessions.get(address);
+            if (session == null) {
+                return;
+            }
+            session.inFlight = false;
+            scheduleNext(address, session);
+        }
+    }
+
+    /**
+     * 系统报告与设备的 ACL 链路已建立：设备重新出现在范围内时立即重试，不再等待退避。
+     */
+    public void onAclConnected(long address) {
+        if (!policy.reconnectOnAclConnected) {
+            return;
+        }
+        synchronized (this) {
+            Session session = sessions.get(address);
+            if (session == null || session.scheduled == null || !session.scheduled.cancel(false)) {
+                return;
+            }
+            session.scheduled = scheduler.schedule(() -> fire(address, session), 0, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 停止对设备的重连，丢弃保留的消息。
+     */
+    public synchronized void cancel(long address) {
+        Session session = sessions.remove(address);
+        if (session != null && session.scheduled != null) {
+            session.scheduled.cancel(false);
+        }
+    }
+
+    public synchronized boolean isReconnecting(long address) {
+        return sessions.containsKey(address);
+    }
+
+    public void shutdown() {
+        synchronized (this) {
+            sessions.clear();
+        }
+        scheduler.shutdownNow();
+    }
+
+    private boolean offer(Session session, byte[] bytes) {
+        if (session.pending.size() >= policy.maxPendingMessages) {
+            droppedMessages.increment();
+            return false;
+        }
+        session.pending.add(bytes);
+        return true;
+    }
+
+    // 调用方持有锁
+    private void scheduleNext(long address, Session session) {
+        if (session.inFlight || session.scheduled != null) {
+            return;
+        }
+        int next = session.attempt + 1;
+        if (!policy.allowsAttempt(next)) {
+            sessions.remove(address);
+            gaveUp.increment();
+            droppedMessages.add(session.pending.size());
+            int made = session.attempt;
+            scheduler.execute(() -> listener.onGaveUp(address, made));
+            return;
+        }
+        long delay = policy.delayMillis(next, ThreadLocalRandom.current().nextDouble());
+        session.scheduled = scheduler.schedule(() -> fire(address, session), delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void fire(long address, Session session) {
+        int attempt;
+        synchronized (this) {
+            if (sessions.get(address) != session || session.inFlight) {
+                return;
+            }
+            session.inFlight = true;
+            session.scheduled = null;
+            attempt = ++session.attempt;
+        }
+        attempts.increment();
+        listener.reconnect(address, attempt);
+    }
+}
@@ -0,0 +1,50 @@
+package com.adan.bluetoothtest;
+
+import android.bluetooth.BluetoothSocket;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * 基于 BluetoothSocket 的连接。
+ */
+public class RfcommConnection implements Connection {
+    private final BluetoothSocket socket;
+    private final String remoteAddress;
+
+    public RfcommConnection(BluetoothSocket socket, String remoteAddress) {
+        this.socket = socket;
+        this.remoteAddress = remoteAddress;
+    }
+
+    @Override
+    public String getRemoteAddress() {
+        return remoteAddress;
+    }
+
+    @Override
+    public void connect() throws IOException {
+        socket.connect();
+    }
+
+    @Override
+    public boolean isConnected() {
+        return socket.isConnected();
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return socket.getInputStream();
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        return socket.getOutputStream();
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+}
@@ -0,0 +1,56 @@
+package com.adan.bluetoothtest;
+
+import android.annotation.SuppressLint;
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothServerSocket;
+import android.bluetooth.BluetoothSocket;
+
+import java.io.IOException;
+import java.util.UUID;
+
+/**
+ * 在 SPP 服务记录上监听 RFCOMM 连接。调用方负责事先检查 BLUETOOTH_CONNECT 权限。
+ * <p>
+ * 安全与非安全监听各用一个实例：只接受非安全连接的模块连不上安全的服务记录，
+ * 两者同时监听时设备可以任选一种。
+ */
+public class RfcommServerTransport implements ServerTransport {
+    private final BluetoothAdapter adapter;
+    private final String serviceName;
+    private final UUID serviceUuid;
+    private final boolean secure;
+
+    public RfcommServerTransport(BluetoothAdapter adapter, String serviceName, UUID serviceUuid, boolean secure) {
+        this.adapter = adapter;
+        this.serviceName = serviceName;
+        this.serviceUuid = serviceUuid;
+        this.secure = secure;
+    }
+
+    public boolean isSecure() {
+        return secure;
+    }
+
+    @SuppressLint("MissingPermission")
+    @Override
+    public Endpoint listen() throws IOException {
+        if (adapter == null) {
+            throw new IOException("设备不支持蓝牙");
+        }
+        BluetoothServerSocket serverSocket = secure
+                ? adapter.listenUsingRfcommWithServiceRecord(serviceName, serviceUuid)
+                : adapter.listenUsingInsecureRfcommWithServiceRecord(serviceName, serviceUuid);
+        return new Endpoint() {
+            @Override
+            public Connection accept() throws IOException {
+                BluetoothSocket socket = serverSocket.accept();
+                return new RfcommConnection(socket, socket.getRemoteDevice().getAddress());
+            }
+
+            @Override
+            public void close() throws IOException {
+                serverSocket.close();
+            }
+        };
+    }
+}
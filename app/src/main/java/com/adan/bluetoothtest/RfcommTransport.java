@@ -0,0 +1,84 @@
+package com.adan.bluetoothtest;
+
+import android.annotation.SuppressLint;
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothSocket;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.UUID;
+
+/**
+ * 建立 RFCOMM 连接。调用方负责事先检查 BLUETOOTH_CONNECT 权限。
+ * <p>
+ * 默认通过 SPP 服务记录建立安全连接；部分模块只接受非安全连接，或 SDP 查询很慢，
+ * 这时可以改用 {@link Variant#INSECURE} 或直接连接固定信道的 {@link Variant#CHANNEL}。
+ */
+public class RfcommTransport implements Transport {
+
+    /**
+     * 套接字的创建方式。
+     */
+    public enum Variant {
+        /** createRfcommSocketToServiceRecord，需要配对与加密 */
+        SECURE,
+        /** createInsecureRfcommSocketToServiceRecord */
+        INSECURE,
+        /** 隐藏接口 createRfcommSocket(int)，跳过 SDP 直接连接指定信道 */
+        CHANNEL
+    }
+
+    public static final int DEFAULT_CHANNEL = 1;
+
+    private final BluetoothAdapter adapter;
+    private final UUID serviceUuid;
+    private final Variant variant;
+    private final int channel;
+
+    public RfcommTransport(BluetoothAdapter adapter, UUID serviceUuid) {
+        this(adapter, serviceUuid, Variant.SECURE, DEFAULT_CHANNEL);
+    }
+
+    public RfcommTransport(BluetoothAdapter adapter, UUID serviceUuid, Variant variant, int channel) {
+        this.adapter = adapter;
+        this.serviceUuid = serviceUuid;
+        this.variant = variant;
+        this.channel = channel;
+    }
+
+    @SuppressLint("MissingPermission")
+    @Override
+    public Connection open(String address) throws IOException {
+        if (adapter == null) {
+            throw new IOException("设备不支持蓝牙");
+        }
+        BluetoothDevice device = adapter.getRemoteDevice(address);
+        BluetoothSocket socket;
+        switch (variant) {
+            case INSECURE:
+                socket = device.createInsecureRfcommSocketToServiceRecord(serviceUuid);
+                break;
+            case CHANNEL:
+                socket = createChannelSocket(device, channel);
+                break;
+            default:
+                socket = device.createRfcommSocketToServiceRecord(serviceUuid);
+                break;
+        }
+        return new RfcommConnection(socket, address);
+    }
+
+    private static BluetoothSocket createChannelSocket(BluetoothDevice device, int channel) throws IOException {
+        try {
+            Method method = device.getClass().getMethod("createRfcommSocket", int.class);
+            return (BluetoothSocket) method.invoke(device, channel);
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException("创建信道 " + channel + " 套接字失败", cause);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            throw new IOException("系统不支持按信道创建套接字", e);
+        }
+    }
+}
@@ -0,0 +1,329 @@
+package com.adan.bluetoothtest;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * 扫描的调度，扫描来源为经典 inquiry 或 BLE（见 {@link ScanSource}）。
+ * <p>
+ * startDiscovery() 每次都跑满约 12 秒，期间与 RFCOMM 连接争用射频。这里按 {@link Options} 提前结束或分段进行：
+ * <ul>
+ * <li>发现目标地址或名称匹配的设备后立即停止；</li>
+ * <li>连续 idleTimeoutMillis 没有新设备出现时停止；</li>
+ * <li>持续扫描模式下按开 / 关窗口交替进行；</li>
+ * <li>有设备正在连接时暂停（{@link #pauseForConnect}），全部连接结束后自动恢复。</li>
+ * </ul>
+ * 不会自行结束的来源（BLE）在单次模式下扫描 onWindowMillis 后结束。
+ * 所有方法只在主线程调用；射频操作和定时通过 {@link ScanSource}、{@link Timer} 完成，便于在 JVM 上测试。
+ * 每次扫描实际占用射频的时间累计到 "discovery.airtime_ms"。
+ */
+public final class ScanScheduler {
+
+    public interface Timer {
+        long uptimeMillis();
+
+        void schedule(Runnable task, long delayMillis);
+
+        void cancel(Runnable task);
+    }
+
+    public enum StopReason {
+        /** 一轮 inquiry 正常结束，或 BLE 扫描到达时长 */
+        COMPLETED,
+        /** 发现了目标设备 */
+        TARGET_FOUND,
+        /** 一段时间内没有新设备 */
+        IDLE,
+        /** 调用了 stop() */
+        STOPPED,
+        /** 射频拒绝启动发现 */
+        FAILED
+    }
+
+    public interface Listener {
+        /**
+         * 一次扫描会话结束。持续扫描模式下只在目标找到、停止或失败时调用。
+         */
+        void onScanStopped(StopReason reason, int devicesFound, long durationMillis);
+    }
+
+    /**
+     * 扫描策略。各项可以组合。
+     */
+    public static final class Options {
+        final HashSet<Long> targetAddresses = new HashSet<>();
+        Pattern targetNamePattern;
+        long idleTimeoutMillis;
+        boolean continuous;
+        long onWindowMillis = 12_000;
+        long offWindowMillis = 30_000;
+
+        public Options targetAddresses(Collection<Long> addresses) {
+            targetAddresses.clear();
+            targetAddresses.addAll(addresses);
+            return this;
+        }
+
+        /**
+         * 名称中包含匹配（find）即视为目标。
+         */
+        public Options targetNamePattern(Pattern pattern) {
+            this.targetNamePattern = pattern;
+            return this;
+        }
+
+        /**
+         * 连续多久没有新设备就停止，0 表示不启用。
+         */
+        public Options idleTimeoutMillis(long millis) {
+            this.idleTimeoutMillis = millis;
+            return this;
+        }
+
+        /**
+         * 持续扫描：扫描 onWindowMillis，停 offWindowMillis，循环直到 stop() 或找到目标。
+         * 单次模式下 onWindowMillis 是不会自行结束的来源的扫描时长。
+         */
+        public Options continuous(long onWindowMillis, long offWindowMillis) {
+            this.continuous = true;
+            this.onWindowMillis = onWindowMillis;
+            this.offWindowMillis = offWindowMillis;
+            return this;
+        }
+
+        public Options single() {
+            this.continuous = false;
+            return this;
+        }
+
+        boolean isTarget(long address, String name) {
+            return targetAddresses.contains(address)
+                    || (name != null && targetNamePattern != null && targetNamePattern.matcher(name).find());
+        }
+    }
+
+    private enum State {IDLE, SCANNING, OFF_WINDOW, PAUSED}
+
+    private ScanSource source;
+    private final Timer timer;
+    private final Listener listener;
+    private final MetricsRegistry.Counter airtime;
+    private final MetricsRegistry metrics;
+
+    private Options options = new Options();
+    private State state = State.IDLE;
+    private final HashSet<Long> found = new HashSet<>();
+    private long sessionStartMillis;
+    private long windowStartMillis;
+    private long inquiryStartMillis;
+    private boolean cancelling;
+    private int connectsInProgress;
+
+    private final Runnable idleTimeout = () -> finish(StopReason.IDLE);
+    private final Runnable windowEnd = this::endOnWindow;
+    private final Runnable offWindowEnd = this::beginWindow;
+
+    public ScanScheduler(Timer timer, Listener listener, MetricsRegistry metrics) {
+        this.timer = timer;
+        this.listener = listener;
+        this.metrics = metrics;
+        this.airtime = metrics.counter("discovery.airtime_ms");
+    }
+
+    /**
+     * 用指定来源开始新的扫描会话，替换正在进行的会话（不回调 Listener）。
+     */
+    public void start(ScanSource source, Options options) {
+        cancelTimers();
+        stopRadio();
+        this.source = source;
+        this.options = options;
+        found.clear();
+        sessionStartMillis = timer.uptimeMillis();
+        beginWindow();
+    }
+
+    public void stop() {
+        if (state != State.IDLE) {
+            finish(StopReason.STOPPED);
+        }
+    }
+
+    /**
+     * 会话进行中（包括持续扫描的关窗口和暂停期间）。
+     */
+    public boolean isActive() {
+        return state != State.IDLE;
+    }
+
+    public boolean isScanning() {
+        return state == State.SCANNING;
+    }
+
+    public int getDevicesFound() {
+        return found.size();
+    }
+
+    /**
+     * ACTION_FOUND。返回该设备是否为本次会话首次发现。
+     */
+    public boolean onDeviceFound(long address, String name) {
+        if (state != State.SCANNING) {
+            return false;
+        }
+        boolean isNew = found.add(address);
+        if (options.isTarget(address, name)) {
+            finish(StopReason.TARGET_FOUND);
+            return isNew;
+        }
+        if (isNew && options.idleTimeoutMillis > 0) {
+            timer.cancel(idleTimeout);
+            timer.schedule(idleTimeout, options.idleTimeoutMillis);
+        }
+        return isNew;
+    }
+
+    /**
+     * ACTION_DISCOVERY_STARTED。广播按顺序到达，此前取消引起的结束广播已经处理过。
+     */
+    public void onDiscoveryStarted() {
+        cancelling = false;
+    }
+
+    /**
+     * ACTION_DISCOVERY_FINISHED。由本类取消引起的结束会被忽略。
+     */
+    public void onDiscoveryFinished() {
+        if (cancelling) {
+            cancelling = false;
+            return;
+        }
+        if (state != State.SCANNING) {
+            return;
+        }
+        recordAirtime();
+        long elapsed = timer.uptimeMillis() - windowStartMillis;
+        if (options.continuous && elapsed < options.onWindowMillis) {
+            // 一轮 inquiry 先于开窗口结束，继续下一轮
+            startInquiry();
+        } else if (options.continuous) {
+            enterOffWindow();
+        } else {
+            cancelTimers();
+            state = State.IDLE;
+            report(StopReason.COMPLETED);
+        }
+    }
+
+    /**
+     * 开始连接设备前调用：正在扫描时暂停。可以嵌套，须与 {@link #resumeAfterConnect} 成对调用。
+     */
+    public void pauseForConnect() {
+        connectsInProgress++;
+        if (state == State.SCANNING) {
+            timer.cancel(idleTimeout);
+            timer.cancel(windowEnd);
+            stopRadio();
+            state = State.PAUSED;
+        }
+    }
+
+    /**
+     * 连接结束（成功或失败）后调用，最后一个连接结束时恢复被暂停的扫描。
+     */
+    public void resumeAfterConnect() {
+        if (connectsInProgress > 0) {
+            connectsInProgress--;
+        }
+        if (connectsInProgress == 0 && state == State.PAUSED) {
+            beginWindow();
+        }
+    }
+
+    private void beginWindow() {
+        if (connectsInProgress > 0) {
+            state = State.PAUSED;
+            return;
+        }
+        windowStartMillis = timer.uptimeMillis();
+        if (!startInquiry()) {
+            return;
+        }
+        if (options.idleTimeoutMillis > 0) {
+            timer.schedule(idleTimeout, options.idleTimeoutMillis);
+        }
+        if (options.continuous || !source.isSelfTerminating()) {
+            timer.schedule(windowEnd, options.onWindowMillis);
+        }
+    }
+
+    private boolean startInquiry() {
+        if (!source.start()) {
+            cancelTimers();
+            state = State.IDLE;
+            report(StopReason.FAILED);
+            return false;
+        }
+        state = State.SCANNING;
+        inquiryStartMillis = timer.uptimeMillis();
+        return true;
+    }
+
+    private void endOnWindow() {
+        if (state != State.SCANNING) {
+            return;
+        }
+        if (!options.continuous) {
+            finish(StopReason.COMPLETED);
+            return;
+        }
+        timer.cancel(idleTimeout);
+        stopRadio();
+        enterOffWindow();
+    }
+
+    private void enterOffWindow() {
+        timer.cancel(windowEnd);
+        timer.cancel(idleTimeout);
+        state = State.OFF_WINDOW;
+        timer.schedule(offWindowEnd, options.offWindowMillis);
+    }
+
+    private void finish(StopReason reason) {
+        if (options.continuous && reason == StopReason.IDLE) {
+            // 持续扫描时空闲只结束当前窗口
+            endOnWindow();
+            return;
+        }
+        cancelTimers();
+        stopRadio();
+        state = State.IDLE;
+        report(reason);
+    }
+
+    private void report(StopReason reason) {
+        metrics.counter("discovery.stopped." + reason.name().toLowerCase(Locale.ROOT)).increment();
+        listener.onScanStopped(reason, found.size(), timer.uptimeMillis() - sessionStartMillis);
+    }
+
+    private void stopRadio() {
+        if (state == State.SCANNING) {
+            recordAirtime();
+            // 只有经典 inquiry 会为这次取消广播 ACTION_DISCOVERY_FINISHED
+            cancelling = source.isSelfTerminating();
+            source.stop();
+        }
+    }
+
+    private void recordAirtime() {
+        airtime.add(timer.uptimeMillis() - inquiryStartMillis);
+    }
+
+    private void cancelTimers() {
+        timer.cancel(idleTimeout);
+        timer.cancel(windowEnd);
+        timer.cancel(offWindowEnd);
+    }
+}
@@ -0,0 +1,30 @@
+package com.adan.bluetoothtest;
+
+/**
+ * 扫描来源：经典蓝牙 inquiry（{@link ClassicScanSource}）或 BLE 扫描（{@link BleScanSource}）。
+ * <p>
+ * 由 {@link ScanScheduler} 启动和停止，结果都交给同一个 {@link Sink}，进入同一个设备列表。
+ * 调用方负责事先检查扫描权限。
+ */
+public interface ScanSource {
+
+    interface Sink {
+        /**
+         * 发现一个设备。name、rssi 未知时分别为 null、{@link DeviceSighting#RSSI_UNKNOWN}。
+         */
+        void onSighting(long address, String name, int rssi, long timestampMillis);
+    }
+
+    /**
+     * 开始扫描，系统拒绝时返回 false。
+     */
+    boolean start();
+
+    void stop();
+
+    /**
+     * 一轮扫描是否会自行结束。经典 inquiry 约 12 秒后结束并广播 ACTION_DISCOVERY_FINISHED；
+     * BLE 扫描会一直进行，由调度器按窗口或空闲超时结束。
+     */
+    boolean isSelfTerminating();
+}
@@ -0,0 +1,34 @@
+package com.adan.bluetoothtest;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * 接受设备连入的方式，与发起连接的 {@link Transport} 相对。
+ * <p>
+ * RFCOMM 用 {@link RfcommServerTransport}（BluetoothServerSocket），
+ * 单元测试用 {@link PipeTransport#listen()}，不需要蓝牙硬件。
+ */
+public interface ServerTransport {
+
+    /**
+     * 一个正在监听的端点。
+     */
+    interface Endpoint extends Closeable {
+        /**
+         * 阻塞到有设备连入，返回已连接的 Connection。端点被 close() 后抛出 IOException。
+         */
+        Connection accept() throws IOException;
+
+        /**
+         * 停止监听，正在 accept() 的线程随即抛出 IOException。已接受的连接不受影响。
+         */
+        @Override
+        void close() throws IOException;
+    }
+
+    /**
+     * 开始监听。
+     */
+    Endpoint listen() throws IOException;
+}
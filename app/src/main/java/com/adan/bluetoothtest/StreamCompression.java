@@ -0,0 +1,593 @@
+package com.adan.bluetoothtest;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.net.SocketTimeoutException;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 链路上可协商的流式压缩，位于 Connection 的输入输出流之上，读取循环和发送线程不需要改动。
+ * <p>
+ * 握手为 5 字节 "BTZ" | 版本 | 类型，由发起连接的一端（{@link Role#DIALER}）提议、接受连接的一端应答，
+ * 两端的结论因此总是一致：
+ * <ul>
+ * <li>发起方发出 OFFER 后在 negotiateTimeoutMillis 内等待应答：ACCEPT 时两个方向都改用 raw deflate，
+ * REJECT 或对端直接发来普通数据时按原样收发，超时则协商失败、连接关闭，
+ * 因为此时无法知道对端是否已经改用压缩；</li>
+ * <li>接受方在 negotiateTimeoutMillis 内等待 OFFER：本端开启压缩且版本相同则回 ACCEPT，否则回 REJECT；
+ * 没等到或收到的是普通数据时不回应、按原样收发，迟到的 OFFER 当作普通数据，发起方随之超时失败。</li>
+ * </ul>
+ * 对端已经发来的普通数据不会丢失。对端不支持压缩时会收到这 5 字节，因此只应对支持压缩的设备开启。
+ * <p>
+ * 发送方向使用同一个 Deflater 持续压缩，字典跨消息保留；发送线程每写完一批调用 flush()，
+ * 此时以 SYNC_FLUSH 把已写入的数据全部推到链路上：
+ * <ul>
+ * <li>maxFlushDelayMillis 为 0 时每次 flush() 立即同步，小消息没有额外延迟；</li>
+ * <li>大于 0 时同步最多推迟这么久，期间写入的消息合成一个压缩块，压缩率更高，但不会无限期滞留。</li>
+ * </ul>
+ * 压缩级别同样在速度和压缩率之间取舍。输入输出缓冲在连接内复用，不随消息分配。
+ */
+public final class StreamCompression {
+    static final int HELLO_SIZE = 5;
+    static final int VERSION = 1;
+    private static final byte[] MAGIC = {'B', 'T', 'Z'};
+    private static final byte OFFER = 0;
+    private static final byte ACCEPT = 1;
+    private static final byte REJECT = 2;
+
+    /**
+     * 协商中的角色：发起连接的一端提议，接受连接的一端应答。
+     */
+    public enum Role {
+        DIALER,
+        ACCEPTOR
+    }
+
+    public static final class Options {
+        boolean enabled;
+        int level = Deflater.BEST_SPEED;
+        long maxFlushDelayMillis;
+        long negotiateTimeoutMillis = 500;
+        int bufferBytes = 8192;
+
+        /**
+         * 默认是否对新链路开启压缩，单条链路可以用 {@link DeviceLink#setCompressionEnabled} 覆盖。
+         */
+        public Options enabled(boolean enabled) {
+            this.enabled = enabled;
+            return this;
+        }
+
+        /**
+         * Deflater 压缩级别，1（最快）到 9（压缩率最高）。
+         */
+        public Options level(int level) {
+            if (level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION) {
+                throw new IllegalArgumentException("level out of range: " + level);
+            }
+            this.level = level;
+            return this;
+        }
+
+        /**
+         * flush() 之后最多推迟多久才同步输出，0 表示立即同步（延迟最低）。
+         */
+        public Options maxFlushDelayMillis(long millis) {
+            this.maxFlushDelayMillis = millis;
+            return this;
+        }
+
+        /**
+         * 发起方等待应答、接受方等待提议的最长时间。
+         */
+        public Options negotiateTimeoutMillis(long millis) {
+            this.negotiateTimeoutMillis = millis;
+            return this;
+        }
+
+        /**
+         * 压缩与解压缓冲区大小。
+         */
+        public Options bufferBytes(int bytes) {
+            this.bufferBytes = bytes;
+            return this;
+        }
+    }
+
+    /**
+     * 一条压缩链路的统计。耗时以 System.nanoTime 计量 deflate / inflate 调用本身，近似 CPU 时间。
+     */
+    public static final class Stats {
+        public final long rawOutBytes;
+        public final long wireOutBytes;
+        public final long deflateNanos;
+        public final long wireInBytes;
+        public final long rawInBytes;
+        public final long inflateNanos;
+
+        Stats(long rawOutBytes, long wireOutBytes, long deflateNanos, long wireInBytes, long rawInBytes,
+              long inflateNanos) {
+            this.rawOutBytes = rawOutBytes;
+            this.wireOutBytes = wireOutBytes;
+            this.deflateNanos = deflateNanos;
+            this.wireInBytes = wireInBytes;
+            this.rawInBytes = rawInBytes;
+            this.inflateNanos = inflateNanos;
+        }
+
+        /**
+         * 发送方向的压缩比（原始字节 / 链路字节），尚未发送时为 0。
+         */
+        public double outRatio() {
+            return wireOutBytes > 0 ? (double) rawOutBytes / wireOutBytes : 0;
+        }
+
+        public double inRatio() {
+            return wireInBytes > 0 ? (double) rawInBytes / wireInBytes : 0;
+        }
+
+        /**
+         * 每压缩 1 MB 原始数据耗费的毫秒数。
+         */
+        public double deflateMillisPerMegabyte() {
+            return rawOutBytes > 0 ? deflateNanos / 1e6 / (rawOutBytes / 1048576.0) : 0;
+        }
+
+        public double inflateMillisPerMegabyte() {
+            return rawInBytes > 0 ? inflateNanos / 1e6 / (rawInBytes / 1048576.0) : 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "out ratio=%.2f %.1f ms/MB, in ratio=%.2f %.1f ms/MB",
+                    outRatio(), deflateMillisPerMegabyte(), inRatio(), inflateMillisPerMegabyte());
+        }
+    }
+
+    // 推迟的同步输出共用一个守护线程
+    private static ScheduledThreadPoolExecutor flusher;
+
+    private StreamCompression() {
+    }
+
+    private static synchronized ScheduledThreadPoolExecutor flusher() {
+        if (flusher == null) {
+            flusher = new ScheduledThreadPoolExecutor(1, r -> {
+                Thread thread = new Thread(r, "CompressionFlusher");
+                thread.setDaemon(true);
+                return thread;
+            });
+            flusher.setRemoveOnCancelPolicy(true);
+        }
+        return flusher;
+    }
+
+    /**
+     * 发起方的提议：magic "BTZ" | 版本 | OFFER。
+     */
+    static byte[] hello() {
+        return hello(OFFER);
+    }
+
+    private static byte[] hello(byte type) {
+        byte[] hello = Arrays.copyOf(MAGIC, HELLO_SIZE);
+        hello[3] = (byte) VERSION;
+        hello[4] = type;
+        return hello;
+    }
+
+    /**
+     * 与对端协商是否压缩，在连接建立后、开始收发之前调用。
+     * 发起方只在本端开启压缩时才需要调用；接受方无论是否开启都应调用，本端关闭时应答 REJECT，
+     * 否则开启了压缩的发起方等不到应答而失败，OFFER 也会被当作普通数据。
+     *
+     * @param role          本端发起了连接还是接受了连接，两端必须不同
+     * @param enabled       本端是否开启压缩；发起方关闭时不提议，直接返回原连接
+     * @param metricsPrefix 链路指标前缀，压缩统计记为 deflate_in_bytes / deflate_out_bytes / deflate_ns /
+     *                      inflate_in_bytes / inflate_out_bytes / inflate_ns
+     * @return 协商成功时为压缩连接（{@link CompressedConnection}），否则为按原样收发的连接
+     * @throws SocketTimeoutException 发起方在 negotiateTimeoutMillis 内没有收到应答
+     */
+    public static Connection negotiate(Connection connection, Role role, boolean enabled, Options options,
+                                       MetricsRegistry metrics, String metricsPrefix) throws IOException {
+        if (role == Role.DIALER && !enabled) {
+            return connection;
+        }
+        OutputStream out = connection.getOutputStream();
+        if (role == Role.DIALER) {
+            out.write(hello(OFFER));
+            out.flush();
+        }
+
+        PushbackInputStream in = new PushbackInputStream(connection.getInputStream(), HELLO_SIZE);
+        byte[] hello = new byte[HELLO_SIZE];
+        int received = readHello(in, hello, options.negotiateTimeoutMillis);
+        boolean handshake = received == HELLO_SIZE && isHandshakePrefix(hello, received);
+        boolean compress;
+        if (role == Role.DIALER) {
+            if (handshake && hello[4] == ACCEPT && hello[3] == VERSION) {
+                compress = true;
+            } else if (handshake && hello[4] == REJECT) {
+                compress = false;
+            } else if (handshake) {
+                throw new IOException("压缩协商失败: 无法识别的应答");
+            } else if (isHandshakePrefix(hello, received)) {
+                // 对端可能已经应答 ACCEPT 并改用压缩，不能单方面退回原样收发
+                throw new SocketTimeoutException("压缩协商超时 (" + options.negotiateTimeoutMillis + " ms)");
+            } else {
+                compress = false;
+            }
+        } else {
+            if (handshake && hello[4] == OFFER) {
+                compress = enabled && hello[3] == VERSION;
+                out.write(hello(compress ? ACCEPT : REJECT));
+                out.flush();
+            } else {
+                compress = false;
+            }
+        }
+        if (compress) {
+            return new CompressedConnection(connection, in, out, options, metrics, metricsPrefix);
+        }
+        if (!handshake || (role == Role.ACCEPTOR && hello[4] != OFFER)) {
+            // 对端没有提议或发来的是普通数据：按原样收发，已读到的字节放回去
+            in.unread(hello, 0, received);
+        }
+        return new CompressedConnection(connection, in, out, null, metrics, metricsPrefix);
+    }
+
+    /**
+     * 读到的字节是否都与握手的 magic 相符（即只是握手还没收完）。
+     */
+    private static boolean isHandshakePrefix(byte[] hello, int received) {
+        for (int i = 0; i < Math.min(received, MAGIC.length); i++) {
+            if (hello[i] != MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 读取对端握手，只读取已经到达的字节，不会阻塞超过 timeoutMillis。
+     *
+     * @return 读到的字节数；与握手前缀不符时立即返回
+     */
+    private static int readHello(InputStream in, byte[] hello, long timeoutMillis) throws IOException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        int received = 0;
+        while (received < HELLO_SIZE) {
+            int available = in.available();
+            if (available > 0) {
+                int n = in.read(hello, received, Math.min(available, HELLO_SIZE - received));
+                if (n < 0) {
+                    throw new EOFException("协商期间连接断开");
+                }
+                int end = received + n;
+                for (int i = received; i < Math.min(end, MAGIC.length); i++) {
+                    if (hello[i] != MAGIC[i]) {
+                        return end;
+                    }
+                }
+                received = end;
+                continue;
+            }
+            if (System.nanoTime() >= deadline) {
+                break;
+            }
+            try {
+                Thread.sleep(5);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("协商被中断");
+            }
+        }
+        return received;
+    }
+
+    /**
+     * 协商之后的连接。未协商成功时输入输出不压缩，只是接上握手期间读到的字节。
+     */
+    public static final class CompressedConnection implements Connection {
+        private final Connection delegate;
+        private final InputStream in;
+        private final OutputStream out;
+        private final DeflatingOutputStream deflating;
+        private final InflatingInputStream inflating;
+
+        CompressedConnection(Connection delegate, InputStream in, OutputStream out, Options options,
+                             MetricsRegistry metrics, String prefix) {
+            this.delegate = delegate;
+            if (options != null) {
+                deflating = new DeflatingOutputStream(out, options, metrics, prefix);
+                inflating = new InflatingInputStream(in, options, metrics, prefix);
+                this.in = inflating;
+                this.out = deflating;
+            } else {
+                deflating = null;
+                inflating = null;
+                this.in = in;
+                this.out = out;
+            }
+        }
+
+        public boolean isCompressed() {
+            return deflating != null;
+        }
+
+        /**
+         * 压缩统计，未压缩时为 null。
+         */
+        public Stats getStats() {
+            if (deflating == null) {
+                return null;
+            }
+            return new Stats(deflating.rawBytes.sum(), deflating.wireBytes.sum(), deflating.nanos.sum(),
+                    inflating.wireBytes.sum(), inflating.rawBytes.sum(), inflating.nanos.sum());
+        }
+
+        @Override
+        public String getRemoteAddress() {
+            return delegate.getRemoteAddress();
+        }
+
+        @Override
+        public void connect() throws IOException {
+            delegate.connect();
+        }
+
+        @Override
+        public boolean isConnected() {
+            return delegate.isConnected();
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return in;
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return out;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                delegate.close();
+            } finally {
+                if (deflating != null) {
+                    deflating.release();
+                    inflating.release();
+                }
+            }
+        }
+    }
+
+    /**
+     * 持续压缩的输出流。write 只压缩到内部缓冲，flush() 按 maxFlushDelayMillis 同步输出。
+     * 写入方（发送线程）与推迟输出的定时任务通过 this 互斥。
+     */
+    static final class DeflatingOutputStream extends OutputStream {
+        private final OutputStream out;
+        private final Deflater deflater;
+        private final byte[] buffer;
+        private final byte[] single = new byte[1];
+        private final long flushDelayNanos;
+        private final Runnable delayedFlush = this::flushDelayed;
+        final MetricsRegistry.Counter rawBytes;
+        final MetricsRegistry.Counter wireBytes;
+        final MetricsRegistry.Counter nanos;
+        // 自上次同步输出以来是否写入过数据，以及第一次写入的时刻
+        private boolean pending;
+        private long pendingSinceNanos;
+        private boolean flushScheduled;
+        private boolean released;
+
+        DeflatingOutputStream(OutputStream out, Options options, MetricsRegistry metrics, String prefix) {
+            this.out = out;
+            this.deflater = new Deflater(options.level, true);
+            this.buffer = new byte[options.bufferBytes];
+            this.flushDelayNanos = TimeUnit.MILLISECONDS.toNanos(options.maxFlushDelayMillis);
+            this.rawBytes = metrics.counter(prefix + "deflate_in_bytes");
+            this.wireBytes = metrics.counter(prefix + "deflate_out_bytes");
+            this.nanos = metrics.counter(prefix + "deflate_ns");
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            single[0] = (byte) b;
+            write(single, 0, 1);
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) throws IOException {
+            if (released) {
+                throw new IOException("连接已关闭");
+            }
+            if (len == 0) {
+                return;
+            }
+            if (!pending) {
+                pending = true;
+                pendingSinceNanos = System.nanoTime();
+            }
+            deflater.setInput(b, off, len);
+            while (!deflater.needsInput()) {
+                deflate(Deflater.NO_FLUSH);
+            }
+            rawBytes.add(len);
+        }
+
+        @Override
+        public synchronized void flush() throws IOException {
+            if (!pending) {
+                return;
+            }
+            long due = pendingSinceNanos + flushDelayNanos - System.nanoTime();
+            if (flushDelayNanos == 0 || due <= 0) {
+                syncFlush();
+            } else if (!flushScheduled) {
+                flushScheduled = true;
+                flusher().schedule(delayedFlush, due, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        private synchronized void flushDelayed() {
+            flushScheduled = false;
+            if (!pending || released) {
+                return;
+            }
+            try {
+                syncFlush();
+            } catch (IOException e) {
+                // 链路已断开，读取线程和发送线程会各自发现
+            }
+        }
+
+        private void syncFlush() throws IOException {
+            // 输出缓冲被填满说明可能还有剩余，继续取
+            while (deflate(Deflater.SYNC_FLUSH) == buffer.length) {
+                // 继续
+            }
+            pending = false;
+            out.flush();
+        }
+
+        private int deflate(int flush) throws IOException {
+            long start = System.nanoTime();
+            int n = deflater.deflate(buffer, 0, buffer.length, flush);
+            nanos.add(System.nanoTime() - start);
+            if (n > 0) {
+                out.write(buffer, 0, n);
+                wireBytes.add(n);
+            }
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            synchronized (this) {
+                if (!released && pending) {
+                    syncFlush();
+                }
+            }
+            release();
+            out.close();
+        }
+
+        synchronized void release() {
+            if (!released) {
+                released = true;
+                deflater.end();
+            }
+        }
+    }
+
+    /**
+     * 持续解压的输入流。只要已有输入能解出数据就立即返回，不等待填满调用方的缓冲。
+     */
+    static final class InflatingInputStream extends InputStream {
+        private final InputStream in;
+        private final Inflater inflater;
+        private final byte[] input;
+        private final byte[] single = new byte[1];
+        final MetricsRegistry.Counter rawBytes;
+        final MetricsRegistry.Counter wireBytes;
+        final MetricsRegistry.Counter nanos;
+        private boolean released;
+
+        InflatingInputStream(InputStream in, Options options, MetricsRegistry metrics, String prefix) {
+            this.in = in;
+            this.inflater = new Inflater(true);
+            this.input = new byte[options.bufferBytes];
+            this.rawBytes = metrics.counter(prefix + "inflate_out_bytes");
+            this.wireBytes = metrics.counter(prefix + "inflate_in_bytes");
+            this.nanos = metrics.counter(prefix + "inflate_ns");
+        }
+
+        @Override
+        public int read() throws IOException {
+            return read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            while (true) {
+                int n;
+                synchronized (this) {
+                    if (released) {
+                        throw new IOException("连接已关闭");
+                    }
+                    long start = System.nanoTime();
+                    try {
+                        n = inflater.inflate(b, off, len);
+                    } catch (DataFormatException e) {
+                        throw new IOException("压缩数据格式错误", e);
+                    } finally {
+                        nanos.add(System.nanoTime() - start);
+                    }
+                    if (n > 0) {
+                        rawBytes.add(n);
+                        return n;
+                    }
+                    if (inflater.finished()) {
+                        return -1;
+                    }
+                    if (!inflater.needsInput()) {
+                        throw new IOException("压缩数据格式错误");
+                    }
+                }
+                // 阻塞读取不持有锁，close() 可以随时释放 Inflater
+                int read = in.read(input, 0, input.length);
+                if (read < 0) {
+                    return -1;
+                }
+                synchronized (this) {
+                    if (released) {
+                        throw new IOException("连接已关闭");
+                    }
+                    inflater.setInput(input, 0, read);
+                }
+                wireBytes.add(read);
+            }
+        }
+
+        /**
+         * 有待解压的输入时返回解压缓冲的大小作为估计，供读取循环选择缓冲容量。
+         */
+        @Override
+        public synchronized int available() throws IOException {
+            if (released) {
+                return 0;
+            }
+            return inflater.getRemaining() > 0 || in.available() > 0 ? input.length : 0;
+        }
+
+        @Override
+        public void close() throws IOException {
+            release();
+            in.close();
+        }
+
+        synchronized void release() {
+            if (!released) {
+                released = true;
+                inflater.end();
+            }
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package com.adan.bluetoothtest;
+
+import java.io.IOException;
+
+/**
+ * 建立连接的方式。
+ * <p>
+ * 原来 ConnectThread 直接调用 createRfcommSocketToServiceRecord(MY_UUID)，整条收发链路只能在真机上跑。
+ * 现在连接流程只依赖此接口：RFCOMM 用 {@link RfcommTransport}，
+ * 单元测试和基准测试用内存中的 {@link PipeTransport}，不需要蓝牙硬件。
+ */
+public interface Transport {
+
+    /**
+     * 创建一个尚未连接的 Connection，随后在工作线程上调用 {@link Connection#connect()}。
+     *
+     * @param address 对端地址，"AA:BB:CC:DD:EE:FF" 形式
+     */
+    Connection open(String address) throws IOException;
+}
@@ -0,0 +1,350 @@
+package com.adan.bluetoothtest;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class BinaryMessageCodecTest {
+
+    private static final String DEVICE = "AA:BB:CC:DD:EE:24";
+    private static final int TYPE_TELEMETRY = 7;
+
+    private final BinaryMessageWriter writer = new BinaryMessageWriter();
+    private final BinaryMessageReader reader = new BinaryMessageReader();
+
+    /**
+     * 按 LengthPrefixedFrameDecoder 分帧，返回每帧负载的拷贝。
+     */
+    private static List<ByteBuffer> frames(ByteBuffer encoded) throws IOException {
+        List<ByteBuffer> frames = new ArrayList<>();
+        new LengthPrefixedFrameDecoder().decode(encoded, frame -> {
+            ByteBuffer copy = ByteBuffer.allocate(frame.remaining());
+            copy.put(frame).flip();
+            frames.add(copy);
+        });
+        return frames;
+    }
+
+    @Test
+    public void allFieldTypes_roundTripThroughLengthPrefixedFrames() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(256);
+        int frameBytes = writer.begin(buffer, TYPE_TELEMETRY)
+                .putVarint(300).putSignedVarint(-2).putBoolean(true).putByte(-1).putShort(-1234)
+                .putInt(0x12345678).putLong(Long.MIN_VALUE).putFloat(21.5f).putDouble(Math.PI)
+                .putString("ok").end();
+        writer.begin(buffer, 1).putString("").end();
+        // 第二帧只有长度字段、类型和空字符串的长度
+        assertEquals(frameBytes + 4, buffer.position());
+        buffer.flip();
+
+        List<ByteBuffer> frames = frames(buffer);
+        assertEquals(2, frames.size());
+        reader.wrap(frames.get(0));
+        assertEquals(TYPE_TELEMETRY, reader.type());
+        assertEquals(frameBytes - BinaryMessageWriter.LENGTH_FIELD_SIZE, reader.length());
+        assertEquals(300, reader.getVarint());
+        assertEquals(-2, reader.getSignedVarint());
+        assertTrue(reader.getBoolean());
+        assertEquals(-1, reader.getByte());
+        assertEquals(-1234, reader.getShort());
+        assertEquals(0x12345678, reader.getInt());
+        assertEquals(Long.MIN_VALUE, reader.getLong());
+        assertEquals(21.5f, reader.getFloat(), 0);
+        assertEquals(Math.PI, reader.getDouble(), 0);
+        assertEquals("ok", reader.getString());
+        assertEquals(0, reader.remaining());
+
+        // 同一个 reader 复用于下一帧
+        reader.wrap(frames.get(1));
+        assertEquals(1, reader.type());
+        assertEquals("", reader.getString());
+    }
+
+    @Test
+    public void varint_usesMinimalBytesAndCoversFullRange() {
+        long[] values = {0, 1, 127, 128, 16383, 16384, Integer.MAX_VALUE, Long.MAX_VALUE, -1, Long.MIN_VALUE};
+        int[] sizes = {1, 1, 1, 2, 2, 3, 5, 9, 10, 10};
+        ByteBuffer buffer = ByteBuffer.allocate(32);
+        for (int i = 0; i < values.length; i++) {
+            buffer.clear();
+            writer.begin(buffer, 0).putVarint(values[i]).end();
+            assertEquals("值 " + values[i], 2 + 1 + sizes[i], buffer.position());
+            buffer.flip().position(2);
+            assertEquals(values[i], reader.wrap(buffer).getVarint());
+        }
+        long[] signed = {0, -1, 1, -64, 63, -65, Long.MIN_VALUE, Long.MAX_VALUE};
+        int[] signedSizes = {1, 1, 1, 1, 1, 2, 10, 10};
+        for (int i = 0; i < signed.length; i++) {
+            buffer.clear();
+            writer.begin(buffer, 0).putSignedVarint(signed[i]).end();
+            assertEquals("值 " + signed[i], 2 + 1 + signedSizes[i], buffer.position());
+            buffer.flip().position(2);
+            assertEquals(signed[i], reader.wrap(buffer).getSignedVarint());
+        }
+    }
+
+    @Test
+    public void strings_matchJdkUtf8AndCompareInPlace() {
+        String[] samples = {"ascii", "温度 21.5℃", "é", "emoji 😀", "x".repeat(255)};
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        StringBuilder out = new StringBuilder();
+        for (String sample : samples) {
+            buffer.clear();
+            writer.begin(buffer, 0).putString(sample).putString(sample).putString(sample).end();
+            byte[] expected = sample.getBytes(StandardCharsets.UTF_8);
+            buffer.flip().position(2);
+            reader.wrap(buffer);
+            assertEquals(expected.length, buffer.get(buffer.position()) & 0xFF);
+            assertTrue(sample, reader.stringEquals(sample));
+            assertFalse(reader.stringEquals(sample + "!"));
+            out.setLength(0);
+            assertEquals(expected.length, reader.getString(out));
+            assertEquals(sample, out.toString());
+        }
+        // 不成对的代理项与 String.getBytes 一样替换为 '?'
+        buffer.clear();
+        writer.begin(buffer, 0).putString("a\uD800b").end();
+        buffer.flip().position(2);
+        assertEquals("a?b", reader.wrap(buffer).getString());
+    }
+
+    @Test
+    public void stringEquals_rejectsSameLengthDifferentContent() {
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        writer.begin(buffer, 0).putString("温度").putString("status").putInt(42).end();
+        buffer.flip().position(2);
+        reader.wrap(buffer);
+        assertFalse(reader.stringEquals("湿度"));
+        assertFalse(reader.stringEquals("statux"));
+        // 比较失败也读过了字段，后面的字段照常读取
+        assertEquals(42, reader.getInt());
+    }
+
+    @Test
+    public void limits_areEnforced() {
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        try {
+            writer.begin(buffer, 0).putString("x".repeat(256));
+            fail("超过 255 字节的字符串应被拒绝");
+        } catch (IllegalArgumentException expected) {
+            // 预期
+        }
+        try {
+            writer.begin(ByteBuffer.allocate(8), 0).putLong(1).end();
+            fail("缓冲区不足");
+        } catch (BufferOverflowException expected) {
+            // 预期
+        }
+        try {
+            ByteBuffer big = ByteBuffer.allocate(80_000);
+            writer.begin(big, 0);
+            for (int i = 0; i < 9000; i++) {
+                writer.putLong(i);
+            }
+            writer.end();
+            fail("负载超过 u16 长度字段");
+        } catch (IllegalStateException expected) {
+            // 预期
+        }
+    }
+
+    @Test
+    public void truncatedOrMalformedFields_throw() {
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        writer.begin(buffer, 0).putShort(1).end();
+        buffer.flip().position(2);
+        reader.wrap(buffer);
+        try {
+            reader.getInt();
+            fail("字段越过帧末尾");
+        } catch (BinaryMessageReader.MalformedMessageException expected) {
+            // 预期
+        }
+
+        ByteBuffer badString = ByteBuffer.wrap(new byte[]{0, 10, 'a', 'b'});
+        reader.wrap(badString);
+        try {
+            reader.skipString();
+            fail("字符串长度越过帧末尾");
+        } catch (BinaryMessageReader.MalformedMessageException expected) {
+            // 预期
+        }
+
+        byte[] longVarint = new byte[12];
+        Arrays.fill(longVarint, 1, 12, (byte) 0x80);
+        reader.wrap(ByteBuffer.wrap(longVarint));
+        try {
+            reader.getVarint();
+            fail("varint 超过 10 字节");
+        } catch (BinaryMessageReader.MalformedMessageException expected) {
+            // 预期
+        }
+    }
+
+    @Test
+    public void invalidUtf8_isRejectedWithoutKillingTheReceiver() {
+        byte[][] invalid = {
+                {(byte) 0xF4, (byte) 0x90, (byte) 0x80, (byte) 0x80},  // 超出 U+10FFFF
+                {(byte) 0xC0, (byte) 0xAF},                            // 超长的 '/'
+                {(byte) 0xE0, (byte) 0x80, (byte) 0xAF},               // 三字节超长编码
+                {(byte) 0xF0, (byte) 0x80, (byte) 0x80, (byte) 0xAF},  // 四字节超长编码
+                {(byte) 0xED, (byte) 0xA0, (byte) 0x80},               // 代理区 U+D800
+                {(byte) 0x80},                                         // 单独的后续字节
+                {(byte) 0xE4, 'a', 'b'},                               // 后续字节不是 10xxxxxx
+                {(byte) 0xF8, (byte) 0x88, (byte) 0x80, (byte) 0x80},
+        };
+        List<String> decoded = new ArrayList<>();
+        BinaryReceiver receiver = new BinaryReceiver(message -> decoded.add(message.getString()));
+        for (byte[] bytes : invalid) {
+            ByteBuffer frame = ByteBuffer.allocate(bytes.length + 2);
+            frame.put((byte) TYPE_TELEMETRY).put((byte) bytes.length).put(bytes).flip();
+            reader.wrap(frame.duplicate());
+            try {
+                reader.getString();
+                fail("应拒绝 " + Arrays.toString(bytes));
+            } catch (BinaryMessageReader.MalformedMessageException expected) {
+                assertEquals("invalid UTF-8", expected.getMessage());
+            }
+            receiver.onFrame(frame);
+        }
+        assertEquals(invalid.length, receiver.getMalformedMessages());
+        assertTrue(decoded.isEmpty());
+
+        // 边界上的合法字符照常解码
+        ByteBuffer valid = ByteBuffer.allocate(64);
+        writer.begin(valid, TYPE_TELEMETRY).putString("\u0080\u07FF\u0800\uFFFF\uD800\uDC00\uDBFF\uDFFF").end();
+        valid.flip().position(BinaryMessageWriter.LENGTH_FIELD_SIZE);
+        receiver.onFrame(valid);
+        assertEquals(Arrays.asList("\u0080\u07FF\u0800\uFFFF\uD800\uDC00\uDBFF\uDFFF"), decoded);
+    }
+
+    @Test
+    public void listenerExceptions_areNotCountedAsMalformed() {
+        BinaryReceiver receiver = new BinaryReceiver(message -> {
+            message.getVarint();
+            throw new IllegalStateException("listener bug");
+        });
+        ByteBuffer frame = ByteBuffer.wrap(new byte[]{TYPE_TELEMETRY, 1});
+        try {
+            receiver.onFrame(frame);
+            fail("回调的异常不能被当作格式错误吞掉");
+        } catch (IllegalStateException expected) {
+            assertEquals("listener bug", expected.getMessage());
+        }
+        assertEquals(0, receiver.getMalformedMessages());
+    }
+
+    @Test
+    public void encodeAndDecode_doNotAllocatePerMessage() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(128);
+        StringBuilder status = new StringBuilder(32);
+        long checksum = 0;
+        // 先预热，避免把类加载和解释执行阶段的分配算进去
+        for (int round = 0; round < 2; round++) {
+            long before = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+            for (int i = 0; i < 100_000; i++) {
+                buffer.clear();
+                writer.begin(buffer, TYPE_TELEMETRY).putVarint(i).putLong(1_700_000_000_000L + i)
+                        .putFloat(20 + (i % 50) / 10f).putString("ok").end();
+                buffer.flip().position(BinaryMessageWriter.LENGTH_FIELD_SIZE);
+                reader.wrap(buffer);
+                checksum += reader.getVarint() + reader.getLong() + (long) reader.getFloat();
+                status.setLength(0);
+                reader.getString(status);
+                checksum += status.length();
+            }
+            long allocated = threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - before;
+            if (round == 1) {
+                assertTrue("十万条消息分配了 " + allocated + " 字节", allocated < 64 * 1024);
+            }
+        }
+        assertTrue(checksum > 0);
+    }
+
+    @Test
+    public void deviceLink_deliversBinaryMessagesAndSendsEncodedFrames() throws Exception {
+        MetricsRegistry metrics = new MetricsRegistry();
+        LinkedBlockingQueue<String> received = new LinkedBlockingQueue<>();
+        ConnectionManager manager = new ConnectionManager(new ConnectionManager.Config(2, new ReceiveBufferPool(),
+                RawFrameDecoder::new, new ConnectionWriter.Options(), metrics).binaryMessages(true),
+                new ConnectionManager.Listener() {
+                    private final StringBuilder status = new StringBuilder();
+
+                    @Override
+                    public void onStateChanged(DeviceLink link, LinkStateMachine.Snapshot snapshot) {
+                    }
+
+                    @Override
+                    public void onMessage(DeviceLink link, String text) {
+                        fail("二进制模式不应交付文本");
+                    }
+
+                    @Override
+                    public void onBinaryMessage(DeviceLink link, BinaryMessageReader reader) {
+                        status.setLength(0);
+                        long seq = reader.getVarint();
+                        reader.getString(status);
+                        received.add(reader.type() + ":" + seq + ":" + status);
+                    }
+
+                    @Override
+                    public void onLinkLost(DeviceLink link, IOException cause) {
+                    }
+                });
+        DeviceLink link = manager.reserve(MacAddress.pack(DEVICE), null);
+        Connection[] pair = new PipeTransport().pair(DEVICE);
+        manager.attach(link, pair[0]);
+
+        // 对端一次写出三帧，第二帧缺字段，逐字节写出以覆盖跨读取边界的帧
+        ByteBuffer buffer = ByteBuffer.allocate(256);
+        writer.begin(buffer, TYPE_TELEMETRY).putVarint(1).putString("ok").end();
+        writer.begin(buffer, TYPE_TELEMETRY).putVarint(2).end();
+        writer.begin(buffer, TYPE_TELEMETRY).putVarint(3).putString("温度高").end();
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            pair[1].getOutputStream().write(buffer.get());
+            pair[1].getOutputStream().flush();
+        }
+        assertEquals(TYPE_TELEMETRY + ":1:ok", received.poll(2, TimeUnit.SECONDS));
+        assertEquals(TYPE_TELEMETRY + ":3:温度高", received.poll(2, TimeUnit.SECONDS));
+
+        buffer.clear();
+        int frameBytes = writer.begin(buffer, 2).putSignedVarint(-5).end();
+        buffer.flip();
+        assertTrue(link.send(buffer));
+        assertFalse(buffer.hasRemaining());
+        byte[] frame = new byte[frameBytes];
+        InputStream in = pair[1].getInputStream();
+        int read = 0;
+        while (read < frameBytes) {
+            read += in.read(frame, read, frameBytes - read);
+        }
+        ByteBuffer payload = ByteBuffer.wrap(frame, BinaryMessageWriter.LENGTH_FIELD_SIZE,
+                frameBytes - BinaryMessageWriter.LENGTH_FIELD_SIZE);
+        reader.wrap(payload);
+        assertEquals(2, reader.type());
+        assertEquals(-5, reader.getSignedVarint());
+        assertEquals(3, metrics.snapshot().counter(link.getMetricsPrefix() + "messages_in"));
+        manager.disconnectAll();
+        pair[1].close();
+    }
+}
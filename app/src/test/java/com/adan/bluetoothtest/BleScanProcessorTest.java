@@ -0,0 +1,58 @@
+package com.adan.bluetoothtest;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class BleScanProcessorTest {
+
+    private static final UUID SPP = UUID.fromString("00001101-0000-1000-8000-00805F9B34FB");
+
+    private final List<String> delivered = new ArrayList<>();
+
+    private BleScanProcessor create(BleScanProcessor.Filter... filters) {
+        return new BleScanProcessor(Arrays.asList(filters),
+                (address, name, rssi, ts) -> delivered.add(MacAddress.format(address) + "/" + name + "/" + rssi));
+    }
+
+    private static BleScanProcessor.Result result(String address, String name, int rssi, UUID... uuids) {
+        return new BleScanProcessor.Result(address, name, rssi, 0, Arrays.asList(uuids));
+    }
+
+    @Test
+    public void batch_mergesByAddressInFirstSeenOrder() {
+        BleScanProcessor processor = create();
+        processor.onBatch(Arrays.asList(
+                result("AA:BB:CC:DD:EE:01", "one", -70),
+                result("AA:BB:CC:DD:EE:02", null, -60),
+                result("AA:BB:CC:DD:EE:01", null, -50),
+                result("not-a-mac", "bad", -40)));
+        assertEquals(Arrays.asList("AA:BB:CC:DD:EE:01/one/-50", "AA:BB:CC:DD:EE:02/null/-60"), delivered);
+        assertEquals(1, processor.getBatches());
+        assertEquals(4, processor.getResultsReceived());
+        assertEquals(1, processor.getResultsFiltered());
+        assertEquals(2, processor.getSightingsDelivered());
+    }
+
+    @Test
+    public void filters_acceptAnyMatch() {
+        BleScanProcessor processor = create(BleScanProcessor.Filter.serviceUuid(SPP),
+                BleScanProcessor.Filter.address("aa:bb:cc:dd:ee:09"));
+        processor.onBatch(Arrays.asList(
+                result("AA:BB:CC:DD:EE:01", "plain", -70),
+                result("AA:BB:CC:DD:EE:02", "spp", -60, SPP),
+                result("AA:BB:CC:DD:EE:09", null, -80)));
+        assertEquals(Arrays.asList("AA:BB:CC:DD:EE:02/spp/-60", "AA:BB:CC:DD:EE:09/null/-80"), delivered);
+        assertEquals(1, processor.getResultsFiltered());
+
+        processor.onBatch(Collections.<BleScanProcessor.Result>emptyList());
+        assertEquals(2, processor.getBatches());
+        assertEquals(2, delivered.size());
+    }
+}
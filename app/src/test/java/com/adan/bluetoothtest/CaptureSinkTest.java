@@ -0,0 +1,208 @@
+package com.adan.bluetoothtest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CaptureSinkTest {
+
+    private static final long ADDRESS = MacAddress.pack("AA:BB:CC:DD:EE:21");
+
+    private final MetricsRegistry metrics = new MetricsRegistry();
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("capture").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    private static final class Seen {
+        final int direction;
+        final long address;
+        final long timestampMicros;
+        final String text;
+
+        Seen(int direction, long address, long timestampMicros, ByteBuffer payload) {
+            this.direction = direction;
+            this.address = address;
+            this.timestampMicros = timestampMicros;
+            byte[] bytes = new byte[payload.remaining()];
+            payload.get(bytes);
+            this.text = new String(bytes, StandardCharsets.US_ASCII);
+        }
+    }
+
+    private List<Seen> readAll() throws IOException {
+        List<Seen> seen = new ArrayList<>();
+        CaptureReader.scan(directory, (direction, address, timestampMicros, payload) ->
+                seen.add(new Seen(direction, address, timestampMicros, payload)));
+        return seen;
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    @Test
+    public void records_roundTripWithDirectionAddressAndTime() throws Exception {
+        long before = System.currentTimeMillis() * 1000;
+        CaptureSink sink = new CaptureSink(directory, new CaptureSink.Options().captureSent(true), metrics);
+        sink.start();
+        byte[] received = ascii("xxhelloxx");
+        sink.onReceived(ADDRESS, received, 2, 5);
+        sink.onSent(ADDRESS + 1, ascii("ping"), 0, 4);
+        sink.close();
+        long after = System.currentTimeMillis() * 1000;
+
+        List<File> segments = sink.listSegments();
+        assertEquals(1, segments.size());
+        assertEquals("关闭时截断到实际长度", CaptureSink.HEADER_SIZE + 2 * CaptureSink.RECORD_HEADER_SIZE + 9,
+                segments.get(0).length());
+        List<Seen> seen = readAll();
+        assertEquals(2, seen.size());
+        assertEquals(CaptureSink.DIRECTION_IN, seen.get(0).direction);
+        assertEquals(ADDRESS, seen.get(0).address);
+        assertEquals("hello", seen.get(0).text);
+        assertEquals(CaptureSink.DIRECTION_OUT, seen.get(1).direction);
+        assertEquals(ADDRESS + 1, seen.get(1).address);
+        assertEquals("ping", seen.get(1).text);
+        for (Seen s : seen) {
+            assertTrue(s.timestampMicros >= before - 1000 && s.timestampMicros <= after + 1000);
+        }
+        assertTrue(seen.get(0).timestampMicros <= seen.get(1).timestampMicros);
+        MetricsRegistry.Snapshot snapshot = metrics.snapshot();
+        assertEquals(9, snapshot.counter("capture.bytes"));
+        assertEquals(2, snapshot.counter("capture.records"));
+    }
+
+    @Test
+    public void sentBytes_areIgnoredUnlessEnabled() throws Exception {
+        CaptureSink sink = new CaptureSink(directory, new CaptureSink.Options(), metrics);
+        sink.start();
+        sink.onSent(ADDRESS, ascii("ping"), 0, 4);
+        sink.onReceived(ADDRESS, ascii("pong"), 0, 4);
+        sink.close();
+        List<Seen> seen = readAll();
+        assertEquals(1, seen.size());
+        assertEquals("pong", seen.get(0).text);
+    }
+
+    @Test
+    public void fullSegment_rotatesAndSplitsOversizedData() throws Exception {
+        int segmentBytes = CaptureSink.HEADER_SIZE + CaptureSink.RECORD_HEADER_SIZE + 10;
+        CaptureSink sink = new CaptureSink(directory, new CaptureSink.Options().segmentBytes(segmentBytes), metrics);
+        sink.start();
+        sink.onReceived(ADDRESS, ascii("abcdef"), 0, 6);
+        sink.onReceived(ADDRESS, ascii("ghijkl"), 0, 6);
+        sink.onReceived(ADDRESS, ascii("0123456789ABCDE"), 0, 15);
+        sink.close();
+
+        assertEquals(4, sink.listSegments().size());
+        List<Seen> seen = readAll();
+        List<String> texts = new ArrayList<>();
+        for (Seen s : seen) {
+            texts.add(s.text);
+        }
+        assertEquals("放不下时先换段，空段也放不下才拆分",
+                Arrays.asList("abcdef", "ghijkl", "0123456789", "ABCDE"), texts);
+        assertEquals(4, metrics.snapshot().counter("capture.segments"));
+    }
+
+    @Test
+    public void segment_rotatesAfterRotateMillis() throws Exception {
+        CaptureSink sink = new CaptureSink(directory, new CaptureSink.Options().rotateMillis(50), metrics);
+        sink.start();
+        sink.onReceived(ADDRESS, ascii("first"), 0, 5);
+        Thread.sleep(200);
+        sink.onReceived(ADDRESS, ascii("second"), 0, 6);
+        sink.close();
+
+        List<File> segments = sink.listSegments();
+        assertEquals(2, segments.size());
+        try (CaptureReader first = CaptureReader.open(segments.get(0));
+             CaptureReader second = CaptureReader.open(segments.get(1))) {
+            assertTrue(first.getSegmentStartMillis() < second.getSegmentStartMillis());
+            assertTrue(first.next());
+            assertFalse(first.next());
+            assertTrue(second.next());
+            assertFalse(second.next());
+        }
+    }
+
+    @Test
+    public void maxSegments_deletesOldest() throws Exception {
+        int segmentBytes = CaptureSink.HEADER_SIZE + CaptureSink.RECORD_HEADER_SIZE + 4;
+        CaptureSink sink = new CaptureSink(directory, new CaptureSink.Options()
+                .segmentBytes(segmentBytes).maxSegments(2), metrics);
+        sink.start();
+        for (int i = 0; i < 5; i++) {
+            sink.onReceived(ADDRESS, ascii("msg" + i), 0, 4);
+        }
+        sink.close();
+
+        assertEquals(2, sink.listSegments().size());
+        List<Seen> seen = readAll();
+        assertEquals(2, seen.size());
+        assertEquals("msg3", seen.get(0).text);
+        assertEquals("msg4", seen.get(1).text);
+    }
+
+    @Test
+    public void fullQueue_dropsWithoutBlocking() throws Exception {
+        CaptureSink sink = new CaptureSink(directory, new CaptureSink.Options().queueCapacity(2), metrics);
+        // 写入线程尚未启动，队列只能放两条
+        sink.onReceived(ADDRESS, ascii("one"), 0, 3);
+        sink.onReceived(ADDRESS, ascii("two"), 0, 3);
+        sink.onReceived(ADDRESS, ascii("three"), 0, 5);
+        assertEquals(5, metrics.snapshot().counter("capture.dropped_bytes"));
+        sink.start();
+        sink.close();
+        assertEquals(2, readAll().size());
+    }
+
+    @Test
+    public void reader_stopsAtTruncatedTail() throws Exception {
+        CaptureSink sink = new CaptureSink(directory, new CaptureSink.Options(), metrics);
+        sink.start();
+        sink.onReceived(ADDRESS, ascii("complete"), 0, 8);
+        sink.onReceived(ADDRESS, ascii("partial"), 0, 7);
+        sink.close();
+        File segment = sink.listSegments().get(0);
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            file.setLength(file.length() - 3);
+        }
+        List<Seen> seen = readAll();
+        assertEquals(1, seen.size());
+        assertEquals("complete", seen.get(0).text);
+    }
+
+    @Test(expected = IOException.class)
+    public void reader_rejectsForeignFile() throws Exception {
+        File other = new File(directory, "capture-0-0000.bin");
+        Files.write(other.toPath(), ascii("not a capture file"));
+        CaptureReader.open(other).close();
+    }
+}
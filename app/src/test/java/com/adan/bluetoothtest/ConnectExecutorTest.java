@@ -0,0 +1,219 @@
+package com.adan.bluetoothtest;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ConnectExecutorTest {
+
+    private static final String DEVICE = "AA:BB:CC:DD:EE:04";
+
+    private final MetricsRegistry metrics = new MetricsRegistry();
+    private ConnectExecutor executor;
+
+    @After
+    public void tearDown() throws Exception {
+        if (executor != null) {
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(2000));
+            // 线程池终止后工作线程还要片刻才真正退出，别让后面的测试数到它们
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+            while (connectThreads() > 0 && System.nanoTime() < deadline) {
+                Thread.sleep(5);
+            }
+        }
+    }
+
+    /**
+     * 连接耗时一个往返，latencyMillis 取大时 connect() 一直阻塞到被关闭。
+     */
+    private static PipeTransport device(long latencyMillis) {
+        PipeTransport transport = new PipeTransport(new PipeTransport.Options().latencyMillis(latencyMillis));
+        transport.listen(DEVICE, connection -> {
+        });
+        return transport;
+    }
+
+    private static final class Results implements ConnectExecutor.Callback {
+        final BlockingQueue<Object> outcomes = new ArrayBlockingQueue<>(16);
+        final AtomicInteger calls = new AtomicInteger();
+
+        @Override
+        public void onConnected(Connection connection) {
+            calls.incrementAndGet();
+            outcomes.offer(connection);
+        }
+
+        @Override
+        public void onFailed(IOException cause) {
+            calls.incrementAndGet();
+            outcomes.offer(cause);
+        }
+    }
+
+    private static int connectThreads() {
+        int count = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().matches("Connect-\\d+")) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Test
+    public void attempt_connectsOnPoolThread() throws Exception {
+        executor = new ConnectExecutor(new ConnectExecutor.Options(), metrics);
+        Results results = new Results();
+        assertNotNull(executor.submit(DEVICE, device(0), results));
+        Object outcome = results.outcomes.poll(2, TimeUnit.SECONDS);
+        assertTrue(outcome instanceof Connection);
+        assertTrue(((Connection) outcome).isConnected());
+        assertNull(executor.get(DEVICE));
+        assertEquals(1, metrics.snapshot().counter("connect.submitted"));
+    }
+
+    @Test
+    public void deadline_closesBlockedConnect() throws Exception {
+        executor = new ConnectExecutor(new ConnectExecutor.Options().deadlineMillis(100), metrics);
+        Results results = new Results();
+        executor.submit(DEVICE, device(60_000), results);
+        Object outcome = results.outcomes.poll(2, TimeUnit.SECONDS);
+        assertTrue(outcome instanceof SocketTimeoutException);
+        assertEquals("timeout", ConnectionManager.failureCause((IOException) outcome));
+        assertEquals(1, metrics.snapshot().counter("connect.timed_out"));
+    }
+
+    @Test
+    public void asTransport_connectsOnPoolAndCloseCancels() throws Exception {
+        executor = new ConnectExecutor(new ConnectExecutor.Options(), metrics);
+        Connection fast = executor.asTransport(device(0)).open(DEVICE);
+        fast.connect();
+        assertTrue(fast.isConnected());
+        assertNotNull(fast.getOutputStream());
+        fast.close();
+        assertEquals(1, metrics.snapshot().counter("connect.submitted"));
+
+        Connection slow = executor.asTransport(device(60_000)).open(DEVICE);
+        BlockingQueue<IOException> failure = new ArrayBlockingQueue<>(1);
+        Thread connector = new Thread(() -> {
+            try {
+                slow.connect();
+            } catch (IOException e) {
+                failure.add(e);
+            }
+        });
+        connector.start();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+        while (executor.getStats().inFlight == 0 && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        slow.close();
+        assertNotNull("关闭后 connect() 失败返回", failure.poll(2, TimeUnit.SECONDS));
+        assertFalse(slow.isConnected());
+        assertEquals(1, metrics.snapshot().counter("connect.cancelled"));
+    }
+
+    @Test
+    public void asTransport_andLinkConnectToSameDevice_doNotCancelEachOther() throws Exception {
+        executor = new ConnectExecutor(new ConnectExecutor.Options(), metrics);
+        Results link = new Results();
+        ConnectExecutor.Attempt linkAttempt = executor.submit(DEVICE, device(60_000), link);
+        Connection transfer = executor.asTransport(device(0)).open(DEVICE);
+        transfer.connect();
+        assertTrue(transfer.isConnected());
+        assertSame("文件传输的尝试不占用链路连接的登记", linkAttempt, executor.get(DEVICE));
+        assertFalse(linkAttempt.isCancelled());
+        assertNull(link.outcomes.poll());
+        assertEquals(0, metrics.snapshot().counter("connect.cancelled"));
+        transfer.close();
+    }
+
+    @Test
+    public void fullQueue_rejectsAndCancelFreesSlot() throws Exception {
+        executor = new ConnectExecutor(new ConnectExecutor.Options().maxThreads(1).queueCapacity(1), metrics);
+        PipeTransport slow = device(60_000);
+        Results results = new Results();
+        ConnectExecutor.Attempt running = executor.submit("AA:BB:CC:DD:EE:01", slow, results);
+        ConnectExecutor.Attempt queued = executor.submit("AA:BB:CC:DD:EE:02", slow, results);
+        assertNotNull(running);
+        assertNotNull(queued);
+        assertNull(executor.submit("AA:BB:CC:DD:EE:03", slow, results));
+        assertEquals(1, metrics.snapshot().counter("connect.rejected"));
+        assertEquals(1, executor.getStats().queued);
+
+        queued.cancel();
+        assertTrue(queued.isCancelled());
+        assertTrue(results.outcomes.poll(1, TimeUnit.SECONDS) instanceof IOException);
+        assertEquals(0, executor.getStats().queued);
+        assertNotNull(executor.submit("AA:BB:CC:DD:EE:03", slow, results));
+        assertEquals(1, executor.getStats().poolThreads);
+    }
+
+    @Test
+    public void connectCancelStorm_leavesNoThreadsOrAttempts() throws Exception {
+        int before = connectThreads();
+        executor = new ConnectExecutor(new ConnectExecutor.Options().maxThreads(4).queueCapacity(64)
+                .keepAliveMillis(50), metrics);
+        PipeTransport slow = device(60_000);
+        PipeTransport fast = device(0);
+        AtomicInteger callbacks = new AtomicInteger();
+        AtomicInteger connected = new AtomicInteger();
+        ConnectExecutor.Callback callback = new ConnectExecutor.Callback() {
+            @Override
+            public void onConnected(Connection connection) {
+                connected.incrementAndGet();
+                callbacks.incrementAndGet();
+                try {
+                    connection.close();
+                } catch (IOException ignored) {
+                }
+            }
+
+            @Override
+            public void onFailed(IOException cause) {
+                callbacks.incrementAndGet();
+            }
+        };
+        int accepted = 0;
+        for (int i = 0; i < 5000; i++) {
+            String address = MacAddress.format(0xAABBCCDD0000L + (i % 16));
+            ConnectExecutor.Attempt attempt = executor.submit(address, i % 3 == 0 ? fast : slow, callback);
+            if (attempt == null) {
+                continue;
+            }
+            accepted++;
+            if (i % 2 == 0) {
+                attempt.cancel();
+            }
+            assertTrue(executor.getStats().poolThreads <= 4);
+        }
+        for (int i = 0; i < 16; i++) {
+            executor.cancel(MacAddress.format(0xAABBCCDD0000L + i));
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (callbacks.get() < accepted && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals("每次接受的尝试恰好回调一次", accepted, callbacks.get());
+        assertEquals(0, executor.getStats().inFlight);
+        assertTrue(executor.getStats().largestPoolThreads <= 4);
+        assertEquals(accepted, metrics.snapshot().counter("connect.submitted"));
+
+        // 空闲线程在 keepAlive 后退出
+        deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+        while (executor.getStats().poolThreads > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, executor.getStats().poolThreads);
+        assertEquals(before, connectThreads());
+    }
+}
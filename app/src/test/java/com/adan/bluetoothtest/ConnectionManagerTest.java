@@ -0,0 +1,341 @@
+package com.adan.bluetoothtest;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.*;
+
+public class ConnectionManagerTest {
+
+    private static final int LINKS = 16;
+    private static final int MESSAGES_PER_LINK = 200;
+
+    /**
+     * 内存中的假连接：测试通过 feed() 写入“对端发来的”数据，读取端看到的写出内容在 written 中。
+     */
+    private static final class FakeConnection implements Connection {
+        private static final byte[] EOF = new byte[0];
+
+        final String address;
+        final LinkedBlockingQueue<byte[]> incoming = new LinkedBlockingQueue<>();
+        final ByteArrayOutputStream written = new ByteArrayOutputStream();
+        volatile boolean closed;
+
+        private final InputStream in = new InputStream() {
+            private byte[] current = new byte[0];
+            private int position;
+
+            @Override
+            public int read() throws IOException {
+                byte[] one = new byte[1];
+                return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                while (position == current.length) {
+                    try {
+                        current = incoming.take();
+                    } catch (InterruptedException e) {
+                        throw new IOException(e);
+                    }
+                    position = 0;
+                    if (current == EOF) {
+                        incoming.offer(EOF);
+                        throw new IOException("socket closed");
+                    }
+                }
+                int n = Math.min(len, current.length - position);
+                System.arraycopy(current, position, b, off, n);
+                position += n;
+                return n;
+            }
+        };
+
+        private final OutputStream out = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                if (closed) {
+                    throw new IOException("socket closed");
+                }
+                synchronized (written) {
+                    written.write(b, off, len);
+                }
+            }
+        };
+
+        FakeConnection(String address) {
+            this.address = address;
+        }
+
+        void feed(String text) {
+            incoming.offer(text.getBytes(StandardCharsets.UTF_8));
+        }
+
+        /**
+         * 模拟对端断开：读取线程随之抛出 IOException。
+         */
+        void drop() {
+            incoming.offer(EOF);
+        }
+
+        String writtenText() {
+            synchronized (written) {
+                return new String(written.toByteArray(), StandardCharsets.UTF_8);
+            }
+        }
+
+        @Override
+        public String getRemoteAddress() {
+            return address;
+        }
+
+        @Override
+        public void connect() {
+        }
+
+        @Override
+        public boolean isConnected() {
+            return !closed;
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return in;
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return out;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            incoming.offer(EOF);
+        }
+    }
+
+    /**
+     * 记录回调的监听器，按链路地址收集消息。
+     */
+    private static final class RecordingListener implements ConnectionManager.Listener {
+        final Map<Long, StringBuffer> messages = new ConcurrentHashMap<>();
+        final List<String> states = new CopyOnWriteArrayList<>();
+        final List<Long> lost = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void onStateChanged(DeviceLink link, LinkStateMachine.Snapshot snapshot) {
+            states.add(link.getAddressString() + "=" + snapshot.toConnectionState());
+        }
+
+        @Override
+        public void onMessage(DeviceLink link, String text) {
+            messages.computeIfAbsent(link.getAddress(), k -> new StringBuffer()).append(text);
+        }
+
+        @Override
+        public void onLinkLost(DeviceLink link, IOException cause) {
+            lost.add(link.getAddress());
+        }
+
+        String received(long address) {
+            StringBuffer buffer = messages.get(address);
+            return buffer != null ? buffer.toString() : "";
+        }
+    }
+
+    private final RecordingListener listener = new RecordingListener();
+    private ConnectionManager manager;
+
+    @After
+    public void tearDown() {
+        if (manager != null) {
+            manager.disconnectAll();
+        }
+    }
+
+    private ConnectionManager newManager(int maxLinks) {
+        manager = new ConnectionManager(new ConnectionManager.Config(maxLinks, new ReceiveBufferPool(),
+                DelimiterFrameDecoder::new, new ConnectionWriter.Options()), listener);
+        return manager;
+    }
+
+    private static String addressOf(int i) {
+        return String.format("00:11:22:33:%02X:%02X", i >> 8, i & 0xFF);
+    }
+
+    private static void awaitCondition(String what, BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("等待超时: " + what);
+            }
+            Thread.sleep(5);
+        }
+    }
+
+    @Test
+    public void reserve_enforcesCapAndOneLinkPerDevice() throws Exception {
+        newManager(2);
+        DeviceLink first = manager.reserve(MacAddress.pack(addressOf(1)), "A");
+        assertNotNull(first);
+        assertNull("同一设备不能有两条链路", manager.reserve(MacAddress.pack(addressOf(1)), "A"));
+        assertNotNull(manager.reserve(MacAddress.pack(addressOf(2)), "B"));
+        assertNull("超过上限", manager.reserve(MacAddress.pack(addressOf(3)), "C"));
+
+        manager.release(first);
+        assertEquals(1, manager.size());
+        assertNotNull("释放后可以再占位", manager.reserve(MacAddress.pack(addressOf(3)), "C"));
+        assertTrue(listener.states.contains(addressOf(1) + "=" + ConnectionState.STATE_NONE));
+    }
+
+    @Test
+    public void disconnect_leavesOtherLinksRunning() throws Exception {
+        newManager(4);
+        List<FakeConnection> connections = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            FakeConnection connection = new FakeConnection(addressOf(i));
+            DeviceLink link = manager.reserve(MacAddress.pack(connection.address), null);
+            manager.attach(link, connection);
+            connections.add(connection);
+        }
+        long middle = MacAddress.pack(addressOf(1));
+        assertTrue(manager.disconnect(middle));
+        assertNull(manager.get(middle));
+        assertTrue(connections.get(1).closed);
+        assertTrue("主动断开不算连接丢失", listener.lost.isEmpty());
+
+        connections.get(0).feed("still\n");
+        connections.get(2).feed("alive\n");
+        awaitCondition("其余链路继续收数据", () -> listener.received(MacAddress.pack(addressOf(0))).equals("still")
+                && listener.received(MacAddress.pack(addressOf(2))).equals("alive"));
+        assertTrue(manager.get(MacAddress.pack(addressOf(0))).send("x".getBytes(StandardCharsets.UTF_8)));
+        // 每条链路一个读取线程和一个发送线程
+        assertEquals(4, manager.liveThreadCount());
+        manager.disconnectAll();
+        awaitCondition("链路线程全部退出", () -> manager.liveThreadCount() == 0);
+    }
+
+    @Test
+    public void peerDrop_reportsLostOnlyForThatLink() throws Exception {
+        newManager(4);
+        FakeConnection a = new FakeConnection(addressOf(1));
+        FakeConnection b = new FakeConnection(addressOf(2));
+        manager.attach(manager.reserve(MacAddress.pack(a.address), "A"), a);
+        manager.attach(manager.reserve(MacAddress.pack(b.address), "B"), b);
+
+        a.drop();
+        awaitCondition("链路 A 报告丢失", () -> listener.lost.size() == 1);
+        assertEquals(MacAddress.pack(a.address), (long) listener.lost.get(0));
+        assertEquals(1, manager.size());
+        assertTrue(manager.get(MacAddress.pack(b.address)).isConnected());
+    }
+
+    @Test
+    public void attachAfterDisconnect_closesConnection() throws Exception {
+        newManager(2);
+        DeviceLink link = manager.reserve(MacAddress.pack(addressOf(1)), "A");
+        manager.disconnect(link.getAddress());
+        FakeConnection connection = new FakeConnection(addressOf(1));
+        try {
+            manager.attach(link, connection);
+            fail("已断开的链路不应启动");
+        } catch (IOException expected) {
+            // 连接过程中用户点了断开
+        }
+        assertTrue(connection.closed);
+        assertEquals(0, manager.size());
+    }
+
+    /**
+     * 16 条链路同时双向收发，每条链路的消息只能交给自己的监听回调，且顺序不变。
+     */
+    @Test
+    public void sixteenLinks_routeMessagesPerDevice() throws Exception {
+        newManager(LINKS);
+        List<FakeConnection> connections = new ArrayList<>();
+        for (int i = 0; i < LINKS; i++) {
+            FakeConnection connection = new FakeConnection(addressOf(i));
+            DeviceLink link = manager.reserve(MacAddress.pack(connection.address), "sensor-" + i);
+            assertNotNull(link);
+            manager.attach(link, connection);
+            connections.add(connection);
+        }
+        assertNull("已达上限", manager.reserve(MacAddress.pack(addressOf(LINKS)), "extra"));
+        assertEquals(LINKS, manager.size());
+
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> peers = new ArrayList<>();
+        for (int i = 0; i < LINKS; i++) {
+            final FakeConnection connection = connections.get(i);
+            final DeviceLink link = manager.get(MacAddress.pack(connection.address));
+            final int id = i;
+            Thread peer = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int m = 0; m < MESSAGES_PER_LINK; m++) {
+                    connection.feed(id + ":" + m + "\n");
+                    link.send((id + "<" + m + ";").getBytes(StandardCharsets.UTF_8));
+                }
+            }, "peer-" + i);
+            peers.add(peer);
+            peer.start();
+        }
+        start.countDown();
+        for (Thread peer : peers) {
+            peer.join(10_000);
+        }
+
+        for (int i = 0; i < LINKS; i++) {
+            final long address = MacAddress.pack(addressOf(i));
+            final FakeConnection connection = connections.get(i);
+            StringBuilder expectedIn = new StringBuilder();
+            StringBuilder expectedOut = new StringBuilder();
+            for (int m = 0; m < MESSAGES_PER_LINK; m++) {
+                expectedIn.append(i).append(':').append(m);
+                expectedOut.append(i).append('<').append(m).append(';');
+            }
+            final String in = expectedIn.toString();
+            final String out = expectedOut.toString();
+            awaitCondition("链路 " + i + " 收完", () -> listener.received(address).length() >= in.length());
+            awaitCondition("链路 " + i + " 发完", () -> connection.writtenText().length() >= out.length());
+            assertEquals(in, listener.received(address));
+            assertEquals(out, connection.writtenText());
+        }
+        assertTrue(listener.lost.isEmpty());
+
+        manager.disconnectAll();
+        assertEquals(0, manager.size());
+        for (FakeConnection connection : connections) {
+            assertTrue(connection.closed);
+        }
+        for (int i = 0; i < LINKS; i++) {
+            assertTrue(listener.states.contains(addressOf(i) + "=" + ConnectionState.STATE_NONE));
+        }
+        assertNotNull(manager.reserve(MacAddress.pack(addressOf(0)), "again"));
+        assertTrue(listener.lost.isEmpty());
+    }
+}
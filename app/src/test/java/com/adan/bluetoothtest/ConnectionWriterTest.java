@@ -0,0 +1,189 @@
+package com.adan.bluetoothtest;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ConnectionWriterTest {
+
+    /**
+     * 记录每次 write 调用的输出流，可以在 gate 打开前阻塞写入。
+     */
+    private static final class RecordingStream extends OutputStream {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final AtomicInteger writes = new AtomicInteger();
+        final CountDownLatch gate;
+
+        RecordingStream(boolean blocked) {
+            gate = new CountDownLatch(blocked ? 1 : 0);
+        }
+
+        @Override
+        public void write(int b) {
+            throw new UnsupportedOperationException("单字节写入不应出现");
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) throws IOException {
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+            bytes.write(b, off, len);
+            writes.incrementAndGet();
+        }
+
+        synchronized String text() {
+            return new String(bytes.toByteArray(), StandardCharsets.US_ASCII);
+        }
+    }
+
+    private static void awaitBytes(RecordingStream stream, int expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (stream.text().length() < expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+    }
+
+    @Test
+    public void batched_coalescesSmallWrites() throws InterruptedException {
+        RecordingStream stream = new RecordingStream(false);
+        ConnectionWriter writer = new ConnectionWriter(stream, new ConnectionWriter.Options()
+                .flushPolicy(ConnectionWriter.FlushPolicy.BATCHED).lingerMillis(200), "test", e -> fail(e.toString()));
+        writer.start();
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            String msg = "msg" + i + ";";
+            expected.append(msg);
+            assertTrue(writer.send(msg.getBytes(StandardCharsets.US_ASCII)));
+        }
+        awaitBytes(stream, expected.length());
+        writer.close();
+
+        assertEquals(expected.toString(), stream.text());
+        assertTrue("socket writes: " + stream.writes.get(), stream.writes.get() <= 3);
+        ConnectionWriter.Stats stats = writer.getStats();
+        assertEquals(100, stats.messagesWritten);
+        assertEquals(expected.length(), stats.bytesWritten);
+        assertEquals(0, stats.queuedBytes);
+    }
+
+    @Test
+    public void immediate_writesWithoutWaiting() throws InterruptedException {
+        RecordingStream stream = new RecordingStream(false);
+        ConnectionWriter writer = new ConnectionWriter(stream, new ConnectionWriter.Options()
+                .flushPolicy(ConnectionWriter.FlushPolicy.IMMEDIATE), "test", e -> fail(e.toString()));
+        writer.start();
+        long start = System.nanoTime();
+        writer.send("ping".getBytes(StandardCharsets.US_ASCII));
+        awaitBytes(stream, 4);
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        writer.close();
+        assertEquals("ping", stream.text());
+        assertTrue("took " + elapsedMillis + "ms", elapsedMillis < 1000);
+    }
+
+    @Test
+    public void largeMessages_bypassBatchBuffer() throws InterruptedException {
+        RecordingStream stream = new RecordingStream(false);
+        ConnectionWriter writer = new ConnectionWriter(stream, new ConnectionWriter.Options().maxBatchBytes(8),
+                "test", e -> fail(e.toString()));
+        writer.start();
+        writer.send("ab".getBytes(StandardCharsets.US_ASCII));
+        writer.send("0123456789".getBytes(StandardCharsets.US_ASCII));
+        writer.send("cd".getBytes(StandardCharsets.US_ASCII));
+        awaitBytes(stream, 14);
+        writer.close();
+        assertEquals("ab0123456789cd", stream.text());
+    }
+
+    @Test
+    public void reject_whenQueueFull() throws InterruptedException {
+        RecordingStream stream = new RecordingStream(true);
+        ConnectionWriter writer = new ConnectionWriter(stream, new ConnectionWriter.Options()
+                .queueCapacity(4).overflowPolicy(ConnectionWriter.OverflowPolicy.REJECT), "test", e -> { });
+        writer.start();
+        int accepted = 0;
+        for (int i = 0; i < 20; i++) {
+            if (writer.send(new byte[]{(byte) i})) {
+                accepted++;
+            }
+        }
+        // 发送线程最多取走一条阻塞在 write 上，其余受队列容量限制
+        assertTrue("accepted " + accepted, accepted <= 5);
+        assertEquals(20 - accepted, writer.getStats().rejected);
+        stream.gate.countDown();
+        writer.close();
+    }
+
+    @Test
+    public void block_timesOutAndPreservesPending() throws InterruptedException {
+        RecordingStream stream = new RecordingStream(true);
+        ConnectionWriter writer = new ConnectionWriter(stream, new ConnectionWriter.Options()
+                .queueCapacity(2).overflowPolicy(ConnectionWriter.OverflowPolicy.BLOCK).blockTimeoutMillis(50),
+                "test", e -> { });
+        writer.start();
+        writer.send(new byte[]{0});
+        Thread.sleep(50);
+        assertTrue(writer.send(new byte[]{1}));
+        assertTrue(writer.send(new byte[]{2}));
+        long start = System.nanoTime();
+        assertFalse(writer.send(new byte[]{3}));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(40));
+        assertEquals(2, writer.getQueueDepth());
+
+        writer.close();
+        assertTrue(writer.awaitTermination(1000));
+        List<byte[]> pending = new ArrayList<>();
+        // 阻塞在 write 上未写完的那条排在队列剩余消息之前
+        assertEquals(3, writer.drainPending(pending));
+        assertEquals(0, pending.get(0)[0]);
+        assertEquals(1, pending.get(1)[0]);
+    }
+
+    @Test
+    public void writeFailure_isReported() throws InterruptedException {
+        CountDownLatch failed = new CountDownLatch(1);
+        OutputStream broken = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("broken pipe");
+            }
+        };
+        ConnectionWriter writer = new ConnectionWriter(broken, new ConnectionWriter.Options(), "test", e -> failed.countDown());
+        writer.start();
+        writer.send(new byte[]{1});
+        assertTrue(failed.await(2, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void writeTimeout_isReportedAsFailure() throws InterruptedException {
+        BlockingQueue<IOException> failures = new LinkedBlockingQueue<>();
+        OutputStream stalled = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new SocketTimeoutException("write timed out");
+            }
+        };
+        ConnectionWriter writer = new ConnectionWriter(stalled, new ConnectionWriter.Options(), "test", failures::add);
+        writer.start();
+        writer.send(new byte[]{1});
+        IOException failure = failures.poll(2, TimeUnit.SECONDS);
+        assertTrue("超时不能当作 close() 静默退出", failure instanceof SocketTimeoutException);
+    }
+}
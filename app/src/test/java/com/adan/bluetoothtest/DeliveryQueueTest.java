@@ -0,0 +1,126 @@
+package com.adan.bluetoothtest;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+public class DeliveryQueueTest {
+
+    private final MetricsRegistry metrics = new MetricsRegistry();
+    private final List<Runnable> flushRequests = new ArrayList<>();
+    private final List<List<Integer>> batches = new ArrayList<>();
+
+    private DeliveryQueue<Integer> create(DeliveryQueue.Options options) {
+        return new DeliveryQueue<>(options, flush -> {
+            synchronized (flushRequests) {
+                flushRequests.add(flush);
+            }
+        }, batch -> batches.add(new ArrayList<>(batch)), metrics);
+    }
+
+    private void runRequestedFlushes() {
+        while (true) {
+            Runnable next;
+            synchronized (flushRequests) {
+                if (flushRequests.isEmpty()) {
+                    return;
+                }
+                next = flushRequests.remove(0);
+            }
+            next.run();
+        }
+    }
+
+    @Test
+    public void manyOffers_areDeliveredInBatchesWithOneFlushRequest() {
+        DeliveryQueue<Integer> queue = create(new DeliveryQueue.Options().capacity(100).maxBatch(4));
+        for (int i = 0; i < 10; i++) {
+            assertTrue(queue.offer(i));
+        }
+        assertEquals(1, flushRequests.size());
+        runRequestedFlushes();
+        assertEquals(Arrays.asList(Arrays.asList(0, 1, 2, 3), Arrays.asList(4, 5, 6, 7), Arrays.asList(8, 9)), batches);
+        MetricsRegistry.Snapshot snapshot = metrics.snapshot();
+        assertEquals(10, snapshot.counter("ui.delivered"));
+        assertEquals(3, snapshot.histograms.get("ui.batch_size").count);
+        assertEquals(0, snapshot.counter("ui.dropped"));
+    }
+
+    @Test
+    public void dropOldest_keepsMostRecent() {
+        DeliveryQueue<Integer> queue = create(new DeliveryQueue.Options().capacity(3)
+                .overflowPolicy(DeliveryQueue.OverflowPolicy.DROP_OLDEST));
+        for (int i = 0; i < 6; i++) {
+            assertTrue(queue.offer(i));
+        }
+        runRequestedFlushes();
+        assertEquals(Arrays.asList(Arrays.asList(3, 4, 5)), batches);
+        assertEquals(3, metrics.snapshot().counter("ui.dropped"));
+    }
+
+    @Test
+    public void sampleLatest_overwritesTail() {
+        DeliveryQueue<Integer> queue = create(new DeliveryQueue.Options().capacity(3)
+                .overflowPolicy(DeliveryQueue.OverflowPolicy.SAMPLE_LATEST));
+        for (int i = 0; i < 6; i++) {
+            assertTrue(queue.offer(i));
+        }
+        runRequestedFlushes();
+        assertEquals("保留开头和最新的一条", Arrays.asList(Arrays.asList(0, 1, 5)), batches);
+        assertEquals(3, metrics.snapshot().counter("ui.dropped"));
+    }
+
+    @Test
+    public void block_waitsForFlushThenTimesOut() throws Exception {
+        DeliveryQueue<Integer> queue = create(new DeliveryQueue.Options().capacity(2)
+                .overflowPolicy(DeliveryQueue.OverflowPolicy.BLOCK).blockTimeoutMillis(5000));
+        queue.offer(0);
+        queue.offer(1);
+        CountDownLatch offered = new CountDownLatch(1);
+        AtomicBoolean accepted = new AtomicBoolean();
+        Thread reader = new Thread(() -> {
+            accepted.set(queue.offer(2));
+            offered.countDown();
+        });
+        reader.start();
+        assertFalse("队列满时读取线程等待", offered.await(100, TimeUnit.MILLISECONDS));
+        runRequestedFlushes();
+        assertTrue(offered.await(2, TimeUnit.SECONDS));
+        assertTrue(accepted.get());
+        runRequestedFlushes();
+        assertEquals(Arrays.asList(Arrays.asList(0, 1), Arrays.asList(2)), batches);
+
+        DeliveryQueue<Integer> stalled = create(new DeliveryQueue.Options().capacity(1)
+                .overflowPolicy(DeliveryQueue.OverflowPolicy.BLOCK).blockTimeoutMillis(50));
+        stalled.offer(0);
+        assertFalse("界面一直不取时超时丢弃", stalled.offer(1));
+        assertEquals(1, metrics.snapshot().counter("ui.dropped"));
+    }
+
+    @Test
+    public void close_releasesBlockedReader() throws Exception {
+        DeliveryQueue<Integer> queue = create(new DeliveryQueue.Options().capacity(1)
+                .overflowPolicy(DeliveryQueue.OverflowPolicy.BLOCK).blockTimeoutMillis(60_000));
+        queue.offer(0);
+        CountDownLatch offered = new CountDownLatch(1);
+        Thread reader = new Thread(() -> {
+            queue.offer(1);
+            offered.countDown();
+        });
+        reader.start();
+        Thread.sleep(50);
+        queue.close();
+        assertTrue(offered.await(2, TimeUnit.SECONDS));
+        assertFalse(queue.offer(2));
+        assertEquals(0, queue.size());
+        runRequestedFlushes();
+        assertTrue(batches.isEmpty());
+    }
+}
@@ -0,0 +1,125 @@
+package com.adan.bluetoothtest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class DeviceCacheTest {
+
+    private static final long A = MacAddress.pack("00:11:22:33:44:55");
+    private static final long B = MacAddress.pack("AA:BB:CC:DD:EE:FF");
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("device_cache", ".bin");
+        file.delete();
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void roundTrip_keepsAllFields() throws IOException {
+        DeviceCache cache = new DeviceCache(file);
+        cache.save(Arrays.asList(
+                new DeviceCache.Entry(A, "心率带", 1_700_000_000_000L, (short) -61, true, 5, 2),
+                new DeviceCache.Entry(B, null, 42L, (short) DeviceSighting.RSSI_UNKNOWN, false, 0, 1)));
+
+        List<DeviceCache.Entry> entries = cache.load();
+        assertEquals(2, entries.size());
+        DeviceCache.Entry a = entries.get(0);
+        assertEquals(A, a.address);
+        assertEquals("心率带", a.name);
+        assertEquals(1_700_000_000_000L, a.lastSeenMillis);
+        assertEquals(-61, a.rssi);
+        assertTrue(a.paired);
+        assertEquals(5, a.connectSuccesses);
+        assertEquals(2, a.connectFailures);
+        DeviceCache.Entry b = entries.get(1);
+        assertNull(b.name);
+        assertFalse(b.paired);
+        assertEquals(DeviceSighting.RSSI_UNKNOWN, b.rssi);
+        assertEquals(DeviceCache.HEADER_SIZE + 2 * DeviceCache.RECORD_FIXED_SIZE + "心率带".getBytes("UTF-8").length,
+                file.length());
+    }
+
+    @Test
+    public void missingOrCorruptFile_loadsEmpty() throws IOException {
+        DeviceCache cache = new DeviceCache(file);
+        assertTrue(cache.load().isEmpty());
+
+        cache.save(Arrays.asList(new DeviceCache.Entry(A, "x", 1, (short) 0, false, 0, 0)));
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(DeviceCache.HEADER_SIZE + 3);
+            raf.write(0x7F);
+        }
+        assertTrue("校验失败时丢弃", cache.load().isEmpty());
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(DeviceCache.HEADER_SIZE - 1);
+        }
+        assertTrue(cache.load().isEmpty());
+    }
+
+    @Test
+    public void otherVersion_isIgnored() {
+        ByteBuffer encoded = DeviceCache.encode(Arrays.asList(new DeviceCache.Entry(A, "x", 1, (short) 0, false, 0, 0)));
+        encoded.putShort(4, (short) (DeviceCache.VERSION + 1));
+        assertTrue(DeviceCache.parse(encoded).isEmpty());
+    }
+
+    @Test
+    public void longNames_areTruncatedOnCharacterBoundary() {
+        StringBuilder name = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            name.append('设');
+        }
+        byte[] truncated = DeviceCache.truncateUtf8(name.toString());
+        // 每个字 3 字节，255 字节正好 85 个字
+        assertEquals(255, truncated.length);
+        truncated = DeviceCache.truncateUtf8("a" + name);
+        assertEquals(253, truncated.length);
+        List<DeviceCache.Entry> entries = DeviceCache.parse(DeviceCache.encode(Arrays.asList(
+                new DeviceCache.Entry(A, "a" + name, 0, (short) 0, false, 0, 0))));
+        assertEquals(85, entries.get(0).name.length());
+    }
+
+    @Test
+    public void registry_restoresCacheAndReconcilesWithLiveData() {
+        DeviceRegistry registry = new DeviceRegistry();
+        registry.putDiscovered(B, "live-name");
+        boolean changed = registry.restore(Arrays.asList(
+                new DeviceCache.Entry(A, "cached-paired", 10, (short) -50, true, 3, 0),
+                new DeviceCache.Entry(B, "cached-name", 20, (short) -70, false, 1, 1)));
+        assertTrue(changed);
+        assertEquals("实时数据优先", "live-name", registry.get(B).getName());
+        assertEquals(DeviceRecord.Section.PAIRED, registry.get(A).getSection());
+        assertEquals(3, registry.get(A).getConnectSuccesses());
+
+        // 实际配对列表中已没有 A：重建已配对分区后移除
+        registry.beginPairedUpdate();
+        registry.endPairedUpdate();
+        assertNull(registry.get(A));
+
+        registry.recordSighting(B, -40, 100);
+        registry.recordConnectResult(B, false, 200);
+        List<DeviceCache.Entry> entries = registry.toCacheEntries();
+        assertEquals(1, entries.size());
+        assertEquals(-40, entries.get(0).rssi);
+        assertEquals(100, entries.get(0).lastSeenMillis);
+        assertEquals(1, entries.get(0).connectFailures);
+    }
+}
@@ -0,0 +1,138 @@
+package com.adan.bluetoothtest;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class DeviceListDiffTest {
+
+    /**
+     * 按差分结果把旧列表逐步改成新列表，同时记录操作次数。
+     */
+    private static final class ApplyingCallback implements DeviceListDiff.Callback {
+        final List<DeviceRow> rows;
+        final List<DeviceRow> target;
+        int inserted;
+        int removed;
+        int changed;
+
+        ApplyingCallback(List<DeviceRow> from, List<DeviceRow> target) {
+            this.rows = new ArrayList<>(from);
+            this.target = target;
+        }
+
+        @Override
+        public void onInserted(int position, int count) {
+            inserted++;
+            for (int i = 0; i < count; i++) {
+                rows.add(position + i, target.get(position + i));
+            }
+        }
+
+        @Override
+        public void onRemoved(int position, int count) {
+            removed++;
+            rows.subList(position, position + count).clear();
+        }
+
+        @Override
+        public void onChanged(int position, int count) {
+            changed++;
+            for (int i = 0; i < count; i++) {
+                assertEquals(target.get(position + i).getKey(), rows.get(position + i).getKey());
+                rows.set(position + i, target.get(position + i));
+            }
+        }
+    }
+
+    private static DeviceRegistry registryWith(int paired, int discovered) {
+        DeviceRegistry registry = new DeviceRegistry();
+        registry.beginPairedUpdate();
+        for (int i = 0; i < paired; i++) {
+            registry.putPaired(i, "Paired-" + i, 12);
+        }
+        registry.endPairedUpdate();
+        for (int i = 0; i < discovered; i++) {
+            registry.putDiscovered(0x100000L + i, "Found-" + i);
+        }
+        return registry;
+    }
+
+    private static ApplyingCallback diffAndApply(List<DeviceRow> oldRows, List<DeviceRow> newRows) {
+        ApplyingCallback callback = new ApplyingCallback(oldRows, newRows);
+        DeviceListDiff.calculate(oldRows, newRows).dispatchTo(callback);
+        assertEquals(newRows, callback.rows);
+        return callback;
+    }
+
+    @Test
+    public void identicalLists_produceNoOperations() {
+        List<DeviceRow> rows = registryWith(5, 5).snapshot();
+        assertTrue(DeviceListDiff.calculate(rows, rows).isEmpty());
+    }
+
+    @Test
+    public void singleStatusChange_isSingleRowUpdate() {
+        DeviceRegistry registry = registryWith(250, 300);
+        List<DeviceRow> before = registry.snapshot();
+        registry.setConnectionState(42, ConnectionState.STATE_CONNECTED);
+        List<DeviceRow> after = registry.snapshot();
+
+        DeviceListDiff.Result result = DeviceListDiff.calculate(before, after);
+        assertEquals(1, result.operationCount());
+        ApplyingCallback callback = diffAndApply(before, after);
+        assertEquals(1, callback.changed);
+        assertEquals(0, callback.inserted + callback.removed);
+    }
+
+    @Test
+    public void discoveredDevice_isSingleInsert() {
+        DeviceRegistry registry = registryWith(3, 10);
+        List<DeviceRow> before = registry.snapshot();
+        registry.putDiscovered(0xABCDEFL, "Late");
+        ApplyingCallback callback = diffAndApply(before, registry.snapshot());
+        assertEquals(1, callback.inserted);
+        assertEquals(0, callback.removed + callback.changed);
+    }
+
+    @Test
+    public void placeholderReplacedByFirstDevice() {
+        DeviceRegistry registry = new DeviceRegistry();
+        registry.showNewSection();
+        List<DeviceRow> before = registry.snapshot();
+        registry.putDiscovered(7, "First");
+        diffAndApply(before, registry.snapshot());
+    }
+
+    @Test
+    public void randomEdits_transformOldIntoNew() {
+        Random random = new Random(1234);
+        for (int round = 0; round < 500; round++) {
+            List<DeviceRow> oldRows = randomRows(random);
+            List<DeviceRow> newRows = randomRows(random);
+            diffAndApply(oldRows, newRows);
+        }
+    }
+
+    private static List<DeviceRow> randomRows(Random random) {
+        ArrayList<Long> keys = new ArrayList<>();
+        for (long k = 0; k < 40; k++) {
+            if (random.nextInt(3) > 0) {
+                keys.add(k);
+            }
+        }
+        if (random.nextBoolean()) {
+            Collections.shuffle(keys, random);
+        }
+        ArrayList<DeviceRow> rows = new ArrayList<>();
+        for (long key : keys) {
+            rows.add(new DeviceRow(DeviceRow.TYPE_DEVICE, key, "row-" + key + (random.nextInt(4) == 0 ? "*" : "")));
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,85 @@
+package com.adan.bluetoothtest;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class DeviceRegistryTest {
+    private static final long A = MacAddress.pack("00:11:22:33:44:55");
+    private static final long B = MacAddress.pack("AA:BB:CC:DD:EE:FF");
+
+    @Test
+    public void macAddress_roundTrip() {
+        assertEquals(0x001122334455L, A);
+        assertEquals("AA:BB:CC:DD:EE:FF", MacAddress.format(B));
+        assertEquals("0A:0B:0C:0D:0E:0F", MacAddress.format(MacAddress.pack("0a:0b:0c:0d:0e:0f")));
+        assertFalse(MacAddress.isValid("00-11-22-33-44-55"));
+    }
+
+    @Test
+    public void emptyRegistry_showsPairedPlaceholder() {
+        DeviceRegistry registry = new DeviceRegistry();
+        List<DeviceRow> rows = registry.snapshot();
+        assertEquals(2, rows.size());
+        assertEquals(DeviceRegistry.HEADER_PAIRED, rows.get(0).getText());
+        assertEquals(DeviceRegistry.EMPTY_PAIRED, rows.get(1).getText());
+        assertFalse(rows.get(1).isDevice());
+        assertEquals(0, registry.deviceCount());
+    }
+
+    @Test
+    public void putDiscovered_dedupsByAddress() {
+        DeviceRegistry registry = new DeviceRegistry();
+        assertTrue(registry.putDiscovered(A, null));
+        assertFalse(registry.putDiscovered(A, null));
+        assertTrue(registry.putDiscovered(A, "Sensor"));
+        assertFalse(registry.putDiscovered(A, "Sensor"));
+
+        List<DeviceRow> rows = registry.snapshot();
+        assertEquals(1, registry.deviceCount());
+        assertEquals(4, rows.size());
+        assertEquals(DeviceRegistry.HEADER_NEW, rows.get(2).getText());
+        assertEquals("Sensor\n00:11:22:33:44:55", rows.get(3).getText());
+        assertEquals(A, rows.get(3).getKey());
+    }
+
+    @Test
+    public void pairedUpdate_movesBondedAndDropsUnbonded() {
+        DeviceRegistry registry = new DeviceRegistry();
+        registry.putDiscovered(A, "Sensor");
+        registry.beginPairedUpdate();
+        registry.putPaired(A, "Sensor", 12);
+        registry.putPaired(B, null, 12);
+        registry.endPairedUpdate();
+        registry.setConnectionState(B, ConnectionState.STATE_CONNECTED);
+
+        List<DeviceRow> rows = registry.snapshot();
+        assertEquals(DeviceRecord.Section.PAIRED, registry.get(A).getSection());
+        assertEquals("Sensor (未连接)\n00:11:22:33:44:55", rows.get(1).getText());
+        assertEquals("未知设备 (已连接)\nAA:BB:CC:DD:EE:FF", rows.get(2).getText());
+        assertEquals(DeviceRegistry.EMPTY_NEW, rows.get(4).getText());
+
+        registry.beginPairedUpdate();
+        registry.putPaired(B, null, 12);
+        registry.endPairedUpdate();
+        assertNull(registry.get(A));
+        assertTrue(registry.get(B).isConnected());
+        assertEquals(1, registry.deviceCount());
+    }
+
+    @Test
+    public void snapshot_reusesUnchangedRows() {
+        DeviceRegistry registry = new DeviceRegistry();
+        registry.putDiscovered(A, "Sensor");
+        registry.putDiscovered(B, "Other");
+        List<DeviceRow> before = registry.snapshot();
+        registry.updateName(B, "Renamed");
+        List<DeviceRow> after = registry.snapshot();
+
+        assertSame(before.get(3), after.get(3));
+        assertNotSame(before.get(4), after.get(4));
+        assertEquals("Renamed\nAA:BB:CC:DD:EE:FF", after.get(4).getText());
+    }
+}
@@ -0,0 +1,90 @@
+package com.adan.bluetoothtest;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class DiscoveryBatcherTest {
+
+    /**
+     * 记录刷新请求，由测试手动“执行下一帧”。
+     */
+    private static final class ManualScheduler implements DiscoveryBatcher.FlushScheduler {
+        final List<Runnable> requests = new ArrayList<>();
+
+        @Override
+        public void requestFlush(Runnable flush) {
+            requests.add(flush);
+        }
+
+        void runFrame() {
+            List<Runnable> due = new ArrayList<>(requests);
+            requests.clear();
+            for (Runnable r : due) {
+                r.run();
+            }
+        }
+    }
+
+    private final ManualScheduler scheduler = new ManualScheduler();
+    private final List<List<DeviceSighting>> batches = new ArrayList<>();
+    private final List<Integer> batchCounts = new ArrayList<>();
+    private final DiscoveryBatcher batcher = new DiscoveryBatcher(scheduler, sightings -> {
+        batches.add(new ArrayList<>(sightings));
+        int total = 0;
+        for (DeviceSighting s : sightings) {
+            total += s.getCount();
+        }
+        batchCounts.add(total);
+    });
+
+    @Test
+    public void burst_isCoalescedIntoOneFlush() {
+        for (int i = 0; i < 100; i++) {
+            batcher.offer(i % 10, i < 10 ? null : "Dev-" + (i % 10), -40 - i, i);
+        }
+        assertEquals(1, scheduler.requests.size());
+        assertTrue(batches.isEmpty());
+
+        scheduler.runFrame();
+
+        assertEquals(1, batches.size());
+        List<DeviceSighting> batch = batches.get(0);
+        assertEquals(10, batch.size());
+        assertEquals(0, batch.get(0).getAddress());
+        assertEquals("Dev-3", batch.get(3).getName());
+        assertEquals(-40 - 93, batch.get(3).getRssi());
+        assertEquals(Integer.valueOf(100), batchCounts.get(0));
+
+        assertEquals(100, batcher.getEventsReceived());
+        assertEquals(90, batcher.getSightingsMerged());
+        assertEquals(1, batcher.getFlushesPerformed());
+    }
+
+    @Test
+    public void eventsAfterFlush_startNewBatch() {
+        batcher.offer(1, "A", -50, 0);
+        scheduler.runFrame();
+        batcher.offer(1, null, DeviceSighting.RSSI_UNKNOWN, 1);
+        assertEquals(1, scheduler.requests.size());
+        scheduler.runFrame();
+
+        assertEquals(2, batches.size());
+        DeviceSighting second = batches.get(1).get(0);
+        assertNull(second.getName());
+        assertEquals(DeviceSighting.RSSI_UNKNOWN, second.getRssi());
+        assertEquals(2, batcher.getFlushesPerformed());
+    }
+
+    @Test
+    public void explicitFlush_drainsAndSkipsEmptyFrame() {
+        batcher.offer(5, "X", -60, 0);
+        batcher.flush();
+        scheduler.runFrame();
+        assertEquals(1, batches.size());
+        assertEquals(1, batcher.getFlushesPerformed());
+    }
+}
@@ -0,0 +1,335 @@
+package com.adan.bluetoothtest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class FileTransferTest {
+
+    private static final String DEVICE = "AA:BB:CC:DD:EE:22";
+
+    private final MetricsRegistry metrics = new MetricsRegistry();
+    private File sourceDir;
+    private File receiveDir;
+
+    @Before
+    public void setUp() throws IOException {
+        sourceDir = Files.createTempDirectory("transfer-src").toFile();
+        receiveDir = Files.createTempDirectory("transfer-dst").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        for (File dir : new File[]{sourceDir, receiveDir}) {
+            File[] files = dir.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            dir.delete();
+        }
+    }
+
+    private File createFile(String name, int length) throws IOException {
+        byte[] data = new byte[length];
+        new Random(length).nextBytes(data);
+        File file = new File(sourceDir, name);
+        Files.write(file.toPath(), data);
+        return file;
+    }
+
+    private void assertSameContent(File expected, File actual) throws IOException {
+        assertArrayEquals(Files.readAllBytes(expected.toPath()), Files.readAllBytes(actual.toPath()));
+    }
+
+    /**
+     * 模拟设备：每个接入的连接上运行一次接收，结果或异常依次记录。
+     */
+    private void listenReceiver(PipeTransport transport, FileTransferReceiver receiver,
+                                List<Object> outcomes) {
+        transport.listen(DEVICE, connection -> {
+            Thread thread = new Thread(() -> {
+                try {
+                    outcomes.add(receiver.receive(connection, null));
+                } catch (IOException e) {
+                    outcomes.add(e);
+                } finally {
+                    try {
+                        connection.close();
+                    } catch (IOException ignored) {
+                        // 已关闭
+                    }
+                }
+            }, "receiver-" + DEVICE);
+            thread.setDaemon(true);
+            thread.start();
+        });
+    }
+
+    private static void awaitOutcomes(List<Object> outcomes, int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (outcomes.size() < count && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(count, outcomes.size());
+    }
+
+    private FileTransferSender.Result sendOverPipe(PipeTransport.Options pipeOptions, File file,
+                                                   FileTransferSender.Options senderOptions) throws Exception {
+        PipeTransport transport = new PipeTransport(pipeOptions);
+        List<Object> outcomes = new CopyOnWriteArrayList<>();
+        listenReceiver(transport, new FileTransferReceiver(receiveDir, new FileTransferReceiver.Options(), metrics),
+                outcomes);
+        FileTransferSender.Result result = new FileTransferSender(senderOptions, metrics)
+                .sendWithResume(transport, DEVICE, file, new ReconnectPolicy().maxAttempts(1), null);
+        awaitOutcomes(outcomes, 1);
+        assertTrue(String.valueOf(outcomes.get(0)), outcomes.get(0) instanceof FileTransferReceiver.Result);
+        assertSameContent(file, new File(receiveDir, file.getName()));
+        return result;
+    }
+
+    @Test
+    public void loopback_transfersFileAndReportsThroughput() throws Exception {
+        File file = createFile("firmware.bin", 8 * 1024 * 1024 + 123);
+        FileTransferSender.Result result = sendOverPipe(new PipeTransport.Options(), file,
+                new FileTransferSender.Options().chunkBytes(16 * 1024).windowChunks(16));
+        assertEquals(file.length(), result.totalBytes);
+        assertEquals(file.length(), result.sentBytes);
+        assertEquals(0, result.retransmittedBytes);
+        assertEquals(file.length(), metrics.snapshot().counter("transfer.received_bytes"));
+        assertTrue(result.throughputBytesPerSecond() > 0);
+    }
+
+    @Test
+    public void slidingWindow_keepsSlowLinkBusy() throws Exception {
+        // 1 MB/s、单向 10 ms 延迟：每块停等需要一个往返（约 170 KB/s），窗口打开后吞吐接近带宽（约 800 KB/s）。
+        // 只断言两倍，给慢机器留余量
+        PipeTransport.Options link = new PipeTransport.Options().bytesPerSecond(1024 * 1024).latencyMillis(10);
+        File file = createFile("config.bin", 256 * 1024);
+        double stopAndWait = sendOverPipe(link, file,
+                new FileTransferSender.Options().chunkBytes(4096).windowChunks(1)).throughputBytesPerSecond();
+        double windowed = sendOverPipe(link, file,
+                new FileTransferSender.Options().chunkBytes(4096).windowChunks(16)).throughputBytesPerSecond();
+        assertTrue("window=16 " + windowed + " B/s, window=1 " + stopAndWait + " B/s", windowed > 2 * stopAndWait);
+    }
+
+    @Test
+    public void emptyFile_completesImmediately() throws Exception {
+        File file = createFile("empty.txt", 0);
+        FileTransferSender.Result result = sendOverPipe(new PipeTransport.Options(), file,
+                new FileTransferSender.Options());
+        assertEquals(0, result.totalBytes);
+        assertEquals(0, result.sentBytes);
+    }
+
+    @Test
+    public void corruptedChunk_isNakedAndRetransmitted() throws Exception {
+        File file = createFile("image.bin", 100 * 1024);
+        Connection[] pair = new PipeTransport().pair(DEVICE);
+        // 第 3 个 DATA 帧的数据被改坏一个字节
+        AtomicInteger dataFrames = new AtomicInteger();
+        Connection sender = new WrappedConnection(pair[0], new ConnectionOutput(pair[0]) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                if (len > FileTransfer.DATA_HEADER_SIZE && b[off + 4] == FileTransfer.TYPE_DATA
+                        && dataFrames.incrementAndGet() == 3) {
+                    byte[] copy = b.clone();
+                    copy[off + FileTransfer.DATA_HEADER_SIZE] ^= 0x5A;
+                    super.write(copy, off, len);
+                } else {
+                    super.write(b, off, len);
+                }
+            }
+        });
+        List<Object> outcomes = new CopyOnWriteArrayList<>();
+        FileTransferReceiver receiver = new FileTransferReceiver(receiveDir, new FileTransferReceiver.Options(), metrics);
+        Thread thread = new Thread(() -> {
+            try {
+                outcomes.add(receiver.receive(pair[1], null));
+            } catch (IOException e) {
+                outcomes.add(e);
+            }
+        });
+        thread.start();
+
+        FileTransferSender.Result result = new FileTransferSender(new FileTransferSender.Options()
+                .chunkBytes(1024).windowChunks(8), metrics).send(sender, file, null);
+        thread.join(5000);
+        FileTransferReceiver.Result received = (FileTransferReceiver.Result) outcomes.get(0);
+        assertEquals(1, received.crcErrors);
+        assertTrue("从坏块开始回退重发", result.retransmittedBytes >= 1024);
+        assertTrue(result.retransmittedBytes <= 8 * 1024);
+        assertEquals(result.totalBytes + result.retransmittedBytes, result.sentBytes);
+        assertSameContent(file, received.file);
+    }
+
+    @Test
+    public void lostConnection_resumesFromLastAcknowledgedOffset() throws Exception {
+        File file = createFile("bundle.bin", 512 * 1024);
+        PipeTransport pipe = new PipeTransport();
+        List<Object> outcomes = new CopyOnWriteArrayList<>();
+        listenReceiver(pipe, new FileTransferReceiver(receiveDir, new FileTransferReceiver.Options(), metrics),
+                outcomes);
+        int cutAfter = 200 * 1024;
+        AtomicInteger opened = new AtomicInteger();
+        // 第一条连接发出约 200 KB 后断开，相当于 connectionLost()
+        Transport transport = address -> {
+            Connection connection = pipe.open(address);
+            if (opened.incrementAndGet() > 1) {
+                return connection;
+            }
+            return new WrappedConnection(connection, new ConnectionOutput(connection) {
+                private int written;
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    if (written >= cutAfter) {
+                        connection.close();
+                    }
+                    written += len;
+                    super.write(b, off, len);
+                }
+            });
+        };
+
+        int windowBytes = 8 * 4096;
+        StringBuilder connects = new StringBuilder();
+        FileTransferSender.Listener listener = new FileTransferSender.Listener() {
+            @Override
+            public void onProgress(long ackedBytes, long totalBytes) {
+            }
+
+            @Override
+            public void onConnecting(String address, int attempt) {
+                connects.append('+').append(attempt);
+            }
+
+            @Override
+            public void onConnectFinished(String address, boolean connected) {
+                connects.append(connected ? "ok " : "failed ");
+            }
+        };
+        FileTransferSender.Result result = new FileTransferSender(new FileTransferSender.Options()
+                .chunkBytes(4096).windowChunks(8), metrics)
+                .sendWithResume(transport, DEVICE, file, new ReconnectPolicy().initialDelayMillis(10).jitter(0)
+                        .maxAttempts(3), listener);
+        awaitOutcomes(outcomes, 2);
+
+        assertEquals(2, result.attempts);
+        assertEquals("每次连接前后各回调一次", "+1ok +2ok ", connects.toString());
+        // 两条连接的接收线程结束的先后不确定
+        FileTransferReceiver.Result resumed = null;
+        int lost = 0;
+        for (Object outcome : outcomes) {
+            if (outcome instanceof FileTransferReceiver.Result) {
+                resumed = (FileTransferReceiver.Result) outcome;
+            } else {
+                lost++;
+            }
+        }
+        assertEquals("第一条连接断开", 1, lost);
+        assertNotNull(resumed);
+        assertTrue(resumed.resumedFrom > 0);
+        assertTrue("只重发最后确认之后的数据", result.sentBytes <= file.length() + cutAfter - resumed.resumedFrom
+                + windowBytes);
+        assertEquals(1, metrics.snapshot().counter("transfer.resumes"));
+        assertSameContent(file, resumed.file);
+        File[] leftovers = receiveDir.listFiles((dir, name) -> name.endsWith(".part"));
+        assertEquals(0, leftovers.length);
+    }
+
+    @Test
+    public void oversizedChunks_areRejectedWithoutRetry() throws Exception {
+        File file = createFile("big-chunks.bin", 10_000);
+        PipeTransport transport = new PipeTransport();
+        List<Object> outcomes = new CopyOnWriteArrayList<>();
+        listenReceiver(transport, new FileTransferReceiver(receiveDir,
+                new FileTransferReceiver.Options().maxChunkBytes(1024), metrics), outcomes);
+        try {
+            new FileTransferSender(new FileTransferSender.Options().chunkBytes(4096), metrics)
+                    .sendWithResume(transport, DEVICE, file, new ReconnectPolicy().initialDelayMillis(10), null);
+            fail("接收方应拒绝");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("拒绝"));
+        }
+        awaitOutcomes(outcomes, 1);
+        assertEquals(0, metrics.snapshot().counter("transfer.resumes"));
+    }
+
+    private static class ConnectionOutput extends OutputStream {
+        private final Connection connection;
+
+        ConnectionOutput(Connection connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            connection.getOutputStream().write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            connection.getOutputStream().write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            connection.getOutputStream().flush();
+        }
+    }
+
+    private static final class WrappedConnection implements Connection {
+        private final Connection delegate;
+        private final OutputStream out;
+
+        WrappedConnection(Connection delegate, OutputStream out) {
+            this.delegate = delegate;
+            this.out = out;
+        }
+
+        @Override
+        public String getRemoteAddress() {
+            return delegate.getRemoteAddress();
+        }
+
+        @Override
+        public void connect() throws IOException {
+            delegate.connect();
+        }
+
+        @Override
+        public boolean isConnected() {
+            return delegate.isConnected();
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return delegate.getInputStream();
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return out;
+        }
+
+        @Override
+        public void close() throws IOException {
+            delegate.close();
+        }
+    }
+}
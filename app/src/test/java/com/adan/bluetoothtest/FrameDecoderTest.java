@@ -0,0 +1,121 @@
+package com.adan.bluetoothtest;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class FrameDecoderTest {
+
+    private static List<String> feed(FrameDecoder decoder, byte[] data, int... chunkSizes) throws IOException {
+        List<String> frames = new ArrayList<>();
+        IncrementalTextDecoder text = new IncrementalTextDecoder();
+        int offset = 0;
+        int i = 0;
+        while (offset < data.length) {
+            int size = Math.min(chunkSizes[i++ % chunkSizes.length], data.length - offset);
+            decoder.decode(ByteBuffer.wrap(data, offset, size), frame -> frames.add(text.decodeFrame(frame)));
+            offset += size;
+        }
+        return frames;
+    }
+
+    @Test
+    public void delimiter_reassemblesSplitMessages() throws IOException {
+        byte[] data = "hello\nworld 你好\n\nlast".getBytes(StandardCharsets.UTF_8);
+        for (int chunk = 1; chunk <= data.length; chunk++) {
+            List<String> frames = feed(new DelimiterFrameDecoder(), data, chunk);
+            assertEquals("chunk " + chunk, 3, frames.size());
+            assertEquals("hello", frames.get(0));
+            assertEquals("world 你好", frames.get(1));
+            assertEquals("", frames.get(2));
+        }
+    }
+
+    @Test
+    public void delimiter_deliversManyFramesFromOneRead() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 50; i++) {
+            sb.append("m").append(i).append('\n');
+        }
+        List<String> frames = feed(new DelimiterFrameDecoder(), sb.toString().getBytes(StandardCharsets.UTF_8), 4096);
+        assertEquals(50, frames.size());
+        assertEquals("m49", frames.get(49));
+    }
+
+    @Test
+    public void lengthPrefixed_handlesHeaderSplitAcrossReads() throws IOException {
+        ByteBuffer encoded = ByteBuffer.allocate(64);
+        for (String s : new String[]{"ab", "", "温度=25"}) {
+            byte[] payload = s.getBytes(StandardCharsets.UTF_8);
+            encoded.putShort((short) payload.length).put(payload);
+        }
+        byte[] data = new byte[encoded.position()];
+        encoded.flip();
+        encoded.get(data);
+        for (int chunk = 1; chunk <= data.length; chunk++) {
+            List<String> frames = feed(new LengthPrefixedFrameDecoder(), data, chunk);
+            assertEquals(3, frames.size());
+            assertEquals("ab", frames.get(0));
+            assertEquals("", frames.get(1));
+            assertEquals("温度=25", frames.get(2));
+        }
+    }
+
+    @Test
+    public void fixedLength_splitsEvenly() throws IOException {
+        List<String> frames = feed(new FixedLengthFrameDecoder(4), "aaaabbbbccccdd".getBytes(StandardCharsets.US_ASCII), 3, 5);
+        assertEquals(3, frames.size());
+        assertEquals("cccc", frames.get(2));
+    }
+
+    @Test
+    public void oversizedFrame_isRejected() throws IOException {
+        DelimiterFrameDecoder decoder = new DelimiterFrameDecoder((byte) '\n', 8);
+        try {
+            feed(decoder, "0123456789".getBytes(StandardCharsets.US_ASCII), 4);
+            fail("expected IOException");
+        } catch (IOException expected) {
+            // 超长帧被丢弃后可以继续接收
+        }
+        assertEquals(1, feed(decoder, "ok\n".getBytes(StandardCharsets.US_ASCII), 1).size());
+    }
+
+    @Test
+    public void streamingText_keepsMultibyteCharactersIntact() {
+        byte[] data = "蓝牙数据ABC中文".getBytes(StandardCharsets.UTF_8);
+        for (int chunk = 1; chunk <= 4; chunk++) {
+            IncrementalTextDecoder decoder = new IncrementalTextDecoder();
+            StringBuilder out = new StringBuilder();
+            for (int offset = 0; offset < data.length; offset += chunk) {
+                out.append(decoder.decodeChunk(ByteBuffer.wrap(data, offset, Math.min(chunk, data.length - offset))));
+            }
+            out.append(decoder.finish());
+            assertEquals("蓝牙数据ABC中文", out.toString());
+        }
+    }
+
+    @Test
+    public void framingReceiver_releasesBuffersAndDeliversText() {
+        ReceiveBufferPool pool = new ReceiveBufferPool();
+        List<String> messages = new ArrayList<>();
+        FramingReceiver receiver = new FramingReceiver(new DelimiterFrameDecoder(), new IncrementalTextDecoder(), messages::add);
+        byte[] data = "第一条\n第二".getBytes(StandardCharsets.UTF_8);
+        byte[] rest = "条\n".getBytes(StandardCharsets.UTF_8);
+        for (byte[] chunk : new byte[][]{data, rest}) {
+            ReceiveBuffer buffer = pool.acquire(chunk.length);
+            System.arraycopy(chunk, 0, buffer.data, 0, chunk.length);
+            buffer.length = chunk.length;
+            receiver.onReceive(buffer);
+        }
+        assertEquals(2, messages.size());
+        assertEquals("第二条", messages.get(1));
+        // 两次都归还了同一个缓冲
+        assertEquals(1, pool.getAllocations());
+    }
+}
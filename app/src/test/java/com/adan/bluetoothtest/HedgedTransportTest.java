@@ -0,0 +1,160 @@
+package com.adan.bluetoothtest;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class HedgedTransportTest {
+
+    private static final String DEVICE = "AA:BB:CC:DD:EE:02";
+
+    private static PipeTransport device(long latencyMillis, AtomicInteger accepted) {
+        PipeTransport transport = new PipeTransport(new PipeTransport.Options().latencyMillis(latencyMillis));
+        transport.listen(DEVICE, connection -> accepted.incrementAndGet());
+        return transport;
+    }
+
+    private static HedgedTransport hedged(HedgedTransport.Options options, Transport secure, Transport insecure) {
+        LinkedHashMap<String, Transport> variants = new LinkedHashMap<>();
+        variants.put("secure", secure);
+        variants.put("insecure", insecure);
+        return new HedgedTransport(variants, options);
+    }
+
+    @Test
+    public void slowVariant_isOvertakenAndRemembered() throws Exception {
+        AtomicInteger secureAccepted = new AtomicInteger();
+        AtomicInteger insecureAccepted = new AtomicInteger();
+        HedgedTransport transport = hedged(new HedgedTransport.Options().staggerMillis(50),
+                device(300, secureAccepted), device(0, insecureAccepted));
+
+        long start = System.nanoTime();
+        Connection connection = transport.open(DEVICE);
+        connection.connect();
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+        assertTrue("用时 " + elapsedMillis + " ms", elapsedMillis < 300);
+        assertTrue(connection.isConnected());
+        assertEquals("insecure", transport.getPreferred(DEVICE));
+        assertEquals(Arrays.asList("insecure", "secure"), transport.attemptOrder(DEVICE));
+
+        Thread.sleep(700);
+        assertEquals("落后的尝试被取消", 0, secureAccepted.get());
+        assertEquals(1, insecureAccepted.get());
+        connection.close();
+        assertFalse(connection.isConnected());
+    }
+
+    @Test
+    public void failedVariant_startsNextImmediately() throws Exception {
+        AtomicInteger accepted = new AtomicInteger();
+        // 没有注册模拟设备，连接立即失败
+        HedgedTransport transport = hedged(new HedgedTransport.Options().staggerMillis(10_000),
+                new PipeTransport(), device(0, accepted));
+        long start = System.nanoTime();
+        transport.open(DEVICE).connect();
+        assertTrue((System.nanoTime() - start) / 1_000_000 < 2000);
+        assertEquals("insecure", transport.getPreferred(DEVICE));
+    }
+
+    @Test
+    public void preferredVariant_isForgottenAfterFailure() throws Exception {
+        AtomicInteger accepted = new AtomicInteger();
+        PipeTransport insecure = device(0, accepted);
+        HedgedTransport transport = hedged(new HedgedTransport.Options().staggerMillis(10_000),
+                new PipeTransport(), insecure);
+        transport.open(DEVICE).connect();
+        assertEquals("insecure", transport.getPreferred(DEVICE));
+
+        insecure.unlisten(DEVICE);
+        try {
+            transport.open(DEVICE).connect();
+            fail("两种方式都应失败");
+        } catch (IOException expected) {
+            assertEquals(1, expected.getSuppressed().length);
+        }
+        assertNull(transport.getPreferred(DEVICE));
+    }
+
+    @Test
+    public void allAttemptsTimingOut_throwsTimeout() throws Exception {
+        AtomicInteger accepted = new AtomicInteger();
+        HedgedTransport transport = hedged(new HedgedTransport.Options().staggerMillis(10).attemptTimeoutMillis(100),
+                device(5_000, accepted), device(5_000, accepted));
+        long start = System.nanoTime();
+        try {
+            transport.open(DEVICE).connect();
+            fail("应当超时");
+        } catch (SocketTimeoutException expected) {
+            assertTrue(expected.getMessage().contains("secure"));
+            assertEquals("timeout", ConnectionManager.failureCause(expected));
+        }
+        assertTrue((System.nanoTime() - start) / 1_000_000 < 2000);
+        assertEquals(0, accepted.get());
+    }
+
+    @Test
+    public void close_cancelsPendingConnect() throws Exception {
+        AtomicInteger accepted = new AtomicInteger();
+        HedgedTransport transport = hedged(new HedgedTransport.Options().staggerMillis(10),
+                device(5_000, accepted), device(5_000, accepted));
+        Connection connection = transport.open(DEVICE);
+        AtomicReference<IOException> error = new AtomicReference<>();
+        Thread connector = new Thread(() -> {
+            try {
+                connection.connect();
+            } catch (IOException e) {
+                error.set(e);
+            }
+        });
+        connector.start();
+        Thread.sleep(100);
+        connection.close();
+        connector.join(2000);
+        assertFalse(connector.isAlive());
+        assertNotNull(error.get());
+        assertEquals(0, accepted.get());
+        assertNull(transport.getPreferred(DEVICE));
+    }
+
+    @Test
+    public void attempts_runOnBoundedPool() throws Exception {
+        AtomicInteger accepted = new AtomicInteger();
+        Set<String> threads = ConcurrentHashMap.newKeySet();
+        PipeTransport secure = device(0, accepted);
+        PipeTransport insecure = device(0, accepted);
+        HedgedTransport transport = hedged(new HedgedTransport.Options().staggerMillis(0).maxThreads(1),
+                address -> {
+                    threads.add(Thread.currentThread().getName());
+                    return secure.open(address);
+                },
+                address -> {
+                    threads.add(Thread.currentThread().getName());
+                    return insecure.open(address);
+                });
+        for (int i = 0; i < 3; i++) {
+            Connection connection = transport.open(DEVICE);
+            connection.connect();
+            connection.close();
+        }
+        assertEquals("两种方式同时启动也只用一个线程", Collections.singleton("Hedge-1"), threads);
+        assertEquals(1, transport.attemptThreads());
+
+        transport.shutdown();
+        try {
+            transport.open(DEVICE).connect();
+            fail("线程池关闭后不能再连接");
+        } catch (IOException expected) {
+            assertEquals("连接线程池已关闭", expected.getMessage());
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package com.adan.bluetoothtest;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class LinkStateMachineTest {
+
+    private static final long ADDRESS = MacAddress.pack("AA:BB:CC:DD:EE:05");
+
+    @Test
+    public void transitions_followTheLifecycle() {
+        LinkStateMachine machine = new LinkStateMachine(ADDRESS);
+        assertEquals(LinkStateMachine.State.NONE, machine.getState());
+        assertNull("不是当前状态", machine.transition(LinkStateMachine.State.CONNECTING, LinkStateMachine.State.CONNECTED));
+        LinkStateMachine.Snapshot connecting = machine.transition(LinkStateMachine.State.NONE,
+                LinkStateMachine.State.CONNECTING);
+        assertEquals(ConnectionState.STATE_CONNECTING, connecting.toConnectionState());
+        LinkStateMachine.Snapshot connected = machine.transition(LinkStateMachine.State.CONNECTING,
+                LinkStateMachine.State.CONNECTED);
+        assertEquals(connecting.version + 1, connected.version);
+
+        IOException cause = new IOException("peer reset");
+        LinkStateMachine.Snapshot lost = machine.terminate(LinkStateMachine.State.LOST, cause);
+        assertSame(cause, lost.cause);
+        assertTrue(lost.isTerminal());
+        assertNull("只结束一次", machine.terminate(LinkStateMachine.State.CLOSED, null));
+        assertSame(lost, machine.get());
+        // 旧快照不受影响
+        assertEquals(LinkStateMachine.State.CONNECTED, connected.state);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void illegalTransition_isRejected() {
+        new LinkStateMachine(ADDRESS).transition(LinkStateMachine.State.NONE, LinkStateMachine.State.CONNECTED);
+    }
+
+    @Test
+    public void racingTransitions_haveExactlyOneWinner() throws Exception {
+        int threads = 8;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            for (int round = 0; round < 2000; round++) {
+                LinkStateMachine machine = new LinkStateMachine(ADDRESS);
+                machine.transition(LinkStateMachine.State.NONE, LinkStateMachine.State.CONNECTING);
+                CyclicBarrier start = new CyclicBarrier(threads);
+                AtomicInteger connectedWins = new AtomicInteger();
+                AtomicInteger terminalWins = new AtomicInteger();
+                List<Future<?>> futures = new ArrayList<>();
+                for (int t = 0; t < threads; t++) {
+                    int role = t % 3;
+                    futures.add(pool.submit(() -> {
+                        start.await();
+                        if (role == 0) {
+                            if (machine.transition(LinkStateMachine.State.CONNECTING,
+                                    LinkStateMachine.State.CONNECTED) != null) {
+                                connectedWins.incrementAndGet();
+                            }
+                        } else if (machine.terminate(role == 1 ? LinkStateMachine.State.LOST
+                                : LinkStateMachine.State.CLOSED, null) != null) {
+                            terminalWins.incrementAndGet();
+                        }
+                        return null;
+                    }));
+                }
+                for (Future<?> future : futures) {
+                    future.get(5, TimeUnit.SECONDS);
+                }
+                assertEquals(1, terminalWins.get());
+                assertTrue(connectedWins.get() <= 1);
+                LinkStateMachine.Snapshot last = machine.get();
+                assertTrue(last.isTerminal());
+                assertEquals("每次成功的转换版本号加一", 2 + connectedWins.get(), last.version);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void managerStress_reportsEachLinkEndExactlyOnce() throws Exception {
+        int maxLinks = 4;
+        ConcurrentHashMap<DeviceLink, List<LinkStateMachine.Snapshot>> seen = new ConcurrentHashMap<>();
+        AtomicInteger lost = new AtomicInteger();
+        AtomicInteger overCap = new AtomicInteger();
+        ConnectionManager[] holder = new ConnectionManager[1];
+        ConnectionManager manager = new ConnectionManager(new ConnectionManager.Config(maxLinks, new ReceiveBufferPool(),
+                RawFrameDecoder::new, new ConnectionWriter.Options()), new ConnectionManager.Listener() {
+            @Override
+            public void onStateChanged(DeviceLink link, LinkStateMachine.Snapshot snapshot) {
+                seen.computeIfAbsent(link, k -> Collections.synchronizedList(new ArrayList<>()))
+                        .add(snapshot);
+                if (holder[0].size() > maxLinks) {
+                    overCap.incrementAndGet();
+                }
+            }
+
+            @Override
+            public void onMessage(DeviceLink link, String text) {
+            }
+
+            @Override
+            public void onLinkLost(DeviceLink link, IOException cause) {
+                lost.incrementAndGet();
+            }
+        });
+        holder[0] = manager;
+        PipeTransport transport = new PipeTransport();
+
+        int threads = 8;
+        int iterations = 300;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch done = new CountDownLatch(threads);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            futures.add(pool.submit(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                try {
+                    for (int i = 0; i < iterations; i++) {
+                        long address = 0xAABBCCDD0000L + random.nextInt(6);
+                        DeviceLink link = manager.reserve(address, null);
+                        if (link == null) {
+                            // 别的线程占着：随机断开它，和它的启动、断线赛跑
+                            manager.disconnect(address);
+                            continue;
+                        }
+                        if (random.nextInt(4) == 0) {
+                            manager.release(link);
+                            continue;
+                        }
+                        Connection[] pair = transport.pair(MacAddress.format(address));
+                        try {
+                            manager.attach(link, pair[0]);
+                        } catch (IOException e) {
+                            continue;
+                        }
+                        if (random.nextBoolean()) {
+                            pair[1].close();   // 对端断开 → LOST
+                        } else {
+                            link.close();      // 主动断开 → CLOSED
+                        }
+                    }
+                } catch (IOException e) {
+                    throw new AssertionError(e);
+                } finally {
+                    done.countDown();
+                }
+                return null;
+            }));
+        }
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        pool.shutdown();
+        manager.disconnectAll();
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while ((manager.size() > 0 || manager.liveThreadCount() > 0) && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(0, manager.size());
+        assertEquals(0, overCap.get());
+
+        int lostLinks = 0;
+        for (List<LinkStateMachine.Snapshot> snapshots : seen.values()) {
+            int terminal = 0;
+            for (LinkStateMachine.Snapshot snapshot : snapshots) {
+                if (snapshot.isTerminal()) {
+                    terminal++;
+                    if (snapshot.state == LinkStateMachine.State.LOST) {
+                        lostLinks++;
+                    }
+                }
+            }
+            assertEquals("每条链路恰好结束一次: " + snapshots, 1, terminal);
+            // 不同线程的通知可能交错到达，按版本号排序后是一条完整的生命周期
+            List<LinkStateMachine.Snapshot> ordered = new ArrayList<>(snapshots);
+            ordered.sort((a, b) -> Integer.compare(a.version, b.version));
+            for (int i = 0; i < ordered.size(); i++) {
+                assertEquals(i + 1, ordered.get(i).version);
+            }
+            assertEquals(LinkStateMachine.State.CONNECTING, ordered.get(0).state);
+            assertTrue(ordered.get(ordered.size() - 1).isTerminal());
+        }
+        assertEquals(lostLinks, lost.get());
+    }
+}
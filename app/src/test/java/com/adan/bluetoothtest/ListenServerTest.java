@@ -0,0 +1,316 @@
+package com.adan.bluetoothtest;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ListenServerTest {
+
+    private static final String CLIENT_A = "AA:BB:CC:DD:EE:31";
+    private static final String CLIENT_B = "AA:BB:CC:DD:EE:32";
+    private static final String CLIENT_C = "AA:BB:CC:DD:EE:33";
+
+    private final MetricsRegistry metrics = new MetricsRegistry();
+    private final LinkedBlockingQueue<String> messages = new LinkedBlockingQueue<>();
+    private final LinkedBlockingQueue<DeviceLink> accepted = new LinkedBlockingQueue<>();
+    private final LinkedBlockingQueue<String> rejected = new LinkedBlockingQueue<>();
+    private final LinkedBlockingQueue<IOException> failures = new LinkedBlockingQueue<>();
+    private ConnectionManager manager;
+    private ListenServer server;
+
+    private final ListenServer.Listener listener = new ListenServer.Listener() {
+        @Override
+        public void onAccepted(DeviceLink link) {
+            accepted.add(link);
+        }
+
+        @Override
+        public void onRejected(String address, String reason) {
+            rejected.add(address + " " + reason);
+        }
+
+        @Override
+        public void onListenFailed(ServerTransport transport, IOException cause) {
+            failures.add(cause);
+        }
+    };
+
+    private ListenServer newServer(ConnectionManager.Config config, ListenServer.Options options) {
+        manager = new ConnectionManager(config, new ConnectionManager.Listener() {
+            @Override
+            public void onStateChanged(DeviceLink link, LinkStateMachine.Snapshot snapshot) {
+            }
+
+            @Override
+            public void onMessage(DeviceLink link, String text) {
+                messages.add(link.getAddressString() + " " + text);
+            }
+
+            @Override
+            public void onLinkLost(DeviceLink link, IOException cause) {
+            }
+        });
+        server = new ListenServer(options, manager, listener);
+        return server;
+    }
+
+    private ConnectionManager.Config config() {
+        return new ConnectionManager.Config(ConnectionManager.DEFAULT_MAX_LINKS, new ReceiveBufferPool(),
+                DelimiterFrameDecoder::new, new ConnectionWriter.Options(), metrics);
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        if (server != null) {
+            server.stop();
+            assertTrue(server.awaitTermination(2000));
+        }
+        if (manager != null) {
+            manager.disconnectAll();
+        }
+    }
+
+    /**
+     * 端点在接受线程上打开，start() 返回后稍等片刻才能连入。
+     */
+    private static Connection dial(PipeTransport transport, String address) throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+        while (true) {
+            try {
+                return transport.dial(address);
+            } catch (IOException notYet) {
+                if (System.nanoTime() > deadline) {
+                    throw notYet;
+                }
+                Thread.sleep(5);
+            }
+        }
+    }
+
+    private static void send(Connection connection, String text) throws IOException {
+        connection.getOutputStream().write(text.getBytes(StandardCharsets.UTF_8));
+        connection.getOutputStream().flush();
+    }
+
+    private static String readExactly(InputStream in, int length) throws IOException {
+        byte[] data = new byte[length];
+        int read = 0;
+        while (read < length) {
+            int n = in.read(data, read, length - read);
+            if (n < 0) {
+                throw new IOException("unexpected end of stream");
+            }
+            read += n;
+        }
+        return new String(data, StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void acceptedClients_eachGetTheirOwnLinkAndStats() throws Exception {
+        PipeTransport transport = new PipeTransport();
+        newServer(config(), new ListenServer.Options()).start(transport);
+        assertEquals(ConnectionState.STATE_LISTEN, server.getState());
+
+        Connection a = dial(transport, CLIENT_A);
+        Connection b = dial(transport, CLIENT_B);
+        DeviceLink first = accepted.poll(2, TimeUnit.SECONDS);
+        DeviceLink second = accepted.poll(2, TimeUnit.SECONDS);
+        assertNotNull(first);
+        assertNotNull(second);
+        assertTrue(first.isIncoming());
+        assertEquals(2, manager.size());
+
+        send(a, "temp=21\n");
+        send(b, "temp=19\n");
+        send(b, "temp=18\n");
+        for (int i = 0; i < 3; i++) {
+            assertNotNull(messages.poll(2, TimeUnit.SECONDS));
+        }
+        DeviceLink linkB = manager.get(MacAddress.pack(CLIENT_B));
+        assertTrue(linkB.send("ack\n".getBytes(StandardCharsets.UTF_8)));
+        assertEquals("ack\n", readExactly(b.getInputStream(), 4));
+
+        List<ListenServer.ClientStats> stats = server.getClientStats();
+        assertEquals(2, stats.size());
+        for (ListenServer.ClientStats client : stats) {
+            assertTrue(client.connected);
+            if (client.address.equals(CLIENT_B)) {
+                assertEquals(2, client.messagesIn);
+                assertEquals(16, client.bytesIn);
+                assertEquals(1, client.messagesOut);
+            } else {
+                assertEquals(1, client.messagesIn);
+                assertEquals(0, client.messagesOut);
+            }
+        }
+        assertEquals(2, metrics.snapshot().counter("listen.accepted"));
+        a.close();
+        b.close();
+    }
+
+    @Test
+    public void maxClients_rejectsExtraUntilOneLeaves() throws Exception {
+        PipeTransport transport = new PipeTransport();
+        newServer(config(), new ListenServer.Options().maxClients(2)).start(transport);
+        Connection a = dial(transport, CLIENT_A);
+        dial(transport, CLIENT_B);
+        assertNotNull(accepted.poll(2, TimeUnit.SECONDS));
+        assertNotNull(accepted.poll(2, TimeUnit.SECONDS));
+
+        Connection c = dial(transport, CLIENT_C);
+        String reason = rejected.poll(2, TimeUnit.SECONDS);
+        assertNotNull(reason);
+        assertTrue(reason, reason.startsWith(CLIENT_C));
+        assertEquals("被拒绝的连接已关闭", -1, c.getInputStream().read());
+        assertEquals(2, manager.size());
+
+        // A 断开后名额空出，C 重新连入
+        a.close();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+        while (server.clientCount() > 1 && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(1, server.clientCount());
+        dial(transport, CLIENT_C);
+        DeviceLink link = accepted.poll(2, TimeUnit.SECONDS);
+        assertNotNull(link);
+        assertEquals(CLIENT_C, link.getAddressString());
+        assertEquals(1, metrics.snapshot().counter("listen.rejected"));
+    }
+
+    @Test
+    public void duplicateDevice_isRejected() throws Exception {
+        PipeTransport transport = new PipeTransport();
+        newServer(config(), new ListenServer.Options()).start(transport);
+        dial(transport, CLIENT_A);
+        assertNotNull(accepted.poll(2, TimeUnit.SECONDS));
+        dial(transport, CLIENT_A);
+        String reason = rejected.poll(2, TimeUnit.SECONDS);
+        assertNotNull(reason);
+        assertTrue(reason, reason.contains("已有链路"));
+    }
+
+    @Test
+    public void slowLinkStartup_doesNotBlockAccepting() throws Exception {
+        // 本机作为接受方等待提议：A 不提议，要等满超时；B 立即提议
+        StreamCompression.Options compression = new StreamCompression.Options().enabled(true)
+                .negotiateTimeoutMillis(1000);
+        PipeTransport transport = new PipeTransport();
+        newServer(config().compression(compression), new ListenServer.Options()).start(transport);
+
+        Connection a = dial(transport, CLIENT_A);
+        Connection b = dial(transport, CLIENT_B);
+        b.getOutputStream().write(StreamCompression.hello());
+        b.getOutputStream().flush();
+        DeviceLink first = accepted.poll(2, TimeUnit.SECONDS);
+        assertNotNull(first);
+        assertEquals("A 仍在协商时 B 已启动", CLIENT_B, first.getAddressString());
+        DeviceLink second = accepted.poll(3, TimeUnit.SECONDS);
+        assertNotNull(second);
+        assertEquals(CLIENT_A, second.getAddressString());
+        a.close();
+        b.close();
+    }
+
+    @Test
+    public void incomingLink_answersOfferWhenCompressionIsOff() throws Exception {
+        // 本机未开启压缩，连入的设备开启了压缩：本机应答 REJECT，两端都按原样收发
+        PipeTransport transport = new PipeTransport();
+        newServer(config(), new ListenServer.Options()).start(transport);
+        Connection raw = dial(transport, CLIENT_A);
+        Connection a = StreamCompression.negotiate(raw, StreamCompression.Role.DIALER, true,
+                new StreamCompression.Options().enabled(true).negotiateTimeoutMillis(2000), new MetricsRegistry(),
+                "client.");
+        assertFalse(((StreamCompression.CompressedConnection) a).isCompressed());
+        DeviceLink link = accepted.poll(2, TimeUnit.SECONDS);
+        assertNotNull(link);
+        assertNull(link.getCompressionStats());
+
+        send(a, "temp=21\n");
+        assertEquals("OFFER 不会被当作消息", CLIENT_A + " temp=21", messages.poll(2, TimeUnit.SECONDS));
+        a.close();
+    }
+
+    @Test
+    public void secureAndInsecureEndpoints_acceptIndependently() throws Exception {
+        PipeTransport secure = new PipeTransport();
+        PipeTransport insecure = new PipeTransport();
+        newServer(config(), new ListenServer.Options()).start(secure, insecure);
+        Connection a = dial(secure, CLIENT_A);
+        Connection b = dial(insecure, CLIENT_B);
+        assertNotNull(accepted.poll(2, TimeUnit.SECONDS));
+        assertNotNull(accepted.poll(2, TimeUnit.SECONDS));
+
+        server.stop();
+        assertEquals(ConnectionState.STATE_NONE, server.getState());
+        try {
+            secure.dial(CLIENT_C);
+            fail("停止后不再接受");
+        } catch (IOException expected) {
+            // 预期
+        }
+        // 已接受的链路不受停止监听影响
+        send(a, "still here\n");
+        assertEquals(CLIENT_A + " still here", messages.poll(2, TimeUnit.SECONDS));
+        a.close();
+        b.close();
+    }
+
+    @Test
+    public void start_opensEndpointsOnAcceptThreads() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        LinkedBlockingQueue<String> listenThreads = new LinkedBlockingQueue<>();
+        ServerTransport blocking = () -> {
+            listenThreads.add(Thread.currentThread().getName());
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            throw new IOException("adapter busy");
+        };
+        newServer(config(), new ListenServer.Options().retryDelayMillis(60_000));
+        long start = System.nanoTime();
+        server.start(blocking);
+        assertTrue("start() 不等待端点打开", System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(500));
+        assertEquals("ListenServer-0", listenThreads.poll(2, TimeUnit.SECONDS));
+
+        release.countDown();
+        assertEquals("adapter busy", failures.poll(2, TimeUnit.SECONDS).getMessage());
+        // 停止不等待接受线程，线程随后自行退出
+        start = System.nanoTime();
+        server.stop();
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(500));
+        assertTrue(server.awaitTermination(2000));
+    }
+
+    @Test
+    public void failedEndpoint_isReopenedAfterDelay() throws Exception {
+        PipeTransport pipe = new PipeTransport();
+        AtomicInteger listens = new AtomicInteger();
+        ServerTransport flaky = () -> {
+            if (listens.incrementAndGet() == 1) {
+                throw new IOException("bluetooth off");
+            }
+            return pipe.listen();
+        };
+        newServer(config(), new ListenServer.Options().retryDelayMillis(20)).start(flaky);
+        // 首次打开在接受线程上失败，稍后重试
+        assertEquals("bluetooth off", failures.poll(2, TimeUnit.SECONDS).getMessage());
+
+        Connection a = dial(pipe, CLIENT_A);
+        assertNotNull(accepted.poll(2, TimeUnit.SECONDS));
+        assertEquals(1, metrics.snapshot().counter("listen.failures"));
+        a.close();
+    }
+}
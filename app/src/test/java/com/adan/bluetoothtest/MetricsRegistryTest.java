@@ -0,0 +1,120 @@
+package com.adan.bluetoothtest;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+public class MetricsRegistryTest {
+
+    @Test
+    public void concurrentRecording_losesNothing() throws Exception {
+        MetricsRegistry metrics = new MetricsRegistry();
+        MetricsRegistry.Counter counter = metrics.counter("bytes_in");
+        MetricsRegistry.Histogram histogram = metrics.histogram("latency_us");
+        int threads = 8;
+        int perThread = 50_000;
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Thread worker = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < perThread; i++) {
+                    counter.add(2);
+                    histogram.record(i % 1000);
+                }
+            });
+            workers.add(worker);
+            worker.start();
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        MetricsRegistry.Snapshot snapshot = metrics.snapshot();
+        assertEquals(2L * threads * perThread, snapshot.counter("bytes_in"));
+        MetricsRegistry.HistogramSnapshot latency = snapshot.histograms.get("latency_us");
+        assertEquals((long) threads * perThread, latency.count);
+        assertEquals(999, latency.max);
+        assertSame("同名返回同一实例", counter, metrics.counter("bytes_in"));
+    }
+
+    @Test
+    public void percentiles_areBucketUpperBounds() {
+        MetricsRegistry.Histogram histogram = new MetricsRegistry.Histogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i);
+        }
+        MetricsRegistry.HistogramSnapshot snapshot = histogram.snapshot();
+        // 第 50 个值为 50，落在 [32, 63] 桶
+        assertEquals(63, snapshot.percentile(0.5));
+        // 最高的桶 [64, 127] 以实际最大值为上限
+        assertEquals(100, snapshot.percentile(0.99));
+        assertEquals(50.5, snapshot.mean(), 1e-9);
+        assertEquals(0, new MetricsRegistry.Histogram().snapshot().percentile(0.5));
+    }
+
+    @Test
+    public void bucketOf_coversZeroAndLargeValues() {
+        assertEquals(0, MetricsRegistry.Histogram.bucketOf(0));
+        assertEquals(1, MetricsRegistry.Histogram.bucketOf(1));
+        assertEquals(2, MetricsRegistry.Histogram.bucketOf(3));
+        assertEquals(63, MetricsRegistry.Histogram.bucketOf(Long.MAX_VALUE));
+        MetricsRegistry.Histogram histogram = new MetricsRegistry.Histogram();
+        histogram.record(-5);
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(Long.MAX_VALUE, histogram.snapshot().percentile(1.0));
+    }
+
+    @Test
+    public void ratePerSecond_usesSnapshotInterval() throws Exception {
+        MetricsRegistry metrics = new MetricsRegistry();
+        MetricsRegistry.Counter counter = metrics.counter("messages_out");
+        MetricsRegistry.Snapshot first = metrics.snapshot();
+        counter.add(100);
+        Thread.sleep(50);
+        MetricsRegistry.Snapshot second = metrics.snapshot();
+        double rate = second.ratePerSecond("messages_out", first);
+        assertTrue("rate " + rate, rate > 0 && rate <= 100 / 0.05);
+        assertEquals(0, second.ratePerSecond("messages_out", null), 0);
+        assertTrue(second.format(first).contains("messages_out = 100"));
+    }
+
+    @Test
+    public void connectFailures_areCountedByCause() {
+        MetricsRegistry metrics = new MetricsRegistry();
+        ConnectionManager manager = new ConnectionManager(new ConnectionManager.Config(2, new ReceiveBufferPool(),
+                RawFrameDecoder::new, new ConnectionWriter.Options(), metrics), new ConnectionManager.Listener() {
+            @Override
+            public void onStateChanged(DeviceLink link, LinkStateMachine.Snapshot snapshot) {
+            }
+
+            @Override
+            public void onMessage(DeviceLink link, String text) {
+            }
+
+            @Override
+            public void onLinkLost(DeviceLink link, IOException cause) {
+            }
+        });
+        DeviceLink first = manager.reserve(1L, "a");
+        manager.connectFailed(first, new IOException("read failed, socket might closed or timeout, read ret: -1"));
+        DeviceLink second = manager.reserve(2L, "b");
+        manager.connectFailed(second, new IOException("socket closed"));
+        assertEquals(0, manager.size());
+        MetricsRegistry.Snapshot snapshot = metrics.snapshot();
+        assertEquals(1, snapshot.counter("connect.failure.unreachable"));
+        assertEquals(1, snapshot.counter("connect.failure.cancelled"));
+        assertEquals("permission",
+                ConnectionManager.failureCause(new IOException("BLUETOOTH_CONNECT permission missing for socket creation")));
+        assertEquals("other", ConnectionManager.failureCause(new IOException()));
+    }
+}
@@ -0,0 +1,111 @@
+package com.adan.bluetoothtest;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class NameCacheTest {
+
+    private final AtomicInteger lookups = new AtomicInteger();
+    private final NameCache.Resolver resolver = address -> {
+        lookups.incrementAndGet();
+        return address % 2 == 0 ? "dev-" + address : null;
+    };
+
+    @Test
+    public void refreshOfManyDevices_resolvesEachOnlyOnce() {
+        MetricsRegistry metrics = new MetricsRegistry();
+        NameCache cache = new NameCache(resolver, metrics);
+        for (int round = 0; round < 5; round++) {
+            for (long address = 0; address < 200; address++) {
+                cache.get(address);
+            }
+        }
+        assertEquals("没有名称的设备同样只查询一次", 200, lookups.get());
+        assertEquals(200, cache.getMisses());
+        assertEquals(800, cache.getHits());
+        assertEquals(800, metrics.snapshot().counter("name_cache.hits"));
+        assertEquals("dev-4", cache.get(4));
+        assertNull(cache.get(5));
+    }
+
+    @Test
+    public void leastRecentlyUsed_isEvicted() {
+        NameCache cache = new NameCache(2, resolver, new MetricsRegistry());
+        cache.get(2);
+        cache.get(4);
+        cache.get(2);
+        cache.get(6);
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictions());
+        lookups.set(0);
+        cache.get(2);
+        assertEquals("最近访问过的保留", 0, lookups.get());
+        cache.get(4);
+        assertEquals(1, lookups.get());
+    }
+
+    @Test
+    public void putAndInvalidate_bypassOrForceResolver() {
+        NameCache cache = new NameCache(resolver, new MetricsRegistry());
+        cache.put(8, "广播中的名称");
+        assertEquals("广播中的名称", cache.get(8));
+        assertEquals(0, lookups.get());
+
+        cache.invalidate(8);
+        assertEquals("dev-8", cache.get(8));
+        assertEquals(1, lookups.get());
+
+        cache.put(8, null);
+        assertEquals("dev-8", cache.get(8));
+        assertEquals(2, lookups.get());
+
+        cache.invalidateAll();
+        assertEquals(0, cache.size());
+        assertEquals(MacAddress.format(9), cache.displayName(9));
+    }
+
+    @Test
+    public void slowResolve_doesNotBlockOtherCallers() throws Exception {
+        CountDownLatch resolving = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        NameCache cache = new NameCache(address -> {
+            if (address == 1) {
+                resolving.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return "stale";
+            }
+            return "dev-" + address;
+        }, new MetricsRegistry());
+        cache.get(2);
+        AtomicReference<String> slow = new AtomicReference<>();
+        Thread lookup = new Thread(() -> slow.set(cache.get(1)));
+        lookup.start();
+        assertTrue(resolving.await(2, TimeUnit.SECONDS));
+
+        // 查询进行中，命中和 put 都不用等它
+        AtomicReference<String> hit = new AtomicReference<>();
+        Thread other = new Thread(() -> {
+            hit.set(cache.get(2));
+            cache.put(1, "fresh");
+        });
+        other.start();
+        other.join(2000);
+        boolean blocked = other.isAlive();
+        release.countDown();
+        lookup.join(2000);
+        assertFalse("其他线程被查询挡住", blocked);
+        assertEquals("dev-2", hit.get());
+        assertEquals("stale", slow.get());
+        assertEquals("查询期间写入的名称不被过时的查询结果覆盖", "fresh", cache.get(1));
+    }
+}
@@ -0,0 +1,233 @@
+package com.adan.bluetoothtest;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class PipeTransportTest {
+
+    private static final String DEVICE = "AA:BB:CC:DD:EE:01";
+
+    /**
+     * 模拟设备：把收到的每一行原样发回。
+     */
+    private static void listenEcho(PipeTransport transport, String address) {
+        transport.listen(address, connection -> {
+            Thread echo = new Thread(() -> {
+                byte[] buffer = new byte[256];
+                try {
+                    InputStream in = connection.getInputStream();
+                    OutputStream out = connection.getOutputStream();
+                    int n;
+                    while ((n = in.read(buffer, 0, buffer.length)) > 0) {
+                        out.write(buffer, 0, n);
+                    }
+                } catch (IOException ignored) {
+                    // 连接关闭
+                }
+            }, "echo-" + address);
+            echo.setDaemon(true);
+            echo.start();
+        });
+    }
+
+    private static byte[] readFully(InputStream in, int length) throws IOException {
+        byte[] data = new byte[length];
+        int read = 0;
+        while (read < length) {
+            int n = in.read(data, read, length - read);
+            if (n < 0) {
+                throw new IOException("unexpected end of stream");
+            }
+            read += n;
+        }
+        return data;
+    }
+
+    @Test
+    public void connect_withoutListener_fails() throws Exception {
+        Connection connection = new PipeTransport().open(DEVICE);
+        try {
+            connection.connect();
+            fail("未注册的地址应连接失败");
+        } catch (IOException expected) {
+            // 设备不在范围内
+        }
+        assertFalse(connection.isConnected());
+    }
+
+    @Test
+    public void pipeline_echoesThroughConnectionManager() throws Exception {
+        PipeTransport transport = new PipeTransport();
+        listenEcho(transport, DEVICE);
+
+        BlockingQueue<String> messages = new ArrayBlockingQueue<>(16);
+        ConnectionManager manager = new ConnectionManager(new ConnectionManager.Config(1, new ReceiveBufferPool(),
+                DelimiterFrameDecoder::new, new ConnectionWriter.Options()), new ConnectionManager.Listener() {
+            @Override
+            public void onStateChanged(DeviceLink link, LinkStateMachine.Snapshot snapshot) {
+            }
+
+            @Override
+            public void onMessage(DeviceLink link, String text) {
+                messages.add(text);
+            }
+
+            @Override
+            public void onLinkLost(DeviceLink link, IOException cause) {
+            }
+        });
+        try {
+            DeviceLink link = manager.reserve(MacAddress.pack(DEVICE), "echo");
+            Connection connection = transport.open(DEVICE);
+            connection.connect();
+            manager.attach(link, connection);
+
+            assertTrue(link.send("你好\n".getBytes(StandardCharsets.UTF_8)));
+            assertTrue(link.send("second\n".getBytes(StandardCharsets.UTF_8)));
+            assertEquals("你好", messages.poll(5, TimeUnit.SECONDS));
+            assertEquals("second", messages.poll(5, TimeUnit.SECONDS));
+        } finally {
+            manager.disconnectAll();
+        }
+    }
+
+    @Test
+    public void latency_delaysDeliveryAndConnect() throws Exception {
+        PipeTransport transport = new PipeTransport(new PipeTransport.Options().latencyMillis(40));
+        AtomicReference<Connection> remote = new AtomicReference<>();
+        transport.listen(DEVICE, remote::set);
+
+        Connection connection = transport.open(DEVICE);
+        long start = System.nanoTime();
+        connection.connect();
+        assertTrue("建立连接至少一个往返", System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(80));
+        assertNotNull(remote.get());
+        assertEquals("00:00:00:00:00:00", remote.get().getRemoteAddress());
+
+        start = System.nanoTime();
+        connection.getOutputStream().write(new byte[]{1, 2, 3}, 0, 3);
+        assertEquals("数据在延迟到达前不可读", 0, remote.get().getInputStream().available());
+        byte[] data = readFully(remote.get().getInputStream(), 3);
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(40));
+        assertArrayEquals(new byte[]{1, 2, 3}, data);
+    }
+
+    @Test
+    public void bandwidth_limitsThroughput() throws Exception {
+        Connection[] ends = new PipeTransport(new PipeTransport.Options().bytesPerSecond(100_000).bufferBytes(4096))
+                .pair(DEVICE);
+        int total = 20_000;
+        Thread writer = new Thread(() -> {
+            try {
+                OutputStream out = ends[0].getOutputStream();
+                byte[] chunk = new byte[1000];
+                for (int i = 0; i < total / chunk.length; i++) {
+                    out.write(chunk, 0, chunk.length);
+                }
+            } catch (IOException ignored) {
+                // 测试结束时关闭
+            }
+        });
+        long start = System.nanoTime();
+        writer.start();
+        readFully(ends[1].getInputStream(), total);
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        writer.join(1000);
+        // 20 KB / 100 KB/s = 200 ms
+        assertTrue("elapsed " + elapsedMillis + " ms", elapsedMillis >= 180);
+    }
+
+    @Test
+    public void close_unblocksReaderAndEndsPeerStream() throws Exception {
+        Connection[] ends = new PipeTransport().pair(DEVICE);
+        AtomicReference<IOException> failure = new AtomicReference<>();
+        Thread reader = new Thread(() -> {
+            try {
+                ends[0].getInputStream().read(new byte[16], 0, 16);
+            } catch (IOException e) {
+                failure.set(e);
+            }
+        });
+        reader.start();
+        Thread.sleep(20);
+        ends[0].close();
+        reader.join(2000);
+        assertFalse(reader.isAlive());
+        assertNotNull("本端关闭后读取抛出 IOException", failure.get());
+        assertEquals("对端读到流结束", -1, ends[1].getInputStream().read(new byte[16], 0, 16));
+        try {
+            ends[1].getOutputStream().write(new byte[1], 0, 1);
+            fail("向已关闭的一端写入应失败");
+        } catch (IOException expected) {
+            // 对端已关闭
+        }
+    }
+
+    @Test
+    public void close_cancelsPendingConnect() throws Exception {
+        PipeTransport transport = new PipeTransport(new PipeTransport.Options().latencyMillis(5000));
+        listenEcho(transport, DEVICE);
+        Connection connection = transport.open(DEVICE);
+        AtomicReference<IOException> failure = new AtomicReference<>();
+        Thread connector = new Thread(() -> {
+            try {
+                connection.connect();
+            } catch (IOException e) {
+                failure.set(e);
+            }
+        });
+        connector.start();
+        Thread.sleep(20);
+        connection.close();
+        connector.join(2000);
+        assertFalse(connector.isAlive());
+        assertNotNull(failure.get());
+    }
+
+    @Test
+    public void interruptedRead_keepsWaitingWithoutSpinningAndRestoresFlag() throws Exception {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threads.isThreadCpuTimeSupported());
+        Connection[] ends = new PipeTransport().pair(DEVICE);
+        AtomicReference<String> received = new AtomicReference<>();
+        AtomicBoolean interruptedAfter = new AtomicBoolean();
+        Thread reader = new Thread(() -> {
+            byte[] buffer = new byte[16];
+            try {
+                int n = ends[0].getInputStream().read(buffer, 0, buffer.length);
+                received.set(new String(buffer, 0, n, StandardCharsets.UTF_8));
+            } catch (IOException ignored) {
+                // 不应发生
+            }
+            interruptedAfter.set(Thread.currentThread().isInterrupted());
+        });
+        threads.setThreadCpuTimeEnabled(true);
+        reader.start();
+        Thread.sleep(20);
+        reader.interrupt();
+        long cpuBefore = threads.getThreadCpuTime(reader.getId());
+        Thread.sleep(200);
+        long cpuNanos = threads.getThreadCpuTime(reader.getId()) - cpuBefore;
+        assertTrue("中断后读取线程仍应阻塞", reader.isAlive());
+        assertTrue("中断后不应空转，cpu=" + cpuNanos / 1_000_000 + " ms", cpuNanos < TimeUnit.MILLISECONDS.toNanos(50));
+
+        ends[1].getOutputStream().write("hi".getBytes(StandardCharsets.UTF_8), 0, 2);
+        reader.join(2000);
+        assertEquals("hi", received.get());
+        assertTrue("读取返回后恢复中断标记", interruptedAfter.get());
+    }
+}
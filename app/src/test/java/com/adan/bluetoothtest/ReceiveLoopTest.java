@@ -0,0 +1,133 @@
+package com.adan.bluetoothtest;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.*;
+
+public class ReceiveLoopTest {
+
+    /**
+     * 无限数据源，每次 read 返回固定长度，available 返回可配置的积压量。不做任何分配。
+     */
+    private static final class FakeStream extends InputStream {
+        int available;
+        int chunk = 64;
+
+        @Override
+        public int read() {
+            return 'x';
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            int n = Math.min(len, chunk);
+            for (int i = 0; i < n; i++) {
+                b[off + i] = (byte) i;
+            }
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return available;
+        }
+    }
+
+    /**
+     * 处理 limit 次读取后停止循环，期间立即归还缓冲区。
+     */
+    private static final class CountingListener implements ReceiveLoop.Listener {
+        final ReceiveLoop loop;
+        final int limit;
+        int reads;
+        long bytes;
+        int lastCapacity;
+
+        CountingListener(ReceiveLoop loop, int limit) {
+            this.loop = loop;
+            this.limit = limit;
+        }
+
+        @Override
+        public void onReceive(ReceiveBuffer buffer) {
+            bytes += buffer.length();
+            lastCapacity = buffer.capacity();
+            buffer.release();
+            if (++reads == limit) {
+                loop.stop();
+            }
+        }
+    }
+
+    private static long allocatedBytes() {
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    @Test
+    public void steadyState_allocatesNothingPerRead() throws IOException {
+        ReceiveBufferPool pool = new ReceiveBufferPool();
+        FakeStream stream = new FakeStream();
+
+        // 预热：让 JIT 编译读取路径并填满缓冲池
+        ReceiveLoop warmup = new ReceiveLoop(pool);
+        warmup.run(stream, new CountingListener(warmup, 50_000));
+        long poolAllocations = pool.getAllocations();
+
+        ReceiveLoop loop = new ReceiveLoop(pool);
+        CountingListener listener = new CountingListener(loop, 200_000);
+        long before = allocatedBytes();
+        loop.run(stream, listener);
+        long allocated = allocatedBytes() - before;
+
+        assertEquals(200_000, listener.reads);
+        assertEquals(200_000L * 64, listener.bytes);
+        assertEquals(poolAllocations, pool.getAllocations());
+        // 20 万次读取，只允许测量本身带来的少量字节
+        assertTrue("allocated " + allocated + " bytes", allocated < 1024);
+    }
+
+    @Test
+    public void readSize_followsAvailable() throws IOException {
+        ReceiveBufferPool pool = new ReceiveBufferPool();
+        FakeStream stream = new FakeStream();
+        ReceiveLoop loop = new ReceiveLoop(pool);
+
+        stream.available = 0;
+        ReceiveBuffer idle = loop.readOnce(stream);
+        assertEquals(1024, idle.capacity());
+        idle.release();
+
+        stream.available = 100;
+        ReceiveBuffer small = loop.readOnce(stream);
+        assertEquals(256, small.capacity());
+        small.release();
+
+        stream.available = 3000;
+        stream.chunk = 3000;
+        ReceiveBuffer large = loop.readOnce(stream);
+        assertEquals(4096, large.capacity());
+        assertEquals(3000, large.length());
+        large.release();
+    }
+
+    @Test
+    public void releasedBuffers_areReused() {
+        ReceiveBufferPool pool = new ReceiveBufferPool();
+        ReceiveBuffer first = pool.acquire(1024);
+        first.release();
+        assertSame(first, pool.acquire(1000));
+        assertEquals(1, pool.getAllocations());
+    }
+
+    @Test(expected = IOException.class)
+    public void endOfStream_isReportedAsIOException() throws IOException {
+        ReceiveLoop loop = new ReceiveLoop(new ReceiveBufferPool());
+        loop.run(new ByteArrayInputStream(new byte[]{1, 2, 3}), ReceiveBuffer::release);
+    }
+}
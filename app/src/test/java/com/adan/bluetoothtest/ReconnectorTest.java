@@ -0,0 +1,192 @@
+package com.adan.bluetoothtest;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ReconnectorTest {
+
+    private static final long ADDRESS = MacAddress.pack("AA:BB:CC:DD:EE:03");
+
+    private final MetricsRegistry metrics = new MetricsRegistry();
+    private final BlockingQueue<Integer> attempts = new ArrayBlockingQueue<>(16);
+    private final CountDownLatch gaveUp = new CountDownLatch(1);
+    private Reconnector reconnector;
+
+    private Reconnector create(ReconnectPolicy policy) {
+        reconnector = new Reconnector(policy, new Reconnector.Listener() {
+            @Override
+            public void reconnect(long address, int attempt) {
+                attempts.add(attempt);
+            }
+
+            @Override
+            public void onGaveUp(long address, int made) {
+                gaveUp.countDown();
+            }
+        }, metrics);
+        return reconnector;
+    }
+
+    @After
+    public void tearDown() {
+        if (reconnector != null) {
+            reconnector.shutdown();
+        }
+    }
+
+    private static byte[] text(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void policy_backoffGrowsWithJitterAndIsCapped() {
+        ReconnectPolicy policy = new ReconnectPolicy().initialDelayMillis(1000).maxDelayMillis(60_000).jitter(0.2);
+        assertEquals(1000, policy.delayMillis(1, 0.5));
+        assertEquals(2000, policy.delayMillis(2, 0.5));
+        assertEquals(16_000, policy.delayMillis(5, 0.5));
+        assertEquals(60_000, policy.delayMillis(20, 0.5));
+        assertEquals(800, policy.delayMillis(1, 0));
+        assertEquals(1200, policy.delayMillis(1, 1));
+        assertTrue(policy.maxAttempts(3).allowsAttempt(3));
+        assertFalse(policy.allowsAttempt(4));
+        assertTrue(policy.maxAttempts(0).allowsAttempt(1_000));
+    }
+
+    @Test
+    public void failedAttempts_areRetriedUntilGivingUp() throws Exception {
+        create(new ReconnectPolicy().initialDelayMillis(5).jitter(0).maxAttempts(3));
+        reconnector.onLinkLost(ADDRESS, Arrays.asList(text("a"), text("b")));
+        for (int expected = 1; expected <= 3; expected++) {
+            assertEquals(Integer.valueOf(expected), attempts.poll(2, TimeUnit.SECONDS));
+            reconnector.onConnectFailed(ADDRESS);
+        }
+        assertTrue(gaveUp.await(2, TimeUnit.SECONDS));
+        assertFalse(reconnector.isReconnecting(ADDRESS));
+        assertNull(attempts.poll(50, TimeUnit.MILLISECONDS));
+        MetricsRegistry.Snapshot snapshot = metrics.snapshot();
+        assertEquals(3, snapshot.counter("reconnect.attempts"));
+        assertEquals(1, snapshot.counter("reconnect.gave_up"));
+        assertEquals("放弃时丢弃保留的消息", 2, snapshot.counter("reconnect.dropped_messages"));
+    }
+
+    @Test
+    public void aclConnected_skipsRemainingBackoff() throws Exception {
+        create(new ReconnectPolicy().initialDelayMillis(60_000).jitter(0));
+        reconnector.onLinkLost(ADDRESS, Arrays.asList());
+        assertNull(attempts.poll(50, TimeUnit.MILLISECONDS));
+        reconnector.onAclConnected(ADDRESS);
+        assertEquals(Integer.valueOf(1), attempts.poll(2, TimeUnit.SECONDS));
+        // 尝试进行中时再次收到广播不重复发起
+        reconnector.onAclConnected(ADDRESS);
+        assertNull(attempts.poll(50, TimeUnit.MILLISECONDS));
+
+        reconnector.onConnected(ADDRESS);
+        assertEquals(1, metrics.snapshot().histograms.get("reconnect.downtime_ms").count);
+    }
+
+    @Test
+    public void cancel_stopsReconnecting() throws Exception {
+        create(new ReconnectPolicy().initialDelayMillis(50).jitter(0));
+        reconnector.onLinkLost(ADDRESS, Arrays.asList());
+        reconnector.cancel(ADDRESS);
+        assertFalse(reconnector.enqueue(ADDRESS, text("x")));
+        assertNull(attempts.poll(200, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void queuedMessages_surviveOutageInOrder() throws Exception {
+        create(new ReconnectPolicy().initialDelayMillis(60_000).maxPendingMessages(256));
+        ConnectionManager manager = new ConnectionManager(new ConnectionManager.Config(2, new ReceiveBufferPool(),
+                DelimiterFrameDecoder::new, new ConnectionWriter.Options(), metrics), new ConnectionManager.Listener() {
+            @Override
+            public void onStateChanged(DeviceLink link, LinkStateMachine.Snapshot snapshot) {
+            }
+
+            @Override
+            public void onMessage(DeviceLink link, String text) {
+            }
+
+            @Override
+            public void onLinkLost(DeviceLink link, IOException cause) {
+                reconnector.onLinkLost(link.getAddress(), link.drainPending());
+            }
+        });
+
+        // 管道缓冲只有 4 字节且对端不读：每条消息都比缓冲长，发送线程取出的第一批（可能合并了多条）
+        // 阻塞在写出上，一条也写不完，其余留在队列里
+        PipeTransport transport = new PipeTransport(new PipeTransport.Options().bufferBytes(4));
+        Connection[] first = transport.pair(MacAddress.format(ADDRESS));
+        DeviceLink link = manager.reserve(ADDRESS, "sensor");
+        manager.attach(link, first[0]);
+        for (int i = 0; i < 20; i++) {
+            assertTrue(link.send(text(String.format("burst-%02d\n", i))));
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+        while (link.getWriterStats().queueDepth == 20 && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        first[1].close();
+        deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+        while (!reconnector.isReconnecting(ADDRESS) && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertTrue(reconnector.isReconnecting(ADDRESS));
+        assertTrue(reconnector.enqueue(ADDRESS, text("after\n")));
+
+        Connection[] second = transport.pair(MacAddress.format(ADDRESS));
+        DeviceLink resumed = manager.reserve(ADDRESS, "sensor");
+        List<byte[]> pending = reconnector.onConnected(ADDRESS);
+        assertEquals("写失败那一批也交回，一条不丢", 21, pending.size());
+        manager.attach(resumed, second[0], pending);
+
+        StringBuilder received = new StringBuilder();
+        InputStream in = second[1].getInputStream();
+        byte[] buffer = new byte[64];
+        while (!received.toString().endsWith("after\n")) {
+            int n = in.read(buffer, 0, buffer.length);
+            assertTrue(n > 0);
+            received.append(new String(buffer, 0, n, StandardCharsets.UTF_8));
+        }
+        String[] lines = received.toString().split("\n");
+        // 断线时正在写出的一批排在队列剩余消息之前，按原顺序重发，断线期间写入的排在最后
+        assertEquals(21, lines.length);
+        for (int i = 0; i < 20; i++) {
+            assertEquals(String.format("burst-%02d", i), lines[i]);
+        }
+        assertEquals("after", lines[20]);
+        assertEquals(1, metrics.snapshot().histograms.get("reconnect.downtime_ms").count);
+        manager.disconnectAll();
+    }
+
+    @Test
+    public void failedStartup_restoresPendingAndRetries() throws Exception {
+        create(new ReconnectPolicy().initialDelayMillis(1).jitter(0).maxAttempts(3));
+        reconnector.onLinkLost(ADDRESS, Arrays.asList(text("a"), text("b")));
+        assertEquals(Integer.valueOf(1), attempts.poll(1, TimeUnit.SECONDS));
+
+        List<byte[]> taken = reconnector.takePending(ADDRESS);
+        assertEquals(2, taken.size());
+        assertTrue("链路启动期间仍在重连中，写入照常保留", reconnector.enqueue(ADDRESS, text("c")));
+        reconnector.restorePending(ADDRESS, taken);
+        reconnector.onConnectFailed(ADDRESS);
+        assertEquals(Integer.valueOf(2), attempts.poll(1, TimeUnit.SECONDS));
+
+        List<byte[]> pending = reconnector.onConnected(ADDRESS);
+        assertEquals(3, pending.size());
+        assertEquals("a", new String(pending.get(0), StandardCharsets.UTF_8));
+        assertEquals("b", new String(pending.get(1), StandardCharsets.UTF_8));
+        assertEquals("c", new String(pending.get(2), StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,235 @@
+package com.adan.bluetoothtest;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+public class ScanSchedulerTest {
+
+    /**
+     * 手动推进的时钟：advance() 按到期顺序执行任务。
+     */
+    private static final class ManualTimer implements ScanScheduler.Timer {
+        private static final class Task {
+            final Runnable runnable;
+            final long due;
+
+            Task(Runnable runnable, long due) {
+                this.runnable = runnable;
+                this.due = due;
+            }
+        }
+
+        long now;
+        final List<Task> tasks = new ArrayList<>();
+
+        @Override
+        public long uptimeMillis() {
+            return now;
+        }
+
+        @Override
+        public void schedule(Runnable task, long delayMillis) {
+            tasks.add(new Task(task, now + delayMillis));
+        }
+
+        @Override
+        public void cancel(Runnable task) {
+            tasks.removeIf(t -> t.runnable == task);
+        }
+
+        void advance(long millis) {
+            long target = now + millis;
+            while (true) {
+                Task next = null;
+                for (Task t : tasks) {
+                    if (t.due <= target && (next == null || t.due < next.due)) {
+                        next = t;
+                    }
+                }
+                if (next == null) {
+                    break;
+                }
+                tasks.remove(next);
+                now = next.due;
+                next.runnable.run();
+            }
+            now = target;
+        }
+    }
+
+    /**
+     * 模拟适配器：取消时和系统一样发出 DISCOVERY_FINISHED。
+     */
+    private final class FakeRadio implements ScanSource {
+        final boolean selfTerminating;
+        boolean discovering;
+        int starts;
+        boolean refuse;
+
+        FakeRadio(boolean selfTerminating) {
+            this.selfTerminating = selfTerminating;
+        }
+
+        @Override
+        public boolean start() {
+            if (refuse) {
+                return false;
+            }
+            starts++;
+            discovering = true;
+            if (selfTerminating) {
+                scheduler.onDiscoveryStarted();
+            }
+            return true;
+        }
+
+        @Override
+        public void stop() {
+            if (discovering) {
+                discovering = false;
+                if (selfTerminating) {
+                    scheduler.onDiscoveryFinished();
+                }
+            }
+        }
+
+        @Override
+        public boolean isSelfTerminating() {
+            return selfTerminating;
+        }
+
+        void inquiryEnds() {
+            discovering = false;
+            scheduler.onDiscoveryFinished();
+        }
+    }
+
+    private final ManualTimer timer = new ManualTimer();
+    private final FakeRadio radio = new FakeRadio(true);
+    private final MetricsRegistry metrics = new MetricsRegistry();
+    private final List<ScanScheduler.StopReason> stops = new ArrayList<>();
+    private ScanScheduler scheduler;
+
+    @Before
+    public void setUp() {
+        scheduler = new ScanScheduler(timer, (reason, devices, duration) -> stops.add(reason), metrics);
+    }
+
+    @Test
+    public void singleScan_completesWithInquiry() {
+        scheduler.start(radio, new ScanScheduler.Options());
+        assertTrue(radio.discovering);
+        timer.advance(12_000);
+        radio.inquiryEnds();
+        assertEquals(Collections.singletonList(ScanScheduler.StopReason.COMPLETED), stops);
+        assertFalse(scheduler.isActive());
+        assertEquals(12_000, metrics.snapshot().counter("discovery.airtime_ms"));
+    }
+
+    @Test
+    public void targetAddressOrName_stopsEarly() {
+        scheduler.start(radio, new ScanScheduler.Options().targetAddresses(Collections.singletonList(42L)));
+        scheduler.onDeviceFound(1, "other");
+        assertTrue(scheduler.isScanning());
+        timer.advance(1500);
+        scheduler.onDeviceFound(42, null);
+        assertFalse(radio.discovering);
+        assertEquals(Collections.singletonList(ScanScheduler.StopReason.TARGET_FOUND), stops);
+        assertEquals(1500, metrics.snapshot().counter("discovery.airtime_ms"));
+
+        scheduler.start(radio, new ScanScheduler.Options().targetNamePattern(Pattern.compile("^HC-0[56]")));
+        scheduler.onDeviceFound(7, "HC-05 sensor");
+        assertEquals(ScanScheduler.StopReason.TARGET_FOUND, stops.get(1));
+    }
+
+    @Test
+    public void noNewDevices_stopsAfterIdleTimeout() {
+        scheduler.start(radio, new ScanScheduler.Options().idleTimeoutMillis(3000));
+        timer.advance(2000);
+        assertTrue(scheduler.onDeviceFound(1, "a"));
+        timer.advance(2000);
+        assertFalse("重复发现不重置计时", scheduler.onDeviceFound(1, "a"));
+        timer.advance(999);
+        assertTrue(scheduler.isScanning());
+        timer.advance(1);
+        assertFalse(radio.discovering);
+        assertEquals(Collections.singletonList(ScanScheduler.StopReason.IDLE), stops);
+        assertEquals(1, metrics.snapshot().counter("discovery.stopped.idle"));
+    }
+
+    @Test
+    public void continuousScan_alternatesWindows() {
+        scheduler.start(radio, new ScanScheduler.Options().continuous(5000, 20_000));
+        timer.advance(5000);
+        assertFalse("开窗口结束后停止", radio.discovering);
+        assertTrue(scheduler.isActive());
+        timer.advance(20_000);
+        assertTrue(radio.discovering);
+        assertEquals(2, radio.starts);
+        // inquiry 提前结束时在开窗口内继续
+        timer.advance(1000);
+        radio.inquiryEnds();
+        assertTrue(radio.discovering);
+        assertEquals(3, radio.starts);
+        assertTrue(stops.isEmpty());
+
+        scheduler.stop();
+        assertEquals(Collections.singletonList(ScanScheduler.StopReason.STOPPED), stops);
+        timer.advance(100_000);
+        assertEquals(3, radio.starts);
+        assertEquals(5000 + 1000, metrics.snapshot().counter("discovery.airtime_ms"));
+    }
+
+    @Test
+    public void connecting_pausesAndResumesScan() {
+        scheduler.start(radio, new ScanScheduler.Options());
+        scheduler.pauseForConnect();
+        scheduler.pauseForConnect();
+        assertFalse(radio.discovering);
+        assertTrue("暂停不结束会话", stops.isEmpty());
+        scheduler.resumeAfterConnect();
+        assertFalse(radio.discovering);
+        scheduler.resumeAfterConnect();
+        assertTrue(radio.discovering);
+        assertEquals(2, radio.starts);
+
+        radio.inquiryEnds();
+        assertEquals(Collections.singletonList(ScanScheduler.StopReason.COMPLETED), stops);
+        // 没有扫描时连接不触发扫描
+        scheduler.pauseForConnect();
+        scheduler.resumeAfterConnect();
+        assertEquals(2, radio.starts);
+    }
+
+    @Test
+    public void bleSource_endsAfterOnWindowInSingleMode() {
+        FakeRadio ble = new FakeRadio(false);
+        scheduler.start(ble, new ScanScheduler.Options().continuous(8000, 1000).single());
+        timer.advance(7999);
+        assertTrue(ble.discovering);
+        timer.advance(1);
+        assertFalse(ble.discovering);
+        assertEquals(Collections.singletonList(ScanScheduler.StopReason.COMPLETED), stops);
+
+        // 经典扫描随后的结束广播不受 BLE 停止的影响
+        scheduler.start(radio, new ScanScheduler.Options());
+        radio.inquiryEnds();
+        assertEquals(ScanScheduler.StopReason.COMPLETED, stops.get(1));
+    }
+
+    @Test
+    public void refusedStart_reportsFailure() {
+        radio.refuse = true;
+        scheduler.start(radio, new ScanScheduler.Options().idleTimeoutMillis(1000));
+        assertEquals(Collections.singletonList(ScanScheduler.StopReason.FAILED), stops);
+        assertFalse(scheduler.isActive());
+        assertTrue(timer.tasks.isEmpty());
+    }
+}
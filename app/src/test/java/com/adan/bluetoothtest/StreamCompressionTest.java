@@ -0,0 +1,321 @@
+package com.adan.bluetoothtest;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class StreamCompressionTest {
+
+    private static final String DEVICE = "AA:BB:CC:DD:EE:23";
+
+    private final MetricsRegistry metrics = new MetricsRegistry();
+
+    private static String telemetry(int i) {
+        return String.format(Locale.ROOT, "{\"seq\":%d,\"temperature\":%.2f,\"humidity\":%.1f,\"status\":\"ok\"}\n",
+                i, 20 + (i % 50) / 10.0, 40 + (i % 7) * 1.5);
+    }
+
+    /**
+     * 两端同时协商，本机发起、对端接受，返回 [本机, 对端]。
+     */
+    private Connection[] negotiatePair(StreamCompression.Options local, StreamCompression.Options remote)
+            throws Exception {
+        Connection[] pair = new PipeTransport().pair(DEVICE);
+        CompletableFuture<Connection> peer = CompletableFuture.supplyAsync(() -> {
+            try {
+                return StreamCompression.negotiate(pair[1], StreamCompression.Role.ACCEPTOR, true, remote,
+                        new MetricsRegistry(), "peer.");
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+        });
+        Connection mine = StreamCompression.negotiate(pair[0], StreamCompression.Role.DIALER, true, local, metrics,
+                "link.");
+        return new Connection[]{mine, peer.get(5, TimeUnit.SECONDS)};
+    }
+
+    private static String readExactly(InputStream in, int length) throws IOException {
+        byte[] data = new byte[length];
+        int read = 0;
+        while (read < length) {
+            int n = in.read(data, read, length - read);
+            if (n < 0) {
+                throw new IOException("unexpected end of stream");
+            }
+            read += n;
+        }
+        return new String(data, StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void bothEnabled_compressesTelemetryBothWays() throws Exception {
+        StreamCompression.Options options = new StreamCompression.Options().enabled(true);
+        Connection[] pair = negotiatePair(options, options);
+        StreamCompression.CompressedConnection mine = (StreamCompression.CompressedConnection) pair[0];
+        assertTrue(mine.isCompressed());
+
+        StringBuilder expected = new StringBuilder();
+        OutputStream out = mine.getOutputStream();
+        for (int i = 0; i < 500; i++) {
+            byte[] line = telemetry(i).getBytes(StandardCharsets.UTF_8);
+            expected.append(telemetry(i));
+            out.write(line);
+            out.flush();
+        }
+        int length = expected.toString().getBytes(StandardCharsets.UTF_8).length;
+        assertEquals(expected.toString(), readExactly(pair[1].getInputStream(), length));
+
+        pair[1].getOutputStream().write("ack\n".getBytes(StandardCharsets.UTF_8));
+        pair[1].getOutputStream().flush();
+        assertEquals("ack\n", readExactly(mine.getInputStream(), 4));
+
+        StreamCompression.Stats stats = mine.getStats();
+        assertEquals(length, stats.rawOutBytes);
+        assertTrue("遥测文本应明显压缩: " + stats, stats.outRatio() > 2);
+        assertEquals(4, stats.rawInBytes);
+        assertTrue(stats.deflateMillisPerMegabyte() > 0);
+        assertEquals(stats.wireOutBytes, metrics.snapshot().counter("link.deflate_out_bytes"));
+        pair[0].close();
+        pair[1].close();
+    }
+
+    @Test
+    public void smallMessage_isFlushedImmediatelyByDefault() throws Exception {
+        StreamCompression.Options options = new StreamCompression.Options().enabled(true);
+        Connection[] pair = negotiatePair(options, options);
+        LinkedBlockingQueue<String> received = new LinkedBlockingQueue<>();
+        Thread reader = new Thread(() -> {
+            try {
+                received.add(readExactly(pair[1].getInputStream(), 3));
+            } catch (IOException ignored) {
+                // 连接关闭
+            }
+        });
+        reader.start();
+        pair[0].getOutputStream().write("hi\n".getBytes(StandardCharsets.UTF_8));
+        pair[0].getOutputStream().flush();
+        assertEquals("hi\n", received.poll(2, TimeUnit.SECONDS));
+        pair[0].close();
+        pair[1].close();
+    }
+
+    @Test
+    public void flushDelay_coalescesSmallWritesButStillDelivers() throws Exception {
+        long[] wireBytes = new long[2];
+        long[] delays = {0, 200};
+        for (int round = 0; round < delays.length; round++) {
+            MetricsRegistry roundMetrics = new MetricsRegistry();
+            StreamCompression.Options options = new StreamCompression.Options().enabled(true)
+                    .maxFlushDelayMillis(delays[round]);
+            Connection[] pair = new PipeTransport().pair(DEVICE);
+            CompletableFuture<Connection> peer = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return StreamCompression.negotiate(pair[1], StreamCompression.Role.ACCEPTOR, true, options,
+                            new MetricsRegistry(), "peer.");
+                } catch (IOException e) {
+                    throw new AssertionError(e);
+                }
+            });
+            Connection mine = StreamCompression.negotiate(pair[0], StreamCompression.Role.DIALER, true, options,
+                    roundMetrics, "link.");
+            Connection remote = peer.get(5, TimeUnit.SECONDS);
+
+            StringBuilder expected = new StringBuilder();
+            OutputStream out = mine.getOutputStream();
+            for (int i = 0; i < 50; i++) {
+                expected.append(telemetry(i));
+                out.write(telemetry(i).getBytes(StandardCharsets.UTF_8));
+                out.flush();
+            }
+            // 推迟的同步输出到期后数据必须送达，不会一直滞留在 Deflater 里
+            int length = expected.toString().getBytes(StandardCharsets.UTF_8).length;
+            assertEquals(expected.toString(), readExactly(remote.getInputStream(), length));
+            wireBytes[round] = roundMetrics.snapshot().counter("link.deflate_out_bytes");
+            mine.close();
+            remote.close();
+        }
+        assertTrue("推迟同步后链路字节更少: " + wireBytes[0] + " vs " + wireBytes[1], wireBytes[1] < wireBytes[0]);
+    }
+
+    @Test
+    public void peerWithoutCompression_fallsBackWithoutLosingData() throws Exception {
+        Connection[] pair = new PipeTransport().pair(DEVICE);
+        // 旧设备不握手，连上就发数据
+        pair[1].getOutputStream().write("legacy\n".getBytes(StandardCharsets.UTF_8));
+        Connection mine = StreamCompression.negotiate(pair[0], StreamCompression.Role.DIALER, true,
+                new StreamCompression.Options().enabled(true).negotiateTimeoutMillis(100), metrics, "link.");
+        assertFalse(((StreamCompression.CompressedConnection) mine).isCompressed());
+        assertNull(((StreamCompression.CompressedConnection) mine).getStats());
+        assertEquals("legacy\n", readExactly(mine.getInputStream(), 7));
+
+        mine.getOutputStream().write("raw\n".getBytes(StandardCharsets.UTF_8));
+        mine.getOutputStream().flush();
+        InputStream peerIn = pair[1].getInputStream();
+        assertEquals("对端先收到一次握手", new String(StreamCompression.hello(), StandardCharsets.UTF_8),
+                readExactly(peerIn, StreamCompression.HELLO_SIZE));
+        assertEquals("raw\n", readExactly(peerIn, 4));
+        mine.close();
+    }
+
+    @Test
+    public void silentDialer_acceptorFallsBackAfterTimeout() throws Exception {
+        Connection[] pair = new PipeTransport().pair(DEVICE);
+        long start = System.nanoTime();
+        Connection mine = StreamCompression.negotiate(pair[0], StreamCompression.Role.ACCEPTOR, true,
+                new StreamCompression.Options().enabled(true).negotiateTimeoutMillis(50), metrics, "link.");
+        assertFalse(((StreamCompression.CompressedConnection) mine).isCompressed());
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+        mine.close();
+    }
+
+    @Test
+    public void delayedAnswer_failsDialerInsteadOfFallingBackAlone() throws Exception {
+        StreamCompression.Options options = new StreamCompression.Options().enabled(true).negotiateTimeoutMillis(50);
+        // 对端在发起方超时之后才应答 ACCEPT：发起方不能退回原样收发，否则两端一个压缩一个不压缩
+        PipeTransport slow = new PipeTransport(new PipeTransport.Options().latencyMillis(100));
+        Connection[] pair = slow.pair(DEVICE);
+        CompletableFuture<Connection> peer = CompletableFuture.supplyAsync(() -> {
+            try {
+                return StreamCompression.negotiate(pair[1], StreamCompression.Role.ACCEPTOR, true,
+                        new StreamCompression.Options().enabled(true).negotiateTimeoutMillis(1000),
+                        new MetricsRegistry(), "peer.");
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+        });
+        try {
+            StreamCompression.negotiate(pair[0], StreamCompression.Role.DIALER, true, options, metrics, "link.");
+            fail("应答迟到时发起方应协商失败");
+        } catch (SocketTimeoutException expected) {
+            // 预期，调用方随之关闭连接
+        }
+        assertTrue("接受方已改用压缩", ((StreamCompression.CompressedConnection) peer.get(5, TimeUnit.SECONDS))
+                .isCompressed());
+        pair[0].close();
+        pair[1].close();
+    }
+
+    @Test
+    public void delayedOffer_leavesBothEndsUncompressed() throws Exception {
+        // 提议在接受方超时之后才到：接受方已按原样收发且不再应答，发起方随之超时失败，而不是单方面压缩
+        Connection[] pair = new PipeTransport().pair(DEVICE);
+        Connection acceptor = StreamCompression.negotiate(pair[1], StreamCompression.Role.ACCEPTOR, true,
+                new StreamCompression.Options().enabled(true).negotiateTimeoutMillis(20), new MetricsRegistry(),
+                "peer.");
+        assertFalse(((StreamCompression.CompressedConnection) acceptor).isCompressed());
+        try {
+            StreamCompression.negotiate(pair[0], StreamCompression.Role.DIALER, true,
+                    new StreamCompression.Options().enabled(true).negotiateTimeoutMillis(50), metrics, "link.");
+            fail("没有应答时发起方应协商失败");
+        } catch (SocketTimeoutException expected) {
+            // 预期
+        }
+        assertEquals("迟到的提议当作普通数据", new String(StreamCompression.hello(), StandardCharsets.UTF_8),
+                readExactly(acceptor.getInputStream(), StreamCompression.HELLO_SIZE));
+        pair[0].close();
+        pair[1].close();
+    }
+
+    @Test
+    public void acceptorWithCompressionOff_rejectsOfferWithoutTimeout() throws Exception {
+        StreamCompression.Options options = new StreamCompression.Options().enabled(true).negotiateTimeoutMillis(2000);
+        Connection[] pair = new PipeTransport().pair(DEVICE);
+        CompletableFuture<Connection> peer = CompletableFuture.supplyAsync(() -> {
+            try {
+                return StreamCompression.negotiate(pair[1], StreamCompression.Role.ACCEPTOR, false, options,
+                        new MetricsRegistry(), "peer.");
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+        });
+        long start = System.nanoTime();
+        Connection mine = StreamCompression.negotiate(pair[0], StreamCompression.Role.DIALER, true, options, metrics,
+                "link.");
+        assertTrue("应答 REJECT 而不是等到超时", System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(1000));
+        Connection remote = peer.get(5, TimeUnit.SECONDS);
+        assertFalse(((StreamCompression.CompressedConnection) mine).isCompressed());
+        assertFalse(((StreamCompression.CompressedConnection) remote).isCompressed());
+
+        // OFFER 与应答都已被协商读走，不会混进普通数据
+        mine.getOutputStream().write("raw\n".getBytes(StandardCharsets.UTF_8));
+        mine.getOutputStream().flush();
+        assertEquals("raw\n", readExactly(remote.getInputStream(), 4));
+        remote.getOutputStream().write("ok\n".getBytes(StandardCharsets.UTF_8));
+        remote.getOutputStream().flush();
+        assertEquals("ok\n", readExactly(mine.getInputStream(), 3));
+        pair[0].close();
+        pair[1].close();
+    }
+
+    @Test
+    public void versionMismatch_isRejectedByAcceptor() throws Exception {
+        Connection[] pair = new PipeTransport().pair(DEVICE);
+        byte[] offer = StreamCompression.hello();
+        offer[3] = (byte) (StreamCompression.VERSION + 1);
+        pair[1].getOutputStream().write(offer);
+        pair[1].getOutputStream().flush();
+        Connection acceptor = StreamCompression.negotiate(pair[0], StreamCompression.Role.ACCEPTOR, true,
+                new StreamCompression.Options().enabled(true), metrics, "link.");
+        assertFalse(((StreamCompression.CompressedConnection) acceptor).isCompressed());
+        byte[] answer = readExactly(pair[1].getInputStream(), StreamCompression.HELLO_SIZE)
+                .getBytes(StandardCharsets.ISO_8859_1);
+        assertEquals("BTZ", new String(answer, 0, 3, StandardCharsets.US_ASCII));
+        assertEquals("应答 REJECT", 2, answer[4]);
+        pair[0].close();
+        pair[1].close();
+    }
+
+    @Test
+    public void deviceLink_negotiatesWhenEnabledForThatLink() throws Exception {
+        LinkedBlockingQueue<String> messages = new LinkedBlockingQueue<>();
+        ConnectionManager manager = new ConnectionManager(new ConnectionManager.Config(2, new ReceiveBufferPool(),
+                RawFrameDecoder::new, new ConnectionWriter.Options(), metrics), new ConnectionManager.Listener() {
+            @Override
+            public void onStateChanged(DeviceLink link, LinkStateMachine.Snapshot snapshot) {
+            }
+
+            @Override
+            public void onMessage(DeviceLink link, String text) {
+                messages.add(text);
+            }
+
+            @Override
+            public void onLinkLost(DeviceLink link, IOException cause) {
+            }
+        });
+        DeviceLink link = manager.reserve(MacAddress.pack(DEVICE), null);
+        link.setCompressionEnabled(true);
+        Connection[] pair = new PipeTransport().pair(DEVICE);
+        StreamCompression.Options options = new StreamCompression.Options().enabled(true);
+        CompletableFuture<Connection> peer = CompletableFuture.supplyAsync(() -> {
+            try {
+                return StreamCompression.negotiate(pair[1], StreamCompression.Role.ACCEPTOR, true, options,
+                        new MetricsRegistry(), "peer.");
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+        });
+        manager.attach(link, pair[0]);
+        Connection remote = peer.get(5, TimeUnit.SECONDS);
+
+        remote.getOutputStream().write(telemetry(1).getBytes(StandardCharsets.UTF_8));
+        remote.getOutputStream().flush();
+        assertEquals(telemetry(1), messages.poll(2, TimeUnit.SECONDS));
+        assertTrue(link.send("ping\n".getBytes(StandardCharsets.UTF_8)));
+        assertEquals("ping\n", readExactly(remote.getInputStream(), 5));
+        assertNotNull(link.getCompressionStats());
+        assertTrue(metrics.snapshot().counter(link.getMetricsPrefix() + "inflate_out_bytes") > 0);
+        manager.disconnectAll();
+        remote.close();
+    }
+}
@@ -0,0 +1,192 @@
+package com.adan.bluetoothtest;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * 设备列表热点路径的基准测试，每项都有两个版本：
+ * <ul>
+ * <li>legacy_*：原 MainActivity 中 ArrayList&lt;String&gt; 的实现（{@link LegacyDeviceList}）；</li>
+ * <li>registry_*：现在 MainActivity 中对应方法所做的事，基于 DeviceRegistry / DeviceListDiff。</li>
+ * </ul>
+ * 十分之一的设备为已配对设备，其余为扫描发现的新设备。
+ */
+@State(Scope.Benchmark)
+public class DeviceListBenchmark {
+
+    @Param({"10", "100", "1000", "10000"})
+    public int size;
+
+    private String[] newAddresses;
+    private String[] newNames;
+    private List<LegacyDeviceList.Bonded> bonded;
+    private Map<String, String> names;
+
+    private LegacyDeviceList legacy;
+    private ArrayList<String> legacyNewSection;
+    private DeviceRegistry registry;
+    private long connectedAddress;
+    private List<DeviceRow> snapshot;
+
+    @Setup
+    public void setUp() {
+        int pairedCount = Math.max(1, size / 10);
+        int newCount = size - pairedCount;
+        bonded = new ArrayList<>(pairedCount);
+        names = new HashMap<>();
+        for (int i = 0; i < pairedCount; i++) {
+            bonded.add(new LegacyDeviceList.Bonded("paired-" + i, address(i)));
+        }
+        newAddresses = new String[newCount];
+        newNames = new String[newCount];
+        for (int i = 0; i < newCount; i++) {
+            newAddresses[i] = address(pairedCount + i);
+            newNames[i] = "sensor-" + i;
+            names.put(newAddresses[i], newNames[i]);
+        }
+
+        legacy = new LegacyDeviceList(bonded, names);
+        legacy.updatePairedDevices();
+        for (int i = 0; i < newCount; i++) {
+            legacy.onDeviceFound(newNames[i], newAddresses[i]);
+        }
+        legacy.connectedDeviceAddress = bonded.get(0).address;
+        legacyNewSection = legacy.newDevicesSection();
+
+        registry = new DeviceRegistry();
+        updatePaired(registry);
+        for (int i = 0; i < newCount; i++) {
+            registry.putDiscovered(MacAddress.pack(newAddresses[i]), newNames[i]);
+        }
+        connectedAddress = MacAddress.pack(bonded.get(0).address);
+        registry.setConnectionState(connectedAddress, ConnectionState.STATE_CONNECTED);
+        snapshot = registry.snapshot();
+    }
+
+    private static String address(int i) {
+        return String.format(Locale.ROOT, "00:11:22:%02X:%02X:%02X", (i >> 16) & 0xFF, (i >> 8) & 0xFF, i & 0xFF);
+    }
+
+    private void updatePaired(DeviceRegistry target) {
+        target.beginPairedUpdate();
+        for (int i = 0, n = bonded.size(); i < n; i++) {
+            LegacyDeviceList.Bonded device = bonded.get(i);
+            target.putPaired(MacAddress.pack(device.address), device.name, 12);
+        }
+        target.endPairedUpdate();
+    }
+
+    private String lastNewAddress() {
+        return newAddresses.length > 0 ? newAddresses[newAddresses.length - 1] : bonded.get(0).address;
+    }
+
+    private String lastNewName() {
+        return newNames.length > 0 ? newNames[newNames.length - 1] : bonded.get(0).name;
+    }
+
+    // ---- 扫描去重：重复收到列表末尾设备的 ACTION_FOUND ----
+
+    @Benchmark
+    public boolean legacy_discoveryDedup() {
+        return legacy.onDeviceFound(lastNewName(), lastNewAddress());
+    }
+
+    @Benchmark
+    public boolean registry_discoveryDedup() {
+        return registry.putDiscovered(MacAddress.pack(lastNewAddress()), lastNewName());
+    }
+
+    // ---- 完整扫描：从空列表开始依次发现所有新设备 ----
+
+    @Benchmark
+    public int legacy_discoveryPass() {
+        LegacyDeviceList list = new LegacyDeviceList(bonded, names);
+        list.updatePairedDevices();
+        for (int i = 0; i < newAddresses.length; i++) {
+            list.onDeviceFound(newNames[i], newAddresses[i]);
+        }
+        return list.discoveredDevicesList.size();
+    }
+
+    @Benchmark
+    public int registry_discoveryPass() {
+        DeviceRegistry fresh = new DeviceRegistry();
+        updatePaired(fresh);
+        for (int i = 0; i < newAddresses.length; i++) {
+            fresh.putDiscovered(MacAddress.pack(newAddresses[i]), newNames[i]);
+        }
+        return fresh.deviceCount();
+    }
+
+    // ---- refreshDeviceListWithStatus：重建已配对部分、刷新新设备名称、生成列表 ----
+
+    @Benchmark
+    public int legacy_refreshDeviceListWithStatus() {
+        legacy.refreshDeviceListWithStatus();
+        return legacy.discoveredDevicesList.size();
+    }
+
+    @Benchmark
+    public List<DeviceRow> registry_refreshDeviceListWithStatus() {
+        updatePaired(registry);
+        registry.clearConnectionStates();
+        registry.setConnectionState(connectedAddress, ConnectionState.STATE_CONNECTED);
+        refreshNewNames();
+        return registry.snapshot();
+    }
+
+    // ---- updateNewDevices：逐个查询新设备名称并重建新设备部分 ----
+
+    @Benchmark
+    public int legacy_updateNewDevices() {
+        legacy.updateNewDevices(legacyNewSection);
+        return legacy.discoveredDevicesList.size();
+    }
+
+    @Benchmark
+    public List<DeviceRow> registry_updateNewDevices() {
+        refreshNewNames();
+        return registry.snapshot();
+    }
+
+    private void refreshNewNames() {
+        registry.showNewSection();
+        List<DeviceRecord> records = registry.newDevices();
+        for (int i = 0, n = records.size(); i < n; i++) {
+            DeviceRecord record = records.get(i);
+            registry.updateName(record.getAddress(), names.get(record.getAddressString()));
+        }
+    }
+
+    // ---- countDevices：扫描结束时统计设备数量 ----
+
+    @Benchmark
+    public int legacy_countDevices() {
+        return legacy.countDevices();
+    }
+
+    @Benchmark
+    public int registry_countDevices() {
+        return registry.deviceCount();
+    }
+
+    // ---- 单个设备状态变化后交给列表的工作：原来整表 notifyDataSetChanged，现在差分出一行 ----
+
+    @Benchmark
+    public void registry_statusChangeDiff(Blackhole blackhole) {
+        registry.setConnectionState(connectedAddress, ConnectionState.STATE_NONE);
+        List<DeviceRow> changed = registry.snapshot();
+        blackhole.consume(DeviceListDiff.calculate(snapshot, changed));
+        registry.setConnectionState(connectedAddress, ConnectionState.STATE_CONNECTED);
+    }
+}
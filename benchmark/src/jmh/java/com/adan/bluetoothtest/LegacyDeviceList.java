@@ -0,0 +1,185 @@
+package com.adan.bluetoothtest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 原 MainActivity 中基于 ArrayList&lt;String&gt; 的设备列表逻辑，逐行抽取为纯 Java，作为基准测试的对照组。
+ * <p>
+ * 与原代码的区别只在于去掉了 Android 依赖：
+ * BluetoothAdapter.getBondedDevices() 换成 {@link #bonded}，
+ * getRemoteDevice(address).getName() 换成 {@link #names} 查表，notifyDataSetChanged() 省略。
+ */
+final class LegacyDeviceList {
+
+    /**
+     * 已配对设备，对应 BluetoothDevice 的名称和地址。
+     */
+    static final class Bonded {
+        final String name;
+        final String address;
+
+        Bonded(String name, String address) {
+            this.name = name;
+            this.address = address;
+        }
+    }
+
+    final ArrayList<String> discoveredDevicesList = new ArrayList<>();
+    final List<Bonded> bonded;
+    final Map<String, String> names;
+    String connectedDeviceAddress;
+
+    LegacyDeviceList(List<Bonded> bonded, Map<String, String> names) {
+        this.bonded = bonded;
+        this.names = names;
+    }
+
+    /**
+     * 对应 discoveryReceiver 中 ACTION_FOUND 的处理：endsWith 线性查找去重。
+     *
+     * @return 列表是否变化（原代码此时调用 notifyDataSetChanged）
+     */
+    boolean onDeviceFound(String deviceName, String deviceHardwareAddress) {
+        if (deviceName == null || deviceName.isEmpty()) {
+            deviceName = "未知设备";
+        }
+        String deviceInfo = deviceName + "\n" + deviceHardwareAddress;
+
+        boolean alreadyExists = false;
+        int existingIndex = -1;
+        for (int i = 0; i < discoveredDevicesList.size(); i++) {
+            if (discoveredDevicesList.get(i).endsWith(deviceHardwareAddress)) {
+                alreadyExists = true;
+                existingIndex = i;
+                break;
+            }
+        }
+
+        if (alreadyExists) {
+            if (!discoveredDevicesList.get(existingIndex).equals(deviceInfo)) {
+                discoveredDevicesList.set(existingIndex, deviceInfo);
+                return true;
+            }
+            return false;
+        }
+        int newDevicesHeaderIndex = discoveredDevicesList.indexOf("--- 新设备 ---");
+        if (newDevicesHeaderIndex == -1) {
+            discoveredDevicesList.add("--- 新设备 ---");
+            newDevicesHeaderIndex = discoveredDevicesList.size() - 1;
+        }
+        if (newDevicesHeaderIndex + 1 < discoveredDevicesList.size() &&
+                discoveredDevicesList.get(newDevicesHeaderIndex + 1).equals("未发现新设备")) {
+            discoveredDevicesList.remove(newDevicesHeaderIndex + 1);
+        }
+        discoveredDevicesList.add(deviceInfo);
+        return true;
+    }
+
+    void refreshDeviceListWithStatus() {
+        // 备份新设备部分
+        ArrayList<String> newDevices = new ArrayList<>();
+        boolean newDevicesSectionStarted = false;
+        for (String item : discoveredDevicesList) {
+            if (item.equals("--- 新设备 ---")) {
+                newDevicesSectionStarted = true;
+                newDevices.add(item);
+                continue;
+            }
+            if (newDevicesSectionStarted && !item.startsWith("---")) {
+                newDevices.add(item);
+            }
+        }
+
+        // 更新已配对设备部分
+        updatePairedDevices();
+
+        // 恢复新设备部分并更新状态
+        updateNewDevices(newDevices);
+    }
+
+    void updatePairedDevices() {
+        // 保留“新设备”部分
+        ArrayList<String> newDevicesSection = new ArrayList<>();
+        boolean newDevicesSectionStarted = false;
+        for (String item : discoveredDevicesList) {
+            if (item.equals("--- 新设备 ---")) {
+                newDevicesSectionStarted = true;
+                newDevicesSection.add(item);
+                continue;
+            }
+            if (newDevicesSectionStarted) {
+                newDevicesSection.add(item);
+            }
+        }
+
+        // 清空列表并重新添加已配对设备
+        discoveredDevicesList.clear();
+        discoveredDevicesList.add("--- 已配对设备 ---");
+
+        if (!bonded.isEmpty()) {
+            for (Bonded device : bonded) {
+                String deviceName = device.name;
+                String deviceHardwareAddress = device.address;
+                String status = (connectedDeviceAddress != null && connectedDeviceAddress.equals(deviceHardwareAddress)) ? " (已连接)" : " (未连接)";
+                String deviceInfo = (deviceName == null || deviceName.isEmpty() ? "未知设备" : deviceName) + status + "\n" + deviceHardwareAddress;
+                discoveredDevicesList.add(deviceInfo);
+            }
+        } else {
+            discoveredDevicesList.add("无已配对设备");
+        }
+
+        // 恢复“新设备”部分
+        if (!newDevicesSection.isEmpty()) {
+            discoveredDevicesList.addAll(newDevicesSection);
+        }
+    }
+
+    void updateNewDevices(ArrayList<String> newDevices) {
+        ArrayList<String> updatedNewDevices = new ArrayList<>();
+        updatedNewDevices.add("--- 新设备 ---");
+
+        for (String item : newDevices) {
+            if (item.equals("--- 新设备 ---") || item.equals("未发现新设备")) {
+                continue;
+            }
+            String address = item.substring(item.lastIndexOf("\n") + 1);
+            String name = names.get(address);
+            name = name == null || name.isEmpty() ? "未知设备" : name;
+            updatedNewDevices.add(name + "\n" + address);
+        }
+
+        if (updatedNewDevices.size() == 1) { // 只有标题，没有设备
+            updatedNewDevices.add("未发现新设备");
+        }
+
+        // 移除旧的“新设备”部分（如果存在），并添加更新后的部分
+        int newDevicesHeaderIndex = discoveredDevicesList.indexOf("--- 新设备 ---");
+        if (newDevicesHeaderIndex != -1) {
+            while (discoveredDevicesList.size() > newDevicesHeaderIndex) {
+                discoveredDevicesList.remove(newDevicesHeaderIndex);
+            }
+        }
+        discoveredDevicesList.addAll(updatedNewDevices);
+    }
+
+    /**
+     * 取出当前新设备部分，作为 updateNewDevices 的输入。
+     */
+    ArrayList<String> newDevicesSection() {
+        int header = discoveredDevicesList.indexOf("--- 新设备 ---");
+        return header < 0 ? new ArrayList<>()
+                : new ArrayList<>(discoveredDevicesList.subList(header, discoveredDevicesList.size()));
+    }
+
+    int countDevices() {
+        int count = 0;
+        for (String item : discoveredDevicesList) {
+            if (!item.startsWith("---") && !item.equals("无已配对设备") && !item.equals("未发现新设备")) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,115 @@
+package com.adan.bluetoothtest;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 二进制消息编解码的 ops/s：一条遥测消息（序号、时间戳、温度、湿度、状态字符串）
+ * 用 {@link BinaryMessageWriter} 写入复用的缓冲区，再用 {@link BinaryMessageReader} 就地读出所有字段。
+ * <p>
+ * legacy_* 是原来的文本做法：拼接字符串后 getBytes，接收端 new String 后切分、解析数字。
+ * gc 分析器的 gc.alloc.rate.norm 应显示二进制编解码每次操作 0 字节。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class MessageCodecBenchmark {
+
+    private static final int TYPE_TELEMETRY = 7;
+
+    @Param({"heap", "direct"})
+    public String bufferKind;
+
+    @Param({"ok", "湿度传感器离线"})
+    public String status;
+
+    private final BinaryMessageWriter writer = new BinaryMessageWriter();
+    private final BinaryMessageReader reader = new BinaryMessageReader();
+    private final StringBuilder statusOut = new StringBuilder(64);
+    private ByteBuffer encodeBuffer;
+    private ByteBuffer encoded;
+    private byte[] encodedText;
+    private long seq;
+
+    @Setup
+    public void setUp() {
+        encodeBuffer = allocate(128);
+        encoded = allocate(128);
+        writer.begin(encoded, TYPE_TELEMETRY).putVarint(123_456).putLong(1_700_000_000_000L)
+                .putFloat(21.5f).putFloat(48.5f).putString(status).end();
+        encoded.flip();
+        encodedText = legacyText(123_456, 1_700_000_000_000L, 21.5f, 48.5f, status).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private ByteBuffer allocate(int capacity) {
+        return "direct".equals(bufferKind) ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+
+    private static String legacyText(long seq, long timestamp, float temperature, float humidity, String status) {
+        return seq + "," + timestamp + "," + temperature + "," + humidity + "," + status + "\n";
+    }
+
+    @Benchmark
+    public int encode() {
+        seq++;
+        encodeBuffer.clear();
+        return writer.begin(encodeBuffer, TYPE_TELEMETRY).putVarint(seq).putLong(1_700_000_000_000L + seq)
+                .putFloat(21.5f).putFloat(48.5f).putString(status).end();
+    }
+
+    @Benchmark
+    public void decode(Blackhole blackhole) {
+        encoded.position(BinaryMessageWriter.LENGTH_FIELD_SIZE);
+        reader.wrap(encoded);
+        blackhole.consume(reader.type());
+        blackhole.consume(reader.getVarint());
+        blackhole.consume(reader.getLong());
+        blackhole.consume(reader.getFloat());
+        blackhole.consume(reader.getFloat());
+        statusOut.setLength(0);
+        reader.getString(statusOut);
+        blackhole.consume(statusOut.length());
+    }
+
+    /**
+     * 只比较状态字段而不解码，例如按状态过滤消息。
+     */
+    @Benchmark
+    public boolean decodeCompareInPlace() {
+        encoded.position(BinaryMessageWriter.LENGTH_FIELD_SIZE);
+        reader.wrap(encoded);
+        reader.getVarint();
+        reader.getLong();
+        reader.getFloat();
+        reader.getFloat();
+        return reader.stringEquals(status);
+    }
+
+    @Benchmark
+    public byte[] legacy_encodeText() {
+        seq++;
+        return legacyText(seq, 1_700_000_000_000L + seq, 21.5f, 48.5f, status).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public void legacy_decodeText(Blackhole blackhole) {
+        String text = new String(encodedText, StandardCharsets.UTF_8);
+        String[] fields = text.substring(0, text.length() - 1).split(",");
+        blackhole.consume(Long.parseLong(fields[0]));
+        blackhole.consume(Long.parseLong(fields[1]));
+        blackhole.consume(Float.parseFloat(fields[2]));
+        blackhole.consume(Float.parseFloat(fields[3]));
+        blackhole.consume(fields[4]);
+    }
+}
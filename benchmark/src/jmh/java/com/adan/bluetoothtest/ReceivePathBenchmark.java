@@ -0,0 +1,146 @@
+package com.adan.bluetoothtest;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 接收路径吞吐：从流中读一块、分帧、解码成文本。
+ * <p>
+ * 输入是循环回放的换行分隔消息，available() 恒为 0，每次读取都使用 readSize 大小的缓冲，
+ * 1024 即 ConnectedThread 原来的缓冲大小。辅助计数器 bytes / messages 给出 B/s 与消息/s，
+ * 配合 -prof gc（已在 build.gradle 中默认开启）得到每次读取的分配量。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ReceivePathBenchmark {
+
+    @Param({"16", "128", "1024", "4096"})
+    public int payloadSize;
+
+    @Param({"256", "1024", "4096"})
+    public int readSize;
+
+    /**
+     * 每秒收到的字节数与消息数。
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counters {
+        public long bytes;
+        public long messages;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytes = 0;
+            messages = 0;
+        }
+    }
+
+    /**
+     * 循环回放同一段数据的输入流，模拟对端持续发送。
+     */
+    static final class ReplayInputStream extends InputStream {
+        private final byte[] data;
+        private int position;
+
+        ReplayInputStream(byte[] data) {
+            this.data = data;
+        }
+
+        @Override
+        public int read() {
+            int b = data[position] & 0xFF;
+            position = (position + 1) % data.length;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            int n = Math.min(len, data.length - position);
+            System.arraycopy(data, position, b, off, n);
+            position = (position + n) % data.length;
+            return n;
+        }
+    }
+
+    private ReplayInputStream in;
+    private ReceiveLoop loop;
+    private FramingReceiver receiver;
+    private long delivered;
+    private Blackhole sink;
+    private byte[] legacyBuffer;
+
+    @Setup
+    public void setUp(Blackhole blackhole) {
+        sink = blackhole;
+        in = new ReplayInputStream(messageStream(payloadSize, 64 * 1024));
+        loop = new ReceiveLoop(new ReceiveBufferPool(), readSize);
+        receiver = new FramingReceiver(new DelimiterFrameDecoder(), new IncrementalTextDecoder(), text -> {
+            sink.consume(text);
+            delivered++;
+        });
+        legacyBuffer = new byte[readSize];
+    }
+
+    /**
+     * 由 payloadSize 字节的消息（最后一个字节为换行）拼成的至少 minLength 字节的数据。
+     */
+    static byte[] messageStream(int payloadSize, int minLength) {
+        byte[] message = payload(payloadSize);
+        int count = Math.max(1, (minLength + payloadSize - 1) / payloadSize);
+        byte[] data = new byte[count * payloadSize];
+        for (int i = 0; i < count; i++) {
+            System.arraycopy(message, 0, data, i * payloadSize, payloadSize);
+        }
+        return data;
+    }
+
+    /**
+     * 一条 size 字节、以换行结尾的 ASCII 消息。
+     */
+    static byte[] payload(int size) {
+        byte[] message = new byte[size];
+        for (int i = 0; i < size - 1; i++) {
+            message[i] = (byte) ('a' + i % 26);
+        }
+        message[size - 1] = '\n';
+        return message;
+    }
+
+    @Benchmark
+    public void readFrameDecode(Counters counters) throws IOException {
+        ReceiveBuffer buffer = loop.readOnce(in);
+        counters.bytes += buffer.length();
+        receiver.onReceive(buffer);
+        counters.messages += delivered;
+        delivered = 0;
+    }
+
+    /**
+     * 原 ConnectedThread 的做法：固定缓冲读取后 clone 交给 Handler，界面线程再 new String。
+     * 不分帧，每块数据算作一条消息。
+     */
+    @Benchmark
+    public void legacy_readCloneDecode(Counters counters) throws IOException {
+        int numBytes = in.read(legacyBuffer, 0, legacyBuffer.length);
+        byte[] copy = legacyBuffer.clone();
+        sink.consume(new String(copy, 0, numBytes, StandardCharsets.UTF_8));
+        counters.bytes += numBytes;
+        counters.messages++;
+    }
+}
@@ -0,0 +1,119 @@
+package com.adan.bluetoothtest;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 发送路径吞吐：调用方把消息交给 ConnectionWriter，由发送线程合并写入输出流。
+ * <p>
+ * 输出流只统计字节数，不做其他工作，测到的是队列与合并本身的开销。
+ * 队列满时 BLOCK，吞吐即为发送线程实际写出的速度。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class SendPathBenchmark {
+
+    @Param({"16", "128", "1024", "4096"})
+    public int payloadSize;
+
+    @Param({"IMMEDIATE", "BATCHED"})
+    public ConnectionWriter.FlushPolicy flushPolicy;
+
+    /**
+     * 每秒交出的字节数与消息数，以及每秒实际的写调用次数。
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counters {
+        public long bytes;
+        public long messages;
+        public long socketWrites;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytes = 0;
+            messages = 0;
+            socketWrites = 0;
+        }
+    }
+
+    /**
+     * 只计数的输出流，代替套接字。
+     */
+    static final class CountingOutputStream extends OutputStream {
+        volatile long bytes;
+        volatile long writes;
+
+        @Override
+        public void write(int b) {
+            bytes++;
+            writes++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            bytes += len;
+            writes++;
+        }
+    }
+
+    private byte[] payload;
+    private CountingOutputStream out;
+    private ConnectionWriter writer;
+    private long lastSocketWrites;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        payload = ReceivePathBenchmark.payload(payloadSize);
+        out = new CountingOutputStream();
+        writer = new ConnectionWriter(out, new ConnectionWriter.Options()
+                .flushPolicy(flushPolicy)
+                .overflowPolicy(ConnectionWriter.OverflowPolicy.BLOCK)
+                .lingerMillis(1), "benchmark", e -> {
+            throw new IllegalStateException(e);
+        });
+        writer.start();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        writer.close();
+        writer.awaitTermination(1000);
+    }
+
+    @Benchmark
+    public boolean writerSend(Counters counters) {
+        boolean queued = writer.send(payload);
+        counters.bytes += payload.length;
+        counters.messages++;
+        long writes = out.writes;
+        counters.socketWrites += writes - lastSocketWrites;
+        lastSocketWrites = writes;
+        return queued;
+    }
+
+    /**
+     * 原 ConnectedThread.write 的做法：在调用线程上直接写输出流。
+     */
+    @Benchmark
+    public void legacy_directWrite(Counters counters) throws IOException {
+        out.write(payload, 0, payload.length);
+        counters.bytes += payload.length;
+        counters.messages++;
+        counters.socketWrites++;
+    }
+}
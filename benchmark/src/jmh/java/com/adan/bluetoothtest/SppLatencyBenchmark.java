@@ -0,0 +1,89 @@
+package com.adan.bluetoothtest;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 单条消息的端到端延迟：send() 入队，到对端读取线程分帧解码出这条消息为止。
+ * <p>
+ * 两端通过不限带宽、无附加延迟的 PipeTransport 相连，测到的是发送线程、管道交接、
+ * 读取线程和分帧解码的开销。SampleTime 模式在结果中给出 p50 / p90 / p99 / p99.9。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SppLatencyBenchmark {
+
+    private static final long TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    @Param({"16", "128", "1024", "4096"})
+    public int payloadSize;
+
+    @Param({"IMMEDIATE", "BATCHED"})
+    public ConnectionWriter.FlushPolicy flushPolicy;
+
+    private byte[] payload;
+    private Connection[] ends;
+    private ConnectionWriter writer;
+    private ReceiveLoop loop;
+    private Thread reader;
+    private final AtomicLong received = new AtomicLong();
+    private long sent;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        payload = ReceivePathBenchmark.payload(payloadSize);
+        ends = new PipeTransport().pair("00:11:22:33:44:55");
+        writer = new ConnectionWriter(ends[0].getOutputStream(), new ConnectionWriter.Options()
+                .flushPolicy(flushPolicy), "latency", e -> { });
+        loop = new ReceiveLoop(new ReceiveBufferPool());
+        FramingReceiver receiver = new FramingReceiver(new DelimiterFrameDecoder(), new IncrementalTextDecoder(),
+                text -> received.incrementAndGet());
+        reader = new Thread(() -> {
+            try {
+                loop.run(ends[1].getInputStream(), receiver);
+            } catch (IOException ignored) {
+                // 基准结束时关闭连接
+            }
+        }, "latency-reader");
+        writer.start();
+        reader.start();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        loop.stop();
+        writer.close();
+        ends[0].close();
+        ends[1].close();
+        reader.join(1000);
+    }
+
+    @Benchmark
+    public long sendAndReceive() {
+        long expected = ++sent;
+        if (!writer.send(payload)) {
+            throw new IllegalStateException("发送队列已满");
+        }
+        long deadline = System.nanoTime() + TIMEOUT_NANOS;
+        while (received.get() < expected) {
+            if (System.nanoTime() > deadline) {
+                throw new IllegalStateException("等待第 " + expected + " 条消息超时");
+            }
+            Thread.onSpinWait();
+        }
+        return expected;
+    }
+}